@@ -79,6 +79,7 @@ public interface Constants {
     public static final String ALL_PAIRS = "ALL_PAIRS";
     public static final String ONE_VERSUS_ALL = "OVA";
     public static final String ONE_VERSUS_ALL_ONLY_FORWARD = "FOVA";
+    public static final String ALL_PHENOTYPES = "ALL_PHENOTYPES";
 
     public static final String REST = "REST";
 
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.alg;
+
+import edu.mit.broad.genome.math.Vector;
+import edu.mit.broad.genome.objects.Template;
+
+/**
+ * A Template as the profile positions of its classes, worked out once so that
+ * many rows can be split / synched without touching the Template again.
+ * <p/>
+ * Positions within a class are in class item order (as in Template.splitByTemplateClass)
+ * and the synch positions are in item order (as in Template.synchProfile).
+ *
+ * @author Aravind Subramanian
+ * @see PrimitiveMetric
+ */
+public class ClassIndices {
+
+    private final Template fTemplate;
+
+    private final int[][] fClassPositions;
+
+    private final int[] fSynchPositions;
+
+    // template.toVector() -- only made if a metric asks for it as that needs numeric items
+    private volatile float[] fTemplateValues;
+
+    /**
+     * Class constructor
+     *
+     * @param template can be null for the metrics that dont need one
+     */
+    public ClassIndices(final Template template) {
+        this.fTemplate = template;
+
+        if (template == null) {
+            this.fClassPositions = new int[0][];
+            this.fSynchPositions = new int[0];
+            return;
+        }
+
+        this.fClassPositions = new int[template.getNumClasses()][];
+        for (int c = 0; c < fClassPositions.length; c++) {
+            final Template.Class cl = template.getClass(c); // @note IMP simply get the class NOT get the class by first profile pos
+            fClassPositions[c] = new int[cl.getSize()];
+            for (int p = 0; p < fClassPositions[c].length; p++) {
+                fClassPositions[c][p] = cl.getItem(p).getProfilePosition();
+            }
+        }
+
+        // @note synch a vector of the positions themselves -- so the item order is exactly that of synchProfile
+        // (positions need not be 0 to n-1)
+        int maxPos = -1;
+        final int[] poss = template.getProfilePositionsOrdered();
+        for (int i = 0; i < poss.length; i++) {
+            maxPos = Math.max(maxPos, poss[i]);
+        }
+
+        final Vector posv = new Vector(maxPos + 1);
+        for (int i = 0; i < posv.getSize(); i++) {
+            posv.setElement(i, i);
+        }
+
+        final Vector synched = template.synchProfile(posv);
+        this.fSynchPositions = new int[synched.getSize()];
+        for (int i = 0; i < fSynchPositions.length; i++) {
+            fSynchPositions[i] = (int) synched.getElement(i);
+        }
+    }
+
+    public Template getTemplate() {
+        return fTemplate;
+    }
+
+    public int getNumClasses() {
+        return fClassPositions.length;
+    }
+
+    public int[] getClassPositions(final int classIndex) {
+        return fClassPositions[classIndex];
+    }
+
+    /**
+     * @return positions of the class of interest -- the x of the 2 class metrics
+     */
+    public int[] getClassOfInterestPositions() {
+        checkBiphasic();
+        return fClassPositions[fTemplate.getClassOfInterestIndex() == 0 ? 0 : 1];
+    }
+
+    /**
+     * @return positions of the other class -- the y of the 2 class metrics
+     */
+    public int[] getOtherClassPositions() {
+        checkBiphasic();
+        return fClassPositions[fTemplate.getClassOfInterestIndex() == 0 ? 1 : 0];
+    }
+
+    /**
+     * Same check (and message) as in VectorSplitter
+     */
+    public void checkBiphasic() {
+        checkTemplate();
+
+        if (fClassPositions.length != 2) {
+            StringBuffer buf = new StringBuffer("Template is not biphasic. Name: " + fTemplate.getName() + " # splits= " + fClassPositions.length);
+            buf.append("\n<br>This metric can only be used with 2 class comparisons");
+            throw new RuntimeException(buf.toString());
+        }
+    }
+
+    public void checkTemplate() {
+        if (fTemplate == null) {
+            throw new IllegalArgumentException("Template is required for this metric but was null");
+        }
+    }
+
+    /**
+     * @return profile position of every template item, in item order
+     */
+    public int[] getSynchPositions() {
+        checkTemplate();
+        return fSynchPositions;
+    }
+
+    /**
+     * @return the template items as numbers (template.toVector()), in item order
+     */
+    public float[] getTemplateValues() {
+        checkTemplate();
+
+        float[] vals = fTemplateValues;
+        if (vals == null) {
+            final Vector tv = fTemplate.toVector();
+            vals = new float[tv.getSize()];
+            for (int i = 0; i < vals.length; i++) {
+                vals[i] = tv.getElement(i);
+            }
+            this.fTemplateValues = vals;
+        }
+
+        return vals;
+    }
+
+} // End class ClassIndices
@@ -19,6 +19,7 @@ import edu.mit.broad.genome.NamingConventions;
 import edu.mit.broad.genome.alg.distrib.RangeFactory;
 import edu.mit.broad.genome.math.ColorSchemes.ColorScheme;
 import edu.mit.broad.genome.math.Matrix;
+import edu.mit.broad.genome.math.MatrixStorage;
 import edu.mit.broad.genome.math.Order;
 import edu.mit.broad.genome.math.Range;
 import edu.mit.broad.genome.math.SortMode;
@@ -136,7 +137,9 @@ public class DatasetGenerators {
         // CollapseStruc object identifies the collection of probes in the original dataset that
         // were found to map to the symbol.
 
-        Matrix m = new Matrix(symbolStrucMap.size(), origDs.getNumCol());
+        final Matrix origMatrix = origDs.getMatrix();
+        Matrix m = new Matrix(symbolStrucMap.size(), origDs.getNumCol(),
+                MatrixStorage.getDefault((long) symbolStrucMap.size() * origDs.getNumCol(), origMatrix));
         List rowNames = new ArrayList();
         List<String> rowDescs = new ArrayList<String>();
         Iterator it = symbolStrucMap.keySet().iterator();
@@ -151,7 +154,7 @@ public class DatasetGenerators {
             if (pss.length == 1) {
                 String ps = pss[0];
                 //System.out.println("checking for: " + ps);
-                m.setRow(row, origDs.getRow(ps));
+                m.setRow(row, origMatrix, origDs.getRowIndex(ps)); // @note as kept: no copy on the way, no coding again
             } else {
                 // multiple probes mapped to this symbol
                 Vector[] vss = origDs.getRows(new GeneSet("foo", "foo", pss));
@@ -315,9 +318,10 @@ public class DatasetGenerators {
         return extract(fullDs, template, true);
     }
 
-    public static synchronized DatasetTemplate extract(final Dataset fullDs,
-                                                       final Template origT,
-                                                       final boolean verbose) {
+    // @note not synchronized -- only reads its params, so the contrasts of a run can be extracted side by side
+    public static DatasetTemplate extract(final Dataset fullDs,
+                                          final Template origT,
+                                          final boolean verbose) {
         return TemplateFactory.extract(fullDs, origT, verbose);
     }
 
@@ -4,7 +4,9 @@
 package edu.mit.broad.genome.alg;
 
 import edu.mit.broad.genome.math.*;
+import edu.mit.broad.genome.math.Vector;
 import edu.mit.broad.genome.objects.*;
+import org.apache.commons.lang3.BooleanUtils;
 
 import java.util.*;
 
@@ -14,6 +16,9 @@ import java.util.*;
  */
 public class DatasetMetrics {
 
+    // @note score blocks of templates as one (genes x templates) block where the metric has such a form (see MetricBlock)
+    private static final boolean METRIC_BLOCK = BooleanUtils.toBoolean(System.getProperty("METRIC_BLOCK", "true"));
+
     /**
      * Class Constructor.
      */
@@ -54,20 +59,144 @@ public class DatasetMetrics {
             throw new IllegalArgumentException("Param order cannot be null");
         }
         
+        final PrimitiveMetric pmetric = metric.configure(metricParams);
+        if (pmetric != null) {
+            final double[][] scores = _scoreRows(pmetric, null, metricParams, ds, new Template[]{template});
+            return _toScoredDataset(scores[0], sort, order, lvp, ds);
+        }
+
         final int rows = ds.getNumRow();
-        final DoubleElement[] sorted = new DoubleElement[rows];
-                
+        final double[] scores = new double[rows];
+
         for (int i = 0; i < rows; i++) {
-            double dist = metric.getScore(ds.getRow(i), template, metricParams);
-            final DoubleElement del = new DoubleElement(i, dist);
-            sorted[i] = del;
+            scores[i] = metric.getScore(ds.getRow(i), template, metricParams);
         }
-        
-        Arrays.parallelSort(sorted, new DoubleElement.DoubleElementComparator(sort, order.isAscending()));
-        List<DoubleElement> dels = Arrays.asList(sorted);
-        
+
+        return _toScoredDataset(scores, sort, order, lvp, ds);
+    }
+
+    /**
+     * Score AND sort/order a Dataset for each of many templates (for instance a block of permutations).
+     * <p/>
+     * Metrics with a primitive form are scored for all the templates in one pass over the Dataset. Those with a
+     * block form (the mean based 2 class metrics) are scored as one (genes x templates) block -- the same scores
+     * as calling scoreDataset for each template to about 1e-14 relative, not bit for bit. The others are exactly
+     * those of scoreDataset.
+     *
+     * @see PrimitiveMetric
+     * @see MetricBlock
+     */
+    public ScoredDataset[] scoreDataset(final Metric metric,
+                                        final SortMode sort,
+                                        final Order order,
+                                        final Map metricParams,
+                                        final LabelledVectorProcessor lvp,
+                                        final Dataset ds,
+                                        final Template[] templates) {
+
+        if (ds == null) {
+            throw new IllegalArgumentException("Param ds cannot be null");
+        }
+
+        if (templates == null) {
+            throw new IllegalArgumentException("Param templates cannot be null");
+        }
+
+        if (sort == null) {
+            throw new IllegalArgumentException("Param sort cannot be null");
+        }
+
+        if (order == null) {
+            throw new IllegalArgumentException("Param order cannot be null");
+        }
+
+        final ScoredDataset[] sdss = new ScoredDataset[templates.length];
+
+        final PrimitiveMetric pmetric = metric.configure(metricParams);
+        if (pmetric == null) {
+            for (int t = 0; t < templates.length; t++) {
+                sdss[t] = scoreDataset(metric, sort, order, metricParams, lvp, ds, templates[t]);
+            }
+            return sdss;
+        }
+
+        final double[][] scores = _scoreRows(pmetric, METRIC_BLOCK ? metric : null, metricParams, ds, templates);
+        for (int t = 0; t < templates.length; t++) {
+            sdss[t] = _toScoredDataset(scores[t], sort, order, lvp, ds);
+        }
+
+        return sdss;
+    }
+
+    /**
+     * Every row is read once (no Vector per row) and scored against every template -- the metric params are read once,
+     * the templates are made into class indices once and the scratch is reused throughout.
+     *
+     * @param blockMetric_opt if not null, scored as a MetricBlock where this metric (and the templates) allow
+     * @return scores[t][row]
+     */
+    private static double[][] _scoreRows(final PrimitiveMetric pmetric,
+                                         final Metric blockMetric_opt,
+                                         final Map metricParams,
+                                         final Dataset ds,
+                                         final Template[] templates) {
+
+        final int numRows = ds.getNumRow();
+        final int numCols = ds.getNumCol();
+        final double[][] scores = new double[templates.length][numRows];
+
+        final ClassIndices[] clss = new ClassIndices[templates.length];
+        for (int t = 0; t < templates.length; t++) {
+            clss[t] = new ClassIndices(templates[t]);
+        }
+
+        final MetricBlock block = blockMetric_opt != null ? MetricBlock.create(blockMetric_opt, metricParams, clss, numCols) : null;
+
+        final MetricScratch scratch = new MetricScratch(numCols);
+        final float[] row = new float[numCols];
+        final Matrix matrix = ds.getMatrix();
+
+        for (int r = 0; r < numRows; r++) {
+            matrix.getRow(r, row); // @note straight from the storage of the matrix into the reused row
+
+            if (block != null && block.scoreRow(row, scores, r)) {
+                continue;
+            }
+
+            for (int t = 0; t < templates.length; t++) {
+                scores[t][r] = pmetric.getScore(row, clss[t], scratch);
+            }
+        }
+
+        return scores;
+    }
+
+    // @note ranks with a primitive index sort: the scores and row order are held as a float[] and int[]
+    // so O(1) objects per ranking (the DoubleElements are only made if the lvp needs them)
+    private static ScoredDataset _toScoredDataset(final double[] scores,
+                                                  final SortMode sort,
+                                                  final Order order,
+                                                  final LabelledVectorProcessor lvp,
+                                                  final Dataset ds) {
+
+        final int[] rowOrder = IndexSorter.sort(scores, sort, order);
+
+        if (lvp instanceof LabelledVectorProcessors.None) {
+            final float[] sortedScores = new float[rowOrder.length];
+            for (int i = 0; i < rowOrder.length; i++) {
+                sortedScores[i] = (float) scores[rowOrder[i]];
+            }
+
+            return new ScoredDatasetImpl(new AddressedVector(new Vector(sortedScores, true), rowOrder, true), ds);
+        }
+
+        final List<DoubleElement> dels = new ArrayList<DoubleElement>(rowOrder.length);
+        for (int i = 0; i < rowOrder.length; i++) {
+            dels.add(new DoubleElement(rowOrder[i], scores[rowOrder[i]]));
+        }
+
         lvp.process(dels); // @note
-        
+
         return new ScoredDatasetImpl(new AddressedVector(dels), ds);
     }
 }    // End DatasetMetrics
@@ -29,18 +29,32 @@ public class GeneSetGenerators {
                                                           final RankedList rl,
                                                           final GeneSet gset,
                                                           final RandomSeedGenerator rst) {
+        return createRandomGeneSetsFixedSize(0, numRndGeneSets, rl, gset, rst);
+    }
+
+    /**
+     * The rnd gene sets from (inclusive) to to (exclusive) of createRandomGeneSetsFixedSize(to, rl, gset, rst)
+     * -- so that more rnd sets can be made later without remaking the first ones
+     */
+    public static GeneSet[] createRandomGeneSetsFixedSize(final int from,
+                                                          final int to,
+                                                          final RankedList rl,
+                                                          final GeneSet gset,
+                                                          final RandomSeedGenerator rst) {
 
         String prefix = NamingConventions.removeExtension(gset);
 
         // Qualify as all members may not be in the dataset
         int nmembers = gset.getNumMembers(rl);
 
-        GeneSet[] rndgsets = new GeneSet[numRndGeneSets];
+        GeneSet[] rndgsets = new GeneSet[to - from];
 
-        for (int g = 0; g < numRndGeneSets; g++) {
+        for (int g = from; g < to; g++) {
 
             // IMP random from 0 to nrows not nmembers. duh!.
-            int[] randomrowindices = XMath.randomlySampleWithoutReplacement(nmembers, rl.getSize(), rst);
+            // @note each random set has its own stream split off by its index so that the sets
+            // are the same whatever order (or thread) they are made in
+            int[] randomrowindices = XMath.randomlySampleWithoutReplacement(nmembers, rl.getSize(), rst.split(g));
 
             if (randomrowindices.length != nmembers) {
                 throw new IllegalStateException("random indices generated: " + randomrowindices.length + " not equal to # members: " + nmembers);
@@ -56,7 +70,7 @@ public class GeneSetGenerators {
                 klog.warn("Bad randomization -- repeated rnd members were made members: " + members.size() + " but wanted: " + nmembers);
             }
 
-            rndgsets[g] = new GeneSet(prefix + "_" + g, members);
+            rndgsets[g - from] = new GeneSet(prefix + "_" + g, members);
         }
 
         return rndgsets;
@@ -33,6 +33,18 @@ public interface Metric {
      */
     public double getScore(Vector profile, Template template, Map params);
 
+    /**
+     * The same metric with its params read once, for scoring many rows as primitives
+     * (float[] row against precomputed class indices, with reusable scratch space).
+     *
+     * @param params as for getScore
+     * @return null if this metric has no primitive form (the default) -- then rows are scored with getScore
+     * @see PrimitiveMetric
+     */
+    public default PrimitiveMetric configure(Map params) {
+        return null;
+    }
+
     public boolean isCategorical();
 
     public boolean isContinuous();
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.alg;
+
+import edu.mit.broad.genome.math.XMath;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Scores a block of B 2 class templates against the rows of a dataset as a (genes x B) block of scores.
+ * <p/>
+ * The class sums of all B templates are the product of the row with a (samples x B) 0/1 class indicator
+ * matrix: the sum of the values and the sum of their squares about the row mean. The product is taken over the
+ * non zeros only (the positions of the smaller class of each template) and the other class is the row total
+ * minus them. So a row costs, per template, 2 adds per sample of the smaller class -- rather than a gather and
+ * a few passes over both classes as in Metric.getScore.
+ * <p/>
+ * Only the mean based forms of Signal2Noise, tTest, Diff_of_Classes, Ratio_of_Classes and log2_Ratio_of_Classes.
+ * The sums are in another order than those of Vector, so the scores agree with Metric.getScore to about
+ * 1e-14 relative but not bit for bit -- fine for permutations, not for the real ranked list. Rows with a NaN or
+ * infinite value are left to the caller.
+ * <p/>
+ * Not thread safe -- one per worker thread.
+ *
+ * @author Aravind Subramanian
+ * @see DatasetMetrics
+ */
+class MetricBlock {
+
+    private static final int S2N = 0;
+    private static final int TTEST = 1;
+    private static final int DIFF = 2;
+    private static final int RATIO = 3;
+    private static final int LOG2_RATIO = 4;
+
+    private final int fKind;
+
+    private final boolean fBiased;
+
+    private final boolean fFixLow;
+
+    private final int fNumCols;
+
+    private final int fNumTemplates;
+
+    // per template: the non zeros of its column of the class indicator matrix, or of its complement if fewer
+    private final int[][] fPositions;
+
+    private final boolean[] fPositionsAreCoi;
+
+    private final int[] fNumCoi;
+
+    private final int[] fNumOther;
+
+    // per row scratch: the squares about the row mean
+    private final double[] fSquares;
+
+    /**
+     * @param metric
+     * @param params
+     * @param clss    the templates
+     * @param numCols
+     * @return a block for these templates or null if the metric (with these params) or a template has no block form
+     */
+    static MetricBlock create(final Metric metric, final Map params, final ClassIndices[] clss, final int numCols) {
+        // @note exact classes only, subclasses might score differently
+        final Class cl = metric.getClass();
+        final int kind;
+        if (cl == Metrics.Signal2Noise.class && !AlgMap.isMedian(params)) {
+            kind = S2N;
+        } else if (cl == Metrics.tTest.class && !AlgMap.isMedian(params)) {
+            kind = TTEST;
+        } else if (cl == Metrics.ClassDiff.class && AlgMap.isMean(params)) {
+            kind = DIFF;
+        } else if (cl == Metrics.ClassRatio.class && AlgMap.isMean(params)) {
+            kind = RATIO;
+        } else if (cl == Metrics.ClassLog2Ratio.class && AlgMap.isMean(params)) {
+            kind = LOG2_RATIO;
+        } else {
+            return null;
+        }
+
+        // every template: 2 non empty classes that together are the whole row, once
+        for (int t = 0; t < clss.length; t++) {
+            if (clss[t].getTemplate() == null || clss[t].getNumClasses() != 2) {
+                return null;
+            }
+
+            final int[] coi = clss[t].getClassOfInterestPositions();
+            final int[] other = clss[t].getOtherClassPositions();
+            if (coi.length == 0 || other.length == 0 || coi.length + other.length != numCols) {
+                return null;
+            }
+
+            final boolean[] seen = new boolean[numCols];
+            for (int i = 0; i < coi.length + other.length; i++) {
+                final int pos = i < coi.length ? coi[i] : other[i - coi.length];
+                if (pos < 0 || pos >= numCols || seen[pos]) {
+                    return null;
+                }
+                seen[pos] = true;
+            }
+        }
+
+        return new MetricBlock(kind, AlgMap.isBiased(params), AlgMap.isFixLowVar(params), clss, numCols);
+    }
+
+    private MetricBlock(final int kind,
+                        final boolean biased,
+                        final boolean fixlow,
+                        final ClassIndices[] clss,
+                        final int numCols) {
+        this.fKind = kind;
+        this.fBiased = biased;
+        this.fFixLow = fixlow;
+        this.fNumCols = numCols;
+        this.fNumTemplates = clss.length;
+        this.fPositions = new int[fNumTemplates][];
+        this.fPositionsAreCoi = new boolean[fNumTemplates];
+        this.fNumCoi = new int[fNumTemplates];
+        this.fNumOther = new int[fNumTemplates];
+
+        for (int t = 0; t < fNumTemplates; t++) {
+            final int[] coi = clss[t].getClassOfInterestPositions();
+            final int[] other = clss[t].getOtherClassPositions();
+            fPositionsAreCoi[t] = coi.length <= other.length;
+            fPositions[t] = (fPositionsAreCoi[t] ? coi : other).clone();
+            Arrays.sort(fPositions[t]); // @note in row order, for the cache
+            fNumCoi[t] = coi.length;
+            fNumOther[t] = other.length;
+        }
+
+        this.fSquares = new double[numCols];
+    }
+
+    /**
+     * @param row
+     * @param scores   scores[t][rowIndex] is set for every template t
+     * @param rowIndex
+     * @return false (and no scores set) if the row has a NaN or infinite value
+     */
+    boolean scoreRow(final float[] row, final double[][] scores, final int rowIndex) {
+        double total = 0;
+        for (int s = 0; s < fNumCols; s++) {
+            if (Float.isNaN(row[s]) || Float.isInfinite(row[s])) {
+                return false;
+            }
+            total += row[s];
+        }
+
+        // @note the squares are about the row mean so that the variances dont come from a difference of big sums
+        final double pivot = total / fNumCols;
+        double totalSquares = 0;
+        for (int s = 0; s < fNumCols; s++) {
+            final double d = row[s] - pivot;
+            fSquares[s] = d * d;
+            totalSquares += fSquares[s];
+        }
+
+        for (int t = 0; t < fNumTemplates; t++) {
+            // the product of the row (and its squares) with column t of the class indicator matrix
+            final int[] positions = fPositions[t];
+            double sum = 0;
+            double squares = 0;
+            for (int i = 0; i < positions.length; i++) {
+                sum += row[positions[i]];
+                squares += fSquares[positions[i]];
+            }
+
+            final double sumx = fPositionsAreCoi[t] ? sum : total - sum;
+            final double squaresx = fPositionsAreCoi[t] ? squares : totalSquares - squares;
+
+            final int nx = fNumCoi[t];
+            final int ny = fNumOther[t];
+            final double meanx = sumx / nx;
+            final double meany = (total - sumx) / ny;
+
+            switch (fKind) {
+                case S2N:
+                    scores[t][rowIndex] = (meanx - meany)
+                            / (_stddev(_squaredDev(squaresx, nx, meanx - pivot), nx, meanx)
+                            + _stddev(_squaredDev(totalSquares - squaresx, ny, meany - pivot), ny, meany));
+                    break;
+                case TTEST:
+                    final double varx = _var(_squaredDev(squaresx, nx, meanx - pivot), nx, meanx);
+                    final double vary = _var(_squaredDev(totalSquares - squaresx, ny, meany - pivot), ny, meany);
+                    final double denr;
+                    if (fBiased) {
+                        denr = Math.sqrt((varx / (nx - 1)) + (vary / (ny - 1)));
+                    } else {
+                        denr = Math.sqrt((varx / nx) + (vary / ny));
+                    }
+                    scores[t][rowIndex] = (meanx - meany) / denr;
+                    break;
+                case DIFF:
+                    scores[t][rowIndex] = meanx - meany;
+                    break;
+                case RATIO:
+                    scores[t][rowIndex] = meanx / meany;
+                    break;
+                default:
+                    scores[t][rowIndex] = XMath.log2(meanx / meany);
+            }
+        }
+
+        return true;
+    }
+
+    // the sum of squared deviations from the class mean, from those about the pivot
+    private static double _squaredDev(final double squaresAboutPivot, final int n, final double meanMinusPivot) {
+        return Math.max(0, squaresAboutPivot - n * meanMinusPivot * meanMinusPivot);
+    }
+
+    // as MetricScratch.ClassValues.var
+    private double _var(final double squaredDev, final int n, final double mean) {
+        if (fFixLow) {
+            final double stddev = _stddev(squaredDev, n, mean);
+            return stddev * stddev;
+        } else {
+            return _unfixedVar(squaredDev, n);
+        }
+    }
+
+    // as MetricScratch.ClassValues._var
+    private double _unfixedVar(final double squaredDev, final int n) {
+        final int len = fBiased ? n : n - 1;
+        if (len <= 0) {
+            return 0;
+        }
+        return squaredDev / len;
+    }
+
+    // as MetricScratch.ClassValues.stddev
+    private double _stddev(final double squaredDev, final int n, final double mean) {
+        double stddev = Math.sqrt(_unfixedVar(squaredDev, n));
+
+        if (fFixLow) {
+            double minallowed = (0.20 * Math.abs(mean));
+
+            // In the case of a zero mean, assume the mean is 1
+            if (minallowed == 0) {
+                minallowed = 0.20;
+            }
+
+            if (!(minallowed < stddev)) {
+                stddev = minallowed;
+            }
+        }
+
+        return stddev;
+    }
+
+} // End class MetricBlock
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.alg;
+
+import edu.mit.broad.genome.math.XMath;
+
+import java.util.Arrays;
+
+/**
+ * Reusable scratch space for scoring rows with a PrimitiveMetric.
+ * <p/>
+ * Not thread safe -- one per worker thread. Sized on first use and only grows.
+ *
+ * @author Aravind Subramanian
+ * @see PrimitiveMetric
+ */
+public class MetricScratch {
+
+    private final ClassValues fX;
+
+    private final ClassValues fY;
+
+    private final ClassValues fZ;
+
+    // shared by the medians
+    private float[] fSortScratch;
+
+    /**
+     * Class constructor
+     *
+     * @param size expected (max) number of values in a row
+     */
+    public MetricScratch(final int size) {
+        this.fSortScratch = new float[Math.max(size, 0)];
+        this.fX = new ClassValues(size);
+        this.fY = new ClassValues(size);
+        this.fZ = new ClassValues(size);
+    }
+
+    /**
+     * @return values of the class of interest (or of the synched profile)
+     */
+    public ClassValues getX() {
+        return fX;
+    }
+
+    /**
+     * @return values of the other class (or of the template)
+     */
+    public ClassValues getY() {
+        return fY;
+    }
+
+    /**
+     * @return a 3rd set of values -- for instance each class in turn
+     */
+    public ClassValues getZ() {
+        return fZ;
+    }
+
+    private float[] _sortScratch(final int size) {
+        if (fSortScratch.length < size) {
+            this.fSortScratch = new float[size];
+        }
+        return fSortScratch;
+    }
+
+    /**
+     * The values of one split of a row.
+     * <p/>
+     * The stats are exactly those of Vector (same arithmetic, same order of the sums), including
+     * the state that Vector keeps in its ComputeSet: stddev uses the mean last computed (NaN if none)
+     * as Vector.stddev does. Each gather starts afresh, like a new Vector.
+     */
+    public class ClassValues {
+
+        private float[] fValues;
+
+        private int fSize;
+
+        // Vector.computeset.mean
+        private double fLastMean;
+
+        ClassValues(final int size) {
+            this.fValues = new float[Math.max(size, 0)];
+            this.fLastMean = Float.NaN;
+        }
+
+        /**
+         * @param row
+         * @param positions positions in the row to take the values from
+         * @param skipNaNs  if true the nans are left out (as in Vector.toVectorNaNless)
+         * @return number of values gathered
+         */
+        public int gather(final float[] row, final int[] positions, final boolean skipNaNs) {
+            _reset(positions.length);
+
+            for (int i = 0; i < positions.length; i++) {
+                final float val = row[positions[i]];
+                if (skipNaNs && Float.isNaN(val)) {
+                    continue;
+                }
+                fValues[fSize++] = val;
+            }
+
+            return fSize;
+        }
+
+        /**
+         * @param row all of it is taken
+         * @return number of values gathered
+         */
+        public int gather(final float[] row) {
+            return gather(row, row.length);
+        }
+
+        /**
+         * @param vals the first num are taken as is
+         * @param num
+         * @return num
+         */
+        public int gather(final float[] vals, final int num) {
+            _reset(num);
+            System.arraycopy(vals, 0, fValues, 0, num);
+            this.fSize = num;
+            return fSize;
+        }
+
+        private void _reset(final int capacity) {
+            if (fValues.length < capacity) {
+                this.fValues = new float[capacity];
+            }
+            this.fSize = 0;
+            this.fLastMean = Float.NaN;
+        }
+
+        public int getSize() {
+            return fSize;
+        }
+
+        public float getElement(final int i) {
+            return fValues[i];
+        }
+
+        /**
+         * @return the backing array -- only the first getSize() are valid
+         */
+        public float[] getValues() {
+            return fValues;
+        }
+
+        // same as Vector.sum()
+        public double sum() {
+            double sum = 0;
+            for (int i = 0; i < fSize; i++) {
+                sum += fValues[i];
+            }
+            return sum;
+        }
+
+        // same as Vector.squaresum()
+        public double squaresum() {
+            double squaresum = 0;
+            for (int i = 0; i < fSize; i++) {
+                squaresum += fValues[i] * fValues[i];
+            }
+            return squaresum;
+        }
+
+        // same as Vector.sumprod(y)
+        public double sumprod(final float[] y, final int ySize) {
+            if (fSize != ySize) {
+                throw new RuntimeException("Unequal vector sizes x: " + fSize + " y: " + ySize);
+            }
+
+            double prodsum = 0;
+            for (int i = 0; i < fSize; i++) {
+                prodsum += fValues[i] * y[i];
+            }
+            return prodsum;
+        }
+
+        // same as Vector.mean()
+        public double mean() {
+            this.fLastMean = sum() / fSize;
+            return fLastMean;
+        }
+
+        // same as Vector.meanOrMedian()
+        public double meanOrMedian(final boolean useMean) {
+            if (useMean) {
+                return mean();
+            } else {
+                return median();
+            }
+        }
+
+        // same as Vector.median()
+        public double median() {
+            if (fSize == 0) {
+                return Float.NaN;
+            }
+
+            final float[] v1 = _sortScratch(fSize);
+            System.arraycopy(fValues, 0, v1, 0, fSize);
+            Arrays.sort(v1, 0, fSize);
+
+            final int ind = (fSize - 1) / 2;
+
+            if (XMath.isEven(fSize)) {
+                return (v1[ind] + v1[fSize / 2]) / 2;
+            } else {
+                return v1[ind];
+            }
+        }
+
+        // same as Vector.var(biased, fixlow)
+        public double var(final boolean biased, final boolean fixlow) {
+            if (fixlow) {
+                final double stddev = stddev(biased, fixlow);
+                return stddev * stddev;
+            } else {
+                return _var(biased);
+            }
+        }
+
+        // same as Vector._var(biased)
+        private double _var(final boolean biased) {
+            double oldvar = 0.0;
+            int len = fSize;
+
+            if (!biased) {
+                len--;
+            }
+
+            // Variance of 1 point is 0 -- and the mean is NOT (re)computed
+            if (len <= 0) {
+                return oldvar;
+            }
+
+            final double mean = mean();
+
+            for (int i = 0; i < fSize; i++) {
+                double tmp = fValues[i] - mean;
+                oldvar += tmp * tmp;
+            }
+
+            return oldvar / len;
+        }
+
+        // same as Vector.stddev(biased, fixlow)
+        public double stddev(final boolean biased, final boolean fixlow) {
+            double stddev = Math.sqrt(_var(biased));    // @note call to _var and not var
+            final double mean = fLastMean;
+
+            if (fixlow) {
+                double minallowed = (0.20 * Math.abs(mean));
+
+                // In the case of a zero mean, assume the mean is 1
+                if (minallowed == 0) {
+                    minallowed = 0.20;
+                }
+
+                if (minallowed < stddev) {
+                    // keep orig
+                } else {
+                    stddev = minallowed;
+                }
+            }
+
+            return stddev;
+        }
+
+        // same as Vector.vard(biased, fixlow)
+        public double vard(final boolean biased, final boolean fixlow) {
+            return this.stddev(biased, fixlow) / this.mean();
+        }
+
+    } // End inner class ClassValues
+
+} // End class MetricScratch
@@ -133,6 +133,58 @@ public class Metrics {
         }
     }
 
+    /**
+     * Base for the primitive forms of the metrics below
+     */
+    protected static abstract class AbstractPrimitiveMetric implements PrimitiveMetric {
+
+        private final String fName;
+
+        protected AbstractPrimitiveMetric(final String name) {
+            this.fName = name;
+        }
+
+        public String getName() {
+            return fName;
+        }
+
+        public String toString() {
+            return fName;
+        }
+    }
+
+    // @note the primitive equivalents of the VectorSplitter (min of 1 nan-less point) and Template splits
+
+    // same as splitBiphasic_nansafe: false (i.e null split) if either class has no nan-less values
+    private static boolean _splitBiphasic_nansafe(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+        final int nx = scratch.getX().gather(row, cls.getClassOfInterestPositions(), true);
+        final int ny = scratch.getY().gather(row, cls.getOtherClassPositions(), true);
+        return nx >= 1 && ny >= 1;
+    }
+
+    // same as splitBiphasic: nans are kept
+    private static void _splitBiphasic(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+        scratch.getX().gather(row, cls.getClassOfInterestPositions(), false);
+        scratch.getY().gather(row, cls.getOtherClassPositions(), false);
+    }
+
+    // same as template.synchProfile(profile)
+    private static MetricScratch.ClassValues _synch(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+        final MetricScratch.ClassValues x = scratch.getX();
+        x.gather(row, cls.getSynchPositions(), false);
+        return x;
+    }
+
+    private static IllegalArgumentException _tooFewNaNlessPoints(final ClassIndices cls) {
+        return new IllegalArgumentException("Too few good (non-NaN) data points in a class of template: " + cls.getTemplate().getName());
+    }
+
+    private static Vector _toVector(final MetricScratch.ClassValues vals) {
+        final float[] copy = new float[vals.getSize()];
+        System.arraycopy(vals.getValues(), 0, copy, 0, copy.length);
+        return new Vector(copy, true);
+    }
+
     /**
      * Euclidean.
      */
@@ -158,6 +210,25 @@ public class Metrics {
             return XMath.euclidean(template.synchProfile(profile), template.toVector());
         }
 
+        public PrimitiveMetric configure(final Map params) {
+            return new AbstractPrimitiveMetric(NAME) {
+                public double getScore(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+                    final MetricScratch.ClassValues x = _synch(row, cls, scratch);
+                    final float[] y = cls.getTemplateValues();
+
+                    float sum = 0;
+
+                    for (int i = 0; i < x.getSize(); i++) {
+                        float diff = x.getElement(i) - y[i];
+
+                        sum += diff * diff;
+                    }
+
+                    return Math.sqrt(sum);
+                }
+            };
+        }
+
         public String getName() {
             return NAME;
         }
@@ -190,6 +261,23 @@ public class Metrics {
             return XMath.manhatten(template.synchProfile(profile), template.toVector());
         }
 
+        public PrimitiveMetric configure(final Map params) {
+            return new AbstractPrimitiveMetric(NAME) {
+                public double getScore(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+                    final MetricScratch.ClassValues x = _synch(row, cls, scratch);
+                    final float[] y = cls.getTemplateValues();
+
+                    double sum = 0.0;
+
+                    for (int i = 0; i < x.getSize(); i++) {
+                        sum += Math.abs(x.getElement(i) - y[i]);
+                    }
+
+                    return sum;
+                }
+            };
+        }
+
         public String getName() {
             return NAME;
         }
@@ -223,6 +311,31 @@ public class Metrics {
             return XMath.pearson(v, template.toVector());
         }
 
+        public PrimitiveMetric configure(final Map params) {
+            return new AbstractPrimitiveMetric(NAME) {
+                public double getScore(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+                    final MetricScratch.ClassValues x = _synch(row, cls, scratch);
+                    final MetricScratch.ClassValues y = scratch.getY();
+                    y.gather(cls.getTemplateValues());
+
+                    double N = (double) x.getSize();
+
+                    if (N == 0 || N == 1) {
+                        return Float.NaN;
+                    }
+
+                    // same as XMath.pearson
+                    double numr = x.sumprod(y.getValues(), y.getSize()) - ((x.sum() * y.sum()) / N);
+                    double denr = ((x.squaresum() - ((x.sum() * x.sum()) / N)))
+                            * ((y.squaresum() - ((y.sum() * y.sum()) / N)));
+
+                    denr = Math.sqrt(denr);
+
+                    return numr / denr;
+                }
+            };
+        }
+
         public String getName() {
             return NAME;
         }
@@ -252,6 +365,29 @@ public class Metrics {
             return XMath.cosine(template.synchProfile(profile), template.toVector());
         }
 
+        public PrimitiveMetric configure(final Map params) {
+            return new AbstractPrimitiveMetric(NAME) {
+                public double getScore(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+                    final MetricScratch.ClassValues xv = _synch(row, cls, scratch);
+                    final float[] x = xv.getValues();
+                    final float[] y = cls.getTemplateValues();
+
+                    // same as XMath.cosine
+                    double mag_x = 0.0;
+                    double mag_y = 0.0;
+                    double sump = 0.0;
+
+                    for (int i = 0; i < xv.getSize(); i++) {
+                        mag_x += x[i] * x[i];
+                        mag_y += y[i] * y[i];
+                        sump += x[i] * y[i];
+                    }
+
+                    return 1.0d - (sump / Math.sqrt(mag_x * mag_y));
+                }
+            };
+        }
+
         public String getName() {
             return NAME;
         }
@@ -285,6 +421,18 @@ public class Metrics {
             return profile.var(usebiased, fixlow);
         }
 
+        public PrimitiveMetric configure(final Map params) {
+            final boolean usebiased = AlgMap.isBiased(params);
+            final boolean fixlow = AlgMap.isFixLowVar(params);
+            return new AbstractPrimitiveMetric(NAME) {
+                public double getScore(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+                    final MetricScratch.ClassValues x = scratch.getX();
+                    x.gather(row);
+                    return x.var(usebiased, fixlow);
+                }
+            };
+        }
+
         public String getName() {
             return NAME;
         }
@@ -321,6 +469,18 @@ public class Metrics {
             return profile.vard(usebiased, fixlow);
         }
 
+        public PrimitiveMetric configure(final Map params) {
+            final boolean usebiased = AlgMap.isBiased(params);
+            final boolean fixlow = AlgMap.isFixLowVar(params);
+            return new AbstractPrimitiveMetric(NAME) {
+                public double getScore(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+                    final MetricScratch.ClassValues x = scratch.getX();
+                    x.gather(row);
+                    return x.vard(usebiased, fixlow);
+                }
+            };
+        }
+
         public String getName() {
             return NAME;
         }
@@ -342,24 +502,6 @@ public class Metrics {
             super(CATEGORICAL);
         }
 
-        // TODO: build specialized compute lambda 
-        // This shows some promise for performance improvement but needs to be
-        // better verified and then pushed across all applicable metrics.
-        // We're not ready to do that.
-//        boolean usebiased;
-//        boolean fixlow;
-//        boolean usemedian;
-//        
-//        BiFunction<Vector, Vector, Double> s2n = null;
-//        
-//        public void config(Map params) {
-//            usebiased = AlgMap.isBiased(params);
-//            fixlow = AlgMap.isFixLowVar(params);
-//            usemedian = AlgMap.isMedian(params);
-            
-//            s2n = XMath.getS2n(usebiased, usemedian, fixlow);
-//        }
-        
         /**
          * params:
          * USE_BIASED -> true or false (Boolean objects). Default is FALSE.
@@ -367,7 +509,7 @@ public class Metrics {
          * FIX_LOW    -> true or false (Boolean objects). Default is TRUE
          * Template is required.
          */
-        // TODO: Ignore these params.  Instead, config the metric ahead of the computation
+        // @note see configure for the metric set up once ahead of the computation
         public double getScore(Vector profile, Template template, Map params) {
 
             boolean usebiased = AlgMap.isBiased(params);
@@ -393,6 +535,28 @@ public class Metrics {
 
         }
 
+        public PrimitiveMetric configure(final Map params) {
+            final boolean usebiased = AlgMap.isBiased(params);
+            final boolean fixlow = AlgMap.isFixLowVar(params);
+            final boolean usemedian = AlgMap.isMedian(params);
+            return new AbstractPrimitiveMetric(NAME) {
+                public double getScore(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+                    if (!_splitBiphasic_nansafe(row, cls, scratch)) {
+                        return 0;
+                    }
+
+                    final MetricScratch.ClassValues x = scratch.getX();
+                    final MetricScratch.ClassValues y = scratch.getY();
+
+                    if (usemedian) {
+                        return (x.median() - y.median()) / (x.stddev(usebiased, fixlow) + y.stddev(usebiased, fixlow));
+                    } else {
+                        return (x.mean() - y.mean()) / (x.stddev(usebiased, fixlow) + y.stddev(usebiased, fixlow));
+                    }
+                }
+            };
+        }
+
         public String getName() {
             return NAME;
         }
@@ -444,6 +608,28 @@ public class Metrics {
 
         }
 
+        public PrimitiveMetric configure(final Map params) {
+            final boolean usebiased = AlgMap.isBiased(params);
+            final boolean fixlow = AlgMap.isFixLowVar(params);
+            final boolean usemedian = AlgMap.isMedian(params);
+            return new AbstractPrimitiveMetric(NAME) {
+                public double getScore(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+                    if (!_splitBiphasic_nansafe(row, cls, scratch)) {
+                        return 0;
+                    }
+
+                    final MetricScratch.ClassValues x = scratch.getX();
+                    final MetricScratch.ClassValues y = scratch.getY();
+
+                    if (usemedian) {
+                        return (x.median() - y.median()) / (x.stddev(usebiased, fixlow) + y.stddev(usebiased, fixlow));
+                    } else {
+                        return (x.mean() - y.mean()) / (x.stddev(usebiased, fixlow) + y.stddev(usebiased, fixlow));
+                    }
+                }
+            };
+        }
+
         public String getName() {
             return NAME;
         }
@@ -473,6 +659,14 @@ public class Metrics {
             return profile.getElement(0);
         }
 
+        public PrimitiveMetric configure(final Map params) {
+            return new AbstractPrimitiveMetric(NAME) {
+                public double getScore(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+                    return row[0];
+                }
+            };
+        }
+
         public String getName() {
             return NAME;
         }
@@ -511,6 +705,42 @@ public class Metrics {
             }
         }
 
+        public PrimitiveMetric configure(final Map params) {
+            final boolean usebiased = AlgMap.isBiased(params);
+            final boolean fixlow = AlgMap.isFixLowVar(params);
+            final boolean usemedian = AlgMap.isMedian(params);
+            return new AbstractPrimitiveMetric(NAME) {
+                public double getScore(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+                    if (!_splitBiphasic_nansafe(row, cls, scratch)) {
+                        throw _tooFewNaNlessPoints(cls);
+                    }
+
+                    final MetricScratch.ClassValues x = scratch.getX();
+                    final MetricScratch.ClassValues y = scratch.getY();
+
+                    double numr;
+
+                    if (usemedian) {
+                        numr = x.median() - y.median();
+                    } else {
+                        numr = x.mean() - y.mean();
+                    }
+
+                    double denr;
+
+                    if (usebiased) {
+                        denr = Math.sqrt((x.var(usebiased, fixlow) / (x.getSize() - 1))
+                                + (y.var(usebiased, fixlow) / (y.getSize() - 1)));
+                    } else {
+                        denr = Math.sqrt((x.var(usebiased, fixlow) / (x.getSize()))
+                                + (y.var(usebiased, fixlow) / (y.getSize())));
+                    }
+
+                    return (numr / denr);
+                }
+            };
+        }
+
         public String getName() {
             return NAME;
         }
@@ -551,6 +781,32 @@ public class Metrics {
             }
         }
 
+        public PrimitiveMetric configure(final Map params) {
+            final boolean usebiased = AlgMap.isBiased(params);
+            final boolean fixlow = AlgMap.isFixLowVar(params);
+            return new AbstractPrimitiveMetric(NAME) {
+                public double getScore(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+                    if (!_splitBiphasic_nansafe(row, cls, scratch)) {
+                        throw _tooFewNaNlessPoints(cls);
+                    }
+
+                    final MetricScratch.ClassValues x = scratch.getX();
+                    final MetricScratch.ClassValues y = scratch.getY();
+
+                    // same as XMath.bhat(x, y)
+                    double firstterm = (y.mean() - x.mean())
+                            * (0.5 / (x.var(usebiased, fixlow) + y.var(usebiased, fixlow)))
+                            * (y.mean() - x.mean());
+                    double secterm = 0.5
+                            * Math.log(((x.var(usebiased, fixlow) + y.var(usebiased, fixlow)) / 2)
+                            / Math.sqrt(x.var(usebiased, fixlow)
+                            * y.var(usebiased, fixlow)));
+
+                    return (firstterm + secterm);
+                }
+            };
+        }
+
         public String getName() {
             return NAME;
         }
@@ -581,6 +837,51 @@ public class Metrics {
             return XMath.regressionSlope(profile, template.toVector(), splits, usebiased, fixlow);
         }
 
+        public PrimitiveMetric configure(final Map params) {
+            final boolean usebiased = AlgMap.isBiased(params);
+            final boolean fixlow = AlgMap.isFixLowVar(params);
+            return new AbstractPrimitiveMetric(NAME) {
+                public double getScore(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+                    final float[] yTemplate = cls.getTemplateValues();
+
+                    final MetricScratch.ClassValues x = scratch.getX();
+                    x.gather(row);
+
+                    if (x.getSize() != yTemplate.length) {
+                        throw new IllegalArgumentException("Vector lengths not equal x=" + x.getSize() + " and y=" + yTemplate.length);
+                    }
+
+                    final MetricScratch.ClassValues y = scratch.getY();
+                    y.gather(yTemplate);
+
+                    // same as XMath.regressionSlope
+                    double xsum = x.sum(); // cache to avoid recalc
+
+                    double N = (double) x.getSize();
+                    double numrA = N * x.sumprod(y.getValues(), y.getSize());
+                    double numrB = xsum * y.sum();
+
+                    double denrA = N * x.squaresum();
+                    double denrB = xsum * xsum;
+
+                    double C = (numrA - numrB) / (denrA - denrB);
+
+                    final MetricScratch.ClassValues split = scratch.getZ();
+                    double var = 0;
+                    for (int c = 0; c < cls.getNumClasses(); c++) {
+                        split.gather(row, cls.getClassPositions(c), false);
+                        var += split.stddev(usebiased, fixlow);
+                    }
+
+                    if (var == 0) {
+                        return Float.NaN;
+                    } else {
+                        return C / var;
+                    }
+                }
+            };
+        }
+
         public String getName() {
             return NAME;
         }
@@ -627,6 +928,22 @@ public class Metrics {
 
         }
 
+        public PrimitiveMetric configure(final Map params) {
+            return new AbstractPrimitiveMetric(NAME) {
+                public double getScore(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+                    if (!_splitBiphasic_nansafe(row, cls, scratch)) {
+                        throw _tooFewNaNlessPoints(cls);
+                    }
+
+                    final MetricScratch.ClassValues x = scratch.getX();
+                    final MetricScratch.ClassValues y = scratch.getY();
+
+                    // @note not worth porting: the minus plus check in XMath.pearsonD rejects every element
+                    return XMath.pearsonD(_toVector(x), _toVector(y));
+                }
+            };
+        }
+
         public String getName() {
             return NAME;
         }
@@ -666,6 +983,20 @@ public class Metrics {
             }
         }
 
+        public PrimitiveMetric configure(final Map params) {
+            return new AbstractPrimitiveMetric(NAME) {
+                public double getScore(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+                    if (!_splitBiphasic_nansafe(row, cls, scratch)) {
+                        throw _tooFewNaNlessPoints(cls);
+                    }
+
+                    final MetricScratch.ClassValues x = scratch.getX();
+                    final MetricScratch.ClassValues y = scratch.getY();
+                    return x.mean() - y.mean();
+                }
+            };
+        }
+
         public String getName() {
             return NAME;
         }
@@ -702,6 +1033,18 @@ public class Metrics {
             }
         }
 
+        public PrimitiveMetric configure(final Map params) {
+            return new AbstractPrimitiveMetric(NAME) {
+                public double getScore(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+                    _splitBiphasic(row, cls, scratch);
+
+                    final MetricScratch.ClassValues x = scratch.getX();
+                    final MetricScratch.ClassValues y = scratch.getY();
+                    return x.mean() / y.mean();
+                }
+            };
+        }
+
         public String getName() {
             return NAME;
         }
@@ -740,6 +1083,19 @@ public class Metrics {
             }
         }
 
+        public PrimitiveMetric configure(final Map params) {
+            final boolean useMean = AlgMap.isMean(params);
+            return new AbstractPrimitiveMetric(NAME) {
+                public double getScore(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+                    _splitBiphasic(row, cls, scratch);
+
+                    final MetricScratch.ClassValues x = scratch.getX();
+                    final MetricScratch.ClassValues y = scratch.getY();
+                    return x.meanOrMedian(useMean) / y.meanOrMedian(useMean);
+                }
+            };
+        }
+
         public String getName() {
             return NAME;
         }
@@ -779,6 +1135,19 @@ public class Metrics {
             }
         }
 
+        public PrimitiveMetric configure(final Map params) {
+            final boolean useMean = AlgMap.isMean(params);
+            return new AbstractPrimitiveMetric(NAME) {
+                public double getScore(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+                    _splitBiphasic(row, cls, scratch);
+
+                    final MetricScratch.ClassValues x = scratch.getX();
+                    final MetricScratch.ClassValues y = scratch.getY();
+                    return XMath.log2(x.meanOrMedian(useMean) / y.meanOrMedian(useMean));
+                }
+            };
+        }
+
         public String getName() {
             return NAME;
         }
@@ -817,6 +1186,19 @@ public class Metrics {
             }
         }
 
+        public PrimitiveMetric configure(final Map params) {
+            final boolean useMean = AlgMap.isMean(params);
+            return new AbstractPrimitiveMetric(NAME) {
+                public double getScore(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+                    _splitBiphasic(row, cls, scratch);
+
+                    final MetricScratch.ClassValues x = scratch.getX();
+                    final MetricScratch.ClassValues y = scratch.getY();
+                    return x.meanOrMedian(useMean) - y.meanOrMedian(useMean);
+                }
+            };
+        }
+
         public String getName() {
             return NAME;
         }
@@ -854,6 +1236,18 @@ public class Metrics {
             }
         }
 
+        public PrimitiveMetric configure(final Map params) {
+            return new AbstractPrimitiveMetric(NAME) {
+                public double getScore(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+                    _splitBiphasic(row, cls, scratch);
+
+                    final MetricScratch.ClassValues x = scratch.getX();
+                    final MetricScratch.ClassValues y = scratch.getY();
+                    return x.median() / y.median();
+                }
+            };
+        }
+
         public String getName() {
             return NAME;
         }
@@ -890,6 +1284,20 @@ public class Metrics {
             }
         }
 
+        public PrimitiveMetric configure(final Map params) {
+            return new AbstractPrimitiveMetric(NAME) {
+                public double getScore(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+                    if (!_splitBiphasic_nansafe(row, cls, scratch)) {
+                        throw _tooFewNaNlessPoints(cls);
+                    }
+
+                    final MetricScratch.ClassValues x = scratch.getX();
+                    final MetricScratch.ClassValues y = scratch.getY();
+                    return XMath.log2(x.mean() / y.mean());
+                }
+            };
+        }
+
         public String getName() {
             return NAME;
         }
@@ -928,6 +1336,20 @@ public class Metrics {
             }
         }
 
+        public PrimitiveMetric configure(final Map params) {
+            return new AbstractPrimitiveMetric(NAME) {
+                public double getScore(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+                    if (!_splitBiphasic_nansafe(row, cls, scratch)) {
+                        throw _tooFewNaNlessPoints(cls);
+                    }
+
+                    final MetricScratch.ClassValues x = scratch.getX();
+                    final MetricScratch.ClassValues y = scratch.getY();
+                    return XMath.log2(x.median() / y.median());
+                }
+            };
+        }
+
         public String getName() {
             return NAME;
         }
@@ -964,6 +1386,20 @@ public class Metrics {
             return vs[coiIndex].mean();
         }
 
+        public PrimitiveMetric configure(final Map params) {
+            return new AbstractPrimitiveMetric(NAME) {
+                public double getScore(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+                    if (!_splitBiphasic_nansafe(row, cls, scratch)) {
+                        throw _tooFewNaNlessPoints(cls);
+                    }
+
+                    final MetricScratch.ClassValues x = scratch.getX();
+                    final MetricScratch.ClassValues y = scratch.getY();
+                    return x.mean();
+                }
+            };
+        }
+
         public String getName() {
             return NAME;
         }
@@ -1000,6 +1436,20 @@ public class Metrics {
             return vs[coiIndex].median();
         }
 
+        public PrimitiveMetric configure(final Map params) {
+            return new AbstractPrimitiveMetric(NAME) {
+                public double getScore(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+                    if (!_splitBiphasic_nansafe(row, cls, scratch)) {
+                        throw _tooFewNaNlessPoints(cls);
+                    }
+
+                    final MetricScratch.ClassValues x = scratch.getX();
+                    final MetricScratch.ClassValues y = scratch.getY();
+                    return x.median();
+                }
+            };
+        }
+
         public String getName() {
             return NAME;
         }
@@ -1039,6 +1489,20 @@ public class Metrics {
             }
         }
 
+        public PrimitiveMetric configure(final Map params) {
+            return new AbstractPrimitiveMetric(NAME) {
+                public double getScore(final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+                    if (!_splitBiphasic_nansafe(row, cls, scratch)) {
+                        throw _tooFewNaNlessPoints(cls);
+                    }
+
+                    final MetricScratch.ClassValues x = scratch.getX();
+                    final MetricScratch.ClassValues y = scratch.getY();
+                    return x.median() - y.median();
+                }
+            };
+        }
+
         public String getName() {
             return NAME;
         }
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.alg;
+
+/**
+ * A Metric that has been configured (its params read) once for a run and that scores
+ * a row of primitives against class indices precomputed from a Template.
+ * <p/>
+ * Scoring a row makes no Vectors and no split Vectors -- the class values are gathered into the
+ * scratch arrays. Same contract and same scores as Metric.getScore.
+ * <p/>
+ * Implementations are stateless (so can be shared across threads); the scratch is not.
+ *
+ * @author Aravind Subramanian
+ * @see Metric#configure(java.util.Map)
+ * @see ClassIndices
+ * @see MetricScratch
+ */
+public interface PrimitiveMetric {
+
+    public String getName();
+
+    /**
+     * @param row     the profile, indexed by profile position
+     * @param cls     the template as class indices
+     * @param scratch reusable scratch space (one per thread)
+     * @return the score -- same as Metric.getScore of the profile and template
+     */
+    public double getScore(final float[] row, final ClassIndices cls, final MetricScratch scratch);
+
+} // End interface PrimitiveMetric
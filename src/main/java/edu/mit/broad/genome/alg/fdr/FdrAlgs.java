@@ -8,9 +8,15 @@ import edu.mit.broad.genome.math.*;
 import edu.mit.broad.genome.objects.Dataset;
 import edu.mit.broad.genome.objects.LabelledVector;
 import edu.mit.broad.genome.objects.RankedList;
+import edu.mit.broad.genome.objects.esmatrix.db.RndEsStore;
 import edu.mit.broad.genome.objects.strucs.SkewCorrectedFdrStruc;
+import edu.mit.broad.genome.utils.ParallelUtils;
 import gnu.trove.THashMap;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
 /**
  * False discovery rate algorithms.
  *
@@ -44,33 +50,279 @@ public class FdrAlgs {
     }
 
     // @note IMP IMP this returns fdr only for those that are pos (or neg) and NOT for all
+    // @note the gene sets are split across numThreads threads
     public static FdrMap calcFdrs_skewed(final LabelledVector real_scores,
                                          final Dataset rnd_scores_by_row_FULL,
                                          final LabelledVector real_scores_norm,
                                          final DatasetModed all_rnd_scores_norm_moded_pos,
                                          final DatasetModed all_rnd_scores_norm_moded_neg,
-                                         final SortMode sort) {
+                                         final SortMode sort,
+                                         final int numThreads) {
+
+        if (all_rnd_scores_norm_moded_pos == null) {
+            throw new IllegalArgumentException("Param all_rnd_scores_norm_moded_pos cannot be null");
+        }
+
+        if (all_rnd_scores_norm_moded_neg == null) {
+            throw new IllegalArgumentException("Param all_rnd_scores_norm_moded_neg cannot be null");
+        }
+
+        if (all_rnd_scores_norm_moded_pos.getNumCol() != all_rnd_scores_norm_moded_neg.getNumCol()) {
+            throw new MismatchedSizeException("num_cols pos", all_rnd_scores_norm_moded_pos.getNumCol(), "num cols neg", all_rnd_scores_norm_moded_neg.getNumCol());
+        }
+
+        // @note the sorted null columns are common to all sets -- fetch (i.e sort) them all once up front
+        final int ncols = all_rnd_scores_norm_moded_pos.getNumCol();
+        final Vector[] rnd_cols_norm_sorted_pos = new Vector[ncols];
+        final Vector[] rnd_cols_norm_sorted_neg = new Vector[ncols];
+        for (int c = 0; c < ncols; c++) {
+            rnd_cols_norm_sorted_pos[c] = all_rnd_scores_norm_moded_pos.getColumn_sorted(c);
+            rnd_cols_norm_sorted_neg[c] = all_rnd_scores_norm_moded_neg.getColumn_sorted(c);
+        }
+
+        final int totRndCnt = all_rnd_scores_norm_moded_pos.getDim_orig();
 
         FdrMap map = new FdrMap();
 
         _calcFdrs_skewed(real_scores, rnd_scores_by_row_FULL, real_scores_norm,
-                all_rnd_scores_norm_moded_pos, all_rnd_scores_norm_moded_neg, sort, Order.DESCENDING, true, map);
+                rnd_cols_norm_sorted_pos, rnd_cols_norm_sorted_neg, totRndCnt, sort, Order.DESCENDING, true, numThreads, map);
 
         _calcFdrs_skewed(real_scores, rnd_scores_by_row_FULL, real_scores_norm,
-                all_rnd_scores_norm_moded_pos, all_rnd_scores_norm_moded_neg, sort, Order.ASCENDING, false, map);
+                rnd_cols_norm_sorted_pos, rnd_cols_norm_sorted_neg, totRndCnt, sort, Order.ASCENDING, false, numThreads, map);
 
         return map;
     }
 
+    /**
+     * Index based form of calcFdrs_skewed -- the rnd scores are in a RndEsStore (gene sets x perms) rather than in
+     * named Datasets and the fdrs come back by set index rather than in a map.
+     * Same fdrs as the named form (with rnd datasets of exactly these sets).
+     *
+     * @param names
+     * @param real_scores
+     * @param real_scores_norm
+     * @param rnd_scores              set r is row rnd_rows[r]
+     * @param rnd_rows
+     * @param rnd_scores_norm_sorted  set r was row r -- but every column has been sorted low to high (NaNs last)
+     * @param sort
+     * @param numThreads
+     * @return the fdr of every set (null if the set's real score is neither pos nor neg i.e is NaN)
+     * @see RndEsStore#sortColumn(int, float[])
+     */
+    public static SkewCorrectedFdrStruc[] calcFdrs_skewed(final String[] names,
+                                                         final float[] real_scores,
+                                                         final float[] real_scores_norm,
+                                                         final RndEsStore rnd_scores,
+                                                         final int[] rnd_rows,
+                                                         final RndEsStore rnd_scores_norm_sorted,
+                                                         final SortMode sort,
+                                                         final int numThreads) {
+
+        if (names == null) {
+            throw new IllegalArgumentException("Param names cannot be null");
+        }
+
+        if (real_scores == null) {
+            throw new IllegalArgumentException("Param real_scores cannot be null");
+        }
+
+        if (real_scores_norm == null) {
+            throw new IllegalArgumentException("Param real_scores_norm cannot be null");
+        }
+
+        if (rnd_scores == null) {
+            throw new IllegalArgumentException("Param rnd_scores cannot be null");
+        }
+
+        if (rnd_rows == null) {
+            throw new IllegalArgumentException("Param rnd_rows cannot be null");
+        }
+
+        if (rnd_scores_norm_sorted == null) {
+            throw new IllegalArgumentException("Param rnd_scores_norm_sorted cannot be null");
+        }
+
+        final int numSets = names.length;
+
+        if (real_scores.length != numSets) {
+            throw new MismatchedSizeException("names", numSets, "real_scores", real_scores.length);
+        }
+
+        if (real_scores_norm.length != numSets) {
+            throw new MismatchedSizeException("real_scores", numSets, "real_scores_norm", real_scores_norm.length);
+        }
+
+        if (rnd_rows.length != numSets) {
+            throw new MismatchedSizeException("names", numSets, "rnd_rows", rnd_rows.length);
+        }
+
+        if (rnd_scores_norm_sorted.getNumSets() != numSets) {
+            throw new MismatchedSizeException("names", numSets, "rnd_scores_norm_sorted", rnd_scores_norm_sorted.getNumSets());
+        }
+
+        if (rnd_scores.getNumPerms() != rnd_scores_norm_sorted.getNumPerms()) {
+            throw new MismatchedSizeException("rnd_scores", rnd_scores.getNumPerms(), "rnd_scores_norm_sorted", rnd_scores_norm_sorted.getNumPerms());
+        }
+
+        final SortedStoreColumns rnd_cols_norm = new SortedStoreColumns(rnd_scores_norm_sorted, numThreads);
+
+        final LabelledVector real_scores_norm_lv = new LabelledVector(names, new Vector(real_scores_norm));
+        final int totRndCnt = (int) Math.min((long) numSets * rnd_scores.getNumPerms(), Integer.MAX_VALUE);
+        final SkewCorrectedFdrStruc[] fdrs = new SkewCorrectedFdrStruc[numSets];
+
+        _calcFdrs_skewed(names, real_scores, real_scores_norm_lv.sort(sort, Order.DESCENDING), rnd_scores, rnd_rows,
+                rnd_cols_norm, totRndCnt, true, numThreads, fdrs);
+
+        _calcFdrs_skewed(names, real_scores, real_scores_norm_lv.sort(sort, Order.ASCENDING), rnd_scores, rnd_rows,
+                rnd_cols_norm, totRndCnt, false, numThreads, fdrs);
+
+        return fdrs;
+    }
+
+    private static void _calcFdrs_skewed(final String[] names,
+                                         final float[] real_scores,
+                                         final RankedList real_scores_norm_sorted,
+                                         final RndEsStore rnd_scores,
+                                         final int[] rnd_rows,
+                                         final SkewCorrectedFdrStruc.NullColumns rnd_cols_norm,
+                                         final int totRndCnt,
+                                         final boolean doPos,
+                                         final int numThreads,
+                                         final SkewCorrectedFdrStruc[] fdrs) {
+
+        final int numSetsPos = real_scores_norm_sorted.getSize(ScoreMode.POS_ONLY);
+        final int numSetsNeg = real_scores_norm_sorted.getSize(ScoreMode.NEG_ONLY);
+
+        final List<Callable<Object>> blocks = new ArrayList<Callable<Object>>();
+        final int blockSize = ParallelUtils.calcBlockSize(names.length, numThreads);
+        for (int from = 0; from < names.length; from += blockSize) {
+            final int blockFrom = from;
+            final int blockTo = Math.min(from + blockSize, names.length);
+            blocks.add(new Callable<Object>() {
+                public Object call() {
+                    final float[] row = new float[rnd_scores.getNumPerms()];
+                    for (int r = blockFrom; r < blockTo; r++) {
+                        final float real_score_of_name = real_scores[r];
+                        if ((doPos && XMath.isPositive(real_score_of_name)) || (!doPos && XMath.isNegative(real_score_of_name))) {
+                            if (fdrs[r] != null) { // a zero score is both pos and neg
+                                throw new IllegalArgumentException("Already have fdr entry for: " + fdrs[r]);
+                            }
+
+                            rnd_scores.getRow(rnd_rows[r], row);
+                            fdrs[r] = new SkewCorrectedFdrStruc(names[r],
+                                    real_score_of_name,
+                                    real_scores_norm_sorted,
+                                    numSetsPos,
+                                    numSetsNeg,
+                                    new Vector(row, true), // @note only read during construction, so the row buffer is reused
+                                    rnd_cols_norm,
+                                    totRndCnt,
+                                    doPos);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+
+        ParallelUtils.runAll(blocks, numThreads);
+    }
+
+    /**
+     * The columns of a store each sorted low to high (NaNs last) -- the pos scores are a run at the
+     * top of the column and the neg ones a run at the bottom (0's are in both), so no copies are needed
+     */
+    private static class SortedStoreColumns implements SkewCorrectedFdrStruc.NullColumns {
+
+        private final RndEsStore fStore;
+
+        // per column: index of the first pos score, index after the last neg score, index of the first NaN
+        private final int[] fPosFrom;
+        private final int[] fNegTo;
+        private final int[] fNaNFrom;
+
+        SortedStoreColumns(final RndEsStore store, final int numThreads) {
+            this.fStore = store;
+            final int ncols = store.getNumPerms();
+            this.fPosFrom = new int[ncols];
+            this.fNegTo = new int[ncols];
+            this.fNaNFrom = new int[ncols];
+
+            final List<Callable<Object>> blocks = new ArrayList<Callable<Object>>();
+            final int blockSize = ParallelUtils.calcBlockSize(ncols, numThreads);
+            for (int from = 0; from < ncols; from += blockSize) {
+                final int blockFrom = from;
+                final int blockTo = Math.min(from + blockSize, ncols);
+                blocks.add(new Callable<Object>() {
+                    public Object call() {
+                        for (int c = blockFrom; c < blockTo; c++) {
+                            // NaNs are last and fail every comparison so they are found as not < and not <=
+                            fNaNFrom[c] = _firstNotBelow(c, 0, fStore.getNumSets(), Float.POSITIVE_INFINITY, true);
+                            fPosFrom[c] = _firstNotBelow(c, 0, fNaNFrom[c], 0f, false);
+                            fNegTo[c] = _firstNotBelow(c, fPosFrom[c], fNaNFrom[c], 0f, true);
+                        }
+                        return null;
+                    }
+                });
+            }
+
+            ParallelUtils.runAll(blocks, numThreads);
+        }
+
+        // index of the first element in [from, to) that is not < value (not <= if orEqual) -- elements are sorted
+        private int _firstNotBelow(final int col, int from, int to, final float value, final boolean orEqual) {
+            while (from < to) {
+                final int mid = (from + to) >>> 1;
+                final float x = fStore.getElement(mid, col);
+                if (x < value || (orEqual && x == value)) {
+                    from = mid + 1;
+                } else {
+                    to = mid;
+                }
+            }
+            return from;
+        }
+
+        public int getNumCols() {
+            return fStore.getNumPerms();
+        }
+
+        public int getSize(final int col, final boolean pos) {
+            if (pos) {
+                return fNaNFrom[col] - fPosFrom[col];
+            } else {
+                return fNegTo[col];
+            }
+        }
+
+        // same counts as XMath.getMoreThanCount / getLessThanCount of the extracted pos / neg scores
+        // i.e the number of pos scores not less than score (or neg scores not more than score)
+        public int getMoreOrLessThanCount(final int col, final float score, final boolean pos) {
+            if (Float.isNaN(score)) {
+                return getSize(col, pos); // @note a NaN is "not more / less" than every score
+            }
+
+            if (pos) {
+                final int from = score >= 0 ? _firstNotBelow(col, fPosFrom[col], fNaNFrom[col], score, false) : fPosFrom[col];
+                return fNaNFrom[col] - from;
+            } else {
+                return score <= 0 ? _firstNotBelow(col, 0, fNegTo[col], score, true) : fNegTo[col];
+            }
+        }
+
+    } // End class SortedStoreColumns
+
     // @note IMP IMP this returns fdr only for those that are pos (or neg) and NOT for all
     private static void _calcFdrs_skewed(final LabelledVector real_scores,
                                          final Dataset rnd_scores_by_row_FULL, // can have excess rows
                                          final LabelledVector real_scores_norm,
-                                         final DatasetModed all_rnd_scores_norm_moded_pos,
-                                         final DatasetModed all_rnd_scores_norm_moded_neg,
+                                         final Vector[] rnd_cols_norm_sorted_pos,
+                                         final Vector[] rnd_cols_norm_sorted_neg,
+                                         final int totRndCnt,
                                          final SortMode sort,
                                          final Order order,
                                          final boolean doPos,
+                                         final int numThreads,
                                          final FdrMap map) {
 
         // sanity checks
@@ -93,29 +345,52 @@ public class FdrAlgs {
         }
 
         final RankedList real_scores_norm_sorted = real_scores_norm.sort(sort, order);
+        final int numSetsPos = real_scores_norm_sorted.getSize(ScoreMode.POS_ONLY);
+        final int numSetsNeg = real_scores_norm_sorted.getSize(ScoreMode.NEG_ONLY);
 
-        for (int r = 0; r < real_scores.getSize(); r++) {
-            final String name = real_scores.getLabel(r);
+        // the sets on this side, with their rnd scores fetched by name (not index) here as the dataset lookup is not thread safe
+        final int numScores = real_scores.getSize();
+        final Vector[] rnd_scores_of_sets = new Vector[numScores];
+        for (int r = 0; r < numScores; r++) {
             final float real_score_of_name = real_scores.getScore(r);
+            if ((doPos && XMath.isPositive(real_score_of_name)) || (!doPos && XMath.isNegative(real_score_of_name))) {
+                rnd_scores_of_sets[r] = rnd_scores_by_row_FULL.getRow(real_scores.getLabel(r)); // @note fetching by name, not index
+            }
+        }
+
+        final SkewCorrectedFdrStruc[] fdrs = new SkewCorrectedFdrStruc[numScores];
+        final List<Callable<Object>> blocks = new ArrayList<Callable<Object>>();
+        final int blockSize = ParallelUtils.calcBlockSize(numScores, numThreads);
+        for (int from = 0; from < numScores; from += blockSize) {
+            final int blockFrom = from;
+            final int blockTo = Math.min(from + blockSize, numScores);
+            blocks.add(new Callable<Object>() {
+                public Object call() {
+                    for (int r = blockFrom; r < blockTo; r++) {
+                        if (rnd_scores_of_sets[r] != null) {
+                            fdrs[r] = new SkewCorrectedFdrStruc(real_scores.getLabel(r),
+                                    real_scores.getScore(r),
+                                    real_scores_norm_sorted,
+                                    numSetsPos,
+                                    numSetsNeg,
+                                    rnd_scores_of_sets[r],
+                                    rnd_cols_norm_sorted_pos,
+                                    rnd_cols_norm_sorted_neg,
+                                    totRndCnt,
+                                    doPos);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+
+        ParallelUtils.runAll(blocks, numThreads);
 
-            if (doPos && XMath.isPositive(real_score_of_name)) {
-                final SkewCorrectedFdrStruc fdr = new SkewCorrectedFdrStruc(name,
-                        real_score_of_name,
-                        real_scores_norm_sorted,
-                        rnd_scores_by_row_FULL.getRow(name), // @note fetching by name, not index
-                        all_rnd_scores_norm_moded_pos,
-                        all_rnd_scores_norm_moded_neg,
-                        doPos);
-                map.add(name, fdr);
-            } else if (!doPos && XMath.isNegative(real_score_of_name)) {
-                final SkewCorrectedFdrStruc fdr = new SkewCorrectedFdrStruc(name,
-                        real_score_of_name,
-                        real_scores_norm_sorted,
-                        rnd_scores_by_row_FULL.getRow(name), // // @note fetching by name, not index
-                        all_rnd_scores_norm_moded_pos,
-                        all_rnd_scores_norm_moded_neg,
-                        doPos);
-                map.add(name, fdr);
+        // added in set order
+        for (int r = 0; r < numScores; r++) {
+            if (fdrs[r] != null) {
+                map.add(real_scores.getLabel(r), fdrs[r]);
             }
         }
     }
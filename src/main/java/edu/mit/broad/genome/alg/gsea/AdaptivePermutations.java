@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.alg.gsea;
+
+import edu.mit.broad.genome.math.XMath;
+import edu.mit.broad.genome.objects.esmatrix.db.RndEsStore;
+
+/**
+ * Sequential (Besag-Clifford like) stopping of the permutations for the nominal p-values.
+ * <p/>
+ * All gene sets get the usual nperm permutations -- these are shared by all sets and are the ones
+ * the fdrs and fwers come from. Past that, the permutations are continued in rounds (each doubling the
+ * count) for only those sets whose nominal p-value is still undetermined i.e that have fewer than
+ * numExceedances rnd es that are as in the nominal p more extreme than the real es, up to maxNumPerms.
+ * <p/>
+ * Only tallies of these extra permutations are kept (no rnd es) -- see RndEsStore#setExtraPerms
+ *
+ * @author Aravind Subramanian
+ * @see KSTests
+ */
+public class AdaptivePermutations {
+
+    public static final int DEFAULT_NUM_EXCEEDANCES = 10;
+
+    private final int fMaxNumPerms;
+
+    private final int fNumExceedances;
+
+    /**
+     * Class constructor
+     *
+     * @param maxNumPerms    cap on the number of permutations of any one set
+     * @param numExceedances a set is determined once it has this many rnd es more extreme than its real es
+     */
+    public AdaptivePermutations(final int maxNumPerms, final int numExceedances) {
+        if (maxNumPerms < 0) {
+            throw new IllegalArgumentException("Invalid maxNumPerms: " + maxNumPerms);
+        }
+
+        if (numExceedances < 1) {
+            throw new IllegalArgumentException("numExceedances must be at least 1, got: " + numExceedances);
+        }
+
+        this.fMaxNumPerms = maxNumPerms;
+        this.fNumExceedances = numExceedances;
+    }
+
+    public int getMaxNumPerms() {
+        return fMaxNumPerms;
+    }
+
+    public int getNumExceedances() {
+        return fNumExceedances;
+    }
+
+    /**
+     * @param nperm the shared number of permutations
+     * @return true if there is anything to do past nperm
+     */
+    public boolean isAdaptive(final int nperm) {
+        return nperm > 0 && fMaxNumPerms > nperm;
+    }
+
+    /**
+     * @param numPermsDone
+     * @return the number of permutations (in all) to have done at the end of the next round
+     */
+    public int nextRoundTo(final int numPermsDone) {
+        return Math.min(fMaxNumPerms, Math.max(2 * numPermsDone, numPermsDone + 1));
+    }
+
+    public String toString() {
+        return "max_perms: " + fMaxNumPerms + " exceedances: " + fNumExceedances;
+    }
+
+    /**
+     * @param realEs
+     * @param rndEs
+     * @return true if rndEs has the same sign as realEs (as in XMath.getPValueTwoTailed_pos_neg_seperate)
+     */
+    public static boolean isSameSide(final float realEs, final float rndEs) {
+        if (XMath.isPositive(realEs)) {
+            return XMath.isPositive(rndEs);
+        } else {
+            return XMath.isNegative(rndEs);
+        }
+    }
+
+    /**
+     * @param realEs
+     * @param rndEs
+     * @return true if rndEs counts against realEs in its nominal p (as in XMath.getPValueTwoTailed)
+     */
+    public static boolean isMoreExtreme(final float realEs, final float rndEs) {
+        if (realEs >= 0) {
+            return rndEs > realEs;
+        } else {
+            return rndEs < realEs;
+        }
+    }
+
+    /**
+     * The tallies of one run. Not thread safe -- the extra permutations are tallied per worker and then added
+     * (or, if the workers own disjoint sets, added by each worker for its own sets only)
+     */
+    public class Tallies {
+
+        private final float[] fRealEss;
+
+        private final int[] fNumSharedMoreExtreme;
+
+        private final int[] fNumExtraPerms;
+
+        private final int[] fNumExtraSameSide;
+
+        private final int[] fNumExtraMoreExtreme;
+
+        /**
+         * @param realEss the real es of every set
+         * @param shared  the rnd es of the shared permutations -- set g in row g
+         */
+        public Tallies(final float[] realEss, final RndEsStore shared) {
+
+            if (realEss.length != shared.getNumSets()) {
+                throw new IllegalArgumentException("Mismatched num of sets: " + realEss.length + " store: " + shared);
+            }
+
+            this.fRealEss = realEss;
+            this.fNumSharedMoreExtreme = new int[realEss.length];
+            this.fNumExtraPerms = new int[realEss.length];
+            this.fNumExtraSameSide = new int[realEss.length];
+            this.fNumExtraMoreExtreme = new int[realEss.length];
+
+            final float[] row = new float[shared.getNumPerms()];
+            for (int g = 0; g < realEss.length; g++) {
+                shared.getRow(g, row);
+                for (int p = 0; p < row.length; p++) {
+                    if (isSameSide(realEss[g], row[p]) && isMoreExtreme(realEss[g], row[p])) {
+                        fNumSharedMoreExtreme[g]++;
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return the sets still to be permuted
+         */
+        public int[] getUndetermined() {
+            int num = 0;
+            final int[] undetermined = new int[fRealEss.length];
+            for (int g = 0; g < fRealEss.length; g++) {
+                if (isUndetermined(g)) {
+                    undetermined[num++] = g;
+                }
+            }
+
+            final int[] ret = new int[num];
+            System.arraycopy(undetermined, 0, ret, 0, num);
+            return ret;
+        }
+
+        /**
+         * @param set
+         * @return true if the set is still to be permuted
+         */
+        public boolean isUndetermined(final int set) {
+            // @note a NaN es has nothing more extreme -- no point going on
+            return !Float.isNaN(fRealEss[set]) && fNumSharedMoreExtreme[set] + fNumExtraMoreExtreme[set] < fNumExceedances;
+        }
+
+        public float getRealEs(final int set) {
+            return fRealEss[set];
+        }
+
+        /**
+         * @param set
+         * @param numPerms       extra permutations done for the set
+         * @param numSameSide    of them the ones with a rnd es on the same side as the real es
+         * @param numMoreExtreme of them the ones more extreme than the real es
+         */
+        public void add(final int set, final int numPerms, final int numSameSide, final int numMoreExtreme) {
+            fNumExtraPerms[set] += numPerms;
+            fNumExtraSameSide[set] += numSameSide;
+            fNumExtraMoreExtreme[set] += numMoreExtreme;
+        }
+
+        /**
+         * Record the extra permutations of every set in the store
+         *
+         * @param store
+         */
+        public void saveTo(final RndEsStore store) {
+            for (int g = 0; g < fRealEss.length; g++) {
+                if (fNumExtraPerms[g] != 0) {
+                    store.setExtraPerms(g, fNumExtraPerms[g], fNumExtraSameSide[g], fNumExtraMoreExtreme[g]);
+                }
+            }
+        }
+
+    } // End inner class Tallies
+
+} // End class AdaptivePermutations
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.alg.gsea;
+
+import edu.mit.broad.genome.objects.RankedList;
+
+/**
+ * A GeneSetCohort flattened into primitive arrays for the KS walk in KSCore.
+ * <p/>
+ * Genes are dense int ids (their rank in the ranked list), gene -> gene set membership
+ * is held CSR style (offsets by rank into a flat array of gene set indices) and the hit / miss
+ * points of every (rank, gene set) pair are precomputed from the scoring tables once.
+ * So the walk itself never hashes a gene name.
+ *
+ * @author Aravind Subramanian
+ * @see KSCore
+ */
+public class CompiledGeneSetCohort {
+
+    private final RankedList fRankedList;
+
+    private final int fNumLabels;
+
+    private final int fNumGeneSets;
+
+    // score at each rank
+    private final float[] fRankScores;
+
+    // CSR: the gene sets that contain the gene at rank r are
+    // fGeneSetIndices[fRankOffsets[r]] .. fGeneSetIndices[fRankOffsets[r + 1] - 1]
+    private final int[] fRankOffsets;
+
+    private final int[] fGeneSetIndices;
+
+    // parallel to fGeneSetIndices
+    private final float[] fHitPoints;
+
+    private final float[] fMissPoints;
+
+    // miss points for the last ranked gene, needed for every gene set as the last rank closes all walks
+    private final float[] fLastMissPoints;
+
+    private final int[] fNumTrue;
+
+    /**
+     * Class constructor
+     * Use compile(GeneSetCohort) to make one
+     */
+    private CompiledGeneSetCohort(final RankedList rl,
+                                  final float[] rankScores,
+                                  final int[] rankOffsets,
+                                  final int[] geneSetIndices,
+                                  final float[] hitPoints,
+                                  final float[] missPoints,
+                                  final float[] lastMissPoints,
+                                  final int[] numTrue) {
+        this.fRankedList = rl;
+        this.fNumLabels = rankScores.length;
+        this.fNumGeneSets = numTrue.length;
+        this.fRankScores = rankScores;
+        this.fRankOffsets = rankOffsets;
+        this.fGeneSetIndices = geneSetIndices;
+        this.fHitPoints = hitPoints;
+        this.fMissPoints = missPoints;
+        this.fLastMissPoints = lastMissPoints;
+        this.fNumTrue = numTrue;
+    }
+
+    public static CompiledGeneSetCohort compile(final GeneSetCohort gcoh) {
+        if (gcoh == null) {
+            throw new IllegalArgumentException("Param gcoh cannot be null");
+        }
+
+        final RankedList rl = gcoh.getRankedList();
+        final int numLabels = rl.getSize();
+        final int numGeneSets = gcoh.getNumGeneSets();
+
+        final float[] rankScores = new float[numLabels];
+        final int[][] setsAtRank = new int[numLabels][];
+        final int[] rankOffsets = new int[numLabels + 1];
+
+        // @note the only by name lookup -- once per rank
+        for (int r = 0; r < numLabels; r++) {
+            rankScores[r] = rl.getScore(r);
+            setsAtRank[r] = gcoh.genesetIndicesForGene(rl.getRankName(r));
+            final int num = setsAtRank[r] == null ? 0 : setsAtRank[r].length;
+            rankOffsets[r + 1] = rankOffsets[r] + num;
+        }
+
+        final int numEntries = rankOffsets[numLabels];
+        final int[] geneSetIndices = new int[numEntries];
+        final float[] hitPoints = new float[numEntries];
+        final float[] missPoints = new float[numEntries];
+
+        for (int r = 0; r < numLabels; r++) {
+            final int[] gsetInds = setsAtRank[r];
+            if (gsetInds == null) {
+                continue;
+            }
+
+            int k = rankOffsets[r];
+            for (int i = 0; i < gsetInds.length; i++, k++) {
+                final int g = gsetInds[i];
+                geneSetIndices[k] = g;
+                hitPoints[k] = (float) gcoh.getHitPoints(g, r);
+                missPoints[k] = (float) gcoh.getMissPoints(g, r);
+            }
+        }
+
+        final float[] lastMissPoints = new float[numGeneSets];
+        final int[] numTrue = new int[numGeneSets];
+        for (int g = 0; g < numGeneSets; g++) {
+            if (numLabels > 0) {
+                lastMissPoints[g] = (float) gcoh.getMissPoints(g, numLabels - 1);
+            }
+            numTrue[g] = gcoh.getNumTrue(g);
+        }
+
+        return new CompiledGeneSetCohort(rl, rankScores, rankOffsets, geneSetIndices,
+                hitPoints, missPoints, lastMissPoints, numTrue);
+    }
+
+    public RankedList getRankedList() {
+        return fRankedList;
+    }
+
+    public int getNumLabels() {
+        return fNumLabels;
+    }
+
+    public int getNumGeneSets() {
+        return fNumGeneSets;
+    }
+
+    public int getNumTrue(final int gsetNum) {
+        return fNumTrue[gsetNum];
+    }
+
+    // @note arrays are shared for speed in the KS walk -- do not modify
+
+    float[] getRankScores() {
+        return fRankScores;
+    }
+
+    int[] getRankOffsets() {
+        return fRankOffsets;
+    }
+
+    int[] getGeneSetIndices() {
+        return fGeneSetIndices;
+    }
+
+    float[] getHitPoints() {
+        return fHitPoints;
+    }
+
+    float[] getMissPoints() {
+        return fMissPoints;
+    }
+
+    float[] getLastMissPoints() {
+        return fLastMissPoints;
+    }
+
+} // End class CompiledGeneSetCohort
@@ -38,10 +38,25 @@ public class DefaultGeneSetCohort extends AbstractGeneSetCohort {
         this.fOrigTable = scoringTable;
         this.fGeneSetScoringTables = new GeneSetScoringTable[fGeneSets.length];
 
+        // @note the weighted schemes get the weights of rl (made once here for all the sets) and the hit ranks
+        // of every set from one pass down rl -- rather than looking each member up by name
+        GeneSetScoringTables.AbstractWeightedScoringTable weightedTable = null;
+        GeneSetScoringTables.RankWeights weights = null;
+        int[][] hitRanks = null;
+        if (scoringTable instanceof GeneSetScoringTables.AbstractWeightedScoringTable) {
+            weightedTable = (GeneSetScoringTables.AbstractWeightedScoringTable) scoringTable;
+            weights = new GeneSetScoringTables.RankWeights(rl, weightedTable);
+            hitRanks = _hitRanks(rl);
+        }
+
         // populate the table
         for (int g = 0; g < fGeneSets.length; g++) { // @note IMP to use the fgsets and it might have gotten clones
             // compute scoring scheme
-            fGeneSetScoringTables[g] = scoringTable.createTable(fGeneSets[g], rl, fOrigTable.getRankedList());
+            if (hitRanks != null && hitRanks[g] != null) {
+                fGeneSetScoringTables[g] = weightedTable.createTable(fGeneSets[g], rl, weights, hitRanks[g]);
+            } else {
+                fGeneSetScoringTables[g] = scoringTable.createTable(fGeneSets[g], rl, fOrigTable.getRankedList());
+            }
             if (!silent && g >= 500 && g % 500 == 0) {
                 System.out.println("GeneSetCohorted_scored: " + (g + 1) + " / " + fGeneSets.length);
             }
@@ -49,6 +64,35 @@ public class DefaultGeneSetCohort extends AbstractGeneSetCohort {
 
     }
 
+    // per set: the ranks of its members, ascending -- null for a set with members that are not in rl
+    private int[][] _hitRanks(final RankedList rl) {
+        final int[][] hitRanks = new int[fGeneSets.length][];
+        final int[] numHits = new int[fGeneSets.length];
+        for (int g = 0; g < fGeneSets.length; g++) {
+            hitRanks[g] = new int[fGeneSets[g].getNumMembers()];
+        }
+
+        for (int r = 0; r < rl.getSize(); r++) {
+            final int[] gsetIndices = genesetIndicesForGene(rl.getRankName(r));
+            if (gsetIndices != null) {
+                for (int i = 0; i < gsetIndices.length; i++) {
+                    final int g = gsetIndices[i];
+                    if (numHits[g] < hitRanks[g].length) {
+                        hitRanks[g][numHits[g]++] = r;
+                    }
+                }
+            }
+        }
+
+        for (int g = 0; g < fGeneSets.length; g++) {
+            if (numHits[g] != hitRanks[g].length) {
+                hitRanks[g] = null;
+            }
+        }
+
+        return hitRanks;
+    }
+
     public GeneSetCohort clone(final GeneSet[] gsets, final boolean qualifySetsAgainstRankedList) {
         return new DefaultGeneSetCohort(fOrigTable, getRankedList(), gsets, GeneToGeneSetMap.generateGeneToGenesetMap(gsets), fSilent,
                 qualifySetsAgainstRankedList);
@@ -62,6 +106,14 @@ public class DefaultGeneSetCohort extends AbstractGeneSetCohort {
         return fGeneSetScoringTables[gsetNum].getMissScore(geneName);
     }
 
+    public double getHitPoints(final int gsetNum, final int rank) {
+        return fGeneSetScoringTables[gsetNum].getHitScore(rank);
+    }
+
+    public double getMissPoints(final int gsetNum, final int rank) {
+        return fGeneSetScoringTables[gsetNum].getMissScore(rank);
+    }
+
     /**
      * Internal class
      */
@@ -72,17 +124,51 @@ public class DefaultGeneSetCohort extends AbstractGeneSetCohort {
         private boolean fSilent;
         private GeneSetScoringTable fOrigTable;
 
+        // @note the map of these exact gene sets is made once and reused (e.g across the ranked lists of a batch)
+        private GeneSet[] fGeneSets_opt;
+        private GeneToGeneSetMap fG2gsetMap_opt;
+
         public Generator(final GeneSetScoringTable scoringTable, final boolean silent) {
             this.fOrigTable = scoringTable;
             this.fSilent = silent;
         }
 
+        /**
+         * @param scoringTable
+         * @param silent
+         * @param gsets     gene sets whose gene to gene set map is already known
+         * @param g2gsetMap the map of gsets -- reused whenever a cohort is made of exactly (the same array) gsets
+         */
+        public Generator(final GeneSetScoringTable scoringTable,
+                         final boolean silent,
+                         final GeneSet[] gsets,
+                         final GeneToGeneSetMap g2gsetMap) {
+            this(scoringTable, silent);
+
+            if (gsets == null) {
+                throw new IllegalArgumentException("Param gsets cannot be null");
+            }
+
+            if (g2gsetMap == null) {
+                throw new IllegalArgumentException("Param g2gsetMap cannot be null");
+            }
+
+            this.fGeneSets_opt = gsets;
+            this.fG2gsetMap_opt = g2gsetMap;
+        }
+
         public GeneSetCohort createGeneSetCohort(final RankedList rl,
                                                  final GeneSet[] gsets,
                                                  final boolean qualifySetsAgainstRankedList,
                                                  final boolean realRl) {
 
-            GeneToGeneSetMap g2gsetmap = GeneToGeneSetMap.generateGeneToGenesetMap(gsets);
+            final GeneToGeneSetMap g2gsetmap;
+            if (gsets == fGeneSets_opt) {
+                g2gsetmap = fG2gsetMap_opt;
+            } else {
+                g2gsetmap = GeneToGeneSetMap.generateGeneToGenesetMap(gsets);
+            }
+
             return createGeneSetCohort(rl, gsets, g2gsetmap, qualifySetsAgainstRankedList, realRl);
         }
 
@@ -110,6 +196,10 @@ public class DefaultGeneSetCohort extends AbstractGeneSetCohort {
                     qualifySetsAgainstRankedList);
         }
 
+        public GeneSetScoringTable getScoringTable() {
+            return fOrigTable;
+        }
+
     } // End class Generator
 
 } // End class DefaultWeightedGeneSetCohort
@@ -9,6 +9,7 @@ import edu.mit.broad.genome.math.Matrix;
 import edu.mit.broad.genome.math.Vector;
 import edu.mit.broad.genome.objects.*;
 import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentResult;
+import edu.mit.broad.genome.objects.esmatrix.db.RndEsStore;
 
 import java.util.*;
 import java.util.List;
@@ -50,6 +51,63 @@ public class EdbAlgs {
         return new DefaultDataset(name + "_rnd_es", m, rowNames, _permColNames(numPerms), true, null);
     }
 
+    /**
+     * The rnd es of the results as one store -- the store they already share if they do (no copy) else a new
+     * one with the rnd es of result r in row r.
+     *
+     * @param results
+     * @param fill_rows_here the row of the store of every result
+     * @return
+     */
+    public static RndEsStore getRndEsStore(final EnrichmentResult[] results, final int[] fill_rows_here) {
+
+        _nonNull(results);
+
+        if (fill_rows_here.length != results.length) {
+            throw new MismatchedSizeException("results", results.length, "fill_rows_here", fill_rows_here.length);
+        }
+
+        final int numPerms = enforceSameNumOfPerms(results);
+
+        RndEsStore shared = results.length != 0 ? results[0].getRndEsStore() : null;
+        for (int r = 0; r < results.length && shared != null; r++) {
+            if (results[r].getRndEsStore() != shared) {
+                shared = null;
+            } else {
+                fill_rows_here[r] = results[r].getRndEsStoreIndex();
+            }
+        }
+
+        if (shared != null) {
+            return shared;
+        }
+
+        final RndEsStore store = RndEsStore.create(results.length, numPerms);
+        final float[] row = new float[numPerms];
+        for (int r = 0; r < results.length; r++) {
+            final Vector v = results[r].getRndESS();
+            for (int p = 0; p < numPerms; p++) {
+                row[p] = v.getElement(p);
+            }
+            store.setRow(r, row);
+            fill_rows_here[r] = r;
+
+            // @note and what the set's own store had past its row
+            final RndEsStore own = results[r].getRndEsStore();
+            if (own != null) {
+                final int i = results[r].getRndEsStoreIndex();
+                if (own.getNumExtraPerms(i) != 0) {
+                    store.setExtraPerms(r, own.getNumExtraPerms(i), own.getNumExtraSameSide(i), own.getNumExtraMoreExtreme(i));
+                }
+                if (!Float.isNaN(own.getNPEstimate(i))) {
+                    store.setNPEstimate(r, own.getNPEstimate(i), own.getNPLog2Err(i));
+                }
+            }
+        }
+
+        return store;
+    }
+
     public static GeneSet[] getGeneSets(final EnrichmentResult[] results) {
         _nonNull(results);
 
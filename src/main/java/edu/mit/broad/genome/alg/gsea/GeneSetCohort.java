@@ -29,6 +29,11 @@ public interface GeneSetCohort {
 
     public double getMissPoints(int gsetNum, String geneName);
 
+    // @note by rank in the ranked list, see CompiledGeneSetCohort
+    public double getHitPoints(int gsetNum, int rank);
+
+    public double getMissPoints(int gsetNum, int rank);
+
     public boolean isMember(int gsetNum, String geneName);
 
     public int getNumTrue(int gsetNum);
@@ -17,6 +17,11 @@ public interface GeneSetScoringTable {
 
     public float getMissScore(final String name);
 
+    // @note rank based lookups -- same scores as the by name lookups above but without any hashing
+    public float getHitScore(final int rank);
+
+    public float getMissScore(final int rank);
+
     public GeneSetScoringTable createTable(GeneSet gset, RankedList rl, RankedList realRankedList);
 
     public RankedList getRankedList();
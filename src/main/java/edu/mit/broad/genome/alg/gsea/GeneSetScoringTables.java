@@ -8,6 +8,8 @@ import edu.mit.broad.genome.objects.GeneSet;
 import edu.mit.broad.genome.objects.RankedList;
 import org.apache.log4j.Logger;
 
+import java.util.Arrays;
+
 /**
  * @author Aravind Subramanian
  */
@@ -112,11 +114,19 @@ public class GeneSetScoringTables {
             return hitpoints;
         }
 
+        public float getHitScore(final int rank) {
+            return hitpoints;
+        }
+
         // misses are not weighted
         public float getMissScore(String name) {
             return misspoints;
         }
 
+        public float getMissScore(final int rank) {
+            return misspoints;
+        }
+
     }
 
     // Needed as cdna give some nans for the class metric
@@ -129,182 +139,246 @@ public class GeneSetScoringTables {
     }
 
 
-    public static class Weighted extends AbstractScoringTable {
+    /**
+     * The per rank weights of one ranked list for a weighted scheme: the numerator of the hit score and the
+     * term added to the total weight of a set. Made once per ranked list by whoever scores many gene sets against
+     * it (a cohort, a HitOnlyKSCore) and handed to the tables.
+     */
+    static final class RankWeights {
 
-        private static final String NAME = "weighted";
+        final float[] hitNumerators;
+
+        // double as weighted_p1.5 adds a double to its float total
+        final double[] totalTerms;
+
+        RankWeights(final RankedList rl, final AbstractWeightedScoringTable scheme) {
+            final int numLabels = rl.getSize();
+            this.hitNumerators = new float[numLabels];
+            this.totalTerms = new double[numLabels];
+            for (int r = 0; r < numLabels; r++) {
+                final float score = rl.getScore(r);
+                hitNumerators[r] = scheme.hitNumerator(score);
+                totalTerms[r] = scheme.totalTerm(score);
+            }
+        }
+
+    } // End class RankWeights
+
+    /**
+     * Base of the weighted schemes: a hit scores numerator(score) / (total over the set of term(score)) and a
+     * miss scores missNumerator / (N - size of set).
+     * <p/>
+     * The total is summed over the hits in rank order (float accumulation). Tables made by createTable with the
+     * RankWeights of their ranked list and the ranks of the hits (as a cohort does) look nothing up by name.
+     */
+    static abstract class AbstractWeightedScoringTable extends AbstractScoringTable {
 
         private float totalWeight;
-        private float nhExpected;
 
         private float miss_score;
 
         private GeneSet gset;
+
         private RankedList rankedList;
 
-        public Weighted() {
+        private RankWeights weights; // null if made without them
+
+        protected AbstractWeightedScoringTable() {
         }
 
-        public Weighted(final GeneSet gset, final RankedList rl) {
+        /**
+         * @param gset
+         * @param rl
+         * @param weights_opt   the weights of rl
+         * @param hitRanks_opt  the ranks in rl of the members of gset, ascending. Looked up by name if null
+         * @param missNumerator
+         */
+        protected AbstractWeightedScoringTable(final GeneSet gset,
+                                               final RankedList rl,
+                                               final RankWeights weights_opt,
+                                               final int[] hitRanks_opt,
+                                               final float missNumerator) {
 
             this.gset = gset;
-            this.nhExpected = gset.getNumMembers();
+            final float nhExpected = gset.getNumMembers();
 
             if (nhExpected == 0) {
                 throw new IllegalArgumentException("Number of members in gene set cannot be 0: " + gset.getName());
             }
 
             this.rankedList = rl;
-            for (int i = 0; i < this.gset.getNumMembers(); i++) {
-                float score = this.rankedList.getScore(gset.getMember(i));
-                totalWeight += _abs(score);
+            this.weights = weights_opt;
+
+            final int[] hitRanks = hitRanks_opt != null ? hitRanks_opt : hitRanks(gset, rl);
+            for (int j = 0; j < hitRanks.length; j++) {
+                if (weights != null) {
+                    totalWeight += weights.totalTerms[hitRanks[j]];
+                } else {
+                    totalWeight += totalTerm(rankedList.getScore(hitRanks[j]));
+                }
             }
 
             final float nTotal = rankedList.getSize();
-            this.miss_score = 1.0f / (nTotal - nhExpected);
+            this.miss_score = missNumerator / (nTotal - nhExpected);
         }
 
-        public String getName() {
-            return NAME;
+        protected abstract float hitNumerator(float score);
+
+        protected abstract double totalTerm(float score);
+
+        /**
+         * @param gset
+         * @param rl
+         * @param weights_opt  the weights of rl
+         * @param hitRanks_opt the ranks in rl of the members of gset, ascending
+         * @return a table of this scheme
+         */
+        protected abstract GeneSetScoringTable createTable(GeneSet gset, RankedList rl, RankWeights weights_opt, int[] hitRanks_opt);
+
+        public GeneSetScoringTable createTable(final GeneSet gset, final RankedList rl, final RankedList realRankedList) {
+            return createTable(gset, rl, null, null);
         }
 
         public RankedList getRankedList() {
             return rankedList;
         }
 
-        public GeneSetScoringTable createTable(final GeneSet gset, final RankedList rl, final RankedList realRankedList) {
-            return new Weighted(gset, rl);
-        }
-
         public float getHitScore(final String name) {
+            return hitNumerator(rankedList.getScore(name)) / totalWeight;
+        }
 
-            float score = rankedList.getScore(name);
-
-            score = _abs(score);
-            return score / totalWeight;
+        public float getHitScore(final int rank) {
+            if (weights != null) {
+                return weights.hitNumerators[rank] / totalWeight;
+            } else {
+                return hitNumerator(rankedList.getScore(rank)) / totalWeight;
+            }
         }
 
         // misses are not weighted
         public float getMissScore(String name) {
             return miss_score;
         }
-    } // End class Weighted
 
+        public float getMissScore(final int rank) {
+            return miss_score;
+        }
 
-    public static class WeightedSquared extends AbstractScoringTable {
+        // ranks of the members, ascending
+        private static int[] hitRanks(final GeneSet gset, final RankedList rl) {
+            final int[] hitRanks = new int[gset.getNumMembers()];
+            for (int i = 0; i < hitRanks.length; i++) {
+                hitRanks[i] = rl.getRank(gset.getMember(i));
+                if (hitRanks[i] == -1) {
+                    throw new IllegalArgumentException("No such name: " + gset.getMember(i) + " in ranked list: " + rl.getName());
+                }
+            }
 
-        private static final String NAME = "weighted_p2";
+            Arrays.sort(hitRanks);
+            return hitRanks;
+        }
 
-        private float totalWeight_sq;
-        private float nhExpected;
+    } // End class AbstractWeightedScoringTable
 
-        private float miss_score;
+    public static class Weighted extends AbstractWeightedScoringTable {
 
-        private GeneSet gset;
-        private RankedList rankedList;
+        private static final String NAME = "weighted";
 
-        public WeightedSquared() {
+        public Weighted() {
         }
 
-        public WeightedSquared(final GeneSet gset, final RankedList rl) {
-
-            this.gset = gset;
-            this.nhExpected = gset.getNumMembers();
-
-            if (nhExpected == 0) {
-                throw new IllegalArgumentException("Number of members in gene set cannot be 0: " + gset.getName());
-            }
-
-            this.rankedList = rl;
-            for (int i = 0; i < this.gset.getNumMembers(); i++) {
-                float score = this.rankedList.getScore(gset.getMember(i));
-                totalWeight_sq += score * score;
-            }
+        public Weighted(final GeneSet gset, final RankedList rl) {
+            super(gset, rl, null, null, 1.0f);
+        }
 
-            final float nTotal = rankedList.getSize();
-            this.miss_score = 1.0f / (nTotal - nhExpected);
+        private Weighted(final GeneSet gset, final RankedList rl, final RankWeights weights_opt, final int[] hitRanks_opt) {
+            super(gset, rl, weights_opt, hitRanks_opt, 1.0f);
         }
 
         public String getName() {
             return NAME;
         }
 
-        public RankedList getRankedList() {
-            return rankedList;
+        protected GeneSetScoringTable createTable(final GeneSet gset, final RankedList rl, final RankWeights weights_opt, final int[] hitRanks_opt) {
+            return new Weighted(gset, rl, weights_opt, hitRanks_opt);
         }
 
-        public GeneSetScoringTable createTable(GeneSet gset, RankedList rl, RankedList realRankedList) {
-            return new WeightedSquared(gset, rl);
+        protected float hitNumerator(final float score) {
+            return _abs(score);
         }
 
-        public float getHitScore(String name) {
-            float score = rankedList.getScore(name);
-            return (score * score) / totalWeight_sq;
+        protected double totalTerm(final float score) {
+            return _abs(score);
         }
 
-        // misses are not weighted
-        public float getMissScore(String name) {
-            return miss_score;
-        }
-    } // End class WeightedSquared
+    } // End class Weighted
 
-    public static class WeightedOnePointFive extends AbstractScoringTable {
 
-        private static final String NAME = "weighted_p1.5";
+    public static class WeightedSquared extends AbstractWeightedScoringTable {
 
-        private float totalWeight_sq;
+        private static final String NAME = "weighted_p2";
 
-        private float nhExpected;
+        public WeightedSquared() {
+        }
 
-        private float miss_score;
+        public WeightedSquared(final GeneSet gset, final RankedList rl) {
+            super(gset, rl, null, null, 1.0f);
+        }
 
-        private GeneSet gset;
+        private WeightedSquared(final GeneSet gset, final RankedList rl, final RankWeights weights_opt, final int[] hitRanks_opt) {
+            super(gset, rl, weights_opt, hitRanks_opt, 1.0f);
+        }
 
-        private RankedList rankedList;
+        public String getName() {
+            return NAME;
+        }
 
-        public WeightedOnePointFive() {
+        protected GeneSetScoringTable createTable(final GeneSet gset, final RankedList rl, final RankWeights weights_opt, final int[] hitRanks_opt) {
+            return new WeightedSquared(gset, rl, weights_opt, hitRanks_opt);
         }
 
-        public WeightedOnePointFive(final GeneSet gset, final RankedList rl) {
+        protected float hitNumerator(final float score) {
+            return score * score;
+        }
 
-            this.gset = gset;
-            this.nhExpected = gset.getNumMembers();
+        protected double totalTerm(final float score) {
+            return score * score;
+        }
 
-            if (nhExpected == 0) {
-                throw new IllegalArgumentException("Number of members in gene set cannot be 0: " + gset.getName());
-            }
+    } // End class WeightedSquared
 
-            this.rankedList = rl;
-            for (int i = 0; i < this.gset.getNumMembers(); i++) {
-                float score = this.rankedList.getScore(gset.getMember(i));
-                totalWeight_sq += Math.pow(score, 1.5);
-            }
+    public static class WeightedOnePointFive extends AbstractWeightedScoringTable {
 
-            final float nTotal = rankedList.getSize();
-            this.miss_score = 1.5f / (nTotal - nhExpected);
+        private static final String NAME = "weighted_p1.5";
+
+        public WeightedOnePointFive() {
+        }
+
+        public WeightedOnePointFive(final GeneSet gset, final RankedList rl) {
+            super(gset, rl, null, null, 1.5f);
+        }
+
+        private WeightedOnePointFive(final GeneSet gset, final RankedList rl, final RankWeights weights_opt, final int[] hitRanks_opt) {
+            super(gset, rl, weights_opt, hitRanks_opt, 1.5f);
         }
 
         public String getName() {
             return NAME;
         }
 
-        public RankedList getRankedList() {
-            return rankedList;
+        protected GeneSetScoringTable createTable(final GeneSet gset, final RankedList rl, final RankWeights weights_opt, final int[] hitRanks_opt) {
+            return new WeightedOnePointFive(gset, rl, weights_opt, hitRanks_opt);
         }
 
-        public GeneSetScoringTable createTable(GeneSet gset, RankedList rl, RankedList realRankedList) {
-            return new WeightedOnePointFive(gset, rl);
+        // @note IMP numerator is score^0.5 against a total of score^1.5
+        protected float hitNumerator(final float score) {
+            return (float) Math.pow(score, 0.5);
         }
 
-        public float getHitScore(String name) {
-            float score = rankedList.getScore(name);
-            float ss = (float) Math.pow(score, 0.5);
-            return ss / totalWeight_sq;
+        protected double totalTerm(final float score) {
+            return Math.pow(score, 1.5);
         }
 
-        // misses are not weighted
-        public float getMissScore(String name) {
-            return miss_score;
-        }
     } // End class WeightedHalf
 
     public static class WeightedDoubleSidedAs extends AbstractScoringTable {
@@ -429,9 +503,12 @@ public class GeneSetScoringTables {
         }
 
         public float getHitScore(final String name) {
+            return getHitScore(rankedList.getRank(name));
+        }
 
-            float score = rankedList.getScore(name);
-            int rank = rankedList.getRank(name);
+        public float getHitScore(final int rank) {
+
+            float score = rankedList.getScore(rank);
 
             float weight;
 
@@ -458,8 +535,12 @@ public class GeneSetScoringTables {
 
         // misses are not weighted
         public float getMissScore(String name) {
+            return getMissScore(rankedList.getRank(name));
+        }
 
-            float score = rankedList.getScore(name);
+        public float getMissScore(final int rank) {
+
+            float score = rankedList.getScore(rank);
 
             if (XMath.isPositive(score)) {
                 return miss_pos_score;
@@ -596,9 +677,12 @@ public class GeneSetScoringTables {
         }
 
         public float getHitScore(final String name) {
+            return getHitScore(rankedList.getRank(name));
+        }
 
-            float score = rankedList.getScore(name);
-            int rank = rankedList.getRank(name);
+        public float getHitScore(final int rank) {
+
+            float score = rankedList.getScore(rank);
 
             float weight;
 
@@ -625,8 +709,12 @@ public class GeneSetScoringTables {
 
         // misses are not weighted
         public float getMissScore(String name) {
+            return getMissScore(rankedList.getRank(name));
+        }
+
+        public float getMissScore(final int rank) {
 
-            float score = rankedList.getScore(name);
+            float score = rankedList.getScore(rank);
 
             if (XMath.isPositive(score)) {
                 return miss_pos_score;
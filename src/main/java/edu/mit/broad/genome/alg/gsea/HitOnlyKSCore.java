@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.alg.gsea;
+
+import edu.mit.broad.genome.objects.RankedList;
+
+import java.util.Arrays;
+
+/**
+ * Enrichment score of a gene set from the ranks of its hits alone.
+ * <p/>
+ * Between two hits the running sum only drops by the miss points so the max deviation
+ * can only be at a hit, just before it or at the end of the list. So the es is the same walk as
+ * KSCore, op for op, but over the k hits rather than all N ranks -- O(k log k) with the sort.
+ * <p/>
+ * Bound to one ranked list and one scoring scheme (classic, weighted, weighted_p2, weighted_p1.5);
+ * the per rank weights are those of GeneSetScoringTables, made once (per core) for the ranked list.
+ *
+ * @author Aravind Subramanian
+ * @see KSCore
+ * @see GeneSetScoringTables
+ */
+public class HitOnlyKSCore {
+
+    private static final int CLASSIC = 0;
+    private static final int WEIGHTED = 1;
+    private static final int WEIGHTED_P2 = 2;
+    private static final int WEIGHTED_P1_5 = 3;
+
+    private final int fNumLabels;
+
+    private final int fScheme;
+
+    // per rank: term added to the total weight of a set and the numerator of the hit score
+    private final double[] fTotalTerms;
+
+    private final float[] fHitNumerators;
+
+    /**
+     * @param table only the kind of the table is used
+     * @return true if es for this kind of table can be calculated from hits alone
+     */
+    public static boolean isSupported(final GeneSetScoringTable table) {
+        return table != null && _scheme(table) != -1;
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param table the scoring scheme (only the kind of the table is used)
+     * @param rl    ranked list whose ranks the hits refer to
+     */
+    public HitOnlyKSCore(final GeneSetScoringTable table, final RankedList rl) {
+        if (table == null) {
+            throw new IllegalArgumentException("Param table cannot be null");
+        }
+
+        if (rl == null) {
+            throw new IllegalArgumentException("Param rl cannot be null");
+        }
+
+        this.fScheme = _scheme(table);
+        if (fScheme == -1) {
+            throw new IllegalArgumentException("Unsupported scoring table: " + table.getName());
+        }
+
+        this.fNumLabels = rl.getSize();
+
+        // @note the same per rank weights as the tables of the scheme
+        if (fScheme == CLASSIC) {
+            this.fTotalTerms = null;
+            this.fHitNumerators = null;
+        } else {
+            final GeneSetScoringTables.RankWeights weights = new GeneSetScoringTables.RankWeights(rl, (GeneSetScoringTables.AbstractWeightedScoringTable) table);
+            this.fTotalTerms = weights.totalTerms;
+            this.fHitNumerators = weights.hitNumerators;
+        }
+    }
+
+    public int getNumLabels() {
+        return fNumLabels;
+    }
+
+    /**
+     * @param hitRanks ranks of the hits, in any order. IMP: sorted in place
+     * @param numHits  only the first numHits of hitRanks are used (so scratch arrays can be reused)
+     * @return the es -- same as getES() of KSCore for a set with these members
+     */
+    public float calculateES(final int[] hitRanks, final int numHits) {
+        if (numHits <= 0 || numHits > hitRanks.length) {
+            throw new IllegalArgumentException("Invalid numHits: " + numHits + " for hitRanks of length: " + hitRanks.length);
+        }
+
+        Arrays.sort(hitRanks, 0, numHits);
+        return calculateESSorted(hitRanks, numHits);
+    }
+
+    /**
+     * @param hitRanks ranks of the hits, low to high (not checked)
+     * @param numHits  only the first numHits of hitRanks are used
+     * @return the es -- as calculateES but without the sort, for callers that keep their hits in order
+     */
+    float calculateESSorted(final int[] hitRanks, final int numHits) {
+        // the total weight of the hits (float accumulation in rank order, as in the tables)
+        float totalWeight = 0;
+        if (fScheme != CLASSIC) {
+            for (int j = 0; j < numHits; j++) {
+                totalWeight += fTotalTerms[hitRanks[j]];
+            }
+        }
+
+        final float classicHit = 1.0f / (float) numHits;
+        final double missPts;
+        if (fScheme == WEIGHTED_P1_5) {
+            missPts = 1.5f / ((float) fNumLabels - (float) numHits);
+        } else {
+            missPts = 1.0f / ((float) fNumLabels - (float) numHits);
+        }
+
+        double runningScore = 0;
+        float es = 0;
+        int prevHit = -1;
+
+        for (int j = 0; j < numHits; j++) {
+            final int r = hitRanks[j];
+
+            final int gap = r - prevHit - 1;
+            if (gap > 0) {
+                runningScore -= gap * missPts;
+                if (Math.abs(es) < Math.abs(runningScore)) {
+                    es = (float) runningScore;
+                }
+            }
+
+            double sr = fScheme == CLASSIC ? classicHit : fHitNumerators[r] / totalWeight;
+            if (Double.isNaN(sr) || Double.isInfinite(sr)) {
+                sr = 0.000001d;
+            }
+            runningScore += sr;
+
+            if (Math.abs(es) < Math.abs(runningScore)) {
+                es = (float) runningScore;
+            }
+
+            prevHit = r;
+        }
+
+        // the last rank closes the walk
+        if (prevHit != fNumLabels - 1) {
+            final int gap = fNumLabels - 1 - prevHit - 1;
+            if (gap > 0) {
+                runningScore -= gap * missPts;
+                if (Math.abs(es) < Math.abs(runningScore)) {
+                    es = (float) runningScore;
+                }
+            }
+
+            runningScore -= missPts;
+            if (Math.abs(es) < Math.abs(runningScore)) {
+                es = (float) runningScore;
+            }
+        }
+
+        return es;
+    }
+
+    /**
+     * @param sortedHits ranks of the hits, low to high
+     * @param numHits    only the first numHits of sortedHits are used
+     * @return the total weight of the hits (in double, to be kept up to date over swaps -- see calculateESSorted)
+     */
+    double calculateTotalWeight(final int[] sortedHits, final int numHits) {
+        if (fScheme == CLASSIC) {
+            return numHits;
+        }
+
+        double total = 0;
+        for (int j = 0; j < numHits; j++) {
+            total += fTotalTerms[sortedHits[j]];
+        }
+        return total;
+    }
+
+    /**
+     * @param rank
+     * @return what the hit at rank adds to the total weight of a set
+     */
+    double getTotalTerm(final int rank) {
+        return fScheme == CLASSIC ? 1 : fTotalTerms[rank];
+    }
+
+    /**
+     * The es of a set kept in rank order by its caller (and its total weight with it, see calculateTotalWeight and
+     * getTotalTerm) -- for an MCMC that moves a set one member at a time (as in fgsea): no sort and no pass over the
+     * hits for their total weight. Only the highest and lowest points of the walk are kept (no branch per hit on
+     * which is the es so far).
+     * <p/>
+     * @note in double throughout (and a tie of the highest and lowest points goes to the highest), so the last
+     * digits might not be those of calculateES
+     *
+     * @param sortedHits  ranks of the hits, low to high (not checked)
+     * @param numHits     only the first numHits of sortedHits are used
+     * @param totalWeight total weight of the hits
+     * @return the es
+     */
+    double calculateESSorted(final int[] sortedHits, final int numHits, final double totalWeight) {
+        final double invTotalWeight = 1.0 / totalWeight;
+        if (fScheme != CLASSIC && (Double.isNaN(invTotalWeight) || Double.isInfinite(invTotalWeight))) {
+            return calculateESSorted(sortedHits, numHits); // a set of no weight, as calculateES
+        }
+
+        final double missPts;
+        if (fScheme == WEIGHTED_P1_5) {
+            missPts = 1.5f / ((float) fNumLabels - (float) numHits);
+        } else {
+            missPts = 1.0f / ((float) fNumLabels - (float) numHits);
+        }
+
+        // @note each point of the walk from the hit weight so far and the # of misses before it (rather than one
+        // running score) -- so only the hit weight is carried from one hit to the next
+        double highest = 0;
+        double lowest = 0;
+        double hitWeight = 0;
+        if (fScheme == CLASSIC) {
+            final double hitPts = 1.0f / (float) numHits;
+            for (int j = 0; j < numHits; j++) {
+                final int r = sortedHits[j];
+                final double misses = (r - j) * missPts;
+                lowest = Math.min(lowest, hitWeight - misses);
+                hitWeight += hitPts;
+                highest = Math.max(highest, hitWeight - misses);
+            }
+        } else {
+            for (int j = 0; j < numHits; j++) {
+                final int r = sortedHits[j];
+                final double misses = (r - j) * missPts;
+                lowest = Math.min(lowest, hitWeight * invTotalWeight - misses);
+                hitWeight += fHitNumerators[r];
+                highest = Math.max(highest, hitWeight * invTotalWeight - misses);
+            }
+            hitWeight *= invTotalWeight;
+        }
+
+        // the last rank closes the walk
+        lowest = Math.min(lowest, hitWeight - (fNumLabels - numHits) * missPts);
+        return highest >= -lowest ? highest : lowest;
+    }
+
+    private static int _scheme(final GeneSetScoringTable table) {
+        // @note exact classes only, subclasses might score differently
+        final Class cl = table.getClass();
+        if (cl == GeneSetScoringTables.Classic.class) {
+            return CLASSIC;
+        } else if (cl == GeneSetScoringTables.Weighted.class) {
+            return WEIGHTED;
+        } else if (cl == GeneSetScoringTables.WeightedSquared.class) {
+            return WEIGHTED_P2;
+        } else if (cl == GeneSetScoringTables.WeightedOnePointFive.class) {
+            return WEIGHTED_P1_5;
+        } else {
+            return -1;
+        }
+    }
+
+} // End class HitOnlyKSCore
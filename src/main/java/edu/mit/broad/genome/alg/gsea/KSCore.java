@@ -29,7 +29,17 @@ public class KSCore {
     public EnrichmentScore[] calculateKSScore(final GeneSetCohort gcoh,
                                               final boolean storeDeep) {
 
-        EnrichmentScoreCohort[] cohorts = calculateKSScore_all_modes(gcoh, storeDeep);
+        if (gcoh == null) {
+            throw new IllegalArgumentException("Param gcoh cannot be null");
+        }
+
+        return calculateKSScore(CompiledGeneSetCohort.compile(gcoh), storeDeep);
+    }
+
+    public EnrichmentScore[] calculateKSScore(final CompiledGeneSetCohort cgcoh,
+                                              final boolean storeDeep) {
+
+        EnrichmentScoreCohort[] cohorts = calculateKSScore_all_modes(cgcoh, storeDeep);
         EnrichmentScore[] ess = new EnrichmentScore[cohorts.length];
         for (int i = 0; i < ess.length; i++) {
             ess[i] = cohorts[i].es_maxdev_style;
@@ -38,15 +48,132 @@ public class KSCore {
         return ess;
     }
 
-    // Justin Guinneys implementation
-    private EnrichmentScoreCohort[] calculateKSScore_all_modes(final GeneSetCohort gcoh,
-                                                               final boolean storeDeep) {
+    /**
+     * Permutation only mode: just the (maxdev style) ES of every gene set.
+     * No running sums at each point, no hit indices and no per gene set objects
+     * -- use calculateKSScore for the real ranked list.
+     */
+    public float[] calculateKSScore_es_only(final GeneSetCohort gcoh) {
         if (gcoh == null) {
             throw new IllegalArgumentException("Param gcoh cannot be null");
         }
 
+        return calculateKSScore_es_only(CompiledGeneSetCohort.compile(gcoh), null, null);
+    }
+
+    /**
+     * @param cgcoh
+     * @param ess_pos_list_opt if not null, filled with the max deviation on the positive side of the list
+     * @param ess_neg_list_opt if not null, filled with the max deviation on the negative side of the list
+     * @return the es of every gene set (identical to getES() of the calculateKSScore scores)
+     */
+    public float[] calculateKSScore_es_only(final CompiledGeneSetCohort cgcoh,
+                                            final float[] ess_pos_list_opt,
+                                            final float[] ess_neg_list_opt) {
+        if (cgcoh == null) {
+            throw new IllegalArgumentException("Param cgcoh cannot be null");
+        }
+
+        final int numGeneSets = cgcoh.getNumGeneSets();
+        final int rlSize = cgcoh.getNumLabels();
+
+        if (ess_pos_list_opt != null && ess_pos_list_opt.length != numGeneSets) {
+            throw new IllegalArgumentException("ess_pos_list_opt length: " + ess_pos_list_opt.length + " not equal to # gene sets: " + numGeneSets);
+        }
+
+        if (ess_neg_list_opt != null && ess_neg_list_opt.length != numGeneSets) {
+            throw new IllegalArgumentException("ess_neg_list_opt length: " + ess_neg_list_opt.length + " not equal to # gene sets: " + numGeneSets);
+        }
+
+        if (ess_pos_list_opt != null) {
+            Arrays.fill(ess_pos_list_opt, 0f);
+        }
+
+        if (ess_neg_list_opt != null) {
+            Arrays.fill(ess_neg_list_opt, 0f);
+        }
+
+        final float[] ess_maxdev = new float[numGeneSets];
+        final double[] runningScores = new double[numGeneSets];
+        final int[] genesetJumps = new int[numGeneSets];
+        Arrays.fill(genesetJumps, -1);
+
+        final float[] rankScores = cgcoh.getRankScores();
+        final int[] rankOffsets = cgcoh.getRankOffsets();
+        final int[] geneSetIndices = cgcoh.getGeneSetIndices();
+        final float[] hitPoints = cgcoh.getHitPoints();
+        final float[] missPoints = cgcoh.getMissPoints();
+        final float[] lastMissPoints = cgcoh.getLastMissPoints();
+
+        final int[] lastRunEntries = new int[numGeneSets];
+        Arrays.fill(lastRunEntries, -1);
+        if (rlSize > 0) {
+            for (int k = rankOffsets[rlSize - 1]; k < rankOffsets[rlSize]; k++) {
+                lastRunEntries[geneSetIndices[k]] = k;
+            }
+        }
+
+        // @note same walk as calculateKSScore_all_modes minus the backfill and the bookkeeping
+        for (int r = 0; r < rlSize; r++) {
+
+            final boolean isLastRun = r == (rlSize - 1);
+            final int from = isLastRun ? 0 : rankOffsets[r];
+            final int to = isLastRun ? numGeneSets : rankOffsets[r + 1];
+            final boolean posList = XMath.isPositive(rankScores[r]);
+
+            for (int i = from; i < to; i++) {
+                final int g = isLastRun ? i : geneSetIndices[i];
+                final int k = isLastRun ? lastRunEntries[g] : i;
+                final double missPts = isLastRun ? lastMissPoints[g] : missPoints[k];
+
+                final int gap = r - genesetJumps[g] - 1;
+                if (gap > 0) {
+                    runningScores[g] -= gap * missPts;
+                    if (Math.abs(ess_maxdev[g]) < Math.abs(runningScores[g])) {
+                        ess_maxdev[g] = (float) runningScores[g];
+                    }
+                }
+
+                if (k == -1) {
+                    runningScores[g] -= missPts;
+                } else {
+                    genesetJumps[g] = r;
+                    double sr = hitPoints[k];
+                    if (Double.isNaN(sr) || Double.isInfinite(sr)) {
+                        sr = 0.000001d;
+                    }
+                    runningScores[g] += sr;
+                }
+
+                if (Math.abs(ess_maxdev[g]) < Math.abs(runningScores[g])) {
+                    ess_maxdev[g] = (float) runningScores[g];
+                }
+
+                if (posList) {
+                    if (ess_pos_list_opt != null && ess_pos_list_opt[g] < runningScores[g]) {
+                        ess_pos_list_opt[g] = (float) runningScores[g];
+                    }
+                } else {
+                    if (ess_neg_list_opt != null && ess_neg_list_opt[g] > runningScores[g]) {
+                        ess_neg_list_opt[g] = (float) runningScores[g];
+                    }
+                }
+            }
+        }
+
+        return ess_maxdev;
+    }
+
+    // Justin Guinneys implementation
+    // @note walks the compiled (int indexed) cohort -- no by name lookups in here
+    private EnrichmentScoreCohort[] calculateKSScore_all_modes(final CompiledGeneSetCohort cgcoh,
+                                                               final boolean storeDeep) {
+        if (cgcoh == null) {
+            throw new IllegalArgumentException("Param cgcoh cannot be null");
+        }
+
         TFloatArrayList[] scoresAtEachHitIndex = null;
-        final int numGeneSets = gcoh.getNumGeneSets();
+        final int numGeneSets = cgcoh.getNumGeneSets();
         
         final int[] rankAtMaxEs = new int[numGeneSets];
         final float[] scoresAtMaxEs = new float[numGeneSets];
@@ -61,7 +188,7 @@ public class KSCore {
         // Also store every point for nicer es plots when run from memory
         Vector[] scoresAtEachPoint = new Vector[numGeneSets];
         // init
-        int numLabels = gcoh.getNumLabels();
+        int numLabels = cgcoh.getNumLabels();
         for (int g = 0; g < numGeneSets; g++) {
             scoresAtEachPoint[g] = new Vector(numLabels);
         }
@@ -69,8 +196,7 @@ public class KSCore {
         // always filled as needed by mann whitney (even if it isnt saved after here)
         final HitIndices[] hitIndices = new HitIndices[numGeneSets];
         for (int g = 0; g < numGeneSets; g++) {
-            //log.debug("gene set: " + gcoh.getGeneSet(g).getName() + " numTrue: " + gcoh.getNumTrue(g) + " numMembers: " + gcoh.getGeneSet(g).getNumMembers());
-            hitIndices[g] = new HitIndices(gcoh.getNumTrue(g));
+            hitIndices[g] = new HitIndices(cgcoh.getNumTrue(g));
         }
 
         final float[] ess_maxdev = new float[numGeneSets];
@@ -97,65 +223,88 @@ public class KSCore {
         final int[] genesetJumps = new int[numGeneSets];
         Arrays.fill(genesetJumps, -1);
 
-        final RankedList rl = gcoh.getRankedList();
+        final float[] rankScores = cgcoh.getRankScores();
+        final int[] rankOffsets = cgcoh.getRankOffsets();
+        final int[] geneSetIndices = cgcoh.getGeneSetIndices();
+        final float[] hitPoints = cgcoh.getHitPoints();
+        final float[] missPoints = cgcoh.getMissPoints();
+        final float[] lastMissPoints = cgcoh.getLastMissPoints();
 
         // START JG CHANGES //
         // Note that this following loop has been found to be very important to overall
         // performance, so be very careful about changes here.
         
-        final int rlSize = rl.getSize();
+        final int rlSize = numLabels;
+
+        // for the last run, we want to iterate over all genesets, so note which ones the last gene is a member of
+        final int[] lastRunEntries = new int[numGeneSets];
+        Arrays.fill(lastRunEntries, -1);
+        if (rlSize > 0) {
+            for (int k = rankOffsets[rlSize - 1]; k < rankOffsets[rlSize]; k++) {
+                lastRunEntries[geneSetIndices[k]] = k;
+            }
+        }
+
         for (int r = 0; r < rlSize; r++) {
 
             final boolean isLastRun = r == (rlSize - 1);
 
-            String rowName = rl.getRankName(r);
-            final float corr = rl.getScore(r);
+            final float corr = rankScores[r];
             boolean posList = XMath.isPositive(corr);
 
-            int[] genesetIndices = null;
+            final int from;
+            final int to;
             if (isLastRun) {
-                // for the last run, we want to iterate over all genesets
-                genesetIndices = new int[numGeneSets];
-                for (int i = 0; i < genesetIndices.length; ++i) {
-                    genesetIndices[i] = i;
-                }
+                from = 0;
+                to = numGeneSets;
             } else {
                 // otherwise, we only care about those genesets associated with this gene
-                genesetIndices = gcoh.genesetIndicesForGene(rowName);
+                from = rankOffsets[r];
+                to = rankOffsets[r + 1];
             }
 
             // gene not in any geneset
-            if (genesetIndices == null) {
+            if (from == to) {
                 continue;
             }
 
-            for (int i = 0; i < genesetIndices.length; i++) {
-                int g = genesetIndices[i];
+            for (int i = from; i < to; i++) {
+                final int g;
+                final int k; // the CSR entry, -1 if this gene is not a member (last run only)
+                final double missPts;
+                if (isLastRun) {
+                    g = i;
+                    k = lastRunEntries[g];
+                    missPts = lastMissPoints[g];
+                } else {
+                    g = geneSetIndices[i];
+                    k = i;
+                    missPts = missPoints[k];
+                }
+
                 int gap = r - genesetJumps[g] - 1;
                 if (gap > 0) {
-                    double missPoints = gcoh.getMissPoints(g, rowName);
-
                     // backfill - this typically only happens on 'real', not permutations
                     double trun = runningScores[g];
                     for (int j = genesetJumps[g] + 1; j < r; j++) {
-                        trun -= missPoints;
+                        trun -= missPts;
                         scoresAtEachPoint[g].setElement(j, trun);
                     }
 
-                    runningScores[g] -= gap * missPoints;
+                    runningScores[g] -= gap * missPts;
 
                     if (Math.abs(ess_maxdev[g]) < Math.abs(runningScores[g])) { // @note abs here
                         ess_maxdev[g] = (float) runningScores[g]; // @note no abs here!
                         rankAtMaxEs[g] = r - 1; // @note the -1
-                        scoresAtMaxEs[g] = rl.getScore(r - 1); // @note the -1 effective when the score is NEG
+                        scoresAtMaxEs[g] = rankScores[r - 1]; // @note the -1 effective when the score is NEG
                     }
                 }
 
-                if (isLastRun && !gcoh.isMember(i, rowName)) {
-                    runningScores[g] -= gcoh.getMissPoints(g, rowName);
+                if (k == -1) {
+                    runningScores[g] -= missPts;
                 } else {
                     genesetJumps[g] = r;
-                    double sr = gcoh.getHitPoints(g, rowName);
+                    double sr = hitPoints[k];
                     if (Double.isNaN(sr) || Double.isInfinite(sr)) { // does this if the total weight is also 0
                         sr = 0.000001d;
                     }
@@ -226,7 +375,7 @@ public class KSCore {
             cohorts[g].es_on_neg_list_maxdev = new EnrichmentScoreImplSlim(ess_neg_list_maxdev[g], rankAtMaxEs_neg_list_maxdev[g], scoresAtMaxEs_neg_list_maxdev[g], cohorts[g]);
 
             cohorts[g].mw = mw;
-            cohorts[g].numHits = gcoh.getNumTrue(g);
+            cohorts[g].numHits = cgcoh.getNumTrue(g);
 
             if (storeDeep) {
                 cohorts[g].fHitIndices_opt = hitIndices[g].hitsIndices;
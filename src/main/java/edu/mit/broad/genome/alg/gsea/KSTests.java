@@ -12,13 +12,17 @@ import edu.mit.broad.genome.objects.*;
 import edu.mit.broad.genome.objects.esmatrix.db.*;
 import edu.mit.broad.genome.objects.strucs.DatasetTemplate;
 import edu.mit.broad.genome.objects.strucs.TemplateRandomizerType;
+import edu.mit.broad.genome.utils.ParallelUtils;
 import edu.mit.broad.vdb.chip.Chip;
 import org.apache.log4j.Logger;
 
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 /**
  * Kolmogorov-Smirnov Enrichment Test related methods
@@ -37,16 +41,67 @@ public class KSTests {
 
     private static final int LOG_FREQ = 5;
 
+    // number of rnd templates that are scored together in one pass over the dataset
+    private static final int METRIC_BATCH_SIZE = 16;
+
     private PrintStream sout;
 
+    private final int fNumThreads;
+
+    private final AdaptivePermutations fAdaptive_opt;
+
+    private final MultilevelPValues fMultilevel_opt;
+
     /**
      * Class Constructor.
      * Almost Stateless
      * os -> for quick stdout NOT for logging
      */
     public KSTests(final PrintStream os) {
+        this(os, 1);
+    }
+
+    /**
+     * Class Constructor.
+     * os -> for quick stdout NOT for logging
+     * numThreads -> number of worker threads for the permutations (1 => all on the calling thread)
+     */
+    public KSTests(final PrintStream os, final int numThreads) {
+        this(os, numThreads, null);
+    }
+
+    /**
+     * Class Constructor.
+     * os -> for quick stdout NOT for logging
+     * numThreads -> number of worker threads for the permutations (1 => all on the calling thread)
+     * adaptive_opt -> if not null, the permutations of the sets with undetermined nominal p-values
+     * are continued past nperm
+     */
+    public KSTests(final PrintStream os, final int numThreads, final AdaptivePermutations adaptive_opt) {
+        this(os, numThreads, adaptive_opt, null);
+    }
+
+    /**
+     * Class Constructor.
+     * os -> for quick stdout NOT for logging
+     * numThreads -> number of worker threads for the permutations (1 => all on the calling thread)
+     * adaptive_opt -> if not null, the permutations of the sets with undetermined nominal p-values
+     * are continued past nperm
+     * multilevel_opt -> if not null, the nominal p-values of a gene set permutation are estimated
+     * by multilevel splitting (the nperm permutations are still done -- for the fdrs and fwers)
+     */
+    public KSTests(final PrintStream os,
+                   final int numThreads,
+                   final AdaptivePermutations adaptive_opt,
+                   final MultilevelPValues multilevel_opt) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads must be at least 1, got: " + numThreads);
+        }
         this.sout = os;
         this.core = new KSCore();
+        this.fNumThreads = numThreads;
+        this.fAdaptive_opt = adaptive_opt;
+        this.fMultilevel_opt = multilevel_opt;
     }
 
     /**
@@ -146,10 +201,11 @@ public class KSTests {
                                         final int numMarkers,
                                         final List store_rnd_ranked_lists_here_opt) {
 
-        final Template[] rndTemplates = TemplateFactoryRandomizer.createRandomTemplates(nperm, template, rt, rst);
+        final RandomSeedGenerator rst_phen = rst.split(RandomSeedGenerators.PHENOTYPE_PERMS_KEY);
+        final Template[] rndTemplates = TemplateFactoryRandomizer.createRandomTemplates(nperm, template, rt, rst_phen);
         log.debug("Done generating rnd templates: " + rndTemplates.length);
-        return shuffleTemplate_canned_templates(metric, sort, order, metricParams, lvp, ds,
-                template, gsets, gcohgen, rndTemplates, null, null, numMarkers, store_rnd_ranked_lists_here_opt);
+        return _shuffleTemplate(metric, sort, order, metricParams, lvp, ds,
+                template, gsets, gcohgen, rndTemplates, null, null, numMarkers, store_rnd_ranked_lists_here_opt, rt, rst_phen);
     }
 
     public EnrichmentDb shuffleTemplate_canned_templates(final Metric metric,
@@ -167,13 +223,37 @@ public class KSTests {
                                                          final int numMarkers,
                                                          final List store_rnd_ranked_lists_here_opt) {
 
+        // @note no adaptive perms here -- there is no way to make more of the canned rnd templates
+        return _shuffleTemplate(metric, sort, order, metricParams, lvp, ds, template, gsets, gcohgen, rndTemplates,
+                realRankedList_pre_calculated_opt, rndRankedLists_pre_calculated_opt, numMarkers, store_rnd_ranked_lists_here_opt,
+                null, null);
+    }
+
+    // rt_opt and rst_phen_opt -> how the rnd templates were made (the same way makes any more of them)
+    private EnrichmentDb _shuffleTemplate(final Metric metric,
+                                          final SortMode sort,
+                                          final Order order,
+                                          final Map metricParams,
+                                          final LabelledVectorProcessor lvp,
+                                          final Dataset ds,
+                                          final Template template,
+                                          final GeneSet[] gsets,
+                                          final GeneSetCohortGenerator gcohgen,
+                                          final Template[] rndTemplates,
+                                          final RankedList realRankedList_pre_calculated_opt,
+                                          final RankedList[] rndRankedLists_pre_calculated_opt,
+                                          final int numMarkers,
+                                          final List store_rnd_ranked_lists_here_opt,
+                                          final TemplateRandomizerType rt_opt,
+                                          final RandomSeedGenerator rst_phen_opt) {
+
         log.debug("shuffleTemplate with -- nperm: " + rndTemplates.length + " Order: " + order + " Sort: " + sort + " gsets: " + gsets.length);
         final String dstName = NamingConventions.generateName(ds, template, true);
         final Chip chip = ds.getAnnot().getChip();
 
         final DatasetMetrics dm = new DatasetMetrics();
         final RankedList rlReal;
-        PermutationTestBuilder ptest = new PermutationTestBuilder(dstName, numMarkers, rndTemplates.length, lvp,
+        final PermutationTestBuilder ptest = new PermutationTestBuilder(dstName, numMarkers, rndTemplates.length, lvp,
                 metric, sort, order, metricParams, ds, template, null, template.isCategorical());
 
         if (realRankedList_pre_calculated_opt != null) {
@@ -189,58 +269,324 @@ public class KSTests {
 
         final GeneSetCohort gcoh = gcohgen.createGeneSetCohort(rlReal, gsets, false, true); // @note ASSUME already qualified
         final EnrichmentScore[] realScores = core.calculateKSScore(gcoh, true); // need to store details as we need the hit indices
-        final Vector[] rndEss = new Vector[gsets.length];
+        final RndEsStore rndEss = RndEsStore.create(gsets.length, rndTemplates.length); // @note one store for the whole null
+
+        final RankedList[] rndRls = store_rnd_ranked_lists_here_opt != null ? new RankedList[rndTemplates.length] : null;
+
+        // @note when the scoring scheme allows it, the rnd es come from the hit ranks alone -- no cohort needed
+        final GeneSetScoringTable hitOnlyTable = getHitOnlyTable(gcohgen);
+        final MemberIds memberIds = hitOnlyTable != null ? new MemberIds(gsets, rlReal) : null;
+
+        // Each row is a "geneset", and each column a randomization
+        // @note every perm writes only its own column of rndEss (and ptest) so the results are the
+        // same whatever the number of threads or the order in which the perms complete
+        final List<Callable<Object>> blocks = new ArrayList<Callable<Object>>();
+        final int blockSize = calcBlockSize(rndTemplates.length);
+        for (int from = 0; from < rndTemplates.length; from += blockSize) {
+            final int blockFrom = from;
+            final int blockTo = Math.min(from + blockSize, rndTemplates.length);
+            blocks.add(new Callable<Object>() {
+                public Object call() {
+                    // per worker scratch, nothing here is shared across threads
+                    final DatasetMetrics dm_w = new DatasetMetrics();
+                    final KSCore core_w = new KSCore();
+                    final int[] rankOfId_w = memberIds != null ? new int[memberIds.getNumIds()] : null;
+                    final int[] hits_w = memberIds != null ? new int[memberIds.getMaxNumMembers()] : null;
+
+                    RankedList[] batchRls = null;
+                    int batchFrom = blockFrom;
+
+                    for (int c = blockFrom; c < blockTo; c++) {
+                        final RankedList rndRl;
+
+                        if (rndRankedLists_pre_calculated_opt != null) {
+                            rndRl = rndRankedLists_pre_calculated_opt[c];
+                        } else {
+                            // @note the rnd templates are scored a batch at a time -- one pass over the dataset per batch
+                            if (batchRls == null || c - batchFrom == batchRls.length) {
+                                batchFrom = c;
+                                final Template[] batchTemplates = Arrays.copyOfRange(rndTemplates, c, Math.min(c + METRIC_BATCH_SIZE, blockTo));
+                                batchRls = dm_w.scoreDataset(metric, sort, order, metricParams, lvp, ds, batchTemplates);
+                            }
+                            rndRl = batchRls[c - batchFrom];
+                            batchRls[c - batchFrom] = null;
+                        }
+
+                        if (rndRls != null) {
+                            rndRls[c] = rndRl;
+                        }
+
+                        if (c % LOG_FREQ == 0) {
+                            StringBuffer ib = new StringBuffer("Iteration: ").append(c + 1).append('/').append(rndTemplates.length);
+                            ib.append(" for ").append(dstName);
+                            //sout.println(ib.toString());    // dont use log!
+                            System.out.println(ib.toString());
+                        }
+
+                        // DO THE RND CALC
+                        // @note only the ranked list has changed and not the feature or gene set content. With a
+                        // hit-only scheme (all those a tool can pick) the rnd es are from the member ranks alone --
+                        // no cohort is made, so there is none to clone or compile. Other schemes make one here
+                        if (memberIds != null) {
+                            final HitOnlyKSCore hcore = new HitOnlyKSCore(hitOnlyTable, rndRl);
+                            memberIds.fillRanks(rndRl, rankOfId_w);
+                            for (int g = 0; g < gsets.length; g++) {
+                                final int[] ids = memberIds.getIds(g);
+                                for (int i = 0; i < ids.length; i++) {
+                                    hits_w[i] = rankOfId_w[ids[i]];
+                                }
+                                rndEss.setElement(g, c, hcore.calculateES(hits_w, ids.length));
+                            }
+                        } else {
+                            final GeneSetCohort gcohRnd = gcohgen.createGeneSetCohort(rndRl, gsets, false, false);
+                            final float[] rndScores = core_w.calculateKSScore_es_only(gcohRnd); // @note slim, only the es is needed
+
+                            rndEss.setColumn(c, rndScores);
+                        }
+
+                        ptest.addRnd(c, rndTemplates[c], rndRl);
+                    }
+
+                    return null;
+                }
+            });
+        } // End computation loop
+
+        runAll(blocks);
+
+        if (fAdaptive_opt != null && fAdaptive_opt.isAdaptive(rndTemplates.length)
+                && rt_opt != null && rst_phen_opt != null && rndRankedLists_pre_calculated_opt == null) {
+            final AdaptivePermutations.Tallies tallies = fAdaptive_opt.new Tallies(toEss(realScores), rndEss);
+            extendTemplatePerms(tallies, rndTemplates.length, metric, sort, order, metricParams, lvp, ds, template,
+                    gsets, gcohgen, hitOnlyTable, memberIds, rt_opt, rst_phen_opt);
+            tallies.saveTo(rndEss);
+        }
+
+        if (rndRls != null) {
+            for (int c = 0; c < rndRls.length; c++) {
+                store_rnd_ranked_lists_here_opt.add(rndRls[c]);
+            }
+        }
+
+        // 1 result for every gene set
+        final EnrichmentResult[] results = new EnrichmentResult[gsets.length];
         for (int g = 0; g < gsets.length; g++) {
-            rndEss[g] = new Vector(rndTemplates.length);
+            results[g] = new EnrichmentResultImpl(rlReal, template, gsets[g], chip, realScores[g], rndEss, g, null);
         }
 
-        // Each row is a "geneset", and each column a randomization
-        for (int c = 0; c < rndTemplates.length; c++) {
-            final RankedList rndRl;
+        ptest.doCalc();
 
-            if (rndRankedLists_pre_calculated_opt != null) {
-                rndRl = rndRankedLists_pre_calculated_opt[c];
-            } else {
-                rndRl = dm.scoreDataset(metric, sort, order, metricParams, lvp, ds, rndTemplates[c]);
+        return new EnrichmentDbImplWithPermTest(dstName, rlReal, ds, template,
+                results, lvp, metric, metricParams, sort, order, rndTemplates.length, null, ptest);
+    }
+
+    /**
+     * Continue the rnd templates past nperm, in rounds, for only the gene sets whose nominal p is
+     * still undetermined. Rnd template c is the one a run with more perms would have made for c.
+     * Only the tallies are kept -- the extra rnd ranked lists are not saved nor given to the marker test
+     */
+    private void extendTemplatePerms(final AdaptivePermutations.Tallies tallies,
+                                     final int nperm,
+                                     final Metric metric,
+                                     final SortMode sort,
+                                     final Order order,
+                                     final Map metricParams,
+                                     final LabelledVectorProcessor lvp,
+                                     final Dataset ds,
+                                     final Template template,
+                                     final GeneSet[] gsets,
+                                     final GeneSetCohortGenerator gcohgen,
+                                     final GeneSetScoringTable hitOnlyTable,
+                                     final MemberIds memberIds,
+                                     final TemplateRandomizerType rt,
+                                     final RandomSeedGenerator rst_phen) {
+
+        int done = nperm;
+        int[] active = tallies.getUndetermined();
+
+        while (active.length > 0 && done < fAdaptive_opt.getMaxNumPerms()) {
+            final int roundFrom = done;
+            final int roundTo = fAdaptive_opt.nextRoundTo(done);
+            final int[] sets = active;
+            sout.println("Adaptive permutations: " + roundFrom + " to " + roundTo + " for " + sets.length + " undetermined gene sets");
+
+            final GeneSet[] activeGsets = new GeneSet[sets.length];
+            final float[] activeRealEss = new float[sets.length];
+            for (int i = 0; i < sets.length; i++) {
+                activeGsets[i] = gsets[sets[i]];
+                activeRealEss[i] = tallies.getRealEs(sets[i]);
+            }
+
+            final List<Callable<Object>> blocks = new ArrayList<Callable<Object>>();
+            final List<int[][]> counts = new ArrayList<int[][]>(); // per block, same side and more extreme of every active set
+            final int blockSize = calcBlockSize(roundTo - roundFrom);
+            for (int from = roundFrom; from < roundTo; from += blockSize) {
+                final int blockFrom = from;
+                final int blockTo = Math.min(from + blockSize, roundTo);
+                final int[][] counts_w = new int[2][sets.length];
+                counts.add(counts_w);
+                blocks.add(new Callable<Object>() {
+                    public Object call() {
+                        final DatasetMetrics dm_w = new DatasetMetrics();
+                        final KSCore core_w = new KSCore();
+                        final int[] rankOfId_w = memberIds != null ? new int[memberIds.getNumIds()] : null;
+                        final int[] hits_w = memberIds != null ? new int[memberIds.getMaxNumMembers()] : null;
+                        final float[] rndScores_w = new float[sets.length];
+
+                        for (int c = blockFrom; c < blockTo; c += METRIC_BATCH_SIZE) {
+                            final Template[] batchTemplates = new Template[Math.min(METRIC_BATCH_SIZE, blockTo - c)];
+                            for (int b = 0; b < batchTemplates.length; b++) {
+                                batchTemplates[b] = TemplateFactoryRandomizer.createRandomTemplate(c + b, template, rt, rst_phen);
+                            }
+
+                            final RankedList[] batchRls = dm_w.scoreDataset(metric, sort, order, metricParams, lvp, ds, batchTemplates);
+                            for (int b = 0; b < batchRls.length; b++) {
+                                if (memberIds != null) {
+                                    final HitOnlyKSCore hcore = new HitOnlyKSCore(hitOnlyTable, batchRls[b]);
+                                    memberIds.fillRanks(batchRls[b], rankOfId_w);
+                                    for (int i = 0; i < sets.length; i++) {
+                                        final int[] ids = memberIds.getIds(sets[i]);
+                                        for (int m = 0; m < ids.length; m++) {
+                                            hits_w[m] = rankOfId_w[ids[m]];
+                                        }
+                                        rndScores_w[i] = hcore.calculateES(hits_w, ids.length);
+                                    }
+                                } else {
+                                    final GeneSetCohort gcohRnd = gcohgen.createGeneSetCohort(batchRls[b], activeGsets, false, false);
+                                    System.arraycopy(core_w.calculateKSScore_es_only(gcohRnd), 0, rndScores_w, 0, sets.length);
+                                }
+
+                                count(activeRealEss, rndScores_w, counts_w);
+                            }
+                        }
+
+                        return null;
+                    }
+                });
             }
 
-            if (store_rnd_ranked_lists_here_opt != null) {
-                store_rnd_ranked_lists_here_opt.add(rndRl);
+            runAll(blocks);
+
+            // @note added in block order so the tallies do not depend on the threads
+            for (int i = 0; i < sets.length; i++) {
+                int numSameSide = 0;
+                int numMoreExtreme = 0;
+                for (int k = 0; k < counts.size(); k++) {
+                    numSameSide += counts.get(k)[0][i];
+                    numMoreExtreme += counts.get(k)[1][i];
+                }
+                tallies.add(sets[i], roundTo - roundFrom, numSameSide, numMoreExtreme);
             }
 
-            if (c % LOG_FREQ == 0) {
-                StringBuffer ib = new StringBuffer("Iteration: ").append(c + 1).append('/').append(rndTemplates.length);
-                ib.append(" for ").append(dstName);
-                //sout.println(ib.toString());    // dont use log!
-                System.out.println(ib.toString());
+            done = roundTo;
+            active = tallies.getUndetermined();
+        }
+    }
+
+    // counts[0][i] += rnd es i on the same side as real es i, counts[1][i] += and more extreme than it
+    private static void count(final float[] realEss, final float[] rndEss, final int[][] counts) {
+        for (int i = 0; i < realEss.length; i++) {
+            if (AdaptivePermutations.isSameSide(realEss[i], rndEss[i])) {
+                counts[0][i]++;
+                if (AdaptivePermutations.isMoreExtreme(realEss[i], rndEss[i])) {
+                    counts[1][i]++;
+                }
             }
+        }
+    }
 
-            // DO THE RND CALC
-            // @note better to just clone the existing real gcoh rather than generate a whole new one
-            // as only the ranked list has changed and not the feature or gene set content
-            final GeneSetCohort gcohRnd = gcohgen.createGeneSetCohort(rndRl, gsets, false, false);
-            //System.out.println("starting calc: " + gcoh.getNumGeneSets());
-            final EnrichmentScore[] rndScores = core.calculateKSScore(gcohRnd, false);
-            //System.out.println("done calc");
+    private static float[] toEss(final EnrichmentScore[] scores) {
+        final float[] ess = new float[scores.length];
+        for (int i = 0; i < scores.length; i++) {
+            ess[i] = scores[i].getES();
+        }
+        return ess;
+    }
+
+    /**
+     * @return the scoring table if the es of the rnds can be had from the hit ranks alone, else null
+     */
+    private static GeneSetScoringTable getHitOnlyTable(final GeneSetCohortGenerator gcohgen) {
+        if (gcohgen instanceof DefaultGeneSetCohort.Generator) {
+            final GeneSetScoringTable table = ((DefaultGeneSetCohort.Generator) gcohgen).getScoringTable();
+            if (HitOnlyKSCore.isSupported(table)) {
+                return table;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Gene set members as dense int ids so that the hit ranks of every gene set in a
+     * (rnd) ranked list can be had with one pass over the list
+     */
+    private static class MemberIds {
+
+        private final Map<String, Integer> fIdMap;
+
+        private final int[][] fIds;
+
+        private int fMaxNumMembers;
+
+        // @note only members in the (real) ranked list count -- the gene sets are assumed qualified
+        MemberIds(final GeneSet[] gsets, final RankedList rl) {
+            this.fIdMap = new HashMap<String, Integer>();
+            this.fIds = new int[gsets.length][];
 
             for (int g = 0; g < gsets.length; g++) {
-                rndEss[g].setElement(c, rndScores[g].getES());
+                final int[] ids = new int[gsets[g].getNumMembers()];
+                int cnt = 0;
+                for (int i = 0; i < ids.length; i++) {
+                    final String name = gsets[g].getMember(i);
+                    if (rl.getRank(name) == -1) {
+                        continue;
+                    }
+                    Integer id = fIdMap.get(name);
+                    if (id == null) {
+                        id = fIdMap.size();
+                        fIdMap.put(name, id);
+                    }
+                    ids[cnt++] = id;
+                }
+
+                fIds[g] = cnt == ids.length ? ids : Arrays.copyOf(ids, cnt);
+                fMaxNumMembers = Math.max(fMaxNumMembers, cnt);
             }
+        }
 
-            ptest.addRnd(rndTemplates[c], rndRl);
+        int getNumIds() {
+            return fIdMap.size();
+        }
 
-        } // End computation loop
+        int getMaxNumMembers() {
+            return fMaxNumMembers;
+        }
 
-        // 1 result for every gene set
-        final EnrichmentResult[] results = new EnrichmentResult[gsets.length];
-        for (int g = 0; g < gsets.length; g++) {
-            results[g] = new EnrichmentResultImpl(rlReal, template, gsets[g], chip, realScores[g], rndEss[g]);
+        int[] getIds(final int gsetNum) {
+            return fIds[gsetNum];
         }
 
-        ptest.doCalc();
+        void fillRanks(final RankedList rl, final int[] rankOfId) {
+            for (int r = 0; r < rl.getSize(); r++) {
+                final Integer id = fIdMap.get(rl.getRankName(r));
+                if (id != null) {
+                    rankOfId[id] = r;
+                }
+            }
+        }
+    }
 
-        return new EnrichmentDbImplWithPermTest(dstName, rlReal, ds, template,
-                results, lvp, metric, metricParams, sort, order, rndTemplates.length, null, ptest);
+    private int calcBlockSize(final int numTasks) {
+        return ParallelUtils.calcBlockSize(numTasks, fNumThreads);
+    }
+
+    /**
+     * Run the blocks on a pool of fNumThreads workers and wait for all of them.
+     * With 1 thread the blocks simply run, in order, on the calling thread.
+     */
+    private void runAll(final List<Callable<Object>> blocks) {
+        ParallelUtils.runAll(blocks, fNumThreads);
     }
 
     // ------------------------------------------------------------------------ //
@@ -265,39 +611,305 @@ public class KSTests {
                                                                   final GeneSetCohortGenerator gcohgen,
                                                                   final RandomSeedGenerator rst) {
 
-        final EnrichmentResult[] results = new EnrichmentResult[gsetsReal.length];
         final GeneSetCohort gcohReal = gcohgen.createGeneSetCohort(rlReal, gsetsReal, false, true);
 
         final EnrichmentScore[] real_scores = core.calculateKSScore(gcohReal, true); // @note usually always store deep for the real one
 
-        // The make rnd gene sets for every real one
+        // @note with the ranked list fixed the null of a gene set depends only on its (qualified) size
+        // so simulate every distinct size once and share it across all gene sets of that size
+        final int[] sizes = new int[gsetsReal.length];
+        final Map<Integer, Integer> sizeIndexMap = new HashMap<Integer, Integer>();
+        final List<Integer> gsetNumOfSize = new ArrayList<Integer>(); // first gene set of each distinct size
         for (int g = 0; g < gsetsReal.length; g++) {
-            if (g % LOG_FREQ == 0) {
-                sout.println("shuffleGeneSet for GeneSet " + (g + 1) + "/" + gsetsReal.length + " nperm: " + nperm);
+            sizes[g] = gsetsReal[g].getNumMembers(rlReal);
+            if (!sizeIndexMap.containsKey(sizes[g])) {
+                sizeIndexMap.put(sizes[g], gsetNumOfSize.size());
+                gsetNumOfSize.add(g);
             }
+        }
 
-            // now create random GeneSets and calc the ksscore for every rnd GeneSet
-            //log.debug("started gsets");
-            Vector rndEss;
-            if (nperm > 0) {
-                final GeneSet[] rndgsets = GeneSetGenerators.createRandomGeneSetsFixedSize(nperm, rlReal, gsetsReal[g], rst);
-                final GeneSetCohort gcohRnd = gcohReal.clone(rndgsets, false);
-                rndEss = new Vector(rndgsets.length);
-                final EnrichmentScore[] rnds = core.calculateKSScore(gcohRnd, false); // never store deep for rnds
-                for (int r = 0; r < rndgsets.length; r++) {
-                    rndEss.setElement(r, rnds[r].getES());
+        final int numSizes = gsetNumOfSize.size();
+        log.debug("Simulating nulls for: " + numSizes + " distinct gene set sizes across: " + gsetsReal.length + " gene sets");
+
+        // @note every size gets its own random stream split off by the size, so the random
+        // sets made for it do not depend on which thread runs it or when
+        final RandomSeedGenerator rst_gsets = rst.split(RandomSeedGenerators.GENE_SET_PERMS_KEY);
+        final float[][] rndEssBySize = new float[numSizes][];
+
+        // @note when the scoring scheme allows it, the rnd es come from the rnd hit ranks alone
+        final GeneSetScoringTable hitOnlyTable = getHitOnlyTable(gcohgen);
+        final HitOnlyKSCore hcore = hitOnlyTable != null ? new HitOnlyKSCore(hitOnlyTable, rlReal) : null;
+
+        // The make rnd gene sets for every distinct size
+        final List<Callable<Object>> blocks = new ArrayList<Callable<Object>>();
+        final int blockSize = calcBlockSize(numSizes);
+        for (int from = 0; from < numSizes; from += blockSize) {
+            final int blockFrom = from;
+            final int blockTo = Math.min(from + blockSize, numSizes);
+            blocks.add(new Callable<Object>() {
+                public Object call() {
+                    final KSCore core_w = new KSCore();
+
+                    for (int s = blockFrom; s < blockTo; s++) {
+                        if (s % LOG_FREQ == 0) {
+                            sout.println("shuffleGeneSet for size " + (s + 1) + "/" + numSizes + " nperm: " + nperm);
+                        }
+
+                        // now create random GeneSets and calc the ksscore for every rnd GeneSet
+                        if (nperm > 0 && hcore != null) {
+                            // @note same random picks as GeneSetGenerators.createRandomGeneSetsFixedSize -- their order does
+                            // not matter, the es sums over the hits in rank order as the cohort tables do
+                            final RandomSeedGenerator rst_s = rst_gsets.split(sizes[gsetNumOfSize.get(s)]);
+                            rndEssBySize[s] = new float[nperm];
+                            for (int r = 0; r < nperm; r++) {
+                                final int[] hits = XMath.randomlySampleWithoutReplacement(sizes[gsetNumOfSize.get(s)], hcore.getNumLabels(), rst_s.split(r));
+                                rndEssBySize[s][r] = hcore.calculateES(hits, hits.length);
+                            }
+                        } else if (nperm > 0) {
+                            final int g = gsetNumOfSize.get(s);
+                            final RandomSeedGenerator rst_s = rst_gsets.split(sizes[g]);
+                            final GeneSet[] rndgsets = GeneSetGenerators.createRandomGeneSetsFixedSize(nperm, rlReal, gsetsReal[g], rst_s);
+                            final GeneSetCohort gcohRnd = gcohReal.clone(rndgsets, false);
+                            rndEssBySize[s] = core_w.calculateKSScore_es_only(gcohRnd); // never store deep for rnds
+                        } else {
+                            rndEssBySize[s] = new float[0];
+                        }
+                    }
+
+                    return null;
                 }
+            });
+        }
+
+        runAll(blocks);
+
+        // @note every gene set gets its own row of the store (so its null is its own whatever is done downstream)
+        final RndEsStore rndEss = RndEsStore.create(gsetsReal.length, nperm);
+        for (int g = 0; g < gsetsReal.length; g++) {
+            rndEss.setRow(g, rndEssBySize[sizeIndexMap.get(sizes[g])]);
+        }
+
+        if (fAdaptive_opt != null && fAdaptive_opt.isAdaptive(nperm)) {
+            final AdaptivePermutations.Tallies tallies = fAdaptive_opt.new Tallies(toEss(real_scores), rndEss);
+            extendGeneSetPerms(tallies, nperm, rlReal, gsetsReal, gcohReal, sizes, sizeIndexMap, gsetNumOfSize, hcore, rst_gsets);
+            tallies.saveTo(rndEss);
+        }
+
+        if (fMultilevel_opt != null) {
+            if (hcore == null) {
+                log.warn("Multilevel p-values need a scoring scheme whose es come from the hit ranks alone -- using the permutation ones");
+            } else if (nperm == 0) {
+                log.warn("Multilevel p-values need some permutations (for the chance of each sign) -- none were done");
             } else {
-                rndEss = new Vector(0);
+                estimateMultilevelPValues(rndEss, real_scores, sizes, gsetNumOfSize, sizeIndexMap, hcore,
+                        rst.split(RandomSeedGenerators.MULTILEVEL_KEY));
             }
+        }
 
+        final EnrichmentResult[] results = new EnrichmentResult[gsetsReal.length];
+        for (int g = 0; g < gsetsReal.length; g++) {
             results[g] = new EnrichmentResultImpl(rlReal, t_opt,
-                    gsetsReal[g], chip_opt, real_scores[g], rndEss);
+                    gsetsReal[g], chip_opt, real_scores[g], rndEss, g, null);
         }
 
         return results;
     }
 
+    /**
+     * Continue the rnd gene sets past nperm, size by size and in rounds, for only the gene sets whose
+     * nominal p is still undetermined. Rnd set r of a size is the one a run with more perms would have
+     * made for r. A gene set has one size so the sizes (and so the tallies they add to) are disjoint across workers
+     */
+    private void extendGeneSetPerms(final AdaptivePermutations.Tallies tallies,
+                                    final int nperm,
+                                    final RankedList rlReal,
+                                    final GeneSet[] gsetsReal,
+                                    final GeneSetCohort gcohReal,
+                                    final int[] sizes,
+                                    final Map<Integer, Integer> sizeIndexMap,
+                                    final List<Integer> gsetNumOfSize,
+                                    final HitOnlyKSCore hcore_opt,
+                                    final RandomSeedGenerator rst_gsets) {
+
+        final int numSizes = gsetNumOfSize.size();
+        final int[][] gsetNumsBySize = new int[numSizes][];
+        final int[] numOfSize = new int[numSizes];
+        for (int g = 0; g < gsetsReal.length; g++) {
+            numOfSize[sizeIndexMap.get(sizes[g])]++;
+        }
+        for (int s = 0; s < numSizes; s++) {
+            gsetNumsBySize[s] = new int[numOfSize[s]];
+            numOfSize[s] = 0;
+        }
+        for (int g = 0; g < gsetsReal.length; g++) {
+            final int s = sizeIndexMap.get(sizes[g]);
+            gsetNumsBySize[s][numOfSize[s]++] = g;
+        }
+
+        final List<Callable<Object>> blocks = new ArrayList<Callable<Object>>();
+        final int blockSize = calcBlockSize(numSizes);
+        for (int from = 0; from < numSizes; from += blockSize) {
+            final int blockFrom = from;
+            final int blockTo = Math.min(from + blockSize, numSizes);
+            blocks.add(new Callable<Object>() {
+                public Object call() {
+                    final KSCore core_w = new KSCore();
+
+                    for (int s = blockFrom; s < blockTo; s++) {
+                        final int size = sizes[gsetNumOfSize.get(s)];
+                        final RandomSeedGenerator rst_s = rst_gsets.split(size);
+
+                        int done = nperm;
+                        int[] active = getUndetermined(tallies, gsetNumsBySize[s]);
+                        while (active.length > 0 && done < fAdaptive_opt.getMaxNumPerms()) {
+                            final int roundTo = fAdaptive_opt.nextRoundTo(done);
+
+                            // @note as for the first nperm -- see shuffleGeneSet_precannedRankedList
+                            final float[] rndEss;
+                            if (hcore_opt != null) {
+                                rndEss = new float[roundTo - done];
+                                for (int r = done; r < roundTo; r++) {
+                                    final int[] hits = XMath.randomlySampleWithoutReplacement(size, hcore_opt.getNumLabels(), rst_s.split(r));
+                                    rndEss[r - done] = hcore_opt.calculateES(hits, hits.length);
+                                }
+                            } else {
+                                final GeneSet[] rndgsets = GeneSetGenerators.createRandomGeneSetsFixedSize(done, roundTo,
+                                        rlReal, gsetsReal[gsetNumOfSize.get(s)], rst_s);
+                                rndEss = core_w.calculateKSScore_es_only(gcohReal.clone(rndgsets, false));
+                            }
+
+                            for (int i = 0; i < active.length; i++) {
+                                final float realEs = tallies.getRealEs(active[i]);
+                                int numSameSide = 0;
+                                int numMoreExtreme = 0;
+                                for (int r = 0; r < rndEss.length; r++) {
+                                    if (AdaptivePermutations.isSameSide(realEs, rndEss[r])) {
+                                        numSameSide++;
+                                        if (AdaptivePermutations.isMoreExtreme(realEs, rndEss[r])) {
+                                            numMoreExtreme++;
+                                        }
+                                    }
+                                }
+                                tallies.add(active[i], rndEss.length, numSameSide, numMoreExtreme);
+                            }
+
+                            done = roundTo;
+                            active = getUndetermined(tallies, active);
+                        }
+                    }
+
+                    return null;
+                }
+            });
+        }
+
+        runAll(blocks);
+    }
+
+    /**
+     * The nominal p of every gene set by multilevel splitting, size by size, put in the store.
+     * As the nominal p is of the rnd es on the same side only, the chance of a more extreme es is divided
+     * by the chance of the same side -- the fraction of the permutations (of the set) on it.
+     */
+    private void estimateMultilevelPValues(final RndEsStore rndEss,
+                                           final EnrichmentScore[] real_scores,
+                                           final int[] sizes,
+                                           final List<Integer> gsetNumOfSize,
+                                           final Map<Integer, Integer> sizeIndexMap,
+                                           final HitOnlyKSCore hcore,
+                                           final RandomSeedGenerator rst_ml) {
+
+        final int numSets = real_scores.length;
+        final int numSizes = gsetNumOfSize.size();
+        final float[] realEss = toEss(real_scores);
+        final float[] nps = new float[numSets];
+        final float[] log2Errs = new float[numSets];
+
+        final List<Callable<Object>> blocks = new ArrayList<Callable<Object>>();
+        final int blockSize = calcBlockSize(numSizes);
+        for (int from = 0; from < numSizes; from += blockSize) {
+            final int blockFrom = from;
+            final int blockTo = Math.min(from + blockSize, numSizes);
+            blocks.add(new Callable<Object>() {
+                public Object call() {
+                    final float[] row = new float[rndEss.getNumPerms()];
+                    for (int s = blockFrom; s < blockTo; s++) {
+                        final int size = sizes[gsetNumOfSize.get(s)];
+                        int num = 0;
+                        final int[] gsetNums = new int[numSets];
+                        for (int g = 0; g < numSets; g++) {
+                            if (sizeIndexMap.get(sizes[g]) == s) {
+                                gsetNums[num++] = g;
+                            }
+                        }
+
+                        final float[] ess = new float[num];
+                        for (int i = 0; i < num; i++) {
+                            ess[i] = realEss[gsetNums[i]];
+                        }
+
+                        final double[] probs;
+                        if (size > 0 && size < hcore.getNumLabels()) {
+                            sout.println("Multilevel p-values for size " + size + " (" + num + " gene sets)");
+                            probs = fMultilevel_opt.calcTailProbs(hcore, size, ess, rst_ml.split(size));
+                        } else {
+                            probs = new double[num];
+                            Arrays.fill(probs, Double.NaN);
+                        }
+
+                        for (int i = 0; i < num; i++) {
+                            final int g = gsetNums[i];
+                            nps[g] = Float.NaN;
+                            log2Errs[g] = Float.NaN;
+                            if (Double.isNaN(probs[i])) {
+                                continue;
+                            }
+
+                            rndEss.getRow(g, row);
+                            int numSameSide = rndEss.getNumExtraSameSide(g);
+                            for (int p = 0; p < row.length; p++) {
+                                if (AdaptivePermutations.isSameSide(ess[i], row[p])) {
+                                    numSameSide++;
+                                }
+                            }
+
+                            if (numSameSide == 0) {
+                                continue; // @note no chance of the side to go on -- the permutation np (NaN) stands
+                            }
+
+                            final double sameSide = (double) numSameSide / (row.length + rndEss.getNumExtraPerms(g));
+                            nps[g] = (float) Math.min(1.0, probs[i] / sameSide);
+                            if (probs[i] > fMultilevel_opt.getEps()) {
+                                log2Errs[g] = (float) MultilevelPValues.calcLog2Err(probs[i], fMultilevel_opt.getSampleSize());
+                            }
+                        }
+                    }
+
+                    return null;
+                }
+            });
+        }
+
+        runAll(blocks);
+
+        for (int g = 0; g < numSets; g++) {
+            if (!Float.isNaN(nps[g])) {
+                rndEss.setNPEstimate(g, nps[g], log2Errs[g]);
+            }
+        }
+    }
+
+    private static int[] getUndetermined(final AdaptivePermutations.Tallies tallies, final int[] sets) {
+        int num = 0;
+        final int[] undetermined = new int[sets.length];
+        for (int i = 0; i < sets.length; i++) {
+            if (tallies.isUndetermined(sets[i])) {
+                undetermined[num++] = sets[i];
+            }
+        }
+        return Arrays.copyOf(undetermined, num);
+    }
+
     /**
      * @param nperm
      * @param metric
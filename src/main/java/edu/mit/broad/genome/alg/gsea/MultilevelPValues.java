@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.alg.gsea;
+
+import edu.mit.broad.genome.math.RandomSeedGenerator;
+import edu.mit.broad.genome.math.XMath;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Multilevel splitting (Monte Carlo) estimate of the chance that a random gene set of a given size has a
+ * more extreme es than a real one -- as in fgsea (Korotkevich et al, 2021). For the gene set permutation
+ * of a fixed ranked list, and so p-values far below 1 / nperm at a small fraction of the cost.
+ * <p/>
+ * A sample of random gene sets is repeatedly cut at its median es: the half above is kept (the chance of
+ * being above the median is known -- the fraction kept) and then resampled and moved (by an MCMC that
+ * swaps one member at a time, accepting only sets still above the median) to refill the sample.
+ * The chance of a real es is the product of the fractions kept up to the level that passes it times the
+ * fraction of that level above it.
+ * <p/>
+ * Pos and neg es are done separately (the neg as the pos of -es), as in the nominal p. All the gene sets of one
+ * size share one run. The es are from the hit ranks alone (HitOnlyKSCore).
+ *
+ * @author Aravind Subramanian
+ * @see HitOnlyKSCore
+ */
+public class MultilevelPValues {
+
+    public static final int DEFAULT_SAMPLE_SIZE = 101;
+
+    public static final double DEFAULT_EPS = 1e-10;
+
+    // MCMC proposals for every sample at every level -- one per member up to this many
+    private static final int MAX_MOVES_PER_SAMPLE = 100;
+
+    private final int fSampleSize;
+
+    private final double fEps;
+
+    /**
+     * Class constructor
+     *
+     * @param sampleSize number of gene sets at every level
+     * @param eps        chances below this are not estimated (reported as eps)
+     */
+    public MultilevelPValues(final int sampleSize, final double eps) {
+        if (sampleSize < 3) {
+            throw new IllegalArgumentException("sampleSize must be at least 3, got: " + sampleSize);
+        }
+
+        if (!(eps > 0 && eps < 1)) {
+            throw new IllegalArgumentException("eps must be in (0, 1), got: " + eps);
+        }
+
+        this.fSampleSize = sampleSize;
+        this.fEps = eps;
+    }
+
+    public MultilevelPValues() {
+        this(DEFAULT_SAMPLE_SIZE, DEFAULT_EPS);
+    }
+
+    public int getSampleSize() {
+        return fSampleSize;
+    }
+
+    public double getEps() {
+        return fEps;
+    }
+
+    /**
+     * @param hcore the real ranked list and scoring scheme
+     * @param size  gene set size (qualified i.e in the ranked list)
+     * @param ess   real es of the gene sets of this size
+     * @param rst   the stream of this size
+     * @return for every es the chance that a rnd set of this size has an es on the same side and more extreme
+     * (NaN for a NaN es, eps if below eps)
+     */
+    public double[] calcTailProbs(final HitOnlyKSCore hcore,
+                                  final int size,
+                                  final float[] ess,
+                                  final RandomSeedGenerator rst) {
+
+        if (size <= 0 || size >= hcore.getNumLabels()) {
+            throw new IllegalArgumentException("Invalid size: " + size + " for a ranked list of: " + hcore.getNumLabels());
+        }
+
+        final double[] probs = new double[ess.length];
+        Arrays.fill(probs, Double.NaN);
+
+        // @note pos and neg as in XMath.isPositive
+        for (int side = 0; side < 2; side++) {
+            final int sign = side == 0 ? 1 : -1;
+            int num = 0;
+            final int[] inds = new int[ess.length];
+            for (int i = 0; i < ess.length; i++) {
+                if (!Float.isNaN(ess[i]) && (side == 0) == XMath.isPositive(ess[i])) {
+                    inds[num++] = i;
+                }
+            }
+
+            if (num == 0) {
+                continue;
+            }
+
+            final double[] targets = new double[num];
+            for (int i = 0; i < num; i++) {
+                targets[i] = sign * ess[inds[i]];
+            }
+
+            final double[] sideProbs = _run(hcore, size, sign, targets, rst.split(side).getRandom());
+            for (int i = 0; i < num; i++) {
+                probs[inds[i]] = sideProbs[i];
+            }
+        }
+
+        return probs;
+    }
+
+    // chance of sign * es > target for every target
+    private double[] _run(final HitOnlyKSCore hcore,
+                          final int size,
+                          final int sign,
+                          final double[] targets,
+                          final Random rnd) {
+
+        final int n = fSampleSize;
+        final int numLabels = hcore.getNumLabels();
+        final int numMoves = Math.min(size, MAX_MOVES_PER_SAMPLE);
+
+        final double[] probs = new double[targets.length];
+        final int[] order = _order(targets);
+        int next = 0; // first target (in order) not yet done
+
+        int[][] samples = new int[n][];
+        double[] scores = new double[n];
+        for (int s = 0; s < n; s++) {
+            samples[s] = XMath.randomlySampleWithoutReplacement(size, numLabels, rnd);
+            scores[s] = sign * hcore.calculateES(samples[s], size); // @note leaves the sample sorted
+        }
+
+        final double[] sorted = new double[n];
+        final boolean[] member = new boolean[numLabels];
+        double prob = 1.0;
+
+        while (next < order.length) {
+            System.arraycopy(scores, 0, sorted, 0, n);
+            Arrays.sort(sorted);
+            final double median = sorted[n / 2];
+
+            // the targets this level passes
+            while (next < order.length && targets[order[next]] <= median) {
+                probs[order[next]] = prob * _countMoreThan(sorted, targets[order[next]]) / n;
+                next++;
+            }
+
+            final int numKept = _countMoreThan(sorted, median);
+            if (next == order.length || numKept == 0) {
+                break;
+            }
+
+            prob *= (double) numKept / n;
+            if (prob < fEps) {
+                break;
+            }
+
+            // keep the ones above the median, refill with copies of them
+            final int[][] kept = new int[n][];
+            final double[] keptScores = new double[n];
+            int k = 0;
+            for (int s = 0; s < n; s++) {
+                if (scores[s] > median) {
+                    kept[k] = samples[s];
+                    keptScores[k++] = scores[s];
+                }
+            }
+            for (int s = numKept; s < n; s++) {
+                final int pick = rnd.nextInt(numKept);
+                kept[s] = kept[pick].clone();
+                keptScores[s] = keptScores[pick];
+            }
+            samples = kept;
+            scores = keptScores;
+
+            // move every sample around above the median
+            // @note as in fgsea a proposal only changes one member: it is moved into place in the sample (and back
+            // if rejected) and the total weight of the sample is kept up to date -- so no copy, no sort and no pass
+            // for the weight (see HitOnlyKSCore.calculateESSorted)
+            for (int s = 0; s < n; s++) {
+                final int[] sample = samples[s];
+                for (int i = 0; i < size; i++) {
+                    member[sample[i]] = true;
+                }
+
+                double totalWeight = hcore.calculateTotalWeight(sample, size);
+                for (int m = 0; m < numMoves; m++) {
+                    final int out = rnd.nextInt(size);
+                    int in;
+                    do {
+                        in = rnd.nextInt(numLabels);
+                    } while (member[in]);
+
+                    final int was = sample[out];
+                    final double swappedWeight = totalWeight - hcore.getTotalTerm(was) + hcore.getTotalTerm(in);
+                    final int pos = _replace(sample, out, in);
+                    final double score = sign * hcore.calculateESSorted(sample, size, swappedWeight);
+                    if (score > median) {
+                        member[was] = false;
+                        member[in] = true;
+                        totalWeight = swappedWeight;
+                        scores[s] = score;
+                    } else {
+                        _replace(sample, pos, was);
+                    }
+                }
+
+                for (int i = 0; i < size; i++) {
+                    member[sample[i]] = false;
+                }
+            }
+        }
+
+        // past the last level: below eps, or nothing was above the median (ties)
+        for (; next < order.length; next++) {
+            probs[order[next]] = Math.max(fEps, prob * _countMoreThan(scores, targets[order[next]]) / n);
+        }
+
+        for (int i = 0; i < probs.length; i++) {
+            if (probs[i] < fEps) {
+                probs[i] = fEps;
+            }
+        }
+
+        return probs;
+    }
+
+    /**
+     * @param p
+     * @param sampleSize
+     * @return the standard deviation of log2 of a multilevel estimate p (as in fgsea) -- NaN if p is not in (0, 1]
+     */
+    public static double calcLog2Err(final double p, final int sampleSize) {
+        if (!(p > 0 && p <= 1)) {
+            return Double.NaN;
+        }
+
+        final double numLevels = Math.floor(-Math.log(p) / Math.log(2)) + 1;
+        return Math.sqrt(numLevels * (trigamma((sampleSize + 1) / 2.0) - trigamma(sampleSize + 1))) / Math.log(2);
+    }
+
+    /**
+     * @param x > 0
+     * @return the trigamma function (the derivative of the digamma) of x
+     */
+    public static double trigamma(double x) {
+        if (!(x > 0)) {
+            throw new IllegalArgumentException("x must be positive, got: " + x);
+        }
+
+        // recurrence up to where the asymptotic series is good
+        double sum = 0;
+        while (x < 6) {
+            sum += 1 / (x * x);
+            x += 1;
+        }
+
+        final double x2 = 1 / (x * x);
+        return sum + 1 / x + x2 / 2 + (1 / x) * x2 * (1.0 / 6 - x2 * (1.0 / 30 - x2 * (1.0 / 42 - x2 / 30)));
+    }
+
+    // sorted low to high: the new rank put in place of the one at out, still in sorted order
+    private static int _replace(final int[] sorted, final int out, final int in) {
+        int pos = out;
+        if (in > sorted[out]) {
+            while (pos + 1 < sorted.length && sorted[pos + 1] < in) {
+                sorted[pos] = sorted[pos + 1];
+                pos++;
+            }
+        } else {
+            while (pos > 0 && sorted[pos - 1] > in) {
+                sorted[pos] = sorted[pos - 1];
+                pos--;
+            }
+        }
+
+        sorted[pos] = in;
+        return pos;
+    }
+
+    private static int _countMoreThan(final double[] values, final double value) {
+        int cnt = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] > value) {
+                cnt++;
+            }
+        }
+        return cnt;
+    }
+
+    // indices of the values low to high
+    private static int[] _order(final double[] values) {
+        final Integer[] boxed = new Integer[values.length];
+        for (int i = 0; i < values.length; i++) {
+            boxed[i] = i;
+        }
+
+        Arrays.sort(boxed, new Comparator<Integer>() {
+            public int compare(final Integer a, final Integer b) {
+                return Double.compare(values[a], values[b]);
+            }
+        });
+
+        final int[] order = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            order[i] = boxed[i];
+        }
+        return order;
+    }
+
+} // End class MultilevelPValues
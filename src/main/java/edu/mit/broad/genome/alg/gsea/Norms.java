@@ -82,6 +82,77 @@ public class Norms {
         return struc;
     }
 
+    /**
+     * Index based form of normalize for one gene set -- no Vectors made.
+     * Same arithmetic (and so same values) as the Norm made by createNorm.
+     *
+     * @param normName
+     * @param real     real score of the set
+     * @param rnd      the rnd scores of all sets, row major (one row of numPerms per set)
+     * @param normRnd  filled with the normed rnd scores of the set (in the same row). Can be rnd itself for NONE.
+     * @param offset   start of the row of the set
+     * @param numPerms
+     * @return the normed real score
+     */
+    public static float normalize(final String normName,
+                                  final float real,
+                                  final float[] rnd,
+                                  final float[] normRnd,
+                                  final int offset,
+                                  final int numPerms) {
+
+        if (normName == null) {
+            throw new IllegalArgumentException("Param normName cannot be null");
+        }
+
+        if (normName.equals(NONE)) {
+            if (normRnd != rnd) {
+                System.arraycopy(rnd, offset, normRnd, offset, numPerms);
+            }
+            return real;
+
+        } else if (normName.equals(MEANDIV_POS_NEG_SEPERATE)) {
+
+            // @note same sums (and in the same order) as Vector.mean of the extracted pos and neg scores
+            double sumPos = 0;
+            double sumNeg = 0;
+            int numPos = 0;
+            int numNeg = 0;
+            for (int i = offset; i < offset + numPerms; i++) {
+                final float score = rnd[i];
+                if (score >= 0) {
+                    sumPos += score;
+                    numPos++;
+                }
+                if (score <= 0) {
+                    sumNeg += score;
+                    numNeg++;
+                }
+            }
+
+            final float meanPos = (float) (sumPos / numPos);
+            final float meanNegAbs = Math.abs((float) (sumNeg / numNeg)); // @note abs
+
+            for (int i = offset; i < offset + numPerms; i++) {
+                final float score = rnd[i];
+                if (XMath.isPositive(score)) {
+                    normRnd[i] = score / meanPos;
+                } else {
+                    normRnd[i] = score / meanNegAbs;
+                }
+            }
+
+            if (XMath.isPositive(real)) {
+                return real / meanPos;
+            } else {
+                return real / meanNegAbs;
+            }
+
+        } else {
+            throw new IllegalArgumentException("Unknown norm mode: " + normName);
+        }
+    }
+
     private abstract static class AbstractNormOne implements Norm {
         float real_orig;
         float realNorm;
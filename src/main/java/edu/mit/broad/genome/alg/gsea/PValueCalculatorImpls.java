@@ -3,18 +3,25 @@
  *******************************************************************************/
 package edu.mit.broad.genome.alg.gsea;
 
-import edu.mit.broad.genome.alg.DatasetGenerators;
 import edu.mit.broad.genome.alg.fdr.FdrAlgs;
-import edu.mit.broad.genome.math.*;
-import edu.mit.broad.genome.objects.Dataset;
-import edu.mit.broad.genome.objects.LabelledVector;
+import edu.mit.broad.genome.math.GpdTail;
+import edu.mit.broad.genome.math.SortMode;
+import edu.mit.broad.genome.math.XMath;
 import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentResult;
 import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentResultImpl;
 import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentScore;
 import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentScoreImpl;
+import edu.mit.broad.genome.objects.esmatrix.db.RndEsStore;
 import edu.mit.broad.genome.objects.strucs.FdrStruc;
+import edu.mit.broad.genome.objects.strucs.SkewCorrectedFdrStruc;
+import edu.mit.broad.genome.utils.ParallelUtils;
 import org.apache.log4j.Logger;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
 /**
  * @author Aravind Subramanian
  */
@@ -29,82 +36,137 @@ public class PValueCalculatorImpls {
 
         private String fNormName;
 
-        public GseaImpl(final String normName) {
+        private int fNumThreads;
+
+        private boolean fNPTail;
+
+        public GseaImpl(final String normName, final int numThreads) {
+            this(normName, numThreads, false);
+        }
+
+        /**
+         * @param normName
+         * @param numThreads
+         * @param npTail     if true the nominal p of a set with too few more extreme rnd es is from a
+         *                   generalized pareto fit to the tail of its null (see GpdTail) when the fit is good
+         */
+        public GseaImpl(final String normName, final int numThreads, final boolean npTail) {
             this.fNormName = normName;
+            this.fNumThreads = numThreads;
+            this.fNPTail = npTail;
         }
 
         // dont do with edb as there are different kinds of edbs and we loose the identity of the one used here
         public EnrichmentResult[] calcNPValuesAndFDR(final EnrichmentResult[] results) {
-            return _calcGseaMethod(fNormName, results);
+            return _calcGseaMethod(fNormName, results, fNumThreads, fNPTail);
         }
     }
 
+    // This is the core calc of the NES, NP, FDRs & FWER
+    // we use all points (whether or not the gsets real es was pos or neg)
+    // @note all by set index on the (gene sets x perms) store of the rnd es that the results share -- no named datasets
+    // and the only other copy of the null is the normed one
     private static EnrichmentResult[] _calcGseaMethod(final String normName,
-                                                      final EnrichmentResult[] results) {
+                                                      final EnrichmentResult[] prev_results,
+                                                      final int numThreads,
+                                                      final boolean npTail) {
+
+        if (normName == null) {
+            throw new IllegalArgumentException("Param normName cannot be null");
+        }
 
-        final LabelledVector realESS = EdbAlgs.createRealES(results);
-        final Dataset rndESS = EdbAlgs.createRndESDataset("some_name", results);
+        if (prev_results == null) {
+            throw new IllegalArgumentException("Param prev_results cannot be null");
+        }
 
         klog.debug("Norm mode: " + normName);
 
-        final Norms.Struc struc = Norms.normalize(normName, realESS, rndESS);
-
-        return _calcGseaMethod(realESS, struc.normReal, rndESS, struc.normRnd, results);
-    }
+        final int numSets = prev_results.length;
+        final int numPerms = EdbAlgs.enforceSameNumOfPerms(prev_results);
 
+        final String[] names = new String[numSets];
+        final float[] realESS = new float[numSets];
+        for (int r = 0; r < numSets; r++) {
+            names[r] = prev_results[r].getGeneSetName();
+            realESS[r] = prev_results[r].getScore().getES();
+        }
 
-    // This is the core calc of the FDRs & FWER
-    // we use all points (whether or not the gsets real es was pos or neg)
-    private static EnrichmentResult[] _calcGseaMethod(final LabelledVector realESS,
-                                                      final LabelledVector realNESS,
-                                                      final Dataset rndESS_full,
-                                                      final Dataset rndNESS_full,
-                                                      final EnrichmentResult[] prev_results) {
+        final int[] rndRows = new int[numSets];
+        final RndEsStore rndESS = EdbAlgs.getRndEsStore(prev_results, rndRows);
+
+        // pass 1: by set -- norm the rnd and real es and the nominal p
+        final float[] realNESS = new float[numSets];
+        final RndEsStore rndNESS = RndEsStore.create(numSets, numPerms);
+        final float[] nps = new float[numSets];
+        final GpdTail[] npTails = new GpdTail[numSets];
+        _runBlocks(numSets, numThreads, new Block() {
+            public void run(final int from, final int to) {
+                final float[] row = new float[numPerms];
+                final float[] normRow = new float[numPerms];
+                for (int r = from; r < to; r++) {
+                    rndESS.getRow(rndRows[r], row);
+                    realNESS[r] = Norms.normalize(normName, realESS[r], row, normRow, 0, numPerms);
+                    rndNESS.setRow(r, normRow);
+                    // @note with adaptive perms the nominal p also counts the set's own extra perms
+                    nps[r] = _getPValueTwoTailed_pos_neg_seperate(realESS[r], row, numPerms,
+                            rndESS.getNumExtraSameSide(rndRows[r]), rndESS.getNumExtraMoreExtreme(rndRows[r]));
+                    // @note a nominal p estimated when the null was made (e.g multilevel) is used as is
+                    final float npEstimate = rndESS.getNPEstimate(rndRows[r]);
+                    if (!Float.isNaN(npEstimate)) {
+                        nps[r] = npEstimate;
+                    } else if (npTail && rndESS.getNumExtraPerms(rndRows[r]) == 0) {
+                        // @note not for a set with adaptive extra perms -- those are tallies, not values to fit
+                        npTails[r] = _fitNPTail(realESS[r], row, numPerms);
+                        if (npTails[r] != null && !Double.isNaN(npTails[r].getPValue())) {
+                            nps[r] = (float) npTails[r].getPValue();
+                        }
+                    }
+                }
+            }
+        });
+
+        // pass 2: by perm -- sort the columns of the normed rnd es in place (for the fdrs) and so get the
+        // best of each perm for the fwer
+        final float[] maxes = new float[numPerms];
+        final float[] mins = new float[numPerms];
+        _runBlocks(numPerms, numThreads, new Block() {
+            public void run(final int from, final int to) {
+                final float[] scratch = new float[numSets];
+                for (int c = from; c < to; c++) {
+                    rndNESS.sortColumn(c, scratch);
+                    _setColumnMaxAndMin(rndNESS, c, maxes, mins);
+                }
+            }
+        });
 
+        // pass 3: the fdrs
         klog.debug("Started calcFdrs_skewed");
+        final SkewCorrectedFdrStruc[] fdrs = FdrAlgs.calcFdrs_skewed(names, realESS, realNESS, rndESS, rndRows, rndNESS,
+                SortMode.REAL, numThreads);
+        klog.debug("done fdrs");
 
-        // the rnd maybe a superset of the null needed for the real ess's
-        // so qualify (dont need to do this for the rnd ess as its users are  already
-        // name (and not index) aware
-        final Dataset rndNESS = new DatasetGenerators().extractRows(rndNESS_full, realESS.getLabels());
-        final DatasetModed all_rnd_scores_norm_moded_pos = new DatasetModed(rndNESS, ScoreMode.POS_ONLY, SortMode.REAL, Order.DESCENDING);
-        final DatasetModed all_rnd_scores_norm_moded_neg = new DatasetModed(rndNESS, ScoreMode.NEG_ONLY, SortMode.REAL, Order.ASCENDING);
-
-        // @note this takes a few seconds to compute <++++ culprit for most time
-        final FdrAlgs.FdrMap fdrMap = FdrAlgs.calcFdrs_skewed(realESS,
-                rndESS_full,
-                realNESS,
-                all_rnd_scores_norm_moded_pos,
-                all_rnd_scores_norm_moded_neg,
-                SortMode.REAL);
-
-
-        klog.debug("done fdrMap");
-
-        //final Matrix rndNesMatrix = rndNESS.getMatrix();
-
-        final EnrichmentResult[] results = new EnrichmentResult[prev_results.length];
-
-        // @note Loop takes ~ 11 secs for 1500 gsets with 100 perms (123 secs for 1000 perms)!
-        klog.debug("Started core calcFdrs in _calcGseaMethod for results: " + prev_results.length);
-        for (int r = 0; r < prev_results.length; r++) {
+        // pass 4: by set -- put together
+        final EnrichmentResult[] results = new EnrichmentResult[numSets];
+        for (int r = 0; r < numSets; r++) {
 
+            final FdrStruc fdrStruc = fdrs[r];
+            if (fdrStruc == null) {
+                throw new IllegalArgumentException("No fdr data for: " + names[r]);
+            }
 
-            final String gsetName = prev_results[r].getGeneSetName();
-            final FdrStruc fdrStruc = fdrMap.getFdr(gsetName);
-            final float es = realESS.getScore(gsetName);
-            final float nes = realNESS.getScore(gsetName);
-            final Vector es_rnd_for_this_set = rndESS_full.getRow(gsetName); // @note fetching by name, not index
-            final float np = XMath.getPValueTwoTailed_pos_neg_seperate(es, es_rnd_for_this_set); // NP
+            final float es = realESS[r];
+            final float nes = realNESS[r];
+            final float np = nps[r]; // NP
 
-            final float fwer = XMath.getFWERTwoTailed(nes, rndNESS_full.getMatrix()); // FWER
+            final float fwer; // FWER
+            if (XMath.isPositive(nes)) {
+                fwer = (float) XMath.getPValue(nes, maxes);
+            } else {
+                fwer = (float) XMath.getPValueLessThan(nes, mins);
+            }
 
             float fdr_value = fdrStruc.getFdr();
 
-            if (Float.isNaN(fdr_value)) {
-                //System.out.println("EANNANANA NAN: " + fdr_value + " " + gsetName);
-            }
-
             if (XMath.isSameSign(nes, es) == false) { // @note
                 fdr_value = 1.0f;
             }
@@ -113,29 +175,129 @@ public class PValueCalculatorImpls {
                 fdr_value = 1.0f;
             }
 
-            // @note this accessses the rl
-
             EnrichmentScore es_new = new EnrichmentScoreImpl(prev_results[r].getScore(), nes, np, fdr_value, fwer);
 
-            results[r] = new EnrichmentResultImpl(prev_results[r].getRankedList(), prev_results[r].getTemplate(),
-                    prev_results[r].getGeneSet(), prev_results[r].getChip(), es_new, prev_results[r].getRndESS(), fdrStruc);
+            if (prev_results[r].getRndEsStore() != null) {
+                results[r] = new EnrichmentResultImpl(prev_results[r].getRankedList(), prev_results[r].getTemplate(),
+                        prev_results[r].getGeneSet(), prev_results[r].getChip(), es_new, prev_results[r].getRndEsStore(),
+                        prev_results[r].getRndEsStoreIndex(), fdrStruc, npTails[r]);
+            } else {
+                results[r] = new EnrichmentResultImpl(prev_results[r].getRankedList(), prev_results[r].getTemplate(),
+                        prev_results[r].getGeneSet(), prev_results[r].getChip(), es_new, prev_results[r].getRndESS(), fdrStruc, npTails[r]);
+            }
+        }
+
+        klog.debug("Done core calcFdrs in _calcGseaMethod for results: " + numSets);
 
-            /*
-            // @note retrievung the rl takes a long time (esp if its in the jit)
-            // @todo make NamedRL a wrapper in jit
-            results[r] = new EnrichmentResultImpl(null, prev_results[r].getTemplate(),
-                   prev_results[r].getGeneSet(), prev_results[r].getChip(), es_new, prev_results[r].getRndESS(), fdrStruc);
-            */
+        return results;
+    }
 
-            if (r % 25 == 0) {
-                klog.debug("Done loop: " + r + " / " + prev_results.length);
+    // same as XMath.getPValueTwoTailed_pos_neg_seperate on the row -- but without extracting the pos (or neg) scores
+    // plus the tallies of any rnd es past the row
+    private static float _getPValueTwoTailed_pos_neg_seperate(final float realEs,
+                                                              final float[] rnd,
+                                                              final int numPerms,
+                                                              final int numExtraSameSide,
+                                                              final int numExtraMoreExtreme) {
+        int cnt = numExtraMoreExtreme;
+        int size = numExtraSameSide;
+
+        if (XMath.isPositive(realEs)) {
+            for (int i = 0; i < numPerms; i++) {
+                if (XMath.isPositive(rnd[i])) {
+                    size++;
+                    if (rnd[i] > realEs) {
+                        cnt++;
+                    }
+                }
             }
+        } else {
+            for (int i = 0; i < numPerms; i++) {
+                if (XMath.isNegative(rnd[i])) {
+                    size++;
+                    if (rnd[i] < realEs) {
+                        cnt++;
+                    }
+                }
+            }
+        }
 
+        return (float) (((double) cnt) / (double) size);
+    }
+
+    // the tail fit (of the rnd es on the same side as the real es, as magnitudes) for a set whose nominal p
+    // has fewer than GpdTail.MIN_NUM_MORE_EXTREME more extreme rnd es to go on -- null for any other set
+    private static GpdTail _fitNPTail(final float realEs,
+                                      final float[] rnd,
+                                      final int numPerms) {
+        if (Float.isNaN(realEs)) {
+            return null;
+        }
+
+        final boolean pos = XMath.isPositive(realEs);
+        final float score = Math.abs(realEs);
+        final float[] sameSide = new float[numPerms];
+        int n = 0;
+        int cnt = 0;
+        for (int i = 0; i < numPerms; i++) {
+            if (pos ? XMath.isPositive(rnd[i]) : XMath.isNegative(rnd[i])) {
+                sameSide[n] = Math.abs(rnd[i]);
+                if (sameSide[n] > score) {
+                    cnt++;
+                }
+                n++;
+            }
         }
 
-        klog.debug("Done core calcFdrs in _calcGseaMethod for results: " + prev_results.length);
+        if (cnt >= GpdTail.MIN_NUM_MORE_EXTREME) {
+            return null;
+        }
 
-        return results;
+        final float[] nullSorted = Arrays.copyOf(sameSide, n);
+        Arrays.sort(nullSorted);
+        return GpdTail.fit(score, nullSorted);
+    }
+
+    // the column is sorted low to high with the NaNs last
+    // same as Matrix.getColumnMaxes (NaN if nothing is more than -inf) and Vector.min (+inf if nothing is less)
+    private static void _setColumnMaxAndMin(final RndEsStore sorted, final int col, final float[] maxes, final float[] mins) {
+        int last = sorted.getNumSets() - 1;
+        while (last >= 0 && Float.isNaN(sorted.getElement(last, col))) {
+            last--;
+        }
+
+        if (last >= 0 && sorted.getElement(last, col) > Float.NEGATIVE_INFINITY) {
+            maxes[col] = sorted.getElement(last, col);
+        } else {
+            maxes[col] = Float.NaN;
+        }
+
+        if (last >= 0) {
+            mins[col] = sorted.getElement(0, col);
+        } else {
+            mins[col] = Float.POSITIVE_INFINITY;
+        }
+    }
+
+    private interface Block {
+        public void run(final int from, final int to);
+    }
+
+    private static void _runBlocks(final int numTasks, final int numThreads, final Block block) {
+        final List<Callable<Object>> blocks = new ArrayList<Callable<Object>>();
+        final int blockSize = ParallelUtils.calcBlockSize(numTasks, numThreads);
+        for (int from = 0; from < numTasks; from += blockSize) {
+            final int blockFrom = from;
+            final int blockTo = Math.min(from + blockSize, numTasks);
+            blocks.add(new Callable<Object>() {
+                public Object call() {
+                    block.run(blockFrom, blockTo);
+                    return null;
+                }
+            });
+        }
+
+        ParallelUtils.runAll(blocks, numThreads);
     }
 
 } // End class PValueCalculatorImpls
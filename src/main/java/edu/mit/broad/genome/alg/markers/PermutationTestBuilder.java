@@ -9,8 +9,6 @@ import edu.mit.broad.genome.alg.Metric;
 import edu.mit.broad.genome.alg.RankedListGenerators;
 import edu.mit.broad.genome.math.*;
 import edu.mit.broad.genome.objects.*;
-import gnu.trove.TIntArrayList;
-
 import java.util.Map;
 
 /**
@@ -24,8 +22,8 @@ public class PermutationTestBuilder extends AbstractPermutationTest {
 
     private ScoredDataset fRealScoredDataset;
 
-    // holds points at which the metric changes sign
-    private TIntArrayList fMetricCrossOverRanks;
+    // holds points at which the metric changes sign, by perm (0 if it never does)
+    private int[] fMetricCrossOverRanks;
 
     private MetricWeightStruc[] fRndMetricWeightStrucs;
 
@@ -85,45 +83,61 @@ public class PermutationTestBuilder extends AbstractPermutationTest {
         this.nMarkersDnMatrix = new Matrix(fNumMarkers, fNumPerms);
         // Init arrays
         this.fRndTemplates = new Template[fNumPerms];
-        this.fMetricCrossOverRanks = new TIntArrayList(fNumPerms);
+        this.fMetricCrossOverRanks = new int[fNumPerms];
+        this.fRndAdded = new boolean[fNumPerms];
         this.fRndMetricWeightStrucs = new MetricWeightStruc[fNumPerms];
     }
 
     private int fNumSetCalls;
 
+    private boolean[] fRndAdded;
+
     public void doCalc() {
         checkIfDone();
         calcAndSetSignificanceLevels(nMarkersUpMatrix, nMarkersDnMatrix);
     }
 
-    public void addRnd(final Template rndTemplate, final RankedList rndRl) {
-        if (fNumSetCalls == getNumPerms()) {
-            throw new IllegalStateException("Already done fNumSetCalls: " + fNumSetCalls + " getNumPerms: " + getNumPerms());
+    /**
+     * Safe to call from several threads -- each perm writes only its own column
+     * so the result does not depend on the order in which perms are added
+     *
+     * @param permNum     index of the perm (column) this random ranked list is for
+     * @param rndTemplate
+     * @param rndRl
+     */
+    public synchronized void addRnd(final int permNum, final Template rndTemplate, final RankedList rndRl) {
+        if (permNum < 0 || permNum >= getNumPerms()) {
+            throw new IllegalArgumentException("Invalid permNum: " + permNum + " getNumPerms: " + getNumPerms());
+        }
+
+        if (fRndAdded[permNum]) {
+            throw new IllegalStateException("Already added permNum: " + permNum);
         }
 
-        this.fRndTemplates[fNumSetCalls] = rndTemplate;
+        this.fRndTemplates[permNum] = rndTemplate;
 
         for (int r = 0; r < fNumMarkers; r++) {
-            nMarkersUpMatrix.setElement(r, fNumSetCalls, rndRl.getScore(r)); // Pth ranked random score
+            nMarkersUpMatrix.setElement(r, permNum, rndRl.getScore(r)); // Pth ranked random score
         }
 
         int p = getDataset().getNumRow() - 1;
         for (int cnt = 0; cnt < fNumMarkers; cnt++, p--) {
-            nMarkersDnMatrix.setElement(cnt, fNumSetCalls, rndRl.getScore(p));
+            nMarkersDnMatrix.setElement(cnt, permNum, rndRl.getScore(p));
         }
 
         for (int r = 0; r < rndRl.getSize(); r++) {
             if (XMath.isNegative(rndRl.getScore(r))) {
-                fMetricCrossOverRanks.add(r + 1);
+                fMetricCrossOverRanks[permNum] = r + 1;
                 break;
             }
         }
 
-        this.fRndMetricWeightStrucs[fNumSetCalls] = rndRl.getMetricWeightStruc();
+        this.fRndMetricWeightStrucs[permNum] = rndRl.getMetricWeightStruc();
+        this.fRndAdded[permNum] = true;
         this.fNumSetCalls++;
     }
 
-    private void checkIfDone() {
+    private synchronized void checkIfDone() {
         if (fNumSetCalls != getNumPerms()) {
             throw new IllegalStateException("Not yet done: fNumSetCalls: " + fNumSetCalls + " nperm: " + getNumPerms());
         }
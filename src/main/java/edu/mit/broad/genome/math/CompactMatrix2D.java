@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.math;
+
+/**
+ * A dense matrix of 16 bits per element (on the heap, row after row) -- half the memory of floats, at about
+ * 3 significant digits. Elements are decoded to floats as they are read (a whole row at a time by getRow).
+ * <p/>
+ * Two encodings:
+ * <ul>
+ * <li>float16: ieee 754 half precision (round to nearest even). 11 significant bits over the whole range of
+ * values but nothing above 65504 (that becomes infinity)</li>
+ * <li>int16 scaled: per row, the value = offset + code * scale with the offset and scale chosen from the min and max
+ * of the (finite) values of the row -- so 65533 steps between them whatever the magnitudes.
+ * NaN and the infinities are kept as such</li>
+ * </ul>
+ * With int16 scaled a row is best written whole (setRow): an element outside the range of its row re-encodes
+ * the whole row.
+ *
+ * @author Aravind Subramanian
+ */
+class CompactMatrix2D extends RowMatrix2D {
+
+    // 1 GB
+    private static final int MAX_SEGMENT_SHORTS = 1 << 29;
+
+    // float16 code -> float
+    private static final float[] HALF_TO_FLOAT = new float[1 << 16];
+
+    // the non-finite int16 scaled codes -- the finite ones are those in between
+    private static final short CODE_NAN = Short.MIN_VALUE;
+    private static final short CODE_NEG_INF = Short.MIN_VALUE + 1;
+    private static final short CODE_POS_INF = Short.MAX_VALUE;
+    private static final int MAX_FINITE_CODE = Short.MAX_VALUE - 1;
+
+    static {
+        for (int h = 0; h < HALF_TO_FLOAT.length; h++) {
+            HALF_TO_FLOAT[h] = _decodeHalf(h);
+        }
+    }
+
+    private final boolean fScaled;
+
+    private final short[][] fSegments;
+
+    // row r is row (r & fRowMask) of segment (r >>> fRowShift)
+    private final int fRowShift;
+
+    private final int fRowMask;
+
+    // int16 scaled only: per row
+    private final float[] fOffsets;
+
+    private final float[] fScales;
+
+    /**
+     * Class constructor
+     * An all zero matrix
+     *
+     * @param nrows
+     * @param ncols
+     * @param scaled  int16 scaled if true, else float16
+     * @param storage
+     */
+    CompactMatrix2D(final int nrows, final int ncols, final boolean scaled, final MatrixStorage storage) {
+        super(nrows, ncols, storage);
+
+        final long numElements = (long) nrows * ncols;
+        if (numElements <= MAX_SEGMENT_SHORTS) {
+            this.fRowShift = 31;
+            this.fSegments = new short[][]{new short[(int) numElements]};
+        } else {
+            if (ncols > MAX_SEGMENT_SHORTS) {
+                throw new IllegalArgumentException("Too many columns: " + ncols);
+            }
+
+            this.fRowShift = 31 - Integer.numberOfLeadingZeros(MAX_SEGMENT_SHORTS / ncols);
+            final int rowsPerSegment = 1 << fRowShift;
+            this.fSegments = new short[(nrows + rowsPerSegment - 1) >>> fRowShift][];
+            for (int s = 0; s < fSegments.length; s++) {
+                fSegments[s] = new short[Math.min(rowsPerSegment, nrows - s * rowsPerSegment) * ncols];
+            }
+        }
+
+        this.fRowMask = (int) ((1L << fRowShift) - 1);
+        this.fScaled = scaled;
+        this.fOffsets = scaled ? new float[nrows] : null;
+        this.fScales = scaled ? new float[nrows] : null;
+    }
+
+    public float getFloat(final int row, final int column) {
+        final short code = fSegments[row >>> fRowShift][(row & fRowMask) * fNumCols + column];
+        if (fScaled) {
+            return _decodeScaled(code, fOffsets[row], fScales[row]);
+        } else {
+            return HALF_TO_FLOAT[code & 0xffff];
+        }
+    }
+
+    public void setFloat(final float value, final int row, final int column) {
+        final short[] seg = fSegments[row >>> fRowShift];
+        final int pos = (row & fRowMask) * fNumCols + column;
+        if (!fScaled) {
+            seg[pos] = toHalf(value);
+            return;
+        }
+
+        final float offset = fOffsets[row];
+        final float scale = fScales[row];
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            seg[pos] = _encodeScaled(value, offset, scale);
+        } else if (scale != 0 && Math.abs((double) value - offset) <= MAX_FINITE_CODE * (double) scale) {
+            seg[pos] = _encodeScaled(value, offset, scale);
+        } else if (scale == 0 && value == offset) {
+            seg[pos] = 0;
+        } else { // outside the range of the row
+            final float[] values = new float[fNumCols];
+            getRow(row, values);
+            values[column] = value;
+            setRow(row, values);
+        }
+    }
+
+    void getRow(final int row, final float[] dest) {
+        final short[] seg = fSegments[row >>> fRowShift];
+        final int start = (row & fRowMask) * fNumCols;
+        if (fScaled) {
+            final float offset = fOffsets[row];
+            final float scale = fScales[row];
+            for (int c = 0; c < fNumCols; c++) {
+                dest[c] = _decodeScaled(seg[start + c], offset, scale);
+            }
+        } else {
+            for (int c = 0; c < fNumCols; c++) {
+                dest[c] = HALF_TO_FLOAT[seg[start + c] & 0xffff];
+            }
+        }
+    }
+
+    void setRow(final int row, final float[] src) {
+        final short[] seg = fSegments[row >>> fRowShift];
+        final int start = (row & fRowMask) * fNumCols;
+        if (!fScaled) {
+            for (int c = 0; c < fNumCols; c++) {
+                seg[start + c] = toHalf(src[c]);
+            }
+            return;
+        }
+
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (int c = 0; c < fNumCols; c++) {
+            final float v = src[c];
+            if (v < min && v != Float.NEGATIVE_INFINITY) {
+                min = v;
+            }
+            if (v > max && v != Float.POSITIVE_INFINITY) {
+                max = v;
+            }
+        }
+
+        float offset = 0;
+        float scale = 0;
+        if (min <= max) { // some finite values
+            offset = (float) ((min + (double) max) / 2);
+            scale = (float) (((double) max - min) / (2.0 * MAX_FINITE_CODE));
+
+            // @note the float scale can round down (by a lot for subnormals) -- then the codes at the ends of the
+            // row would be clamped. So it is made just big enough to cover the row from the (rounded) offset
+            final double halfRange = Math.max((double) max - offset, offset - (double) min);
+            while ((double) scale * MAX_FINITE_CODE < halfRange) {
+                scale = Math.nextUp(scale);
+            }
+        }
+
+        fOffsets[row] = offset;
+        fScales[row] = scale;
+        for (int c = 0; c < fNumCols; c++) {
+            seg[start + c] = _encodeScaled(src[c], offset, scale);
+        }
+    }
+
+    void setRow(final int row, final RowMatrix2D from, final int fromRow) {
+        if (!(from instanceof CompactMatrix2D) || ((CompactMatrix2D) from).fScaled != fScaled) {
+            super.setRow(row, from, fromRow);
+            return;
+        }
+
+        // @note the codes (and the offset and scale of the row) as they are -- no decode and encode
+        final CompactMatrix2D cfrom = (CompactMatrix2D) from;
+        System.arraycopy(cfrom.fSegments[fromRow >>> cfrom.fRowShift], (fromRow & cfrom.fRowMask) * fNumCols,
+                fSegments[row >>> fRowShift], (row & fRowMask) * fNumCols, fNumCols);
+        if (fScaled) {
+            fOffsets[row] = cfrom.fOffsets[fromRow];
+            fScales[row] = cfrom.fScales[fromRow];
+        }
+    }
+
+    /**
+     * @param f
+     * @return the float16 code of f -- rounded to the nearest (even), above 65504 is infinity
+     */
+    static short toHalf(final float f) {
+        final int bits = Float.floatToRawIntBits(f);
+        final int sign = (bits >>> 16) & 0x8000;
+        final int abs = bits & 0x7fffffff;
+
+        if (abs >= 0x7f800000) { // infinity or NaN
+            return (short) (sign | (abs > 0x7f800000 ? 0x7e00 : 0x7c00));
+        }
+
+        if (abs >= 0x477ff000) { // 65520 and up round to infinity
+            return (short) (sign | 0x7c00);
+        }
+
+        if (abs >= 0x38800000) { // a normal half: re-bias the exponent and round off 13 bits of the mantissa
+            final int r = abs - 0x38000000;
+            return (short) (sign | ((r + 0xfff + ((r >>> 13) & 1)) >>> 13));
+        }
+
+        if (abs < 0x33000000) { // less than half the smallest subnormal half
+            return (short) sign;
+        }
+
+        // a subnormal half: the value in units of 2^-24
+        final int exp = abs >>> 23;
+        final int mant = (abs & 0x7fffff) | 0x800000;
+        final int shift = 126 - exp;
+        final int m = mant >>> shift;
+        final int rem = mant & ((1 << shift) - 1);
+        final int half = 1 << (shift - 1);
+        return (short) (sign | (m + ((rem > half || (rem == half && (m & 1) != 0)) ? 1 : 0)));
+    }
+
+    /**
+     * @param h
+     * @return the float of float16 code h
+     */
+    static float fromHalf(final short h) {
+        return HALF_TO_FLOAT[h & 0xffff];
+    }
+
+    private static float _decodeHalf(final int h) {
+        final int exp = (h >>> 10) & 0x1f;
+        final int mant = h & 0x3ff;
+        final boolean neg = (h & 0x8000) != 0;
+
+        if (exp == 0x1f) {
+            if (mant != 0) {
+                return Float.NaN;
+            }
+            return neg ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY;
+        }
+
+        if (exp == 0) { // subnormal (or zero): exact as a float
+            final float v = mant / 16777216f;
+            return neg ? -v : v;
+        }
+
+        return Float.intBitsToFloat((neg ? 0x80000000 : 0) | ((exp + 112) << 23) | (mant << 13));
+    }
+
+    private static short _encodeScaled(final float value, final float offset, final float scale) {
+        if (Float.isNaN(value)) {
+            return CODE_NAN;
+        }
+
+        if (value == Float.POSITIVE_INFINITY) {
+            return CODE_POS_INF;
+        }
+
+        if (value == Float.NEGATIVE_INFINITY) {
+            return CODE_NEG_INF;
+        }
+
+        if (scale == 0) {
+            return 0;
+        }
+
+        final long code = Math.round(((double) value - offset) / scale);
+        return (short) Math.max(-MAX_FINITE_CODE, Math.min(MAX_FINITE_CODE, code));
+    }
+
+    private static float _decodeScaled(final short code, final float offset, final float scale) {
+        if (code > CODE_NEG_INF && code < CODE_POS_INF) {
+            return offset + code * scale;
+        }
+
+        if (code == CODE_NAN) {
+            return Float.NaN;
+        }
+
+        return code == CODE_POS_INF ? Float.POSITIVE_INFINITY : Float.NEGATIVE_INFINITY;
+    }
+
+} // End class CompactMatrix2D
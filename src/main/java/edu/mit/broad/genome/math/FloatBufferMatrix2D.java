@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.math;
+
+import java.nio.FloatBuffer;
+
+/**
+ * A dense float matrix whose elements are those of FloatBuffers, row after row (row major).
+ * <p/>
+ * The buffers are not copied: they can be a direct or a memory mapped buffer (such as the matrix section of
+ * a binary dataset cache file) and then the elements are never on the heap at all.
+ * <p/>
+ * A matrix too big for one buffer is kept in segments of whole rows (a power of two of them per segment) so that
+ * every row is one contiguous run of floats -- see getRowView.
+ *
+ * @author Aravind Subramanian
+ */
+class FloatBufferMatrix2D extends RowMatrix2D {
+
+    // 1 GB -- well within the (int) limits of a ByteBuffer
+    private static final int MAX_SEGMENT_FLOATS = 1 << 28;
+
+    private final FloatBuffer[] fSegments;
+
+    // row r is row (r & fRowMask) of segment (r >>> fRowShift)
+    private final int fRowShift;
+
+    private final int fRowMask;
+
+    /**
+     * @param nrows
+     * @param ncols
+     * @param storage
+     * @return a new all zero matrix of storage
+     */
+    static FloatBufferMatrix2D create(final int nrows, final int ncols, final MatrixStorage.Floats storage) {
+        if (storage == null) {
+            throw new IllegalArgumentException("Param storage cannot be null");
+        }
+
+        final int rowShift = calcRowShift(nrows, ncols);
+        if (rowShift == 31) {
+            return new FloatBufferMatrix2D(nrows, ncols, new FloatBuffer[]{storage.allocate(nrows * ncols)}, 31, storage);
+        }
+
+        final int rowsPerSegment = 1 << rowShift;
+        final FloatBuffer[] segments = new FloatBuffer[(nrows + rowsPerSegment - 1) >>> rowShift];
+        for (int s = 0; s < segments.length; s++) {
+            final int numSegmentRows = Math.min(rowsPerSegment, nrows - s * rowsPerSegment);
+            segments[s] = storage.allocate(numSegmentRows * ncols);
+        }
+
+        return new FloatBufferMatrix2D(nrows, ncols, segments, rowShift, storage);
+    }
+
+    /**
+     * @param nrows
+     * @param ncols
+     * @return log2 of the # of rows in a segment -- 31 if the whole matrix fits in one
+     */
+    static int calcRowShift(final int nrows, final int ncols) {
+        if ((long) nrows * ncols <= MAX_SEGMENT_FLOATS) {
+            return 31;
+        }
+
+        if (ncols > MAX_SEGMENT_FLOATS) {
+            throw new IllegalArgumentException("Too many columns: " + ncols);
+        }
+
+        return 31 - Integer.numberOfLeadingZeros(MAX_SEGMENT_FLOATS / ncols);
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param nrows
+     * @param ncols
+     * @param segments the elements, each from index 0 -- as many rows in each as calcRowShift says (the last one
+     *                 the rest)
+     * @param storage  what the buffers are
+     */
+    FloatBufferMatrix2D(final int nrows, final int ncols, final FloatBuffer[] segments, final MatrixStorage.Floats storage) {
+        this(nrows, ncols, segments, calcRowShift(nrows, ncols), storage);
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param nrows
+     * @param ncols
+     * @param buffer  the elements from index 0 -- at least nrows * ncols of them
+     * @param storage what the buffer is
+     */
+    FloatBufferMatrix2D(final int nrows, final int ncols, final FloatBuffer buffer, final MatrixStorage.Floats storage) {
+        this(nrows, ncols, new FloatBuffer[]{buffer}, 31, storage);
+    }
+
+    private FloatBufferMatrix2D(final int nrows,
+                                final int ncols,
+                                final FloatBuffer[] segments,
+                                final int rowShift,
+                                final MatrixStorage storage) {
+        super(nrows, ncols, storage);
+
+        if (segments.length != (rowShift == 31 ? 1 : (int) ((nrows + (1L << rowShift) - 1) >>> rowShift))) {
+            throw new IllegalArgumentException("Not the # of segments for: " + nrows + " x " + ncols + ": " + segments.length);
+        }
+
+        for (int s = 0; s < segments.length; s++) {
+            if (segments[s] == null) {
+                throw new IllegalArgumentException("Param buffer cannot be null");
+            }
+
+            final long numSegmentRows = Math.min(1L << rowShift, nrows - ((long) s << rowShift));
+            if (numSegmentRows * ncols > segments[s].limit()) {
+                throw new IllegalArgumentException("Buffer of: " + segments[s].limit() + " floats is too small for: " + numSegmentRows + " x " + ncols);
+            }
+        }
+
+        this.fSegments = segments;
+        this.fRowShift = rowShift;
+        this.fRowMask = (int) ((1L << rowShift) - 1);
+    }
+
+    public float getFloat(final int row, final int column) {
+        return fSegments[row >>> fRowShift].get((row & fRowMask) * fNumCols + column);
+    }
+
+    public void setFloat(final float value, final int row, final int column) {
+        fSegments[row >>> fRowShift].put((row & fRowMask) * fNumCols + column, value);
+    }
+
+    /**
+     * @param row
+     * @return the elements of the row, in place (no copy) -- a read only buffer from 0 to the number of columns
+     */
+    FloatBuffer getRowView(final int row) {
+        return _row(row).slice().asReadOnlyBuffer();
+    }
+
+    void getRow(final int row, final float[] dest) {
+        final FloatBuffer seg = fSegments[row >>> fRowShift];
+        if (seg.hasArray()) {
+            System.arraycopy(seg.array(), seg.arrayOffset() + (row & fRowMask) * fNumCols, dest, 0, fNumCols);
+        } else {
+            _row(row).get(dest, 0, fNumCols);
+        }
+    }
+
+    void setRow(final int row, final float[] src) {
+        final FloatBuffer seg = fSegments[row >>> fRowShift];
+        if (seg.hasArray()) {
+            System.arraycopy(src, 0, seg.array(), seg.arrayOffset() + (row & fRowMask) * fNumCols, fNumCols);
+        } else {
+            _row(row).put(src, 0, fNumCols);
+        }
+    }
+
+    void setRow(final int row, final FloatBuffer src) {
+        final FloatBuffer from = src.duplicate();
+        from.limit(from.position() + fNumCols);
+        _row(row).put(from);
+    }
+
+    // @note a duplicate so that any number of threads can read and write rows at the same time
+    private FloatBuffer _row(final int row) {
+        final FloatBuffer buf = fSegments[row >>> fRowShift].duplicate();
+        final int start = (row & fRowMask) * fNumCols;
+        buf.limit(start + fNumCols);
+        buf.position(start);
+        return buf;
+    }
+
+} // End class FloatBufferMatrix2D
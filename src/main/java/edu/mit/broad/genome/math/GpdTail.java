@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.math;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generalized Pareto (GPD) approximation of the upper tail of a permutation null -- for p-values
+ * below what the number of permutations can resolve (Knijnenburg et al, Bioinformatics 2009).
+ * <p/>
+ * The top numExceedances values of the null (over a threshold half way between the
+ * numExceedances and numExceedances + 1 largest) are fit with a GPD by probability weighted moments
+ * (Hosking and Wallis, Technometrics 1987). The fit is checked with an Anderson-Darling test whose
+ * p-value is by a parametric bootstrap; if it fails numExceedances is lowered and the fit tried again.
+ * The p-value of a score is then numExceedances / numNull * (1 - F(score - threshold)).
+ * A score past the upper end of a bounded (shape > 0) fit would get 0 -- it instead gets the p-value
+ * of the exponential tail (shape 0, scale the mean excess), which is heavier and so conservative.
+ * <p/>
+ * Parametrization as in Hosking and Wallis: F(y) = 1 - (1 - shape * y / scale) ^ (1 / shape),
+ * exponential for shape 0 and bounded above (at scale / shape) for shape > 0.
+ * <p/>
+ * Deterministic -- the bootstrap is from a fixed seed so the same null gives the same fit on any thread.
+ *
+ * @author Aravind Subramanian
+ */
+public class GpdTail {
+
+    // Knijnenburg et al: start at 250 exceedances and step down by 10
+    public static final int MAX_NUM_EXCEEDANCES = 250;
+
+    public static final int NUM_EXCEEDANCES_STEP = 10;
+
+    public static final int MIN_NUM_EXCEEDANCES = 10;
+
+    // the permutation p is good enough once this many of the null are more extreme than the score
+    public static final int MIN_NUM_MORE_EXTREME = 10;
+
+    public static final float GOF_ALPHA = 0.05f;
+
+    private static final int NUM_GOF_BOOTSTRAPS = 100;
+
+    private static final long GOF_SEED = 149L;
+
+    private final float fScore;
+
+    private final int fNumNull;
+
+    private final int fNumExceedances;
+
+    private final double fThreshold;
+
+    private final double fShape;
+
+    private final double fScale;
+
+    private final double fMeanExcess;
+
+    private final double fAdStat;
+
+    private final double fAdPValue;
+
+    /**
+     * Privatized class constructor -- see fit
+     */
+    private GpdTail(final float score,
+                    final int numNull,
+                    final int numExceedances,
+                    final double threshold,
+                    final double shape,
+                    final double scale,
+                    final double meanExcess,
+                    final double adStat,
+                    final double adPValue) {
+        this.fScore = score;
+        this.fNumNull = numNull;
+        this.fNumExceedances = numExceedances;
+        this.fThreshold = threshold;
+        this.fShape = shape;
+        this.fScale = scale;
+        this.fMeanExcess = meanExcess;
+        this.fAdStat = adStat;
+        this.fAdPValue = adPValue;
+    }
+
+    /**
+     * @param score
+     * @param nullSorted the null, sorted low to high (no NaNs). Upper tail only -- e.g magnitudes
+     * @return the first fit (from MAX_NUM_EXCEEDANCES down) that passes the goodness of fit test, else the
+     * last one tried. Null if the null is too small to have MIN_NUM_EXCEEDANCES in its tail.
+     */
+    public static GpdTail fit(final float score, final float[] nullSorted) {
+
+        if (nullSorted == null) {
+            throw new IllegalArgumentException("Param nullSorted cannot be null");
+        }
+
+        final int n = nullSorted.length;
+
+        // @note at most a quarter of the null as tail -- else the threshold is no longer in the tail
+        final int maxNumExceedances = Math.min(MAX_NUM_EXCEEDANCES, n / 4);
+
+        GpdTail last = null;
+        for (int nexc = maxNumExceedances; nexc >= MIN_NUM_EXCEEDANCES; nexc -= NUM_EXCEEDANCES_STEP) {
+            final double threshold = ((double) nullSorted[n - nexc - 1] + (double) nullSorted[n - nexc]) / 2;
+            final double[] y = new double[nexc];
+            for (int i = 0; i < nexc; i++) {
+                y[i] = nullSorted[n - nexc + i] - threshold;
+            }
+
+            final double[] ks = _fitPwm(y);
+            if (!(ks[1] > 0)) { // also catches NaN -- e.g all the tail the same value
+                continue;
+            }
+
+            final double adStat = _adStat(y, ks[0], ks[1]);
+            final double adPValue = _adPValue(adStat, nexc, ks[0], ks[1]);
+            last = new GpdTail(score, n, nexc, threshold, ks[0], ks[1], _mean(y), adStat, adPValue);
+
+            if (last.isAccepted()) {
+                break;
+            }
+        }
+
+        return last;
+    }
+
+    /**
+     * @return true if the fit passed the goodness of fit test
+     */
+    public boolean isAccepted() {
+        return fAdPValue >= GOF_ALPHA;
+    }
+
+    /**
+     * @return the tail p-value of the score (the chance of more than it) -- NaN if the fit
+     * was not accepted or the score is not in the tail
+     */
+    public double getPValue() {
+        if (!isAccepted() || !(fScore > fThreshold)) {
+            return Double.NaN;
+        }
+
+        double survival = _survival(fScore - fThreshold, fShape, fScale);
+        if (survival == 0) {
+            survival = _survival(fScore - fThreshold, 0, fMeanExcess);
+        }
+
+        return ((double) fNumExceedances / (double) fNumNull) * survival;
+    }
+
+    /**
+     * @return true if the score is past the upper end of the fit (and so its p-value is from the exponential tail)
+     */
+    public boolean isPastEnd() {
+        return fScore > fThreshold && _survival(fScore - fThreshold, fShape, fScale) == 0;
+    }
+
+    public float getScore() {
+        return fScore;
+    }
+
+    public int getNumNull() {
+        return fNumNull;
+    }
+
+    public int getNumExceedances() {
+        return fNumExceedances;
+    }
+
+    public double getThreshold() {
+        return fThreshold;
+    }
+
+    public double getShape() {
+        return fShape;
+    }
+
+    public double getScale() {
+        return fScale;
+    }
+
+    public double getAdStat() {
+        return fAdStat;
+    }
+
+    public double getAdPValue() {
+        return fAdPValue;
+    }
+
+    public String toString() {
+        return "GpdTail nexc: " + fNumExceedances + "/" + fNumNull + " threshold: " + fThreshold + " shape: " + fShape
+                + " scale: " + fScale + " ad: " + fAdStat + " ad_p: " + fAdPValue;
+    }
+
+    private static double _mean(final double[] y) {
+        double sum = 0;
+        for (int i = 0; i < y.length; i++) {
+            sum += y[i];
+        }
+        return sum / y.length;
+    }
+
+    // y sorted low to high. {shape, scale}
+    private static double[] _fitPwm(final double[] y) {
+        final int n = y.length;
+        double a0 = 0;
+        double a1 = 0;
+        for (int j = 0; j < n; j++) {
+            a0 += y[j];
+            a1 += y[j] * (n - 1 - j) / (n - 1);
+        }
+        a0 /= n;
+        a1 /= n;
+
+        final double shape = a0 / (a0 - 2 * a1) - 2;
+        final double scale = 2 * a0 * a1 / (a0 - 2 * a1);
+        return new double[]{shape, scale};
+    }
+
+    private static double _survival(final double y, final double shape, final double scale) {
+        if (shape == 0) {
+            return Math.exp(-y / scale);
+        }
+
+        final double base = 1 - shape * y / scale;
+        if (base <= 0) {
+            return 0; // @note past the upper end of the tail
+        }
+
+        return Math.pow(base, 1 / shape);
+    }
+
+    // y sorted low to high
+    private static double _adStat(final double[] y, final double shape, final double scale) {
+        final int n = y.length;
+        final double eps = 1e-12;
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            final double zi = Math.min(Math.max(1 - _survival(y[i], shape, scale), eps), 1 - eps);
+            final double zni = Math.min(Math.max(1 - _survival(y[n - 1 - i], shape, scale), eps), 1 - eps);
+            sum += (2 * i + 1) * (Math.log(zi) + Math.log(1 - zni));
+        }
+
+        return -n - sum / n;
+    }
+
+    // the chance of a worse stat from samples of the fit (refit every time as the parameters were estimated)
+    private static double _adPValue(final double adStat, final int n, final double shape, final double scale) {
+        final Random rnd = new Random(GOF_SEED);
+        final double[] y = new double[n];
+        int cnt = 0;
+        for (int b = 0; b < NUM_GOF_BOOTSTRAPS; b++) {
+            for (int i = 0; i < n; i++) {
+                final double u = 1 - rnd.nextDouble(); // (0, 1]
+                y[i] = shape == 0 ? -scale * Math.log(u) : scale * (1 - Math.pow(u, shape)) / shape;
+            }
+            Arrays.sort(y);
+
+            final double[] ks = _fitPwm(y);
+            if (ks[1] > 0 && _adStat(y, ks[0], ks[1]) >= adStat) {
+                cnt++;
+            }
+        }
+
+        return (cnt + 1) / (double) (NUM_GOF_BOOTSTRAPS + 1);
+    }
+
+} // End class GpdTail
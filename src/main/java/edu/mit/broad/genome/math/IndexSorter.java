@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.math;
+
+import java.util.Arrays;
+
+/**
+ * Sorts the indices of an array of doubles -- a radix sort on the values, no objects per element.
+ * <p/>
+ * Same order as sorting DoubleElements with the DoubleElementComparator (and a stable sort):
+ * NaN is always least, in ABSOLUTE mode the magnitudes are compared, -0 and +0 are equal
+ * and ties keep their index order (for both ascending and descending).
+ *
+ * @author Aravind Subramanian
+ * @see DoubleElement.DoubleElementComparator
+ */
+public class IndexSorter {
+
+    private static final int RADIX_BITS = 11;
+
+    private static final int NUM_BUCKETS = 1 << RADIX_BITS;
+
+    private static final int BUCKET_MASK = NUM_BUCKETS - 1;
+
+    /**
+     * Privatized class constructor
+     */
+    private IndexSorter() {
+    }
+
+    /**
+     * @param values
+     * @param sort
+     * @param order
+     * @return the indices of values in sorted order (i.e the index of the value at rank 0 first)
+     */
+    public static int[] sort(final double[] values, final SortMode sort, final Order order) {
+
+        if (values == null) {
+            throw new IllegalArgumentException("Param values cannot be null");
+        }
+
+        if (sort == null) {
+            throw new IllegalArgumentException("Param sort cannot be null");
+        }
+
+        if (order == null) {
+            throw new IllegalArgumentException("Param order cannot be null");
+        }
+
+        final int n = values.length;
+        final boolean abs = sort.isAbsolute();
+        final boolean ascending = order.isAscending();
+
+        long[] keys = new long[n];
+        int[] inds = new int[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = _key(values[i], abs, ascending);
+            inds[i] = i;
+        }
+
+        if (n < 2) {
+            return inds;
+        }
+
+        long[] keysTmp = new long[n];
+        int[] indsTmp = new int[n];
+        final int[] counts = new int[NUM_BUCKETS];
+
+        // LSD -- each pass is a stable counting sort on the next RADIX_BITS of the keys
+        for (int shift = 0; shift < 64; shift += RADIX_BITS) {
+
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < n; i++) {
+                counts[(int) (keys[i] >>> shift) & BUCKET_MASK]++;
+            }
+
+            // all keys the same in these bits (typically the high bits) -- nothing to do
+            if (counts[(int) (keys[0] >>> shift) & BUCKET_MASK] == n) {
+                continue;
+            }
+
+            int pos = 0;
+            for (int b = 0; b < NUM_BUCKETS; b++) {
+                final int num = counts[b];
+                counts[b] = pos;
+                pos += num;
+            }
+
+            for (int i = 0; i < n; i++) {
+                final int b = (int) (keys[i] >>> shift) & BUCKET_MASK;
+                final int to = counts[b]++;
+                keysTmp[to] = keys[i];
+                indsTmp[to] = inds[i];
+            }
+
+            final long[] kswap = keys;
+            keys = keysTmp;
+            keysTmp = kswap;
+
+            final int[] iswap = inds;
+            inds = indsTmp;
+            indsTmp = iswap;
+        }
+
+        return inds;
+    }
+
+    // a key whose unsigned order is the sort order
+    private static long _key(double d, final boolean abs, final boolean ascending) {
+
+        long key;
+
+        if (Double.isNaN(d)) {
+            key = 0; // NaN is always least
+        } else {
+            if (abs) {
+                d = Math.abs(d);
+            }
+
+            d += 0.0d; // -0 -> +0 as the comparator finds them equal
+
+            final long bits = Double.doubleToRawLongBits(d);
+            key = bits < 0 ? ~bits : bits ^ Long.MIN_VALUE;
+        }
+
+        return ascending ? key : ~key;
+    }
+
+} // End class IndexSorter
@@ -10,11 +10,9 @@ import gnu.trove.TFloatArrayList;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.PrintWriter;
+import java.nio.FloatBuffer;
 
 import org.ujmp.core.calculation.Calculation.Ret;
-import org.ujmp.core.enums.ValueType;
-import org.ujmp.core.floatmatrix.DenseFloatMatrix2D;
-import org.ujmp.core.floatmatrix.impl.DefaultDenseFloatMatrix2D;
 
 public class Matrix extends AbstractObject {
 
@@ -23,7 +21,8 @@ public class Matrix extends AbstractObject {
     private static int name_cnt;
 
     // Wrapped data structure; to be unwrapped and used directly if possible.
-    private DenseFloatMatrix2D ourMatrix;
+    // @note row major, as its MatrixStorage keeps it -- so a row is read at a time
+    private RowMatrix2D ourMatrix;
     
     /**
      * The number of rows in this matrix.
@@ -52,6 +51,18 @@ public class Matrix extends AbstractObject {
      * @param ncols number of columns in this matrix.
      */
     public Matrix(int nrows, int ncols) {
+        this(nrows, ncols, MatrixStorage.getDefault((long) nrows * ncols));
+    }
+
+    /**
+     * Class Constructor.
+     * Constructs an all zero matrix kept in the specified storage
+     *
+     * @param nrows
+     * @param ncols
+     * @param storage
+     */
+    public Matrix(int nrows, int ncols, MatrixStorage storage) {
         super.initialize("matrix_" + name_cnt++);
         if (nrows < 0) {
             throw new NegativeArraySizeException(nrows + " < 0");
@@ -61,9 +72,20 @@ public class Matrix extends AbstractObject {
             throw new NegativeArraySizeException(ncols + " < 0");
         }
 
+        if (storage == null) {
+            throw new IllegalArgumentException("Param storage cannot be null");
+        }
+
         this.fRowCnt = nrows;
         this.fColCnt = ncols;
-        this.ourMatrix = (DenseFloatMatrix2D)org.ujmp.core.Matrix.Factory.zeros(ValueType.FLOAT, nrows, ncols);
+        this.ourMatrix = storage.create(nrows, ncols);
+    }
+
+    /**
+     * @return how the elements are kept
+     */
+    public MatrixStorage getStorage() {
+        return ourMatrix.getStorage();
     }
 
     public String getQuickInfo() {
@@ -87,14 +109,91 @@ public class Matrix extends AbstractObject {
         // TODO: Push this up into the caller (in DataframeParser).
         // May not be necessary, however, as we may not actually ever use that parser.
         // Could be vestigial, required by unused file format code.  Unsure yet.
-        // Might have faster options based on e.g.
-        //DenseFloatMatrix2D replace = org.ujmp.core.Matrix.Factory.linkFromArray(array);
-        this.ourMatrix = (DenseFloatMatrix2D)org.ujmp.core.Matrix.Factory.zeros(ValueType.FLOAT, nrows, ncols);
+        this.ourMatrix = MatrixStorage.getDefault((long) nrows * ncols).create(nrows, ncols);
         for (int row = 0; row < nrows; row++) {
-            for (int col = 0; col < ncols; col++) {
-                ourMatrix.setFloat(elementData[row * fColCnt + col], row, col);
-            }
+            ourMatrix.setRow(row, FloatBuffer.wrap(elementData, row * fColCnt, fColCnt));
+        }
+    }
+
+    /**
+     * Class Constructor.
+     * Data is shared: the elements are those of the buffer, row after row, and are read there
+     * -- e.g straight from a memory mapped file. They are written there too unless the buffer is read only
+     * (as for a file mapped READ_ONLY) in which case setting an element throws a ReadOnlyBufferException.
+     *
+     * @param nrows
+     * @param ncols
+     * @param rowMajor at least nrows * ncols floats from index 0
+     * @param storage  what the buffer is: HEAP, DIRECT or MAPPED
+     */
+    public Matrix(int nrows, int ncols, FloatBuffer rowMajor, MatrixStorage storage) {
+        super.initialize("matrix_" + name_cnt++);
+        if (nrows < 0) {
+            throw new NegativeArraySizeException(nrows + " < 0");
         }
+
+        if (ncols < 0) {
+            throw new NegativeArraySizeException(ncols + " < 0");
+        }
+
+        this.fRowCnt = nrows;
+        this.fColCnt = ncols;
+        if (storage == null) {
+            throw new IllegalArgumentException("Param storage cannot be null");
+        }
+
+        if (!(storage instanceof MatrixStorage.Floats)) {
+            throw new IllegalArgumentException("Not a storage of floats: " + storage);
+        }
+
+        this.ourMatrix = new FloatBufferMatrix2D(nrows, ncols, rowMajor, (MatrixStorage.Floats) storage);
+    }
+
+    /**
+     * Class Constructor.
+     * As the constructor with one buffer but for a matrix too big for one: the elements are in segments of whole
+     * rows, getRowsPerSegment of them in each (the last one the rest)
+     *
+     * @param nrows
+     * @param ncols
+     * @param rowMajorSegments each from index 0
+     * @param storage          what the buffers are: HEAP, DIRECT or MAPPED
+     */
+    public Matrix(int nrows, int ncols, FloatBuffer[] rowMajorSegments, MatrixStorage storage) {
+        super.initialize("matrix_" + name_cnt++);
+        if (nrows < 0) {
+            throw new NegativeArraySizeException(nrows + " < 0");
+        }
+
+        if (ncols < 0) {
+            throw new NegativeArraySizeException(ncols + " < 0");
+        }
+
+        this.fRowCnt = nrows;
+        this.fColCnt = ncols;
+        if (rowMajorSegments == null) {
+            throw new IllegalArgumentException("Param rowMajorSegments cannot be null");
+        }
+
+        if (storage == null) {
+            throw new IllegalArgumentException("Param storage cannot be null");
+        }
+
+        if (!(storage instanceof MatrixStorage.Floats)) {
+            throw new IllegalArgumentException("Not a storage of floats: " + storage);
+        }
+
+        this.ourMatrix = new FloatBufferMatrix2D(nrows, ncols, rowMajorSegments, (MatrixStorage.Floats) storage);
+    }
+
+    /**
+     * @param nrows
+     * @param ncols
+     * @return the # of rows in each segment of a matrix of floats this big -- all of them if one will do
+     */
+    public static int getRowsPerSegment(int nrows, int ncols) {
+        final int rowShift = FloatBufferMatrix2D.calcRowShift(nrows, ncols);
+        return rowShift == 31 ? nrows : 1 << rowShift;
     }
 
     /**
@@ -108,6 +207,17 @@ public class Matrix extends AbstractObject {
      *               else the array is systemarrycopied
      */
     public Matrix(Matrix matrix) {
+        this(matrix, MatrixStorage.getDefault((long) matrix.fRowCnt * matrix.fColCnt));
+    }
+
+    /**
+     * Class Constructor.
+     * A copy of the specified matrix kept in the specified storage (for instance a compact one)
+     *
+     * @param matrix
+     * @param storage
+     */
+    public Matrix(Matrix matrix, MatrixStorage storage) {
         if (matrix == null) {
             throw new IllegalArgumentException("Param matrix cannot be null");
         }
@@ -119,9 +229,14 @@ public class Matrix extends AbstractObject {
         //this.fImmutable = matrix.fImmutable;
         this.fImmuted = false;
         
-        // Safe/fast?  Not sure yet...
-        // Or, use copy()?  matrix.ourMatrix.clone() works for StringMatrix, not available for this?
-        this.ourMatrix = (DefaultDenseFloatMatrix2D)org.ujmp.core.Matrix.Factory.copyFromMatrix(matrix.ourMatrix);
+        if (storage == null) {
+            throw new IllegalArgumentException("Param storage cannot be null");
+        }
+
+        this.ourMatrix = storage.create(fRowCnt, fColCnt);
+        for (int r = 0; r < fRowCnt; r++) {
+            ourMatrix.setRow(r, matrix.ourMatrix, r);
+        }
     }
 
     /**
@@ -224,27 +339,48 @@ public class Matrix extends AbstractObject {
     /**
      * A safe copy is returned.
      * but note efficient as directly copied into Vectors array
+     *
+     * @see #getRowView(int) to read a row without a copy
      */
-    // TODO: look at having the various callers work with the Matrix directly.
-    // I believe there's inefficiency built-in here due to the need to copy values
-    // out to work on them row-wise (or column-wise, below).  It's too big to refactor 
-    // right now and possibly not important.
     public Vector getRowV(int row) {
 
-        if (fRowCnt <= row) {
-            throw new ArrayIndexOutOfBoundsException("row:" + row + " > matrix's fRowCnt:"
-                    + fRowCnt);
-        }
+        _checkRow(row);
 
-        if (row < 0) {
-            throw new ArrayIndexOutOfBoundsException("row:" + row + " < 0");
-        }
-        
         float[] rowContents = new float[fColCnt];
-        for (int i = 0; i < fColCnt; i++) {
-            rowContents[i] = ourMatrix.getFloat(row, i);
+        ourMatrix.getRow(row, rowContents);
+        return new Vector(rowContents, true);
+    }
+
+    /**
+     * Data is shared (no copy) if the storage is of floats: the elements of the row as they are kept.
+     * For a compact storage a decoded copy.
+     *
+     * @param row
+     * @return a read only buffer of the row, from 0 to the number of columns
+     */
+    public FloatBuffer getRowView(int row) {
+
+        _checkRow(row);
+
+        return ourMatrix.getRowView(row);
+    }
+
+    /**
+     * Copies the specified row into dest (from 0) -- so a row can be read into reused space
+     *
+     * @param row
+     * @param dest at least as long as the number of columns
+     */
+    public void getRow(int row, float[] dest) {
+
+        _checkRow(row);
+
+        if (dest.length < fColCnt) {
+            throw new ArrayIndexOutOfBoundsException("array length:" + dest.length
+                    + " < matrix's fColCnt=" + fColCnt);
         }
-        return new Vector(rowContents, false);
+
+        ourMatrix.getRow(row, dest);
     }
 
     /**
@@ -334,9 +470,56 @@ public class Matrix extends AbstractObject {
                     + " < matrix's fColCnt=" + fColCnt);
         }
 
-        for (int i = 0; i < fColCnt; i++) {
-            ourMatrix.setFloat(array[i], row, i);
+        ourMatrix.setRow(row, array);
+    }
+
+    /**
+     * Copy the remaining values of the buffer (for instance a row view of another matrix)
+     * into the specified row of this matrix.
+     *
+     * @param row    the row of this matrix into which the values will be copied.
+     * @param values the source buffer (its position is not changed)
+     */
+    public void setRow(int row, FloatBuffer values) {
+
+        checkImmutable();
+
+        _checkRow(row);
+
+        if (values.remaining() < fColCnt) {
+            throw new ArrayIndexOutOfBoundsException("buffer remaining:" + values.remaining()
+                    + " < matrix's fColCnt=" + fColCnt);
+        }
+
+        ourMatrix.setRow(row, values);
+    }
+
+    /**
+     * Copy the specified row of another matrix (with as many columns) into the specified row of this matrix.
+     * When both are in the same storage the row is copied as it is kept -- for a lossy (compact) storage
+     * that is the same values, not the values coded again.
+     *
+     * @param row     the row of this matrix into which the values will be copied.
+     * @param from    the source matrix
+     * @param fromRow the row of the source matrix
+     */
+    public void setRow(int row, Matrix from, int fromRow) {
+
+        checkImmutable();
+
+        _checkRow(row);
+
+        if (from == null) {
+            throw new IllegalArgumentException("Param from cannot be null");
         }
+
+        from._checkRow(fromRow);
+
+        if (from.fColCnt != fColCnt) {
+            throw new IllegalArgumentException("Matrix from has: " + from.fColCnt + " columns, not: " + fColCnt);
+        }
+
+        ourMatrix.setRow(row, from.ourMatrix, fromRow);
     }
 
     /**
@@ -368,14 +551,7 @@ public class Matrix extends AbstractObject {
                     + " < matrix's fColCnt=" + fColCnt);
         }
 
-        for (int i = 0; i < fColCnt; i++) {
-            ourMatrix.setFloat(vector.getElement(i), row, i);
-        }
-
-        // Hypothetical alternative here.
-//        DefaultDenseFloatMatrix2D entireRow = (DefaultDenseFloatMatrix2D)ourMatrix.selectRows(Ret.ORIG, row);
-//        // This will apparently work; the matrix is exposing its internals
-//        System.arraycopy(vector.elementData, 0, entireRow.getFloatArray(), 0, fColCnt);
+        ourMatrix.setRow(row, vector.elementData);
     }
 
     /**
@@ -497,6 +673,17 @@ public class Matrix extends AbstractObject {
         pw.close();
     }
 
+    private void _checkRow(int row) {
+        if (fRowCnt <= row) {
+            throw new ArrayIndexOutOfBoundsException("row:" + row + " > matrix's fRowCnt:"
+                    + fRowCnt);
+        }
+
+        if (row < 0) {
+            throw new ArrayIndexOutOfBoundsException("row:" + row + " < 0");
+        }
+    }
+
     private static void _enforceEqualDimensions(Matrix a, Matrix b) {
         if (a.getNumRow() != b.getNumRow()) {
             throw new IllegalArgumentException("Mismatched matrices: must be of equal row lengths a: " + a.getNumRow() + " b: " + b.getNumRow());
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.math;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * enum construct
+ * <p/>
+ * Where and how the elements of a Matrix are kept -- always row after row (row major). As floats, in one contiguous
+ * run per block of rows:
+ * <ul>
+ * <li>heap: a float[] (as always)</li>
+ * <li>direct: off the java heap (limited by -XX:MaxDirectMemorySize)</li>
+ * <li>mapped: a memory mapped temp file (in MATRIX_STORAGE_DIR, else java.io.tmpdir) -- so the os can page the
+ * matrix in and out and it can be bigger than the memory of the machine</li>
+ * </ul>
+ * or compact, in 16 bits per element on the heap (see CompactMatrix2D) -- lossy, so only ever asked for (e.g for
+ * datasets, see ParserFactory):
+ * <ul>
+ * <li>float16: half precision floats</li>
+ * <li>int16_scaled: 16 bit steps between the min and max of each row</li>
+ * </ul>
+ * The storage of big matrices (at least MATRIX_STORAGE_MIN_MB) is that of the MATRIX_STORAGE system property
+ * (heap by default, never compact); smaller ones are always on the heap.
+ *
+ * @author Aravind Subramanian
+ */
+public abstract class MatrixStorage {
+
+    private static final Logger klog = Logger.getLogger(MatrixStorage.class);
+
+    public static final MatrixStorage HEAP = new Floats("heap") {
+        FloatBuffer allocate(final int numFloats) {
+            return FloatBuffer.wrap(new float[numFloats]);
+        }
+    };
+
+    public static final MatrixStorage DIRECT = new Floats("direct") {
+        FloatBuffer allocate(final int numFloats) {
+            return ByteBuffer.allocateDirect(_numBytes(numFloats)).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+    };
+
+    public static final MatrixStorage MAPPED = new Floats("mapped") {
+        FloatBuffer allocate(final int numFloats) {
+            try {
+                return _map(numFloats);
+            } catch (IOException e) {
+                throw new RuntimeException("Could not make a mapped matrix of: " + numFloats + " floats", e);
+            }
+        }
+    };
+
+    public static final MatrixStorage FLOAT16 = new MatrixStorage("float16") {
+        RowMatrix2D create(final int nrows, final int ncols) {
+            return new CompactMatrix2D(nrows, ncols, false, this);
+        }
+    };
+
+    public static final MatrixStorage INT16_SCALED = new MatrixStorage("int16_scaled") {
+        RowMatrix2D create(final int nrows, final int ncols) {
+            return new CompactMatrix2D(nrows, ncols, true, this);
+        }
+    };
+
+    public static final MatrixStorage[] ALL = new MatrixStorage[]{HEAP, DIRECT, MAPPED, FLOAT16, INT16_SCALED};
+
+    public static final MatrixStorage[] ALL_COMPACT = new MatrixStorage[]{FLOAT16, INT16_SCALED};
+
+    // smaller matrices (the bulk of them, scratch etc) are always on the heap
+    private static final long MIN_BYTES = Long.getLong("MATRIX_STORAGE_MIN_MB", 64).longValue() * 1024 * 1024;
+
+    private static MatrixStorage kDefault;
+
+    private final String fType;
+
+    private MatrixStorage(final String type) {
+        this.fType = type;
+    }
+
+    /**
+     * @param nrows
+     * @param ncols
+     * @return a new all zero matrix of this storage
+     */
+    abstract RowMatrix2D create(final int nrows, final int ncols);
+
+    /**
+     * @return true if 16 bits per element (lossy)
+     */
+    public boolean isCompact() {
+        return !(this instanceof Floats);
+    }
+
+    public String toString() {
+        return fType;
+    }
+
+    public boolean equals(Object obj) {
+
+        if (obj instanceof MatrixStorage) {
+            if (((MatrixStorage) obj).fType.equals(this.fType)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public int hashCode() {
+        return fType.hashCode();
+    }
+
+    /**
+     * @param numElements
+     * @return the storage for a matrix of numElements floats
+     */
+    public static MatrixStorage getDefault(final long numElements) {
+        if (numElements * 4 < MIN_BYTES) {
+            return HEAP;
+        }
+
+        if (kDefault == null) {
+            final MatrixStorage storage = lookup(System.getProperty("MATRIX_STORAGE", HEAP.fType));
+            if (storage.isCompact()) {
+                throw new IllegalArgumentException("Not a float storage: " + storage + " (compact storage is only for datasets)");
+            }
+            kDefault = storage;
+        }
+
+        return kDefault;
+    }
+
+    /**
+     * @param numElements
+     * @param like
+     * @return the storage for a matrix of numElements floats made from (say a subset of) like -- compact if like is
+     */
+    public static MatrixStorage getDefault(final long numElements, final Matrix like) {
+        if (like != null && like.getStorage().isCompact()) {
+            return like.getStorage();
+        }
+
+        return getDefault(numElements);
+    }
+
+    /**
+     * a lookup metod for storage
+     */
+    public static MatrixStorage lookup(Object obj) {
+
+        if (obj == null) {
+            throw new NullPointerException("Null storage not allowed");
+        }
+
+        if (obj instanceof MatrixStorage) {
+            return (MatrixStorage) obj;
+        }
+
+        String s = obj.toString();
+
+        for (int i = 0; i < ALL.length; i++) {
+            if (s.equalsIgnoreCase(ALL[i].fType)) {
+                return ALL[i];
+            }
+        }
+
+        throw new IllegalArgumentException("Unable to lookup matrix storage String: " + obj);
+    }
+
+    /**
+     * A storage of floats in FloatBuffers
+     */
+    abstract static class Floats extends MatrixStorage {
+
+        private Floats(final String type) {
+            super(type);
+        }
+
+        /**
+         * @param numFloats
+         * @return a buffer of numFloats zeros, its position at 0 and limit at numFloats
+         */
+        abstract FloatBuffer allocate(final int numFloats);
+
+        RowMatrix2D create(final int nrows, final int ncols) {
+            return FloatBufferMatrix2D.create(nrows, ncols, this);
+        }
+
+    } // End class Floats
+
+    private static int _numBytes(final int numFloats) {
+        if (numFloats > Integer.MAX_VALUE / 4) {
+            throw new IllegalArgumentException("Too many floats for one buffer: " + numFloats);
+        }
+
+        return numFloats * 4;
+    }
+
+    private static FloatBuffer _map(final int numFloats) throws IOException {
+        final String dirPath = System.getProperty("MATRIX_STORAGE_DIR", System.getProperty("java.io.tmpdir"));
+        final File file = File.createTempFile("matrix_", ".floats", new File(dirPath));
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(_numBytes(numFloats));
+            // @note the mapping stays valid after the file is closed (and, but on windows, deleted)
+            final FloatBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, _numBytes(numFloats))
+                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
+            klog.debug("Mapped matrix file: " + file + " of: " + numFloats + " floats");
+            return buf;
+        } finally {
+            raf.close();
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+} // End class MatrixStorage
@@ -15,4 +15,15 @@ public interface RandomSeedGenerator {
 
     public Random getRandom();
 
+    /**
+     * An independent stream derived from this seed and the key alone -- it does not consume
+     * anything from getRandom() so splits can be made in any order, on any thread and still
+     * always give the same numbers for the same seed and key.
+     * Chain the splits for compound keys, e.g. split(analysis).split(geneSetNum).split(permNum)
+     *
+     * @param key
+     * @return
+     */
+    public RandomSeedGenerator split(final long key);
+
 } // End class RandomSeedGenerator
@@ -6,6 +6,7 @@ package edu.mit.broad.genome.math;
 import org.apache.log4j.Logger;
 
 import java.util.Random;
+import java.util.SplittableRandom;
 
 /**
  * @author Aravind Subramanian
@@ -14,6 +15,13 @@ public class RandomSeedGenerators {
 
     private static final Logger klog = Logger.getLogger(RandomSeedGenerators.class);
 
+    // keys for the kind of randomization that a stream is split off for
+    public static final long PHENOTYPE_PERMS_KEY = 1L;
+    public static final long GENE_SET_PERMS_KEY = 2L;
+    public static final long MULTILEVEL_KEY = 3L;
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
 
     // @maint
     //@note IMP we dont want the timestamp based param created at startup of the tool
@@ -79,6 +87,10 @@ public class RandomSeedGenerators {
             return fRandom;
         }
 
+        public RandomSeedGenerator split(final long key) {
+            return new Split(fSeed, key);
+        }
+
     }
 
     /**
@@ -117,6 +129,62 @@ public class RandomSeedGenerators {
         public long getTimestamp() {
             return timestamp;
         }
+
+        public RandomSeedGenerator split(final long key) {
+            return new Split(timestamp, key);
+        }
+    }
+
+    /**
+     * A stream split off from a parent seed by a key.
+     * The seed is a hash (splitmix64) of the parent seed and the key, and the numbers come from a
+     * SplittableRandom rather than the 48 bit LCG of java.util.Random
+     */
+    public static class Split implements RandomSeedGenerator {
+
+        private final long fSeed;
+        private final Random fRandom;
+
+        private Split(final long parentSeed, final long key) {
+            this.fSeed = mix64(parentSeed ^ mix64(key + GOLDEN_GAMMA));
+            this.fRandom = new SplittableRandomAdapter(fSeed);
+        }
+
+        public String toString() {
+            return "" + fSeed;
+        }
+
+        public Random getRandom() {
+            return fRandom;
+        }
+
+        public RandomSeedGenerator split(final long key) {
+            return new Split(fSeed, key);
+        }
+    }
+
+    // splitmix64 finalizer
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * So that a SplittableRandom can be used wherever a Random is expected.
+     * Like SplittableRandom it is NOT thread safe -- a stream belongs to one task
+     */
+    private static class SplittableRandomAdapter extends Random {
+
+        private final SplittableRandom fSplittable;
+
+        private SplittableRandomAdapter(final long seed) {
+            this.fSplittable = new SplittableRandom(seed);
+        }
+
+        protected int next(final int bits) {
+            return fSplittable.nextInt() >>> (32 - bits);
+        }
     }
 
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.math;
+
+import org.ujmp.core.floatmatrix.stub.AbstractDenseFloatMatrix2D;
+
+import java.nio.FloatBuffer;
+
+/**
+ * The elements of a Matrix, kept row after row (row major) in some MatrixStorage -- read and written a whole
+ * row at a time as well as element by element.
+ *
+ * @author Aravind Subramanian
+ * @see FloatBufferMatrix2D
+ * @see CompactMatrix2D
+ */
+abstract class RowMatrix2D extends AbstractDenseFloatMatrix2D {
+
+    protected final int fNumRows;
+
+    protected final int fNumCols;
+
+    private final MatrixStorage fStorage;
+
+    /**
+     * Class constructor
+     *
+     * @param nrows
+     * @param ncols
+     * @param storage
+     */
+    protected RowMatrix2D(final int nrows, final int ncols, final MatrixStorage storage) {
+        super(nrows, ncols);
+
+        if (storage == null) {
+            throw new IllegalArgumentException("Param storage cannot be null");
+        }
+
+        this.fNumRows = nrows;
+        this.fNumCols = ncols;
+        this.fStorage = storage;
+    }
+
+    MatrixStorage getStorage() {
+        return fStorage;
+    }
+
+    public long getRowCount() {
+        return fNumRows;
+    }
+
+    public long getColumnCount() {
+        return fNumCols;
+    }
+
+    public float getFloat(final long row, final long column) {
+        return getFloat((int) row, (int) column);
+    }
+
+    public void setFloat(final float value, final long row, final long column) {
+        setFloat(value, (int) row, (int) column);
+    }
+
+    /**
+     * Copies the row into dest (from 0)
+     *
+     * @param row
+     * @param dest
+     */
+    abstract void getRow(final int row, final float[] dest);
+
+    /**
+     * Copies src (from 0) into the row
+     *
+     * @param row
+     * @param src
+     */
+    abstract void setRow(final int row, final float[] src);
+
+    /**
+     * Copies the remaining floats of src (as many as there are columns) into the row
+     *
+     * @param row
+     * @param src
+     */
+    void setRow(final int row, final FloatBuffer src) {
+        final float[] values = new float[fNumCols];
+        src.duplicate().get(values);
+        setRow(row, values);
+    }
+
+    /**
+     * Copies row fromRow of from (with as many columns) into the row. Here through its row view
+     * (subclasses copy the row as it is kept when from is of the same kind -- so a lossy one is not coded again)
+     *
+     * @param row
+     * @param from
+     * @param fromRow
+     */
+    void setRow(final int row, final RowMatrix2D from, final int fromRow) {
+        setRow(row, from.getRowView(fromRow));
+    }
+
+    /**
+     * @param row
+     * @return the elements of the row -- a read only buffer from 0 to the number of columns. Here a copy
+     * (subclasses that keep floats return them in place)
+     */
+    FloatBuffer getRowView(final int row) {
+        final float[] values = new float[fNumCols];
+        getRow(row, values);
+        return FloatBuffer.wrap(values).asReadOnlyBuffer();
+    }
+
+} // End class RowMatrix2D
@@ -856,32 +856,84 @@ public class XMath {
         return -1.0d * mw;
     }
 
+    /**
+     * Number of leading elements of the sorted vector that value is not more than
+     * (i.e the count up to the first element less than value).
+     * <p/>
+     * @note binary search -- O(log n). Same count as walking the vector from the top, as in a vector
+     * sorted pos to neg (Vector.sort: nans first) value > element goes false..false true..true
+     *
+     * @param value
+     * @param sorted_pos_to_neg
+     * @return
+     */
     public static int getMoreThanCount(final float value, final Vector sorted_pos_to_neg) {
 
-        int cnt = 0;
-        for (int i = 0; i < sorted_pos_to_neg.getSize(); i++) {
-            if (value > sorted_pos_to_neg.getElement(i)) {
-                break;
+        final float[] vals = sorted_pos_to_neg.elementData;
+
+        // first index where value > element
+        int lo = 0;
+        int hi = sorted_pos_to_neg.getSize();
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (value > vals[mid]) {
+                hi = mid;
             } else {
-                cnt++;
+                lo = mid + 1;
             }
         }
 
-        return cnt;
+        return lo;
     }
 
+    /**
+     * Number of leading elements of the sorted vector that value is not less than
+     * (i.e the count up to the first element more than value).
+     * <p/>
+     * @note binary search -- O(log n). Same count as walking the vector from the bottom. In a vector
+     * sorted low to high the nans are last and value < nan is false, so if no element is more than
+     * value the nans are counted too.
+     *
+     * @param value
+     * @param sorted_low_to_high
+     * @return
+     */
     public static int getLessThanCount(final float value, final Vector sorted_low_to_high) {
 
-        int cnt = 0;
-        for (int i = 0; i < sorted_low_to_high.getSize(); i++) {
-            if (value < sorted_low_to_high.getElement(i)) {
-                break;
+        final float[] vals = sorted_low_to_high.elementData;
+        final int size = sorted_low_to_high.getSize();
+
+        // first nan
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (Float.isNaN(vals[mid])) {
+                hi = mid;
             } else {
-                cnt++;
+                lo = mid + 1;
             }
         }
 
-        return cnt;
+        final int numNotNaN = lo;
+
+        // first (not nan) index where value < element
+        lo = 0;
+        hi = numNotNaN;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (value < vals[mid]) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+
+        if (lo == numNotNaN) {
+            return size;
+        } else {
+            return lo;
+        }
     }
 
 }    // End XMath
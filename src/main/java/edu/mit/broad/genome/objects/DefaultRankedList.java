@@ -157,14 +157,16 @@ public class DefaultRankedList extends AbstractObject implements RankedList {
         return index;
     }
 
-    private Map<String, Integer> fRowNameSdsRowIndexMap;
+    // @note volatile and filled before being published as the same list is looked up from several threads
+    private volatile Map<String, Integer> fRowNameSdsRowIndexMap;
 
-    private void cacheRowNameIndex() {
+    private synchronized void cacheRowNameIndex() {
         if (fRowNameSdsRowIndexMap == null) {
-            fRowNameSdsRowIndexMap = new HashMap<String, Integer>();
+            final Map<String, Integer> map = new HashMap<String, Integer>();
             for (int r = 0; r < getSize(); r++) {
-                fRowNameSdsRowIndexMap.put(fRankedNames.get(r).toString(), Integer.valueOf(r));
+                map.put(fRankedNames.get(r).toString(), Integer.valueOf(r));
             }
+            fRowNameSdsRowIndexMap = map;
         }
     }
 
@@ -199,7 +201,7 @@ public class DefaultRankedList extends AbstractObject implements RankedList {
 
     private MetricWeightStruc mws;
 
-    public MetricWeightStruc getMetricWeightStruc() {
+    public synchronized MetricWeightStruc getMetricWeightStruc() {
         if (mws == null) {
             mws = new DefaultMetricWeightStruc(null, this);
         }
@@ -10,6 +10,7 @@ import edu.mit.broad.vdb.meg.Gene;
 
 import org.apache.log4j.Logger;
 
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -134,6 +135,17 @@ public class FeatureAnnot extends AbstractObject {
         return fRowDescs != null && !fRowDescs.isEmpty();
     }
 
+    /**
+     * @return the native descriptions in the order of the features (null if none)
+     */
+    public List getNativeDescs() {
+        if (fRowDescs == null) {
+            return null;
+        }
+
+        return Collections.unmodifiableList(fRowDescs);
+    }
+
     public String getNativeDesc(final String featureName) {
 
         if (fRowDescs == null) {
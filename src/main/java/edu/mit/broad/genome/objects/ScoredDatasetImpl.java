@@ -7,7 +7,7 @@ import edu.mit.broad.genome.NotImplementedException;
 import edu.mit.broad.genome.math.*;
 import edu.mit.broad.genome.objects.strucs.DefaultMetricWeightStruc;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -76,14 +76,20 @@ public class ScoredDatasetImpl extends AbstractObject implements ScoredDataset {
         
         this.fDataset = ds;
         this.fIndVector = iv; //new AddressedVector(num, iv);    // data copied
-        this.fRowNamesInSdsOrder = new ArrayList(num);
-        
-        for (int sdsrown = 0; sdsrown < num; sdsrown++) {
-            int posinds = sdsrown2posinds(sdsrown);
-            fRowNamesInSdsOrder.add(ds.getRowName(posinds)); // IMP -> note adding converted index order
-        }
-        
-        this.fRowNamesInSdsOrder = Collections.unmodifiableList(fRowNamesInSdsOrder);
+        // @note a view (not a copy) of the row names in converted index order -- so that a ranking is
+        // not O(n) objects. Dataset row names are fixed so the view doesnt change.
+        this.fRowNamesInSdsOrder = Collections.unmodifiableList(new AbstractList() {
+            public Object get(final int sdsrown) {
+                if (sdsrown < 0 || sdsrown >= num) {
+                    throw new IndexOutOfBoundsException("Index: " + sdsrown + " size: " + num);
+                }
+                return fDataset.getRowName(sdsrown2posinds(sdsrown));
+            }
+
+            public int size() {
+                return num;
+            }
+        });
     }
 
     public RankedList cloneShallowRL(final String newName) {
@@ -169,15 +175,17 @@ public class ScoredDatasetImpl extends AbstractObject implements ScoredDataset {
         return index;
     }
 
-    private Map<String, Integer> fRowNameSdsRowIndexMap;
+    // @note volatile and filled before being published as the same list is looked up from several threads
+    private volatile Map<String, Integer> fRowNameSdsRowIndexMap;
 
-    private void cacheRowNameIndex() {
+    private synchronized void cacheRowNameIndex() {
         if (fRowNameSdsRowIndexMap == null) {
-            fRowNameSdsRowIndexMap = new HashMap<String, Integer>();
+            final Map<String, Integer> map = new HashMap<String, Integer>();
             int numRow = getNumRow();
             for (int sdsrown = 0; sdsrown < numRow; sdsrown++) {
-                fRowNameSdsRowIndexMap.put(getRowName(sdsrown), sdsrown);
+                map.put(getRowName(sdsrown), sdsrown);
             }
+            fRowNameSdsRowIndexMap = map;
         }
     }
 
@@ -326,7 +334,7 @@ public class ScoredDatasetImpl extends AbstractObject implements ScoredDataset {
 
     private MetricWeightStruc ws;
 
-    public MetricWeightStruc getMetricWeightStruc() {
+    public synchronized MetricWeightStruc getMetricWeightStruc() {
         if (ws == null) {
             ws = new DefaultMetricWeightStruc(null, this);
         }
@@ -7,6 +7,7 @@ import edu.mit.broad.genome.Constants;
 import edu.mit.broad.genome.NamingConventions;
 import edu.mit.broad.genome.Printf;
 import edu.mit.broad.genome.math.Matrix;
+import edu.mit.broad.genome.math.MatrixStorage;
 import edu.mit.broad.genome.math.Vector;
 import edu.mit.broad.genome.objects.strucs.DatasetTemplate;
 import org.apache.log4j.Logger;
@@ -51,9 +52,9 @@ public class TemplateFactory extends TemplateImpl {
      * will refer to profile positions in the old (unextracted) dataset. If all you care about is
      * the extracted dataset, ignore the modified template.
      */
-    public static synchronized DatasetTemplate extract(final Dataset fullDs,
-                                                       final Template origT,
-                                                       final boolean verbose) {
+    public static DatasetTemplate extract(final Dataset fullDs,
+                                          final Template origT,
+                                          final boolean verbose) {
 
         if (fullDs == null) {
             throw new IllegalArgumentException("Parameter fullDs cannot be null");
@@ -84,21 +85,33 @@ public class TemplateFactory extends TemplateImpl {
             klog.info("Extracting ds: " + fullDs.getName() + " by template: " + origT.getName());
         }
 
-        final Matrix matrix = new Matrix(fullDs.getNumRow(), origT.getNumItems());
+        final Matrix fullMatrix = fullDs.getMatrix();
+        final Matrix matrix = new Matrix(fullDs.getNumRow(), origT.getNumItems(),
+                MatrixStorage.getDefault((long) fullDs.getNumRow() * origT.getNumItems(), fullMatrix));
         final List colNames = new ArrayList(origT.getNumItems());
         final Template.Item[] newItems = new Template.Item[origT.getNumItems()];
+        final int[] cols2use = new int[origT.getNumItems()];
 
         final Template.Item[] orig_items = origT.getItemsOrderedByClassFirstAndThenProfilePos();
         for (int c = 0; c < orig_items.length; c++) {
-            // first the dataset
-            final int col2use = orig_items[c].getProfilePosition(); // @note extracting using the profile position
-            //log.debug("col2use: " + col2use);
-            matrix.setColumn(c, fullDs.getColumn(col2use));
-            colNames.add(fullDs.getColumnName(col2use));
+            // first the dataset columns
+            cols2use[c] = orig_items[c].getProfilePosition(); // @note extracting using the profile position
+            colNames.add(fullDs.getColumnName(cols2use[c]));
             // then the new template
             newItems[c] = TemplateImpl.ItemImpl.createItem(orig_items[c].getId(), c); // @note profile pos is changed
         }
 
+        // @note row by row (the matrix is kept by rows, and a compact matrix is encoded a row at a time)
+        final float[] fullRow = new float[fullDs.getNumCol()];
+        final float[] row = new float[cols2use.length];
+        for (int r = 0; r < fullDs.getNumRow(); r++) {
+            fullMatrix.getRow(r, fullRow);
+            for (int c = 0; c < cols2use.length; c++) {
+                row[c] = fullRow[cols2use[c]];
+            }
+            matrix.setRow(r, row);
+        }
+
         final String name = NamingConventions.generateName(fullDs, origT, true);
         //log.debug("$$$ gen name: " + name + " " + maybeAuxTemplate.getName());
         DefaultDataset newds = new DefaultDataset(name, matrix, fullDs.getRowNames(), colNames, true, false, true, fullDs.getAnnot());
@@ -113,10 +126,10 @@ public class TemplateFactory extends TemplateImpl {
         return new DatasetTemplate(newds, newt);
     }
 
-    public static synchronized Template createTemplate(final String name,
-                                                       final Item[] items,
-                                                       final Template.Class[] classes,
-                                                       final boolean continuous) {
+    public static Template createTemplate(final String name,
+                                          final Item[] items,
+                                          final Template.Class[] classes,
+                                          final boolean continuous) {
 
         return createTemplate_ordered_assign(name, items, classes, continuous);
     }
@@ -199,10 +212,10 @@ public class TemplateFactory extends TemplateImpl {
      * @return
      */
     // THIS IS THE CORE ASSIGNMENT METHOD
-    private static synchronized Template createTemplate_ordered_assign(final String name,
-                                                                       final Item[] items,
-                                                                       final Template.Class[] classes,
-                                                                       final boolean continuous) {
+    private static Template createTemplate_ordered_assign(final String name,
+                                                          final Item[] items,
+                                                          final Template.Class[] classes,
+                                                          final boolean continuous) {
 
         //klog.debug(">>>>> name: " + name);
 
@@ -232,9 +245,9 @@ public class TemplateFactory extends TemplateImpl {
         return template;
     }
 
-    public static synchronized Template createTemplate(final String name,
-                                                       final Item[] items,
-                                                       final boolean continuous) {
+    public static Template createTemplate(final String name,
+                                          final Item[] items,
+                                          final boolean continuous) {
 
         if (items == null) {
             throw new IllegalArgumentException("Null items not allowed parameter");
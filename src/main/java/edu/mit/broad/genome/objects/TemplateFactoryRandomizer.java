@@ -52,6 +52,39 @@ public class TemplateFactoryRandomizer {
         return tss;
     }
 
+    /**
+     * @param index
+     * @param origTemplate
+     * @param rt
+     * @param rst
+     * @return the rnd template at index -- the same as createRandomTemplates(num, origTemplate, rt, rst)[index]
+     * (every rnd template comes from its own stream split off by its index) but without making the others
+     */
+    public static Template createRandomTemplate(final int index,
+                                                final Template origTemplate,
+                                                final TemplateRandomizerType rt,
+                                                final RandomSeedGenerator rst) {
+
+        if (rt == TemplateRandomizerType.NO_BALANCE) {
+            return createRandomTemplate(origTemplate, rst.split(index));
+        } else if (rt == TemplateRandomizerType.BALANCED_CLASS0 || rt == TemplateRandomizerType.BALANCED_CLASS1) {
+            if (origTemplate.getNumClasses() != 2) {
+                throw new IllegalArgumentException("Only 2 class templates possible");
+            }
+            return createRandomAuxBalancedTemplate(origTemplate, rt == TemplateRandomizerType.BALANCED_CLASS0, rst.split(index));
+        } else if (rt == TemplateRandomizerType.EQUALIZE_AND_BALANCE) {
+            if (origTemplate.getNumClasses() != 2) {
+                throw new IllegalArgumentException("Only 2 class templates possible");
+            }
+            final Template.Class one = origTemplate.getClass(0);
+            final int twoNum = one.getSize() / 2; // @note as in createRandomAuxEqualizedAndBalancedTemplates
+            final int oneNum = one.getSize() - twoNum;
+            return createRandomConstrainedTemplate(origTemplate, one, oneNum, origTemplate.getClass(1), twoNum, rst.split(index));
+        } else {
+            throw new IllegalArgumentException("Unknown RandomizerType: " + rt);
+        }
+    }
+
     public static Template[] createRandomTemplates(final int num,
                                                    final Template origTemplate,
                                                    final RandomSeedGenerator rsgen) {
@@ -59,7 +92,7 @@ public class TemplateFactoryRandomizer {
         Template[] templates = new Template[num];
 
         for (int i = 0; i < num; i++) {
-            templates[i] = createRandomTemplate(origTemplate, rsgen);
+            templates[i] = createRandomTemplate(origTemplate, rsgen.split(i));
         }
 
         return templates;
@@ -217,7 +250,7 @@ public class TemplateFactoryRandomizer {
         final Template[] rndtss = new Template[numrnd];
 
         for (int i = 0; i < numrnd; i++) {
-            rndtss[i] = createRandomAuxBalancedTemplate(orig, balanceFirstClass, rsgen);
+            rndtss[i] = createRandomAuxBalancedTemplate(orig, balanceFirstClass, rsgen.split(i));
         }
 
         return rndtss;
@@ -246,7 +279,7 @@ public class TemplateFactoryRandomizer {
             final int twoNum = one.getSize() / 2; // @note
             final int oneNum = one.getSize() - twoNum; // the rest (bigger if odd number)
             final Template.Class two = orig.getClass(1);
-            rndtss[i] = createRandomConstrainedTemplate(orig, one, oneNum, two, twoNum, rsgen);
+            rndtss[i] = createRandomConstrainedTemplate(orig, one, oneNum, two, twoNum, rsgen.split(i));
         }
 
         return rndtss;
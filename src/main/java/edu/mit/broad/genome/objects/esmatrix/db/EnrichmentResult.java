@@ -3,6 +3,7 @@
  *******************************************************************************/
 package edu.mit.broad.genome.objects.esmatrix.db;
 
+import edu.mit.broad.genome.math.GpdTail;
 import edu.mit.broad.genome.math.Vector;
 import edu.mit.broad.genome.objects.GeneSet;
 import edu.mit.broad.genome.objects.GeneSetSignal;
@@ -26,10 +27,38 @@ public interface EnrichmentResult {
 
     public FdrStruc getFDR();
 
+    /**
+     * @return the generalized pareto fit to the tail of the null that was tried for the nominal p
+     * -- null if none was (the nominal p is then from the permutations alone)
+     */
+    public GpdTail getNPTail();
+
     public Vector getRndESS();
 
+    /**
+     * @return the store the rnd es are in (shared by all the results of a run) -- null if they are not in one
+     */
+    public RndEsStore getRndEsStore();
+
+    /**
+     * @return the gene set (row) of the rnd es store that is this result's
+     */
+    public int getRndEsStoreIndex();
+
     public int getNumPerms();
 
+    /**
+     * @return the number of permutations the nominal p is from -- getNumPerms() plus any
+     * adaptive permutations done for just this set
+     */
+    public int getEffectiveNumPerms();
+
+    /**
+     * @return the standard deviation of log2 of the nominal p if it is an estimate with a known error
+     * (e.g multilevel) -- else NaN
+     */
+    public float getNPLog2Err();
+
     public GeneSetSignal getSignal();
 
     // DATA RELATED APIs
@@ -3,6 +3,7 @@
  *******************************************************************************/
 package edu.mit.broad.genome.objects.esmatrix.db;
 
+import edu.mit.broad.genome.math.GpdTail;
 import edu.mit.broad.genome.math.Vector;
 import edu.mit.broad.genome.objects.GeneSet;
 import edu.mit.broad.genome.objects.GeneSetSignal;
@@ -20,6 +21,10 @@ public class EnrichmentResultImpl implements EnrichmentResult {
 
     private Vector fRndESS;
 
+    private RndEsStore fRndEsStore;
+
+    private int fRndEsStoreIndex;
+
     private RankedList fRankedList;
 
     private Template fTemplate_opt;
@@ -30,6 +35,8 @@ public class EnrichmentResultImpl implements EnrichmentResult {
 
     private FdrStruc fFdr;
 
+    private GpdTail fNPTail_opt;
+
     /**
      * Class constructor
      *
@@ -71,6 +78,92 @@ public class EnrichmentResultImpl implements EnrichmentResult {
         init(rl, t_opt, gset, chip, es, rndEss, fdr_opt);
     }
 
+    /**
+     * Class constructor
+     *
+     * @param rl
+     * @param t_opt
+     * @param gset
+     * @param chip
+     * @param es
+     * @param rndEss
+     * @param fdr_opt
+     * @param npTail_opt the tail fit the nominal p is from
+     */
+    public EnrichmentResultImpl(final RankedList rl,
+                                final Template t_opt,
+                                final GeneSet gset,
+                                final Chip chip,
+                                final EnrichmentScore es,
+                                final Vector rndEss,
+                                final FdrStruc fdr_opt,
+                                final GpdTail npTail_opt) {
+        init(rl, t_opt, gset, chip, es, rndEss, fdr_opt);
+        this.fNPTail_opt = npTail_opt;
+    }
+
+    /**
+     * Class constructor
+     * The rnd es are (and are left) in a store shared with the other results of the run
+     *
+     * @param rl
+     * @param t_opt
+     * @param gset
+     * @param chip
+     * @param es
+     * @param rndEsStore
+     * @param rndEsStoreIndex row of this gene set in the store
+     * @param fdr_opt
+     */
+    public EnrichmentResultImpl(final RankedList rl,
+                                final Template t_opt,
+                                final GeneSet gset,
+                                final Chip chip,
+                                final EnrichmentScore es,
+                                final RndEsStore rndEsStore,
+                                final int rndEsStoreIndex,
+                                final FdrStruc fdr_opt) {
+        this(rl, t_opt, gset, chip, es, rndEsStore, rndEsStoreIndex, fdr_opt, null);
+    }
+
+    /**
+     * Class constructor
+     * The rnd es are (and are left) in a store shared with the other results of the run
+     *
+     * @param rl
+     * @param t_opt
+     * @param gset
+     * @param chip
+     * @param es
+     * @param rndEsStore
+     * @param rndEsStoreIndex row of this gene set in the store
+     * @param fdr_opt
+     * @param npTail_opt      the tail fit the nominal p is from
+     */
+    public EnrichmentResultImpl(final RankedList rl,
+                                final Template t_opt,
+                                final GeneSet gset,
+                                final Chip chip,
+                                final EnrichmentScore es,
+                                final RndEsStore rndEsStore,
+                                final int rndEsStoreIndex,
+                                final FdrStruc fdr_opt,
+                                final GpdTail npTail_opt) {
+
+        if (rndEsStore == null) {
+            throw new IllegalArgumentException("Param rndEsStore cannot be null");
+        }
+
+        if (rndEsStoreIndex < 0 || rndEsStoreIndex >= rndEsStore.getNumSets()) {
+            throw new IllegalArgumentException("Invalid rndEsStoreIndex: " + rndEsStoreIndex + " for: " + rndEsStore);
+        }
+
+        init(rl, t_opt, gset, chip, es, null, fdr_opt);
+        this.fRndEsStore = rndEsStore;
+        this.fRndEsStoreIndex = rndEsStoreIndex;
+        this.fNPTail_opt = npTail_opt;
+    }
+
     private void init(final RankedList rl,
                       final Template t_opt,
                       final GeneSet gset,
@@ -120,14 +213,31 @@ public class EnrichmentResultImpl implements EnrichmentResult {
         return fSignal;
     }
 
+    // @note from a store this is a copy made on every call (the store is the only full copy of the null)
     public Vector getRndESS() {
+        if (fRndEsStore != null) {
+            return fRndEsStore.getRowV(fRndEsStoreIndex);
+        }
+
         return fRndESS;
     }
 
+    public RndEsStore getRndEsStore() {
+        return fRndEsStore;
+    }
+
+    public int getRndEsStoreIndex() {
+        return fRndEsStoreIndex;
+    }
+
     public FdrStruc getFDR() {
         return fFdr;
     }
 
+    public GpdTail getNPTail() {
+        return fNPTail_opt;
+    }
+
     public EnrichmentScore getScore() {
         return fScore;
     }
@@ -155,7 +265,27 @@ public class EnrichmentResultImpl implements EnrichmentResult {
     }
 
     public int getNumPerms() {
+        if (fRndEsStore != null) {
+            return fRndEsStore.getNumPerms();
+        }
+
         return fRndESS.getSize();
     }
 
+    public float getNPLog2Err() {
+        if (fRndEsStore != null) {
+            return fRndEsStore.getNPLog2Err(fRndEsStoreIndex);
+        }
+
+        return Float.NaN;
+    }
+
+    public int getEffectiveNumPerms() {
+        if (fRndEsStore != null) {
+            return fRndEsStore.getNumPerms() + fRndEsStore.getNumExtraPerms(fRndEsStoreIndex);
+        }
+
+        return getNumPerms();
+    }
+
 } // End lass EnrichmentResult
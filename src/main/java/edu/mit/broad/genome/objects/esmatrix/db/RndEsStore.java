@@ -0,0 +1,409 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.objects.esmatrix.db;
+
+import edu.mit.broad.genome.math.Vector;
+import edu.mit.broad.genome.utils.SystemUtils;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * The rnd (null) es of a run -- a gene set x permutation matrix of floats kept column major
+ * (i.e. all the gene sets of one permutation are next to each other) in ONE store that is shared
+ * by all the EnrichmentResults of the run.
+ * <p/>
+ * The store is either on the heap, off the heap (direct buffers) or memory mapped to a temp file.
+ * By default small nulls are on the heap and large ones off it -- see create. This can be forced with
+ * -DRND_ES_STORE=heap|offheap|mapped and the heap limit set with -DRND_ES_STORE_HEAP_MAX_MB
+ * <p/>
+ * Different cells can be read / written from different threads at the same time (e.g. every
+ * permutation filling its own column) -- nothing else is synchronized.
+ * <p/>
+ * With adaptive permutations a set can also have had permutations past the shared ones (the columns).
+ * Of those only tallies are kept -- see setExtraPerms
+ * <p/>
+ * A set can also have its nominal p estimated from its null by other means (e.g. multilevel
+ * splitting) -- see setNPEstimate
+ *
+ * @author Aravind Subramanian
+ * @see EnrichmentResult#getRndESS()
+ */
+public abstract class RndEsStore {
+
+    private static final Logger klog = Logger.getLogger(RndEsStore.class);
+
+    public static final String HEAP = "heap";
+
+    public static final String OFF_HEAP = "offheap";
+
+    public static final String MAPPED = "mapped";
+
+    private static final String STORE_KIND = System.getProperty("RND_ES_STORE", "");
+
+    private static final long HEAP_MAX_BYTES = Long.getLong("RND_ES_STORE_HEAP_MAX_MB", 512).longValue() * 1024 * 1024;
+
+    // the largest buffer (in floats) that a single direct / mapped buffer can hold
+    private static final int MAX_FLOATS_PER_BUFFER = Integer.MAX_VALUE / 4;
+
+    protected final int fNumSets;
+
+    protected final int fNumPerms;
+
+    // tallies of the adaptive permutations past the shared columns -- null if there were none
+    private int[] fNumExtraPerms;
+    private int[] fNumExtraSameSide;
+    private int[] fNumExtraMoreExtreme;
+
+    // nominal p estimated other than by counting (e.g multilevel) and its log2 error -- null if none was
+    private float[] fNPEstimates;
+    private float[] fNPLog2Errs;
+
+    /**
+     * Store for numSets x numPerms -- the kind as specified by RND_ES_STORE or if not specified
+     * on the heap if it needs no more than RND_ES_STORE_HEAP_MAX_MB and off the heap if larger.
+     *
+     * @param numSets
+     * @param numPerms
+     * @return a store with all elements 0
+     */
+    public static RndEsStore create(final int numSets, final int numPerms) {
+        final String kind;
+        if (STORE_KIND.length() != 0) {
+            kind = STORE_KIND;
+        } else if (4L * numSets * numPerms <= HEAP_MAX_BYTES && (long) numSets * numPerms <= Integer.MAX_VALUE - 8) {
+            kind = HEAP;
+        } else {
+            kind = OFF_HEAP;
+        }
+
+        return create(kind, numSets, numPerms);
+    }
+
+    /**
+     * @param kind     one of HEAP, OFF_HEAP or MAPPED
+     * @param numSets
+     * @param numPerms
+     * @return a store with all elements 0
+     */
+    public static RndEsStore create(final String kind, final int numSets, final int numPerms) {
+
+        if (kind == null) {
+            throw new IllegalArgumentException("Param kind cannot be null");
+        }
+
+        if (kind.equalsIgnoreCase(HEAP)) {
+            return new Heap(numSets, numPerms);
+        } else if (kind.equalsIgnoreCase(OFF_HEAP)) {
+            return new Buffered(numSets, numPerms, null);
+        } else if (kind.equalsIgnoreCase(MAPPED)) {
+            return new Buffered(numSets, numPerms, SystemUtils.getTmpDir());
+        } else {
+            throw new IllegalArgumentException("Unknown rnd es store kind: " + kind + " must be one of: " + HEAP + " " + OFF_HEAP + " " + MAPPED);
+        }
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param numSets
+     * @param numPerms
+     */
+    protected RndEsStore(final int numSets, final int numPerms) {
+        if (numSets < 0) {
+            throw new IllegalArgumentException("Invalid numSets: " + numSets);
+        }
+
+        if (numPerms < 0) {
+            throw new IllegalArgumentException("Invalid numPerms: " + numPerms);
+        }
+
+        this.fNumSets = numSets;
+        this.fNumPerms = numPerms;
+    }
+
+    public int getNumSets() {
+        return fNumSets;
+    }
+
+    public int getNumPerms() {
+        return fNumPerms;
+    }
+
+    public abstract float getElement(final int set, final int perm);
+
+    public abstract void setElement(final int set, final int perm, final float value);
+
+    /**
+     * @param perm
+     * @param dest filled with the es of every gene set (the first getNumSets())
+     */
+    public abstract void getColumn(final int perm, final float[] dest);
+
+    /**
+     * @param perm
+     * @param src the es of every gene set (the first getNumSets())
+     */
+    public abstract void setColumn(final int perm, final float[] src);
+
+    /**
+     * @param set
+     * @param dest filled with the rnd es of the gene set (the first getNumPerms())
+     */
+    public void getRow(final int set, final float[] dest) {
+        for (int p = 0; p < fNumPerms; p++) {
+            dest[p] = getElement(set, p);
+        }
+    }
+
+    /**
+     * @param set
+     * @param src the rnd es of the gene set (the first getNumPerms())
+     */
+    public void setRow(final int set, final float[] src) {
+        for (int p = 0; p < fNumPerms; p++) {
+            setElement(set, p, src[p]);
+        }
+    }
+
+    /**
+     * @param set
+     * @return a copy of the rnd es of the gene set
+     */
+    public Vector getRowV(final int set) {
+        final float[] row = new float[fNumPerms];
+        getRow(set, row);
+        return new Vector(row, true);
+    }
+
+    /**
+     * Sorts the column in place -- low to high with NaNs last (as Arrays.sort)
+     *
+     * @param perm
+     * @param scratch at least getNumSets() long
+     */
+    public void sortColumn(final int perm, final float[] scratch) {
+        getColumn(perm, scratch);
+        Arrays.sort(scratch, 0, fNumSets);
+        setColumn(perm, scratch);
+    }
+
+    /**
+     * Record the permutations of a set past the shared ones (i.e the columns)
+     * Not thread safe.
+     *
+     * @param set
+     * @param numPerms       number of extra permutations
+     * @param numSameSide    of them the ones with a rnd es of the same sign as the real es of the set
+     * @param numMoreExtreme of them the ones more extreme than the real es (as in its nominal p)
+     */
+    public void setExtraPerms(final int set, final int numPerms, final int numSameSide, final int numMoreExtreme) {
+        if (fNumExtraPerms == null) {
+            this.fNumExtraPerms = new int[fNumSets];
+            this.fNumExtraSameSide = new int[fNumSets];
+            this.fNumExtraMoreExtreme = new int[fNumSets];
+        }
+
+        fNumExtraPerms[set] = numPerms;
+        fNumExtraSameSide[set] = numSameSide;
+        fNumExtraMoreExtreme[set] = numMoreExtreme;
+    }
+
+    public boolean hasExtraPerms() {
+        return fNumExtraPerms != null;
+    }
+
+    public int getNumExtraPerms(final int set) {
+        return fNumExtraPerms == null ? 0 : fNumExtraPerms[set];
+    }
+
+    public int getNumExtraSameSide(final int set) {
+        return fNumExtraSameSide == null ? 0 : fNumExtraSameSide[set];
+    }
+
+    public int getNumExtraMoreExtreme(final int set) {
+        return fNumExtraMoreExtreme == null ? 0 : fNumExtraMoreExtreme[set];
+    }
+
+    /**
+     * Record a nominal p for the set that is to be used rather than the one from counting the rnd es.
+     * Not thread safe.
+     *
+     * @param set
+     * @param np
+     * @param log2Err the standard deviation of log2(np) -- NaN if not known
+     */
+    public void setNPEstimate(final int set, final float np, final float log2Err) {
+        if (fNPEstimates == null) {
+            this.fNPEstimates = new float[fNumSets];
+            this.fNPLog2Errs = new float[fNumSets];
+            Arrays.fill(fNPEstimates, Float.NaN);
+            Arrays.fill(fNPLog2Errs, Float.NaN);
+        }
+
+        fNPEstimates[set] = np;
+        fNPLog2Errs[set] = log2Err;
+    }
+
+    public boolean hasNPEstimates() {
+        return fNPEstimates != null;
+    }
+
+    /**
+     * @param set
+     * @return NaN if the set has none
+     */
+    public float getNPEstimate(final int set) {
+        return fNPEstimates == null ? Float.NaN : fNPEstimates[set];
+    }
+
+    public float getNPLog2Err(final int set) {
+        return fNPLog2Errs == null ? Float.NaN : fNPLog2Errs[set];
+    }
+
+    public String toString() {
+        return getClass().getSimpleName() + " " + fNumSets + " x " + fNumPerms;
+    }
+
+    /**
+     * On the heap, in one array
+     */
+    static class Heap extends RndEsStore {
+
+        private final float[] fData;
+
+        Heap(final int numSets, final int numPerms) {
+            super(numSets, numPerms);
+            if ((long) numSets * numPerms > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("Too large for a heap store: " + numSets + " x " + numPerms);
+            }
+            this.fData = new float[numSets * numPerms];
+        }
+
+        public float getElement(final int set, final int perm) {
+            return fData[perm * fNumSets + set];
+        }
+
+        public void setElement(final int set, final int perm, final float value) {
+            fData[perm * fNumSets + set] = value;
+        }
+
+        public void getColumn(final int perm, final float[] dest) {
+            System.arraycopy(fData, perm * fNumSets, dest, 0, fNumSets);
+        }
+
+        public void setColumn(final int perm, final float[] src) {
+            System.arraycopy(src, 0, fData, perm * fNumSets, fNumSets);
+        }
+
+        public void sortColumn(final int perm, final float[] scratch) {
+            Arrays.sort(fData, perm * fNumSets, (perm + 1) * fNumSets);
+        }
+
+    } // End class Heap
+
+    /**
+     * Off the heap in direct buffers or memory mapped to a temp file -- whole columns to a buffer
+     * as many buffers as needed
+     */
+    static class Buffered extends RndEsStore {
+
+        private final FloatBuffer[] fBuffers;
+
+        private final int fPermsPerBuffer;
+
+        /**
+         * @param numSets
+         * @param numPerms
+         * @param mapInDir_opt if not null the store is mapped to a temp file in this dir, else it is in direct buffers
+         */
+        Buffered(final int numSets, final int numPerms, final File mapInDir_opt) {
+            super(numSets, numPerms);
+
+            if (numSets > MAX_FLOATS_PER_BUFFER) {
+                throw new IllegalArgumentException("Too many gene sets for a buffered store: " + numSets);
+            }
+
+            this.fPermsPerBuffer = Math.max(1, MAX_FLOATS_PER_BUFFER / Math.max(numSets, 1));
+            final int numBuffers = (numPerms + fPermsPerBuffer - 1) / fPermsPerBuffer;
+            this.fBuffers = new FloatBuffer[numBuffers];
+
+            if (mapInDir_opt == null) {
+                for (int b = 0; b < numBuffers; b++) {
+                    final int bytes = _numPermsInBuffer(b) * numSets * 4;
+                    fBuffers[b] = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder()).asFloatBuffer();
+                }
+            } else {
+                _map(mapInDir_opt);
+            }
+        }
+
+        private void _map(final File dir) {
+            File file = null;
+            RandomAccessFile raf = null;
+            try {
+                file = File.createTempFile("rnd_es", ".bin", dir);
+                raf = new RandomAccessFile(file, "rw");
+                raf.setLength(4L * fNumSets * fNumPerms); // @note zero filled
+                final FileChannel channel = raf.getChannel();
+                for (int b = 0; b < fBuffers.length; b++) {
+                    final long from = 4L * fNumSets * b * fPermsPerBuffer;
+                    final long bytes = 4L * fNumSets * _numPermsInBuffer(b);
+                    fBuffers[b] = channel.map(FileChannel.MapMode.READ_WRITE, from, bytes).order(ByteOrder.nativeOrder()).asFloatBuffer();
+                }
+                klog.debug("Mapped rnd es store: " + this + " to: " + file);
+            } catch (IOException e) {
+                throw new RuntimeException("Could not map the rnd es store to a file in: " + dir, e);
+            } finally {
+                if (raf != null) {
+                    try {
+                        raf.close(); // @note the mappings stay valid
+                    } catch (IOException e) {
+                        klog.warn("Could not close: " + file, e);
+                    }
+                }
+
+                if (file != null && !file.delete()) {
+                    file.deleteOnExit(); // cant delete a mapped file on some platforms
+                }
+            }
+        }
+
+        private int _numPermsInBuffer(final int b) {
+            return Math.min(fPermsPerBuffer, fNumPerms - b * fPermsPerBuffer);
+        }
+
+        public float getElement(final int set, final int perm) {
+            return fBuffers[perm / fPermsPerBuffer].get((perm % fPermsPerBuffer) * fNumSets + set);
+        }
+
+        public void setElement(final int set, final int perm, final float value) {
+            fBuffers[perm / fPermsPerBuffer].put((perm % fPermsPerBuffer) * fNumSets + set, value);
+        }
+
+        // @note a duplicate as the bulk gets / puts move the position (and so are not thread safe)
+        private FloatBuffer _columnView(final int perm) {
+            final FloatBuffer view = fBuffers[perm / fPermsPerBuffer].duplicate();
+            view.position((perm % fPermsPerBuffer) * fNumSets);
+            return view;
+        }
+
+        public void getColumn(final int perm, final float[] dest) {
+            _columnView(perm).get(dest, 0, fNumSets);
+        }
+
+        public void setColumn(final int perm, final float[] src) {
+            _columnView(perm).put(src, 0, fNumSets);
+        }
+
+    } // End class Buffered
+
+} // End class RndEsStore
@@ -4,8 +4,6 @@
 package edu.mit.broad.genome.objects.strucs;
 
 import edu.mit.broad.genome.MismatchedSizeException;
-import edu.mit.broad.genome.math.DatasetModed;
-import edu.mit.broad.genome.math.ScoreMode;
 import edu.mit.broad.genome.math.Vector;
 import edu.mit.broad.genome.math.XMath;
 import edu.mit.broad.genome.objects.RankedList;
@@ -29,22 +27,126 @@ public class SkewCorrectedFdrStruc implements FdrStruc {
     private int moreRealThan;
 
 
+    /**
+     * The columns of the rnd norm scores that the fdr of a set is counted against
+     */
+    public interface NullColumns {
+
+        public int getNumCols();
+
+        /**
+         * @param col
+         * @param pos
+         * @return number of pos (or neg) scores in the column
+         */
+        public int getSize(final int col, final boolean pos);
+
+        /**
+         * @param col
+         * @param score
+         * @param pos
+         * @return number of pos scores in the column more than score (or of neg scores less than score)
+         */
+        public int getMoreOrLessThanCount(final int col, final float score, final boolean pos);
+
+    } // End interface NullColumns
+
+    /**
+     * The null columns as sorted Vectors of the pos and of the neg scores
+     */
+    public static class SortedVectorColumns implements NullColumns {
+
+        private final Vector[] fColsPos;
+
+        private final Vector[] fColsNeg;
+
+        /**
+         * @param rnd_cols_norm_sorted_pos every column of the rnd norm scores, pos only and sorted pos to neg
+         * @param rnd_cols_norm_sorted_neg every column of the rnd norm scores, neg only and sorted low to high
+         */
+        public SortedVectorColumns(final Vector[] rnd_cols_norm_sorted_pos, final Vector[] rnd_cols_norm_sorted_neg) {
+
+            if (rnd_cols_norm_sorted_pos == null) {
+                throw new IllegalArgumentException("Param rnd_cols_norm_sorted_pos cannot be null");
+            }
+
+            if (rnd_cols_norm_sorted_neg == null) {
+                throw new IllegalArgumentException("Param rnd_cols_norm_sorted_neg cannot be null");
+            }
+
+            if (rnd_cols_norm_sorted_pos.length != rnd_cols_norm_sorted_neg.length) {
+                throw new MismatchedSizeException("num_cols pos", rnd_cols_norm_sorted_pos.length, "num cols neg", rnd_cols_norm_sorted_neg.length);
+            }
+
+            this.fColsPos = rnd_cols_norm_sorted_pos;
+            this.fColsNeg = rnd_cols_norm_sorted_neg;
+        }
+
+        public int getNumCols() {
+            return fColsPos.length;
+        }
+
+        public int getSize(final int col, final boolean pos) {
+            return pos ? fColsPos[col].getSize() : fColsNeg[col].getSize();
+        }
+
+        // @note the counts are binary searches of the sorted columns -- so O(log n) per column
+        public int getMoreOrLessThanCount(final int col, final float score, final boolean pos) {
+            if (pos) {
+                return XMath.getMoreThanCount(score, fColsPos[col]);
+            } else {
+                return XMath.getLessThanCount(score, fColsNeg[col]);
+            }
+        }
+
+    } // End class SortedVectorColumns
+
     /**
      * @param name
      * @param real_score_of_name
-     * @param real_score_norm_of_name
-     * @param rnd_scores
-     * @param all_rnd_scores_norm_sorted
-     * @param moreRealThan
-     * @param totRealCnt
-     * @param order
+     * @param all_real_scores_norm_sorted
+     * @param numSetsPos                  all_real_scores_norm_sorted.getSize(ScoreMode.POS_ONLY) -- same for every set so passed in
+     * @param numSetsNeg                  all_real_scores_norm_sorted.getSize(ScoreMode.NEG_ONLY)
+     * @param rnd_scores_of_name_only
+     * @param rnd_cols_norm_sorted_pos    every column of the rnd norm scores, pos only and sorted pos to neg
+     * @param rnd_cols_norm_sorted_neg    every column of the rnd norm scores, neg only and sorted low to high
+     * @param totRndCnt
+     * @param doPos
+     * @see edu.mit.broad.genome.math.DatasetModed#getColumn_sorted(int)
      */
     public SkewCorrectedFdrStruc(final String name,
                                  final float real_score_of_name,
                                  final RankedList all_real_scores_norm_sorted,
+                                 final int numSetsPos,
+                                 final int numSetsNeg,
                                  final Vector rnd_scores_of_name_only,
-                                 final DatasetModed all_rnd_scores_norm_by_col_pos,
-                                 final DatasetModed all_rnd_scores_norm_by_col_neg,
+                                 final Vector[] rnd_cols_norm_sorted_pos,
+                                 final Vector[] rnd_cols_norm_sorted_neg,
+                                 final int totRndCnt,
+                                 final boolean doPos) {
+        this(name, real_score_of_name, all_real_scores_norm_sorted, numSetsPos, numSetsNeg, rnd_scores_of_name_only,
+                new SortedVectorColumns(rnd_cols_norm_sorted_pos, rnd_cols_norm_sorted_neg), totRndCnt, doPos);
+    }
+
+    /**
+     * @param name
+     * @param real_score_of_name
+     * @param all_real_scores_norm_sorted
+     * @param numSetsPos                  all_real_scores_norm_sorted.getSize(ScoreMode.POS_ONLY) -- same for every set so passed in
+     * @param numSetsNeg                  all_real_scores_norm_sorted.getSize(ScoreMode.NEG_ONLY)
+     * @param rnd_scores_of_name_only
+     * @param rnd_cols_norm               every column of the rnd norm scores
+     * @param totRndCnt
+     * @param doPos
+     */
+    public SkewCorrectedFdrStruc(final String name,
+                                 final float real_score_of_name,
+                                 final RankedList all_real_scores_norm_sorted,
+                                 final int numSetsPos,
+                                 final int numSetsNeg,
+                                 final Vector rnd_scores_of_name_only,
+                                 final NullColumns rnd_cols_norm,
+                                 final int totRndCnt,
                                  final boolean doPos) {
 
         // checks
@@ -52,24 +154,12 @@ public class SkewCorrectedFdrStruc implements FdrStruc {
             throw new IllegalArgumentException("Param rnd_scores_of_name_only cannot be null");
         }
 
-        if (all_rnd_scores_norm_by_col_pos == null) {
-            throw new IllegalArgumentException("Param all_rnd_scores_norm_by_col_pos cannot be null");
-        }
-
-        if (all_rnd_scores_norm_by_col_neg == null) {
-            throw new IllegalArgumentException("Param all_rnd_scores_norm_by_col_neg cannot be null");
-        }
-
-        if (all_rnd_scores_norm_by_col_pos.getNumCol() != all_rnd_scores_norm_by_col_neg.getNumCol()) {
-            throw new MismatchedSizeException("num_cols pos", all_rnd_scores_norm_by_col_pos.getNumCol(), "num cols neg", all_rnd_scores_norm_by_col_neg.getNumCol());
-        }
-
-        if (rnd_scores_of_name_only.getSize() != all_rnd_scores_norm_by_col_pos.getNumCol()) {
-            throw new MismatchedSizeException("calc_all", rnd_scores_of_name_only.getSize(), "num_col", all_rnd_scores_norm_by_col_pos.getNumCol());
+        if (rnd_cols_norm == null) {
+            throw new IllegalArgumentException("Param rnd_cols_norm cannot be null");
         }
 
-        if (rnd_scores_of_name_only.getSize() != all_rnd_scores_norm_by_col_neg.getNumCol()) {
-            throw new MismatchedSizeException("calc_all", rnd_scores_of_name_only.getSize(), "num_col", all_rnd_scores_norm_by_col_neg.getNumCol());
+        if (rnd_scores_of_name_only.getSize() != rnd_cols_norm.getNumCols()) {
+            throw new MismatchedSizeException("calc_all", rnd_scores_of_name_only.getSize(), "num_col", rnd_cols_norm.getNumCols());
         }
 
         boolean pos;
@@ -90,7 +180,7 @@ public class SkewCorrectedFdrStruc implements FdrStruc {
 
         final int moreRealThan = all_real_scores_norm_sorted.getRank(name) + 1;
         final int totalRealCnt = all_real_scores_norm_sorted.getSize();
-        final float ncols = all_rnd_scores_norm_by_col_pos.getNumCol(); // same for pos and neg
+        final float ncols = rnd_cols_norm.getNumCols(); // same for pos and neg
 
         // go to every COLUMN of the rnd norm matrix and calc #(more than obs nes) / # (pos (or neg) scores)
         float col_mean_sum = 0;
@@ -98,17 +188,8 @@ public class SkewCorrectedFdrStruc implements FdrStruc {
         int moreRndThan = 0;
         int ncols_actual = 0;
         for (int c = 0; c < ncols; c++) {
-            float moreOrLessThan;
-            float size;
-            if (pos) {
-                Vector rndColNorm_sorted = all_rnd_scores_norm_by_col_pos.getColumn_sorted(c);
-                size = rndColNorm_sorted.getSize();
-                moreOrLessThan = XMath.getMoreThanCount(real_score_norm_of_name, rndColNorm_sorted);
-            } else {
-                Vector rndColNorm_sorted = all_rnd_scores_norm_by_col_neg.getColumn_sorted(c);
-                size = rndColNorm_sorted.getSize();
-                moreOrLessThan = XMath.getLessThanCount(real_score_norm_of_name, rndColNorm_sorted);
-            }
+            final float size = rnd_cols_norm.getSize(c, pos);
+            final float moreOrLessThan = rnd_cols_norm.getMoreOrLessThanCount(c, real_score_norm_of_name, pos);
 
             totalRndCnt_used += size;
             moreRndThan += moreOrLessThan;
@@ -132,9 +213,9 @@ public class SkewCorrectedFdrStruc implements FdrStruc {
         final float numr = col_mean_sum / ncols_actual;
         final float numSets;
         if (pos) {
-            numSets = all_real_scores_norm_sorted.getSize(ScoreMode.POS_ONLY);
+            numSets = numSetsPos;
         } else {
-            numSets = all_real_scores_norm_sorted.getSize(ScoreMode.NEG_ONLY);
+            numSets = numSetsNeg;
         }
 
         final float denr = ((float) moreRealThan) / numSets;
@@ -166,7 +247,7 @@ public class SkewCorrectedFdrStruc implements FdrStruc {
                 moreRndThan,
                 totalRealCnt,
                 totalRndCnt_used,
-                all_rnd_scores_norm_by_col_pos.getDim_orig(),
+                totRndCnt,
                 fdrcalc, numr, denr);
     }
 
@@ -5,11 +5,14 @@ package edu.mit.broad.genome.parsers;
 
 import edu.mit.broad.genome.Constants;
 import edu.mit.broad.genome.NotImplementedException;
+import edu.mit.broad.genome.math.Matrix;
+import edu.mit.broad.genome.math.MatrixStorage;
 import edu.mit.broad.genome.objects.PersistentObject;
 import edu.mit.broad.genome.utils.ClassUtils;
 import org.apache.log4j.Logger;
 
 import java.io.*;
+import java.nio.charset.Charset;
 import java.util.*;
 
 /**
@@ -39,6 +42,9 @@ public abstract class AbstractParser implements Parser {
 
     private boolean fSilentMode;
 
+    // of the dataset matrix -- null for the default
+    private MatrixStorage fMatrixStorage;
+
     /**
      * Class Constructor.
      */
@@ -72,6 +78,27 @@ public abstract class AbstractParser implements Parser {
         return fSilentMode;
     }
 
+    /**
+     * @param storage_opt where the matrix of a parsed dataset is kept (say compact) -- null for the default
+     */
+    public void setMatrixStorage(final MatrixStorage storage_opt) {
+        this.fMatrixStorage = storage_opt;
+    }
+
+    /**
+     * @param nrows
+     * @param ncols
+     * @return a new all zero matrix for the parsed dataset, in the storage set (if any) -- so never more memory
+     *         than that. Fill it a row at a time (setRow): an int16 scaled row is coded from all its values
+     */
+    protected Matrix createMatrix(final int nrows, final int ncols) {
+        if (fMatrixStorage == null) {
+            return new Matrix(nrows, ncols);
+        }
+
+        return new Matrix(nrows, ncols, fMatrixStorage);
+    }
+
     /**
      * Utility method to tourn a pob into an unmodifiable list
      */
@@ -135,6 +162,25 @@ public abstract class AbstractParser implements Parser {
         return currLine;
     }
 
+    // as nextLine(bin) but from the raw lines of a ByteLineReader
+    String nextLine(final ByteLineReader lr, final Charset cs) throws IOException {
+        while (lr.next()) {
+            final String currLine = lr.getLine(cs).trim();
+            if (currLine.length() == 0) {
+                continue;
+            }
+
+            if (currLine.startsWith(Constants.COMMENT_CHAR)) {
+                fComment.add(currLine);
+                continue;
+            }
+
+            return currLine;
+        }
+
+        return null;
+    }
+
     // comments are not next'ed over
     protected String nextNonEmptyLine(BufferedReader bin) throws IOException {
 
@@ -318,6 +364,12 @@ public abstract class AbstractParser implements Parser {
             }
         }
 
+        // forget all comments added so far
+        protected void clear() {
+            fLines = null;
+            fKeyValues = null;
+        }
+
         public String toString() {
             if (fLines == null && fKeyValues == null) {
                 return "";
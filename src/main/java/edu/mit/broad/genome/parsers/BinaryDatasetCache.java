@@ -0,0 +1,410 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.parsers;
+
+import edu.mit.broad.genome.math.Matrix;
+import edu.mit.broad.genome.math.MatrixStorage;
+import edu.mit.broad.genome.objects.*;
+
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A binary copy of a parsed Dataset (row names, column names, descriptions and the float matrix), kept in a cache
+ * file so that the next load of the same source file is a memory map rather than a parse.
+ * <p/>
+ * The cache file of a source file is keyed on its canonical path (the file name) and is only used while the
+ * source still has the size and modification time it had when the cache was written -- or, if only the
+ * time changed, the same content (md5).
+ * <p/>
+ * Format (big endian but for the matrix):
+ * <pre>
+ * magic (8 bytes) version nrows ncols flags                    int x 4
+ * source size, source mtime                                    long x 2
+ * md5 of the source                                            16 bytes
+ * offset of the matrix                                         long
+ * source path, name, comment, col names, row names, [descs]    int length + utf-8 bytes each
+ * (padding to 8 bytes)
+ * matrix, row after row                                        little endian floats
+ * </pre>
+ * The matrix section is mapped and the Matrix of the Dataset reads it in place (never on the heap) -- in segments of
+ * whole rows (see Matrix.getRowsPerSegment) so that it can be bigger than one mapping.
+ * <p/>
+ * The cache files are evicted least recently used first (see evict): a hit touches its cache file.
+ *
+ * @author Aravind Subramanian
+ */
+public class BinaryDatasetCache {
+
+    private static final Logger klog = Logger.getLogger(BinaryDatasetCache.class);
+
+    private static final byte[] MAGIC = {'G', 'S', 'E', 'A', '_', 'D', 'S', 'C'};
+
+    private static final int VERSION = 1;
+
+    private static final int FLAG_HAS_DESCS = 1;
+
+    private static final int HEADER_LENGTH = 64;
+
+    // offset of the source mtime in the header
+    private static final int MTIME_OFFSET = 32;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Privatized class constructor
+     */
+    private BinaryDatasetCache() {
+    }
+
+    /**
+     * @param cacheDir
+     * @param source
+     * @return the cache file of source in cacheDir (which might not exist)
+     * @throws IOException
+     */
+    public static File getCacheFile(final File cacheDir, final File source) throws IOException {
+        return getCacheFile(cacheDir, source, null);
+    }
+
+    /**
+     * @param cacheDir
+     * @param source
+     * @param storage_opt the storage the dataset was parsed into -- a compact one keeps values that are not those
+     *                    of the source, so they are cached apart from the floats
+     * @return the cache file of source (as parsed into storage_opt) in cacheDir (which might not exist)
+     * @throws IOException
+     */
+    public static File getCacheFile(final File cacheDir, final File source, final MatrixStorage storage_opt) throws IOException {
+        String key = source.getCanonicalPath();
+        if (storage_opt != null && storage_opt.isCompact()) {
+            key = key + "\n" + storage_opt;
+        }
+
+        return new File(cacheDir, _hex(_md5(key.getBytes(UTF8))) + ".dsc");
+    }
+
+    /**
+     * @param source
+     * @param cacheFile
+     * @return the dataset of the cache file -- or null if there is none or it is not of the source as it is now
+     * @throws IOException if the cache file is unreadable
+     */
+    public static Dataset read(final File source, final File cacheFile) throws IOException {
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+
+        // @note the mappings stay valid after the file is closed
+        final RandomAccessFile raf = new RandomAccessFile(cacheFile, "r");
+        try {
+            final Dataset ds = _read(source, cacheFile, raf.getChannel());
+            if (ds != null) {
+                cacheFile.setLastModified(System.currentTimeMillis());
+            }
+            return ds;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static Dataset _read(final File source, final File cacheFile, final FileChannel channel) throws IOException {
+        final long len = channel.size();
+        if (len < HEADER_LENGTH) {
+            return null;
+        }
+
+        // the header and the strings -- the matrix is mapped apart
+        final MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(len, Integer.MAX_VALUE));
+
+        final byte[] magic = new byte[MAGIC.length];
+        buf.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || buf.getInt() != VERSION) {
+            return null;
+        }
+
+        final int nrows = buf.getInt();
+        final int ncols = buf.getInt();
+        final int flags = buf.getInt();
+        final long size = buf.getLong();
+        final long mtime = buf.getLong();
+        final byte[] md5 = new byte[16];
+        buf.get(md5);
+        final long matrixOffset = buf.getLong();
+
+        if (matrixOffset + 4L * nrows * ncols != len || matrixOffset > buf.capacity()
+                || !_getString(buf).equals(source.getCanonicalPath())) {
+            return null;
+        }
+
+        if (source.length() != size) {
+            return null;
+        }
+
+        if (source.lastModified() != mtime) { // maybe only touched or copied over with the same content
+            if (!Arrays.equals(md5, _md5(source))) {
+                return null;
+            }
+
+            _updateMtime(cacheFile, source.lastModified());
+        }
+
+        final String name = _getString(buf);
+        final String comment = _getString(buf);
+        final List colNames = _getStrings(buf, ncols);
+        final List rowNames = _getStrings(buf, nrows);
+        final List rowDescs = (flags & FLAG_HAS_DESCS) != 0 ? _getStrings(buf, nrows) : null;
+
+        final int rowsPerSegment = Matrix.getRowsPerSegment(nrows, ncols);
+        final FloatBuffer[] segments = new FloatBuffer[nrows == 0 ? 1 : (int) ((nrows + (long) rowsPerSegment - 1) / rowsPerSegment)];
+        for (int seg = 0; seg < segments.length; seg++) {
+            final long firstRow = (long) seg * rowsPerSegment;
+            final long numRows = Math.min(rowsPerSegment, nrows - firstRow);
+            segments[seg] = channel.map(FileChannel.MapMode.READ_ONLY, matrixOffset + 4L * firstRow * ncols, 4L * numRows * ncols)
+                    .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        }
+        final Matrix matrix = new Matrix(nrows, ncols, segments, MatrixStorage.MAPPED);
+
+        final FeatureAnnot ann = new FeatureAnnot(name, rowNames, rowDescs);
+        ann.addComment(comment);
+        final SampleAnnot sann = new SampleAnnot(name, colNames);
+
+        final Dataset ds = new DefaultDataset(name, matrix, rowNames, colNames, true, new Annot(ann, sann));
+        ds.addComment(comment);
+        return ds;
+    }
+
+    /**
+     * Writes the cache file of a dataset parsed from source (via a temp file, so that the cache file is
+     * only ever complete)
+     *
+     * @param source
+     * @param ds
+     * @param cacheFile
+     * @return false if the dataset cannot be kept in this format (a/p calls, annotation not of its rows)
+     * @throws IOException
+     */
+    public static boolean write(final File source, final Dataset ds, final File cacheFile) throws IOException {
+        final int nrows = ds.getNumRow();
+        final int ncols = ds.getNumCol();
+        final FeatureAnnot ann = ds.getAnnot() != null ? ds.getAnnot().getFeatureAnnot() : null;
+
+        if ((ds instanceof DefaultDataset && ((DefaultDataset) ds).getAPMMatrix() != null)
+                || ann == null || ann.getNumFeatures() != nrows) {
+            return false;
+        }
+
+        final List rowDescs = ann.getNativeDescs();
+        if (rowDescs != null && rowDescs.size() != nrows) {
+            return false;
+        }
+
+        // the source as it is now -- not cached if it changes while being hashed
+        final long size = source.length();
+        final long mtime = source.lastModified();
+        final byte[] md5 = _md5(source);
+        if (source.length() != size || source.lastModified() != mtime) {
+            return false;
+        }
+
+        final ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        final DataOutputStream sout = new DataOutputStream(strings);
+        _putString(sout, source.getCanonicalPath());
+        _putString(sout, ds.getName());
+        _putString(sout, ds.getComment());
+        _putStrings(sout, ds.getColumnNames());
+        _putStrings(sout, ds.getRowNames());
+        if (rowDescs != null) {
+            _putStrings(sout, rowDescs);
+        }
+        sout.flush();
+
+        final long matrixOffset = ((HEADER_LENGTH + strings.size() + 7) / 8) * 8;
+
+        cacheFile.getParentFile().mkdirs();
+        final File tmp = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getParentFile());
+        boolean done = false;
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+            try {
+                out.write(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(nrows);
+                out.writeInt(ncols);
+                out.writeInt(rowDescs != null ? FLAG_HAS_DESCS : 0);
+                out.writeLong(size);
+                out.writeLong(mtime);
+                out.write(md5);
+                out.writeLong(matrixOffset);
+                strings.writeTo(out);
+                for (long i = HEADER_LENGTH + strings.size(); i < matrixOffset; i++) {
+                    out.write(0);
+                }
+
+                final Matrix matrix = ds.getMatrix();
+                final float[] row = new float[ncols];
+                for (int r = 0; r < nrows; r++) {
+                    matrix.getRow(r, row);
+                    for (int c = 0; c < ncols; c++) {
+                        out.writeInt(Integer.reverseBytes(Float.floatToRawIntBits(row[c])));
+                    }
+                }
+            } finally {
+                out.close();
+            }
+
+            if (cacheFile.exists() && !cacheFile.delete()) {
+                return false;
+            }
+
+            done = tmp.renameTo(cacheFile);
+            return done;
+        } finally {
+            if (!done) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Deletes the cache files in cacheDir least recently used first (written or read) until they take no more than
+     * maxBytes.
+     * <p/>
+     * @note a dataset mapped from a cache file that is deleted stays readable where the file system allows the
+     * delete of an open file (else the file is left for later)
+     *
+     * @param cacheDir
+     * @param maxBytes
+     */
+    public static void evict(final File cacheDir, final long maxBytes) {
+        final File[] files = cacheDir.listFiles(new FileFilter() {
+            public boolean accept(final File file) {
+                return file.isFile() && file.getName().endsWith(".dsc");
+            }
+        });
+
+        if (files == null) {
+            return;
+        }
+
+        final long[] lastModifieds = new long[files.length];
+        long total = 0;
+        for (int i = 0; i < files.length; i++) {
+            lastModifieds[i] = files[i].lastModified();
+            total += files[i].length();
+        }
+
+        final Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            order[i] = Integer.valueOf(i);
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(final Integer a, final Integer b) {
+                final long ma = lastModifieds[a.intValue()];
+                final long mb = lastModifieds[b.intValue()];
+                return ma < mb ? -1 : (ma == mb ? 0 : 1);
+            }
+        });
+
+        for (int i = 0; i < order.length && total > maxBytes; i++) {
+            final File file = files[order[i].intValue()];
+            final long len = file.length();
+            if (file.delete()) {
+                klog.info("Evicted from the dataset cache: " + file);
+                total -= len;
+            }
+        }
+    }
+
+    private static void _updateMtime(final File cacheFile, final long mtime) {
+        try {
+            final RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw");
+            try {
+                raf.seek(MTIME_OFFSET);
+                raf.writeLong(mtime);
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            klog.warn("Could not update dataset cache file: " + cacheFile, e); // then the content is hashed every time
+        }
+    }
+
+    private static void _putString(final DataOutputStream out, final String s) throws IOException {
+        final byte[] bytes = s.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void _putStrings(final DataOutputStream out, final List list) throws IOException {
+        for (int i = 0; i < list.size(); i++) {
+            _putString(out, list.get(i).toString());
+        }
+    }
+
+    private static String _getString(final ByteBuffer buf) {
+        final int len = buf.getInt();
+        final byte[] bytes = new byte[len];
+        buf.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static List _getStrings(final ByteBuffer buf, final int num) {
+        final List list = new ArrayList(num);
+        for (int i = 0; i < num; i++) {
+            list.add(_getString(buf));
+        }
+        return list;
+    }
+
+    private static byte[] _md5(final File file) throws IOException {
+        final MessageDigest md = _md5();
+        final InputStream is = new DigestInputStream(new FileInputStream(file), md);
+        try {
+            final byte[] buf = new byte[1 << 16];
+            while (is.read(buf) != -1) {
+                // just digest
+            }
+        } finally {
+            is.close();
+        }
+
+        return md.digest();
+    }
+
+    private static byte[] _md5(final byte[] bytes) {
+        return _md5().digest(bytes);
+    }
+
+    private static MessageDigest _md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new RuntimeException(e); // every jvm has md5
+        }
+    }
+
+    private static String _hex(final byte[] bytes) {
+        final StringBuffer buf = new StringBuffer();
+        for (int i = 0; i < bytes.length; i++) {
+            buf.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16)).append(Character.forDigit(bytes[i] & 0xf, 16));
+        }
+        return buf.toString();
+    }
+
+} // End class BinaryDatasetCache
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.parsers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reads the lines of a stream as ranges of raw bytes in a (reused) buffer -- so no String per line.
+ * <p/>
+ * Same lines as BufferedReader.readLine: a line ends at a '\n', a '\r' or a "\r\n", and the last line
+ * need not be terminated.
+ * <p/>
+ * The bytes are only valid until the next call to next(). For a charset that encodes ascii as single bytes
+ * (see isAsciiCompatible) tabs, line ends and whitespace can be found in the bytes without decoding them.
+ *
+ * @author Aravind Subramanian
+ */
+class ByteLineReader {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final InputStream fIs;
+
+    private byte[] fBuf;
+
+    private int fPos;
+
+    private int fLimit;
+
+    private boolean fSkipLF;
+
+    private int fLineStart;
+
+    private int fLineEnd;
+
+    // offset in the stream of fBuf[0]
+    private long fBufOffset;
+
+    /**
+     * Class constructor
+     *
+     * @param is
+     */
+    ByteLineReader(final InputStream is) {
+        if (is == null) {
+            throw new IllegalArgumentException("Param is cannot be null");
+        }
+
+        this.fIs = is;
+        this.fBuf = new byte[DEFAULT_BUFFER_SIZE];
+    }
+
+    /**
+     * @return true if the charset encodes tab, cr, lf, space and # as the single ascii bytes -- so that these can be
+     * found in the raw bytes of a line (e.g utf-8, where no byte of a multi byte char is < 0x80)
+     */
+    static boolean isAsciiCompatible(final Charset cs) {
+        return Arrays.equals("\t\r\n #".getBytes(cs), new byte[]{'\t', '\r', '\n', ' ', '#'});
+    }
+
+    /**
+     * @return false at the end of the stream -- else the next line is in getBuffer() from getStart() to getEnd()
+     * @throws IOException
+     */
+    boolean next() throws IOException {
+
+        if (fSkipLF) { // the previous line ended with a '\r' -- a '\n' right after it is part of that line end
+            if (fPos == fLimit) {
+                fill();
+            }
+
+            if (fPos < fLimit && fBuf[fPos] == '\n') {
+                fPos++;
+            }
+
+            fSkipLF = false;
+        }
+
+        int scan = fPos;
+        while (true) {
+            for (; scan < fLimit; scan++) {
+                final byte b = fBuf[scan];
+                if (b == '\n' || b == '\r') {
+                    fLineStart = fPos;
+                    fLineEnd = scan;
+                    fPos = scan + 1;
+                    fSkipLF = b == '\r';
+                    return true;
+                }
+            }
+
+            final int scanned = scan - fPos;
+            if (!fill()) {
+                if (fPos < fLimit) { // last line, not terminated
+                    fLineStart = fPos;
+                    fLineEnd = fLimit;
+                    fPos = fLimit;
+                    return true;
+                }
+
+                return false;
+            }
+
+            scan = fPos + scanned; // @note fill() moves the unread bytes to the start of the buffer
+        }
+    }
+
+    byte[] getBuffer() {
+        return fBuf;
+    }
+
+    int getStart() {
+        return fLineStart;
+    }
+
+    int getEnd() {
+        return fLineEnd;
+    }
+
+    /**
+     * @return offset in the stream just past the line end of the current line. IMP: of a "\r\n" line end the '\n'
+     * might not have been read yet -- so the bytes from here can start with an (empty) '\n' line
+     */
+    long getOffset() {
+        return fBufOffset + fPos;
+    }
+
+    String getLine(final Charset cs) {
+        return new String(fBuf, fLineStart, fLineEnd - fLineStart, cs);
+    }
+
+    void close() throws IOException {
+        fIs.close();
+    }
+
+    // moves the unread bytes to the start of the buffer (growing it if full) and reads more after them
+    private boolean fill() throws IOException {
+        final int unread = fLimit - fPos;
+        fBufOffset += fPos;
+        if (fPos > 0) {
+            System.arraycopy(fBuf, fPos, fBuf, 0, unread);
+        } else if (unread == fBuf.length) { // a line longer than the buffer
+            fBuf = Arrays.copyOf(fBuf, fBuf.length * 2);
+        }
+
+        fPos = 0;
+        fLimit = unread;
+
+        final int n = fIs.read(fBuf, fLimit, fBuf.length - fLimit);
+        if (n <= 0) {
+            return false;
+        }
+
+        fLimit += n;
+        return true;
+    }
+
+} // End class ByteLineReader
@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.parsers;
+
+import edu.mit.broad.genome.utils.ParallelUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The data section of a (big, local) dataset file -- from the end of its header to the end of the file -- split into
+ * line aligned byte ranges (chunks) that are parsed at the same time, each into its own block of rows.
+ * <p/>
+ * Two passes over the chunks, both on several threads:
+ * countRows() finds the number of data rows of each chunk (so the first row of every chunk is known and the matrix can
+ * be made at its full size up front) and parseRows() then hands every data line with its row index to a RowParser.
+ * <p/>
+ * A data line is any non-empty line (and, if comments are skipped, not starting with a #) -- as nextLineTrimless.
+ * Lines are those of BufferedReader.readLine (see ByteLineReader) so the charset must be ascii compatible.
+ *
+ * @author Aravind Subramanian
+ */
+class ChunkedDataSection {
+
+    // not worth a thread for less
+    private static final long MIN_CHUNK_BYTES = 1 << 20;
+
+    private final Charset fCs;
+
+    private final boolean fSkipComments;
+
+    private final int fNumThreads;
+
+    private final RandomAccessFile fRaf;
+
+    private final FileChannel fChannel;
+
+    // chunk i is the bytes from fBounds[i] to fBounds[i + 1]
+    private final long[] fBounds;
+
+    private int[] fFirstRows;
+
+    private List fComments;
+
+    /**
+     * A parser of data lines -- one per chunk so need not be thread safe
+     */
+    interface RowParser {
+
+        /**
+         * @param buf   the line is the bytes in buf from start to end (not empty). IMP: only valid during the call
+         * @param start
+         * @param end
+         * @param row   index of the data row
+         * @return false if the line cannot be parsed (then the rest are skipped and parseRows() returns false)
+         */
+        boolean parse(final byte[] buf, final int start, final int end, final int row);
+    }
+
+    interface RowParserFactory {
+
+        RowParser createRowParser();
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param file
+     * @param dataStart    offset of the first byte after the header
+     * @param cs           of the file, must be ascii compatible
+     * @param skipComments whether lines starting with a # are comments rather than data
+     * @param numThreads
+     * @throws IOException
+     */
+    ChunkedDataSection(final File file,
+                       final long dataStart,
+                       final Charset cs,
+                       final boolean skipComments,
+                       final int numThreads) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("Param file cannot be null");
+        }
+
+        if (!ByteLineReader.isAsciiCompatible(cs)) {
+            throw new IllegalArgumentException("Not an ascii compatible charset: " + cs);
+        }
+
+        this.fCs = cs;
+        this.fSkipComments = skipComments;
+        this.fNumThreads = Math.max(numThreads, 1);
+        this.fRaf = new RandomAccessFile(file, "r");
+        this.fChannel = fRaf.getChannel();
+
+        try {
+            final long end = fChannel.size();
+            final long dataLen = Math.max(end - dataStart, 0);
+            final int numChunks = (int) Math.max(Math.min(fNumThreads * 4L, dataLen / MIN_CHUNK_BYTES), 1);
+
+            final long[] bounds = new long[numChunks + 1];
+            bounds[0] = Math.min(dataStart, end);
+            bounds[numChunks] = end;
+            for (int i = 1; i < numChunks; i++) {
+                bounds[i] = Math.max(bounds[i - 1], _alignToLineStart(bounds[0] + (dataLen * i) / numChunks, end));
+            }
+
+            this.fBounds = bounds;
+        } catch (IOException e) {
+            fRaf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * First pass: the number of data rows. Comment lines (if skipped) are kept, in file order, for getComments()
+     *
+     * @return the number of data rows
+     */
+    int countRows() {
+        final int numChunks = fBounds.length - 1;
+        final int[] counts = new int[numChunks];
+        final List[] comments = new List[numChunks];
+        final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(numChunks);
+
+        for (int i = 0; i < numChunks; i++) {
+            final int chunk = i;
+            tasks.add(new Callable<Object>() {
+                public Object call() throws Exception {
+                    final ByteLineReader lr = _createReader(chunk);
+                    int count = 0;
+                    while (lr.next()) {
+                        final int start = lr.getStart();
+                        if (start == lr.getEnd()) {
+                            continue;
+                        }
+
+                        if (fSkipComments && lr.getBuffer()[start] == '#') {
+                            if (comments[chunk] == null) {
+                                comments[chunk] = new ArrayList();
+                            }
+                            comments[chunk].add(lr.getLine(fCs));
+                            continue;
+                        }
+
+                        count++;
+                    }
+
+                    counts[chunk] = count;
+                    return null;
+                }
+            });
+        }
+
+        ParallelUtils.runAll(tasks, fNumThreads);
+
+        this.fFirstRows = new int[numChunks];
+        this.fComments = new ArrayList();
+        int numRows = 0;
+        for (int i = 0; i < numChunks; i++) {
+            fFirstRows[i] = numRows;
+            numRows += counts[i];
+            if (comments[i] != null) {
+                fComments.addAll(comments[i]);
+            }
+        }
+
+        return numRows;
+    }
+
+    /**
+     * @return the comment lines of the data section (empty if comments are not skipped)
+     */
+    List getComments() {
+        if (fComments == null) {
+            throw new IllegalStateException("Rows not counted yet");
+        }
+
+        return fComments;
+    }
+
+    /**
+     * Second pass: every data line to a row parser (made by factory, one per chunk)
+     *
+     * @param factory
+     * @return true if all lines were parsed, false as soon as any was not
+     */
+    boolean parseRows(final RowParserFactory factory) {
+        if (fFirstRows == null) {
+            throw new IllegalStateException("Rows not counted yet");
+        }
+
+        final int numChunks = fBounds.length - 1;
+        final boolean[] ok = new boolean[numChunks];
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(numChunks);
+
+        for (int i = 0; i < numChunks; i++) {
+            final int chunk = i;
+            tasks.add(new Callable<Object>() {
+                public Object call() throws Exception {
+                    final RowParser parser = factory.createRowParser();
+                    final ByteLineReader lr = _createReader(chunk);
+                    int row = fFirstRows[chunk];
+                    while (lr.next()) {
+                        if (failed.get()) { // no point going on
+                            return null;
+                        }
+
+                        final byte[] buf = lr.getBuffer();
+                        final int start = lr.getStart();
+                        final int end = lr.getEnd();
+                        if (start == end || (fSkipComments && buf[start] == '#')) {
+                            continue;
+                        }
+
+                        if (!parser.parse(buf, start, end, row)) {
+                            failed.set(true);
+                            return null;
+                        }
+
+                        row++;
+                    }
+
+                    ok[chunk] = true;
+                    return null;
+                }
+            });
+        }
+
+        ParallelUtils.runAll(tasks, fNumThreads);
+
+        for (int i = 0; i < numChunks; i++) {
+            if (!ok[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    void close() throws IOException {
+        fRaf.close();
+    }
+
+    private ByteLineReader _createReader(final int chunk) {
+        return new ByteLineReader(new RangeInputStream(fChannel, fBounds[chunk], fBounds[chunk + 1]));
+    }
+
+    // the offset of the first line that starts at or after pos
+    private long _alignToLineStart(final long pos, final long end) throws IOException {
+        final byte[] buf = new byte[8192];
+        long p = pos - 1; // @note the line end might be just before pos
+        while (p < end) {
+            final int n = fChannel.read(ByteBuffer.wrap(buf), p);
+            if (n <= 0) {
+                break;
+            }
+
+            for (int i = 0; i < n; i++) {
+                if (buf[i] == '\n') {
+                    return p + i + 1;
+                }
+
+                if (buf[i] == '\r') { // a "\r\n" is one line end
+                    if (i + 1 < n) {
+                        return buf[i + 1] == '\n' ? p + i + 2 : p + i + 1;
+                    }
+
+                    final byte[] one = new byte[1];
+                    final int m = fChannel.read(ByteBuffer.wrap(one), p + i + 1);
+                    return m == 1 && one[0] == '\n' ? p + i + 2 : p + i + 1;
+                }
+            }
+
+            p += n;
+        }
+
+        return end;
+    }
+
+    /**
+     * The bytes of a file from start to end, read with positional reads -- so that any number of them can
+     * share one channel
+     */
+    private static class RangeInputStream extends InputStream {
+
+        private final FileChannel fChannel;
+
+        private final long fEnd;
+
+        private long fPos;
+
+        RangeInputStream(final FileChannel channel, final long start, final long end) {
+            this.fChannel = channel;
+            this.fPos = start;
+            this.fEnd = end;
+        }
+
+        public int read() throws IOException {
+            final byte[] one = new byte[1];
+            final int n = read(one, 0, 1);
+            return n == 1 ? one[0] & 0xff : -1;
+        }
+
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (fPos >= fEnd) {
+                return -1;
+            }
+
+            final int n = fChannel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, fEnd - fPos)), fPos);
+            if (n > 0) {
+                fPos += n;
+            }
+            return n;
+        }
+
+        // @note the channel is closed by its ChunkedDataSection
+        public void close() {
+        }
+
+    } // End class RangeInputStream
+
+} // End class ChunkedDataSection
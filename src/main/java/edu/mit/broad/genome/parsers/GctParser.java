@@ -9,7 +9,9 @@ import edu.mit.broad.genome.math.Matrix;
 import edu.mit.broad.genome.objects.*;
 
 import java.io.*;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -113,11 +115,250 @@ public class GctParser extends AbstractParser {
     public List parse(String sourcepath, InputStream is) throws Exception {
         startImport(sourcepath);
 
+        final Charset cs = Charset.defaultCharset(); // @note as InputStreamReader(is)
+        if (ByteLineReader.isAsciiCompatible(cs)) {
+            return _parseStreaming(sourcepath, new ByteLineReader(is), cs, true, null, 1);
+        }
+
         BufferedReader bin = new BufferedReader(new InputStreamReader(is));
         return _parse(sourcepath, bin, true);
 
     }
 
+    /**
+     * Same dataset as parse(sourcepath, is) but the data lines of the file are parsed in chunks on several threads
+     * (see ChunkedDataSection) -- for big files.
+     *
+     * @param sourcepath
+     * @param file
+     * @param numThreads
+     * @return null if the file cannot be parsed this way: the charset is not ascii compatible or there is something
+     * wrong with the data rows (a bad row, not as many as declared). Then parse(sourcepath, is) gives the dataset or
+     * the error as usual
+     * @throws Exception on errors in the header (the same as parse(sourcepath, is))
+     */
+    public List parseChunked(String sourcepath, final File file, final int numThreads) throws Exception {
+        startImport(sourcepath);
+
+        final Charset cs = Charset.defaultCharset();
+        if (!ByteLineReader.isAsciiCompatible(cs)) {
+            return null;
+        }
+
+        final ByteLineReader lr = new ByteLineReader(new FileInputStream(file));
+        try {
+            final List ret = _parseStreaming(sourcepath, lr, cs, true, file, numThreads);
+            if (ret == null) {
+                fComment.clear();
+            }
+            return ret;
+        } finally {
+            lr.close();
+        }
+    }
+
+    /**
+     * Same as _parse (same dataset, same errors) but in one pass over the bytes of the file: each data line is
+     * decoded straight into the (nrows x ncols, as declared in the header) matrix. No line is ever held as a String
+     * and the numbers are parsed without making any String. So the heap needed is not much more than the matrix itself.
+     * <p/>
+     * If chunkFile is specified (the file that lr reads) only the header is read from lr and the data lines
+     * are parsed in chunks -- then null if they cannot be (see parseChunked)
+     */
+    private List _parseStreaming(String objName, final ByteLineReader lr, final Charset cs, final boolean nameBeforeDesc,
+                                 final File chunkFile, final int numThreads) throws Exception {
+        objName = NamingConventions.removeExtension(objName);
+        String currLine = nextLine(lr, cs);
+
+        // 1st  non-empty, non-comment line is numrows and numcols
+        int[] nstuff = ParseUtils.string2ints(currLine, " \t");
+        if (nstuff.length != 2) {
+            throw new ParserException("Gct file with bad row/col info on line: " + currLine);
+        }
+
+        final int nrows = nstuff[0];
+        final int ncols = nstuff[1];
+
+        // First 2 fields name and desc are to be ignored
+        currLine = nextLine(lr, cs);
+        List colNames = ParseUtils.string2stringsList(currLine, "\t"); // colnames can have spaces
+
+        colNames.remove(0);                                 // first elem is always nonsense
+        colNames.remove(0);
+
+        if (colNames.size() != ncols) {
+            throw new ParserException("Bad gct format -- expected ncols from specification on header line: " + ncols + " but found in data: " + colNames.size());
+        }
+
+        if (chunkFile != null) {
+            return _parseChunkedData(objName, chunkFile, lr.getOffset(), cs, nrows, colNames, nameBeforeDesc, numThreads);
+        }
+
+        final Matrix matrix = createMatrix(Math.max(nrows, 0), ncols);
+        final List rowNames = new ArrayList(Math.max(nrows, 0));
+        final List rowDescs = new ArrayList(Math.max(nrows, 0));
+        final TabRowDecoder decoder = new TabRowDecoder(2, ncols, cs);
+
+        // @note as in _parse, a wrong number of rows is reported before any error in the rows themselves -- so
+        // the first bad row is only remembered and the rows are still counted to the end
+        Exception firstRowError = null;
+        int numRows = 0;
+
+        while (lr.next()) {
+            final byte[] buf = lr.getBuffer();
+            final int start = lr.getStart();
+            final int end = lr.getEnd();
+
+            if (start == end) {
+                continue;
+            }
+
+            if (buf[start] == '#') { // as nextLineTrimless: only untrimmed comments
+                fComment.add(lr.getLine(cs));
+                continue;
+            }
+
+            final int row = numRows++;
+            if (row >= nrows || firstRowError != null) {
+                continue;
+            }
+
+            decoder.decode(buf, start, end);
+            final Exception e = _rowError(decoder, row, lr, cs);
+            if (e != null) {
+                firstRowError = e;
+                continue;
+            }
+
+            String rowname = decoder.getLeading(0);
+            String desc = decoder.getLeading(1);
+            if (desc.length() == 0) {
+                desc = Constants.NA;
+            }
+
+            if (!nameBeforeDesc) { // the flipped one
+                String tmp = rowname;
+                rowname = desc;
+                desc = tmp;
+            }
+
+            rowNames.add(rowname);
+            rowDescs.add(desc);
+
+            matrix.setRow(row, decoder.getValues());
+        }
+
+        lr.close();
+
+        if (numRows != nrows) {
+            throw new ParserException("Bad gct format -- exepcted nrows from specification on header line: " + nrows + " but found in data: " + numRows);
+        }
+
+        if (firstRowError != null) {
+            if (firstRowError instanceof NumberFormatException) {
+                System.out.println(">" + decoder.getBadValue() + "<");
+            }
+            throw firstRowError;
+        }
+
+        return _createDataset(objName, matrix, rowNames, rowDescs, colNames);
+    }
+
+    // the error of a decoded row as _parseHasDesc would throw it -- or null if ok
+    private static Exception _rowError(final TabRowDecoder decoder, final int row, final ByteLineReader lr, final Charset cs) {
+        if (decoder.getNumNonEmptyExtras() != 0) {
+            final int expectedLen = decoder.getValues().length + 2;
+            return new ParserException("Bad format - expect ncols: " + expectedLen
+                    + " but found: " + (expectedLen + decoder.getNumNonEmptyExtras()) + " on line >"
+                    + lr.getLine(cs) + "<\nIf this dataset has missing values, use ImputeDataset to fill these in before importing as a Dataset");
+        }
+
+        if (decoder.getLeading(0).length() == 0) {
+            return new ParserException("Bad rowname - cant be empty at: " + row + " >" + lr.getLine(cs));
+        }
+
+        return decoder.getBadValueError();
+    }
+
+    // the data lines in chunks on several threads, straight into their rows
+    // @returns null if there are not as many rows as declared or if any row is bad
+    private List _parseChunkedData(final String objName,
+                                   final File file,
+                                   final long dataStart,
+                                   final Charset cs,
+                                   final int nrows,
+                                   final List colNames,
+                                   final boolean nameBeforeDesc,
+                                   final int numThreads) throws Exception {
+
+        final ChunkedDataSection data = new ChunkedDataSection(file, dataStart, cs, true, numThreads);
+        try {
+            if (data.countRows() != nrows) {
+                return null;
+            }
+
+            final int ncols = colNames.size();
+            final Matrix matrix = createMatrix(nrows, ncols);
+            final String[] rowNames = new String[nrows];
+            final String[] rowDescs = new String[nrows];
+
+            final boolean ok = data.parseRows(new ChunkedDataSection.RowParserFactory() {
+                public ChunkedDataSection.RowParser createRowParser() {
+                    final TabRowDecoder decoder = new TabRowDecoder(2, ncols, cs);
+                    return new ChunkedDataSection.RowParser() {
+                        public boolean parse(final byte[] buf, final int start, final int end, final int row) {
+                            decoder.decode(buf, start, end);
+                            String rowname = decoder.getLeading(0);
+                            if (!decoder.isClean() || rowname.length() == 0) {
+                                return false;
+                            }
+
+                            String desc = decoder.getLeading(1);
+                            if (desc.length() == 0) {
+                                desc = Constants.NA;
+                            }
+
+                            if (!nameBeforeDesc) { // the flipped one
+                                String tmp = rowname;
+                                rowname = desc;
+                                desc = tmp;
+                            }
+
+                            rowNames[row] = rowname;
+                            rowDescs[row] = desc;
+                            matrix.setRow(row, decoder.getValues());
+                            return true;
+                        }
+                    };
+                }
+            });
+
+            if (!ok) {
+                return null;
+            }
+
+            final List comments = data.getComments();
+            for (int i = 0; i < comments.size(); i++) {
+                fComment.add(comments.get(i).toString());
+            }
+
+            return _createDataset(objName, matrix, new ArrayList(Arrays.asList(rowNames)), new ArrayList(Arrays.asList(rowDescs)), colNames);
+        } finally {
+            data.close();
+        }
+    }
+
+    private List _createDataset(final String objName, final Matrix matrix, final List rowNames, final List rowDescs, final List colNames) {
+        final FeatureAnnot ann = new FeatureAnnot(objName, rowNames, rowDescs);
+        ann.addComment(fComment.toString());
+        final SampleAnnot sann = new SampleAnnot(objName, colNames);
+
+        final Dataset ds = new DefaultDataset(objName, matrix, rowNames, colNames, true, new Annot(ann, sann));
+        ds.addComment(fComment.toString());
+        doneImport();
+        return unmodlist(new PersistentObject[]{ds});
+    }
+
     /// does the real parsing
     // expects the bin to be untouched
     private List _parse(String objName, BufferedReader bin, boolean nameBeforeDesc) throws Exception {
@@ -169,9 +410,10 @@ public class GctParser extends AbstractParser {
 
     private List _parseHasDesc(String objName, List lines, List colNames, boolean nameBeforeDesc) throws Exception {
         objName = NamingConventions.removeExtension(objName);
-        Matrix matrix = new Matrix(lines.size(), colNames.size());
+        Matrix matrix = createMatrix(lines.size(), colNames.size());
         List rowNames = new ArrayList();
         List rowDescs = new ArrayList();
+        final float[] rowValues = new float[colNames.size()];
 
         for (int i = 0; i < lines.size(); i++) {
             String currLine = (String) lines.get(i);
@@ -219,8 +461,9 @@ public class GctParser extends AbstractParser {
                         throw e;
                     }
                 }
-                matrix.setElement(i, f - 2, val);
+                rowValues[f - 2] = val;
             }
+            matrix.setRow(i, rowValues);
         }
 
         final FeatureAnnot ann = new FeatureAnnot(objName, rowNames, rowDescs);
@@ -22,6 +22,9 @@ import java.io.File;
 import java.util.*;
 
 /**
+ * The maps are guarded by the cache itself -- tools run side by side in one jvm (e.g a batch) parse and save into
+ * the same cache.
+ *
  * @author Aravind Subramanian
  */
 public class ObjectCache {
@@ -96,7 +99,7 @@ public class ObjectCache {
         fTreeModel = new DefaultTreeModel(fRootNode, true);
     }
 
-    public boolean isCached(final String path, final Class cl) {
+    public synchronized boolean isCached(final String path, final Class cl) {
         return fPathClassObjectMap.containsKey(new PathClass(path, cl));
     }
 
@@ -104,7 +107,7 @@ public class ObjectCache {
         return isCached(file.getPath(), cl);
     }
 
-    public boolean isCached(PersistentObject pob) {
+    public synchronized boolean isCached(PersistentObject pob) {
 
         if (fObjectPathStringMap.containsKey(pob)) {
             return true;
@@ -119,11 +122,11 @@ public class ObjectCache {
      * @param file
      * @return Null if file not cached
      */
-    public Object get(final String path, final Class cl) {
+    public synchronized Object get(final String path, final Class cl) {
         return fPathClassObjectMap.get(new PathClass(path, cl));
     }
 
-    public Object get(final File file, final Class cl) {
+    public synchronized Object get(final File file, final Class cl) {
         return fPathClassObjectMap.get(new PathClass(file.getPath(), cl));
     }
 
@@ -131,7 +134,7 @@ public class ObjectCache {
      * @param pob
      * @return file that the object was parsed from, null if not known
      */
-    public String getSourcePath(final Object pob) {
+    public synchronized String getSourcePath(final Object pob) {
 
         if (pob == null) {
             throw new IllegalArgumentException("Parameter obj cannot be null");
@@ -184,7 +187,7 @@ public class ObjectCache {
      * @param pob
      * @param cl
      */
-    protected void add(String path, PersistentObject pob, Class cl, boolean fireAction) {
+    protected synchronized void add(String path, PersistentObject pob, Class cl, boolean fireAction) {
 
         PathClass fc = new PathClass(path, cl);
 
@@ -375,7 +378,7 @@ public class ObjectCache {
 
     // NOT an immutbale list!! --can be sorted etc by caller
     // @todo this mechanism doesnt work with multiple objects of same class and same file path
-    public List getCachedObjectsL(Class pobClass) {
+    public synchronized List getCachedObjectsL(Class pobClass) {
         List pobs = new ArrayList();
 
         Iterator it = fPathClassObjectMap.keySet().iterator();
@@ -464,7 +467,7 @@ public class ObjectCache {
         makeVisible(new PersistentObject[]{pob}, cl);
     }
 
-    public void makeVisible(PersistentObject[] pobs, Class cl) {
+    public synchronized void makeVisible(PersistentObject[] pobs, Class cl) {
         for (int i = 0; i < pobs.length; i++) {
             Object file = fInvisiblePobFileMap.get(pobs[i]);
             if (file != null) {
@@ -476,7 +479,7 @@ public class ObjectCache {
         this.sortModel(cl);
     }
 
-    protected void addInvisibly(File file, PersistentObject pob) {
+    protected synchronized void addInvisibly(File file, PersistentObject pob) {
         if (file == null) {
             throw new IllegalArgumentException("Parameter file cannot be null");
         }
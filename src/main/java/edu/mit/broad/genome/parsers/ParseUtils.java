@@ -453,6 +453,96 @@ public class ParseUtils {
         return currLine;
     }
 
+    // 10^0 .. 10^10 -- all exact as floats
+    private static final float[] FLOAT_POW10 = new float[]{1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    private static final int FLOAT_EXACT_MAX = 1 << 24;
+
+    /**
+     * Float.parseFloat of the (already trimmed, non empty) ascii bytes from .. to -- but without making a String.
+     * <p/>
+     * Plain decimals ([+-]digits[.digits][(e|E)[+-]digits]) of at most 24 bits of significand and a decimal
+     * exponent of at most 10 are a single exact float multiply or divide, and so the correctly rounded value that
+     * Float.parseFloat also gives. Everything else (more digits, NaN, Infinity, hex, bad numbers) is handed to
+     * Float.parseFloat -- so the same value, or the same NumberFormatException.
+     *
+     * @param buf
+     * @param from
+     * @param to
+     * @param cs   of the bytes, only used for what the fast path cannot parse
+     * @return the float
+     * @throws NumberFormatException
+     */
+    public static float parseFloat(final byte[] buf, final int from, final int to, final java.nio.charset.Charset cs)
+            throws NumberFormatException {
+
+        int i = from;
+        boolean neg = false;
+        if (i < to && (buf[i] == '-' || buf[i] == '+')) {
+            neg = buf[i] == '-';
+            i++;
+        }
+
+        int m = 0;
+        int exp10 = 0;
+        boolean anyDigits = false;
+        boolean exact = true;
+
+        for (; i < to && buf[i] >= '0' && buf[i] <= '9'; i++) {
+            m = m * 10 + (buf[i] - '0');
+            anyDigits = true;
+            if (m >= FLOAT_EXACT_MAX) {
+                exact = false;
+                break;
+            }
+        }
+
+        if (exact && i < to && buf[i] == '.') {
+            i++;
+            for (; i < to && buf[i] >= '0' && buf[i] <= '9'; i++) {
+                m = m * 10 + (buf[i] - '0');
+                exp10--;
+                anyDigits = true;
+                if (m >= FLOAT_EXACT_MAX) {
+                    exact = false;
+                    break;
+                }
+            }
+        }
+
+        if (exact && anyDigits && i < to && (buf[i] == 'e' || buf[i] == 'E')) {
+            i++;
+            boolean negExp = false;
+            if (i < to && (buf[i] == '-' || buf[i] == '+')) {
+                negExp = buf[i] == '-';
+                i++;
+            }
+
+            int e = 0;
+            boolean anyExpDigits = false;
+            for (; i < to && buf[i] >= '0' && buf[i] <= '9' && e < 1000; i++) {
+                e = e * 10 + (buf[i] - '0');
+                anyExpDigits = true;
+            }
+
+            exact = anyExpDigits;
+            exp10 += negExp ? -e : e;
+        }
+
+        if (exact && anyDigits && i == to) {
+            if (m == 0) {
+                return neg ? -0.0f : 0.0f;
+            }
+
+            if (exp10 >= -10 && exp10 <= 10) {
+                final float v = exp10 < 0 ? (float) m / FLOAT_POW10[-exp10] : (float) m * FLOAT_POW10[exp10];
+                return neg ? -v : v;
+            }
+        }
+
+        return Float.parseFloat(new String(buf, from, to - from, cs));
+    }
+
     private static BufferedReader _buf(File file) throws IOException {
         if (file == null) {
             throw new IllegalArgumentException("Parameter file cannot be null");
@@ -6,10 +6,12 @@ package edu.mit.broad.genome.parsers;
 import edu.mit.broad.genome.*;
 import edu.mit.broad.genome.io.FtpResultInputStream;
 import edu.mit.broad.genome.io.FtpSingleUrlTransferCommand;
+import edu.mit.broad.genome.math.MatrixStorage;
 import edu.mit.broad.genome.objects.*;
 import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentDb;
 import edu.mit.broad.genome.reports.api.Report;
 import edu.mit.broad.genome.utils.FileUtils;
+import edu.mit.broad.genome.utils.ParallelUtils;
 import edu.mit.broad.vdb.chip.Chip;
 import edu.mit.broad.xbench.core.api.Application;
 
@@ -37,6 +39,7 @@ public class ParserFactory implements Constants {
     // These probably belong elsewhere if we make a broader file cache than just for special CHIPs
     private static final File fileCacheDir = new File(Application.getVdbManager().getRuntimeHomeDir(), "file_cache");
     private static final File chipCacheDir = new File(fileCacheDir, "chip");
+    private static final File datasetCacheDir = new File(fileCacheDir, "dataset");
     static {
         // Make sure the cache dirs exist.
         if (!chipCacheDir.exists()) {
@@ -46,6 +49,28 @@ public class ParserFactory implements Constants {
     
     private static final Logger klog = Logger.getLogger(ParserFactory.class);
 
+    // local dataset files of at least this many MB are parsed on CHUNKED_PARSE_THREADS threads (see ChunkedDataSection)
+    private static final long CHUNKED_PARSE_MIN_BYTES = Long.getLong("CHUNKED_PARSE_MIN_MB", 64).longValue() * 1024 * 1024;
+
+    // the # of threads the chunks are parsed on -- none of the files are parsed in chunks if < 2
+    // @note by default the cpus there are, but no more than 4: past that the reading of the file is what limits
+    private static final int CHUNKED_PARSE_THREADS = Integer.getInteger("CHUNKED_PARSE_THREADS",
+            Math.min(ParallelUtils.getDefaultNumThreads(), 4)).intValue();
+
+    // local gct, txt and pcl files of at least this many MB are kept in a binary cache file for the next load
+    // (see BinaryDatasetCache) -- none if < 0. The cache files (one per source file, about 4 bytes per value) are in
+    // file_cache/dataset of the runtime home dir
+    private static final long DATASET_CACHE_MIN_BYTES = Long.getLong("DATASET_CACHE_MIN_MB", 64).longValue() * 1024 * 1024;
+
+    // the most MB the dataset cache files take: past that the least recently used are evicted
+    private static final long DATASET_CACHE_MAX_BYTES = Long.getLong("DATASET_CACHE_MAX_MB", 4096).longValue() * 1024 * 1024;
+
+    // the MatrixStorage (e.g float16) that the parsers fill the matrices of datasets read in -- from the start, so a
+    // compact one never needs the floats as well. The default if not set. A dataset loaded from the binary cache
+    // stays mapped (with the values as they were kept)
+    // @note compact storage is lossy: see xtools.munge.CompactStorageReport for what it does to the rankings
+    private static final MatrixStorage DATASET_STORAGE = _lookupStorage(System.getProperty("DATASET_STORAGE"));
+
     /**
      * Privatized Class constructor
      * static methods only.
@@ -110,9 +135,17 @@ public class ParserFactory implements Constants {
         }
 
         Dataset ds;
-        Parser parser = new ResParser();
+        ResParser parser = new ResParser();
+        parser.setMatrixStorage(DATASET_STORAGE);
         parser.setSilentMode(false);
-        List list = parser.parse(toName(path), is);
+        List list = null;
+        final File file = _chunkedParseFile(path);
+        if (file != null) {
+            list = parser.parseChunked(toName(path), file, CHUNKED_PARSE_THREADS);
+        }
+        if (list == null) {
+            list = parser.parse(toName(path), is);
+        }
         ds = (Dataset) list.get(0);
 
         // sometimes might not want to for memory reasons
@@ -154,11 +187,24 @@ public class ParserFactory implements Constants {
             return readDatasetPcl(path, is, useCache);
         }
 
-        GctParser parser = new GctParser();
-        parser.setSilentMode(false);
-        List list = parser.parse(toName(path), is);
+        final File cacheFile = _datasetCacheFile(path);
+        Dataset ds = _readCachedDataset(path, cacheFile);
+        if (ds == null) {
+            GctParser parser = new GctParser();
+            parser.setMatrixStorage(DATASET_STORAGE);
+            parser.setSilentMode(false);
+            List list = null;
+            final File file = _chunkedParseFile(path);
+            if (file != null) {
+                list = parser.parseChunked(toName(path), file, CHUNKED_PARSE_THREADS);
+            }
+            if (list == null) {
+                list = parser.parse(toName(path), is);
+            }
 
-        Dataset ds = (Dataset) list.get(0);
+            ds = (Dataset) list.get(0);
+            _cacheDataset(path, ds, cacheFile);
+        }
 
         if (add2cache) {
             _getCache().add(path, ds, Dataset.class);
@@ -196,10 +242,23 @@ public class ParserFactory implements Constants {
             return readDatasetPcl(path, is, useCache);
         }
         
-        TxtDatasetParser parser = new TxtDatasetParser();
-        parser.setSilentMode(false);
-        List list = parser.parse(toName(path), is);
-        Dataset ds = (Dataset) list.get(0);
+        final File cacheFile = _datasetCacheFile(path);
+        Dataset ds = _readCachedDataset(path, cacheFile);
+        if (ds == null) {
+            TxtDatasetParser parser = new TxtDatasetParser();
+            parser.setMatrixStorage(DATASET_STORAGE);
+            parser.setSilentMode(false);
+            List list = null;
+            final File file = _chunkedParseFile(path);
+            if (file != null) {
+                list = parser.parseChunked(toName(path), file, CHUNKED_PARSE_THREADS);
+            }
+            if (list == null) {
+                list = parser.parse(toName(path), is);
+            }
+            ds = (Dataset) list.get(0);
+            _cacheDataset(path, ds, cacheFile);
+        }
         
         _getCache().add(path, ds, Dataset.class);
         
@@ -236,9 +295,22 @@ public class ParserFactory implements Constants {
             return readDatasetGct(path, is, useCache);
         }
 
-        Parser parser = new PclParser();
-        List list = parser.parse(path, is); // @note IMP special hack for PCL parser
-        Dataset ds = (Dataset) list.get(0);
+        final File cacheFile = _datasetCacheFile(path);
+        Dataset ds = _readCachedDataset(path, cacheFile);
+        if (ds == null) {
+            PclParser parser = new PclParser();
+            parser.setMatrixStorage(DATASET_STORAGE);
+            List list = null;
+            final File file = _chunkedParseFile(path);
+            if (file != null) {
+                list = parser.parseChunked(path, file, CHUNKED_PARSE_THREADS);
+            }
+            if (list == null) {
+                list = parser.parse(path, is); // @note IMP special hack for PCL parser
+            }
+            ds = (Dataset) list.get(0);
+            _cacheDataset(path, ds, cacheFile);
+        }
 
         if (add2cache) {
             _getCache().add(path, ds, Dataset.class);
@@ -1032,6 +1104,87 @@ public class ParserFactory implements Constants {
         throw new IllegalArgumentException(buf.toString());
     }
 
+    // the local file to parse in chunks on several threads -- or null if the stream is to be parsed as usual
+    private static File _chunkedParseFile(final String path) {
+        final File file = _localFile(path);
+        if (file == null || CHUNKED_PARSE_THREADS < 2 || file.length() < CHUNKED_PARSE_MIN_BYTES) {
+            return null;
+        }
+
+        return file;
+    }
+
+    private static MatrixStorage _lookupStorage(final String storage_opt) {
+        if (storage_opt == null) {
+            return null;
+        }
+
+        final MatrixStorage storage = MatrixStorage.lookup(storage_opt);
+        klog.info("Keeping the matrices of the datasets read as: " + storage);
+        return storage;
+    }
+
+    // the binary cache file of a local dataset file -- or null if it is not to be cached
+    private static File _datasetCacheFile(final String path) {
+        final File file = _localFile(path);
+        if (file == null || DATASET_CACHE_MIN_BYTES < 0 || file.length() < DATASET_CACHE_MIN_BYTES) {
+            return null;
+        }
+
+        try {
+            return BinaryDatasetCache.getCacheFile(datasetCacheDir, file, DATASET_STORAGE);
+        } catch (IOException e) {
+            klog.warn("No dataset cache for: " + path, e);
+            return null;
+        }
+    }
+
+    // @note a cache file that cannot be read is only a miss
+    private static Dataset _readCachedDataset(final String path, final File cacheFileOpt) {
+        if (cacheFileOpt == null) {
+            return null;
+        }
+
+        try {
+            final Dataset ds = BinaryDatasetCache.read(new File(path), cacheFileOpt);
+            if (ds != null) {
+                klog.info("Loaded: " + path + " from the dataset cache: " + cacheFileOpt);
+            }
+            return ds;
+        } catch (Throwable t) {
+            klog.warn("Ignoring the dataset cache: " + cacheFileOpt + " of: " + path, t);
+            return null;
+        }
+    }
+
+    private static void _cacheDataset(final String path, final Dataset ds, final File cacheFileOpt) {
+        if (cacheFileOpt == null) {
+            return;
+        }
+
+        try {
+            if (BinaryDatasetCache.write(new File(path), ds, cacheFileOpt)) {
+                BinaryDatasetCache.evict(datasetCacheDir, DATASET_CACHE_MAX_BYTES);
+            }
+        } catch (Throwable t) {
+            klog.warn("Could not write the dataset cache: " + cacheFileOpt + " of: " + path, t);
+        }
+    }
+
+    // the plain local file of path -- null if a url or an aux file
+    private static File _localFile(final String path) {
+        if (NamingConventions.isURL(path)) {
+            return null;
+        }
+
+        final File file = new File(path);
+        if (AuxUtils.isAuxFile(file) || !file.isFile()) {
+            return null;
+        }
+
+        return file;
+    }
+
     // @note convention
     private static String toName(final String path) {
         return new File(path).getName();
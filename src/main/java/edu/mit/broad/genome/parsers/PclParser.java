@@ -3,12 +3,15 @@
  */
 package edu.mit.broad.genome.parsers;
 
+import edu.mit.broad.genome.Constants;
 import edu.mit.broad.genome.math.Matrix;
 import edu.mit.broad.genome.objects.*;
 import edu.mit.broad.genome.utils.FileUtils;
 
 import java.io.*;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -107,7 +110,8 @@ public class PclParser extends AbstractParser {
         // Initialize the Dataset and Annotation
         List rowNames = new ArrayList(nfloatlines);
         List rowDescs = new ArrayList(nfloatlines);
-        Matrix matrix = new Matrix(nfloatlines, colNames.size());
+        Matrix matrix = createMatrix(nfloatlines, colNames.size());
+        final float[] rowValues = new float[colNames.size()];
 
         int r = 0;
         currLine = nextLineTrimless(bin); // first line of float data @note trimless as may be missing fields
@@ -147,8 +151,9 @@ public class PclParser extends AbstractParser {
                 } else {
                     val = Float.parseFloat(s);
                 }
-                matrix.setElement(r, f - 3, val);
+                rowValues[f - 3] = val;
             }
+            matrix.setRow(r, rowValues);
 
             r++;
             currLine = nextLineTrimless(bin);
@@ -171,4 +176,128 @@ public class PclParser extends AbstractParser {
         return unmodlist(new PersistentObject[]{ds});
     }
 
+    /**
+     * Same dataset as parse(hackINeedFullPath, is) but the data lines of the file are parsed in chunks on several
+     * threads (see ChunkedDataSection) -- for big files.
+     *
+     * @param hackINeedFullPath
+     * @param file
+     * @param numThreads
+     * @return null if the file cannot be parsed this way: the charset is not ascii compatible, there are comment lines
+     * (parse sizes the matrix by all non-blank lines) or a data row is bad. Then parse(hackINeedFullPath, is)
+     * gives the dataset or the error as usual
+     */
+    public List parseChunked(final String hackINeedFullPath, final File file, final int numThreads) throws Exception {
+        startImport(hackINeedFullPath);
+
+        final Charset cs = Charset.defaultCharset(); // @note as InputStreamReader(is)
+        if (!ByteLineReader.isAsciiCompatible(cs)) {
+            return null;
+        }
+
+        // the column names line and the EWEIGHT line
+        String colLine = null;
+        int numHeaderLines = 0;
+        final long dataStart;
+
+        final ByteLineReader lr = new ByteLineReader(new FileInputStream(file));
+        try {
+            while (numHeaderLines < 2 && lr.next()) {
+                final String currLine = lr.getLine(cs).trim();
+                if (currLine.length() == 0) {
+                    continue;
+                }
+
+                if (currLine.startsWith(Constants.COMMENT_CHAR)) {
+                    return null;
+                }
+
+                if (numHeaderLines == 0) {
+                    colLine = currLine;
+                }
+                numHeaderLines++;
+            }
+            dataStart = lr.getOffset();
+        } finally {
+            lr.close();
+        }
+
+        if (numHeaderLines != 2) {
+            return null;
+        }
+
+        final List colNames = ParseUtils.string2stringsList(colLine, "\t"); // spaces allowed in col names
+        final int expectedNCols = colNames.size();
+        if (expectedNCols < 3) {
+            return null;
+        }
+
+        colNames.remove(0); // get rid of UNIQUID field name
+        colNames.remove(0); // get rid of NAME field name
+        colNames.remove(0); // get rid of GWEIGHT field name
+
+        final ChunkedDataSection data = new ChunkedDataSection(file, dataStart, cs, true, numThreads);
+        try {
+            final int nfloatlines = data.countRows();
+            if (!data.getComments().isEmpty()) {
+                return null;
+            }
+
+            final int ncols = colNames.size();
+            final Matrix matrix = createMatrix(nfloatlines, ncols);
+            final String[] rowNames = new String[nfloatlines];
+            final String[] rowDescs = new String[nfloatlines];
+
+            final boolean ok = data.parseRows(new ChunkedDataSection.RowParserFactory() {
+                public ChunkedDataSection.RowParser createRowParser() {
+                    final TabRowDecoder decoder = new TabRowDecoder(3, ncols, cs);
+                    return new ChunkedDataSection.RowParser() {
+                        public boolean parse(final byte[] buf, final int start, final int end, final int row) {
+                            decoder.decode(buf, start, end);
+                            final String rowName = decoder.getLeading(0);
+                            final String desc = decoder.getLeading(1);
+                            if (!decoder.isClean() || rowName.length() == 0 || desc.length() == 0) {
+                                return false;
+                            }
+
+                            // the GWEIGHT, actually just a check
+                            try {
+                                if (Integer.parseInt(decoder.getLeading(2)) != 1) {
+                                    return false;
+                                }
+                            } catch (NumberFormatException e) {
+                                return false;
+                            }
+
+                            rowNames[row] = rowName;
+                            rowDescs[row] = desc;
+                            matrix.setRow(row, decoder.getValues());
+                            return true;
+                        }
+                    };
+                }
+            });
+
+            if (!ok) {
+                return null;
+            }
+
+            String name = new File(hackINeedFullPath).getName();
+
+            final List rowNamesList = new ArrayList(Arrays.asList(rowNames));
+            FeatureAnnot fann = new FeatureAnnot(name, rowNamesList, new ArrayList(Arrays.asList(rowDescs)));
+            fann.addComment(fComment.toString());
+
+            final SampleAnnot sann = new SampleAnnot(name, colNames);
+
+            Dataset ds = new DefaultDataset(name, matrix, rowNamesList, colNames, true, new Annot(fann, sann));
+            ds.addComment(fComment.toString());
+
+            doneImport();
+            return unmodlist(new PersistentObject[]{ds});
+        } finally {
+            data.close();
+        }
+    }
+
 }    // End StanfordDatasetFormatParser
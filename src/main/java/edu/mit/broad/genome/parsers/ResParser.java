@@ -9,7 +9,9 @@ import edu.mit.broad.genome.math.Vector;
 import edu.mit.broad.genome.objects.*;
 
 import java.io.*;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.StringTokenizer;
 
@@ -161,31 +163,13 @@ public class ResParser extends AbstractParser {
 
         currLineNum++;
 
-        ArrayList colArr = new ArrayList();
         char theDelim = '\t';
-        char[] tmpChar = new char[1];
-
         if (currLine.length() > 0) {
             theDelim = ParseUtils.getDelim(currLine);
-            tmpChar[0] = theDelim;
-
-            StringTokenizer st = new StringTokenizer(currLine, new String(tmpChar));
-
-            if (st.hasMoreTokens()) {
-                st.nextToken();                                    // Description
-            }
-
-            if (st.hasMoreTokens()) {
-                st.nextToken();                                    // Accession
-            }
-
-            while (st.hasMoreTokens()) {
-
-                // System.out.println(st.nextToken());
-                colArr.add(st.nextToken());
-            }
         }
 
+        ArrayList colArr = _parseColumnNames(currLine, theDelim);
+
         // 2nd header line, chip scaling factors or blank
         // <tab> CH1999021515AA <tab> <tab> CH1999021306AA/scale factor=0.9564 <tab> <tab>
         bin.readLine();
@@ -226,7 +210,7 @@ public class ResParser extends AbstractParser {
 
         // At this point, currLine should contain the first data line
         // data line: <row desc> <tab> <row name> <tab> <ex1> <tab> <call1> <tab> <ex2> <tab> <call2>
-        Matrix matrix = new Matrix(numRows, numCols);
+        Matrix matrix = createMatrix(numRows, numCols);
         APMMatrix apmMatrix = new APMMatrix(numRows, numCols);
         List rowNames = new ArrayList(numRows);
         List rowDescs = new ArrayList(numRows);
@@ -314,6 +298,258 @@ public class ResParser extends AbstractParser {
         return unmodlist(new PersistentObject[]{ds});
     } // End of method parse
 
+    /**
+     * Same dataset as parse(sourcepath, is) but the data lines of the file are parsed in chunks on several threads
+     * (see ChunkedDataSection) -- for big files.
+     *
+     * @param sourcepath
+     * @param file
+     * @param numThreads
+     * @return null if the file cannot be parsed this way: the charset is not ascii compatible, the number of rows
+     * line is missing, there are not as many rows as it says or a data row is bad. Then parse(sourcepath, is)
+     * gives the dataset or the error as usual
+     */
+    public List parseChunked(final String sourcepath, final File file, final int numThreads) throws Exception {
+        startImport(sourcepath);
+
+        final Charset cs = Charset.defaultCharset(); // @note as InputStreamReader(is)
+        if (!ByteLineReader.isAsciiCompatible(cs)) {
+            return null;
+        }
+
+        final ArrayList colArr;
+        final char theDelim;
+        final int numRows;
+        final long dataStart;
+
+        // the same header lines as parse, but anything unusual is left to it
+        final ByteLineReader lr = new ByteLineReader(new FileInputStream(file));
+        try {
+            if (!lr.next()) {
+                return null;
+            }
+
+            String currLine = lr.getLine(cs);
+            while (currLine.startsWith("#")) {
+                if (!lr.next()) {
+                    return null;
+                }
+                currLine = lr.getLine(cs);
+            }
+
+            if (currLine.length() == 0) {
+                return null;
+            }
+
+            theDelim = ParseUtils.getDelim(currLine);
+            if (theDelim == '\0' || theDelim == '\n') {
+                return null;
+            }
+
+            colArr = _parseColumnNames(currLine, theDelim);
+
+            // 2nd header line, chip scaling factors or blank, and then the number of rows
+            if (!lr.next() || !lr.next()) {
+                return null;
+            }
+
+            try {
+                numRows = Integer.parseInt(lr.getLine(cs).trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+
+            dataStart = lr.getOffset();
+        } finally {
+            lr.close();
+        }
+
+        final int numCols = colArr.size();
+        log.info("Found meg data as numRows:" + numRows + " numCols:" + numCols);
+
+        final ChunkedDataSection data = new ChunkedDataSection(file, dataStart, cs, false, numThreads);
+        try {
+            if (data.countRows() != numRows) {
+                return null;
+            }
+
+            final Matrix matrix = createMatrix(numRows, numCols);
+            final APMMatrix apmMatrix = new APMMatrix(numRows, numCols);
+            final String[] rowNames = new String[numRows];
+            final String[] rowDescs = new String[numRows];
+            final byte delim = (byte) theDelim;
+
+            final boolean ok = data.parseRows(new ChunkedDataSection.RowParserFactory() {
+                public ChunkedDataSection.RowParser createRowParser() {
+                    return new ResRowParser(delim, numCols, cs, matrix, apmMatrix, rowNames, rowDescs);
+                }
+            });
+
+            if (!ok) {
+                return null;
+            }
+
+            doneImport();
+
+            final List rowNamesList = new ArrayList(Arrays.asList(rowNames));
+            FeatureAnnot fann = new FeatureAnnot(sourcepath, rowNamesList, new ArrayList(Arrays.asList(rowDescs)));
+            fann.addComment(fComment.toString());
+
+            final List colNames = new ArrayList(colArr);
+            final SampleAnnot sann = new SampleAnnot(sourcepath, colNames);
+
+            final Dataset ds = new DefaultDataset(sourcepath, matrix, rowNamesList, colNames, true, new Annot(fann, sann), apmMatrix);
+            ds.addComment(fComment.toString());
+
+            System.out.println(">>>>> DONE PARSING: " + apmMatrix.getQuickInfo());
+
+            return unmodlist(new PersistentObject[]{ds});
+        } finally {
+            data.close();
+        }
+    }
+
+    /**
+     * A data line as parse reads it: desc, name and then a value and a call for each column -- at the same
+     * delimiters (so extra fields are ignored) but from the raw bytes. Any line that parse would fail on is
+     * not parsed.
+     */
+    private static class ResRowParser implements ChunkedDataSection.RowParser {
+
+        private final byte fDelim;
+
+        private final int fNumCols;
+
+        private final Charset fCs;
+
+        private final Matrix fMatrix;
+
+        private final APMMatrix fApmMatrix;
+
+        private final String[] fRowNames;
+
+        private final String[] fRowDescs;
+
+        private final float[] fFloats;
+
+        private final float[] fCalls;
+
+        // the call of each ascii char, NaN if not a call
+        private final float[] fCallOfChar;
+
+        private final boolean[] fIsCall;
+
+        ResRowParser(final byte delim, final int numCols, final Charset cs, final Matrix matrix,
+                     final APMMatrix apmMatrix, final String[] rowNames, final String[] rowDescs) {
+            this.fDelim = delim;
+            this.fNumCols = numCols;
+            this.fCs = cs;
+            this.fMatrix = matrix;
+            this.fApmMatrix = apmMatrix;
+            this.fRowNames = rowNames;
+            this.fRowDescs = rowDescs;
+            this.fFloats = new float[numCols];
+            this.fCalls = new float[numCols];
+            this.fCallOfChar = new float[128];
+            this.fIsCall = new boolean[128];
+            for (int c = 0; c < 128; c++) {
+                try {
+                    fCallOfChar[c] = APMMatrix.valueOf(String.valueOf((char) c));
+                    fIsCall[c] = true;
+                } catch (IllegalArgumentException e) {
+                    fCallOfChar[c] = Float.NaN;
+                }
+            }
+        }
+
+        public boolean parse(final byte[] buf, final int start, final int end, final int row) {
+            int ind1 = _indexOf(buf, start, end);
+            if (ind1 < 0) {
+                return false;
+            }
+
+            int ind2 = _indexOf(buf, ind1 + 1, end);
+            if (ind2 < 0) {
+                return false;
+            }
+
+            final String desc = new String(buf, start, ind1 - start, fCs);
+            final String name = new String(buf, ind1 + 1, ind2 - ind1 - 1, fCs);
+
+            ind1 = ind2;
+            for (int i = 0; i < fNumCols; ++i) {
+                if (ind1 < 0) { // @note parse would look for the value from the start of the line
+                    return false;
+                }
+
+                ind2 = _indexOf(buf, ind1 + 1, end);
+                if (ind2 < 0) {
+                    return false;
+                }
+
+                try {
+                    fFloats[i] = ParseUtils.parseFloat(buf, ind1 + 1, ind2, fCs);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+
+                // call (absent, present, etc.) -- the char after the value
+                if (ind2 + 1 >= end) {
+                    return false;
+                }
+
+                final int c = buf[ind2 + 1];
+                if (c < 0 || !fIsCall[c]) {
+                    return false;
+                }
+
+                fCalls[i] = fCallOfChar[c];
+                ind1 = _indexOf(buf, ind2 + 1, end);
+            }
+
+            fMatrix.setRow(row, fFloats);
+            fApmMatrix.setRow(row, fCalls);
+            fRowNames[row] = name;
+            fRowDescs[row] = desc;
+            return true;
+        }
+
+        private int _indexOf(final byte[] buf, final int from, final int end) {
+            for (int i = from; i < end; i++) {
+                if (buf[i] == fDelim) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+    } // End class ResRowParser
+
+    // the column names: all fields of the line but the first two (Description and Accession)
+    private static ArrayList _parseColumnNames(final String currLine, final char theDelim) {
+        final ArrayList colArr = new ArrayList();
+        if (currLine.length() == 0) {
+            return colArr;
+        }
+
+        StringTokenizer st = new StringTokenizer(currLine, String.valueOf(theDelim));
+
+        if (st.hasMoreTokens()) {
+            st.nextToken();                                    // Description
+        }
+
+        if (st.hasMoreTokens()) {
+            st.nextToken();                                    // Accession
+        }
+
+        while (st.hasMoreTokens()) {
+            colArr.add(st.nextToken());
+        }
+
+        return colArr;
+    }
+
     private void checkIndex(int ind, int lineNum) throws ParserException {
 
         if (ind < 0) {
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.parsers;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Splits a tab delimited data line of a dataset (a few leading text fields, such as name and desc, followed by
+ * the values) into its fields just as string2stringsV2(line, numLeading + numValues) does -- but from the raw
+ * bytes of the line and into a reused row of floats.
+ * <p/>
+ * Nothing is checked here: the parser looks at the fields, the number of non-empty extra fields and the
+ * bad value (if any) in the order that its String based parsing checks them.
+ * <p/>
+ * Not thread safe -- one per thread.
+ *
+ * @author Aravind Subramanian
+ * @see AbstractParser#string2stringsV2
+ */
+class TabRowDecoder {
+
+    private final int fNumLeading;
+
+    private final int fNumValues;
+
+    private final Charset fCs;
+
+    private final String[] fLeading;
+
+    private final float[] fVals;
+
+    private int fNumNonEmptyExtras;
+
+    private String fBadValue;
+
+    private NumberFormatException fBadValueError;
+
+    /**
+     * Class constructor
+     *
+     * @param numLeading number of text fields before the values
+     * @param numValues
+     * @param cs         of the bytes, must be ascii compatible
+     */
+    TabRowDecoder(final int numLeading, final int numValues, final Charset cs) {
+        this.fNumLeading = numLeading;
+        this.fNumValues = numValues;
+        this.fCs = cs;
+        this.fLeading = new String[numLeading];
+        this.fVals = new float[numValues];
+    }
+
+    /**
+     * Decodes the line in buf from start to end (not empty)
+     */
+    void decode(final byte[] buf, final int start, int end) {
+        final int expectedLen = fNumLeading + fNumValues;
+
+        // @note string2stringsV2 drops the (empty) field after a trailing tab
+        if (buf[end - 1] == '\t') {
+            end--;
+        }
+
+        Arrays.fill(fLeading, ""); // missing fields are empty
+        Arrays.fill(fVals, Float.NaN);
+        fNumNonEmptyExtras = 0;
+        fBadValue = null;
+        fBadValueError = null;
+
+        int field = 0;
+        int fs = start;
+        while (true) {
+            int fe = fs;
+            while (fe < end && buf[fe] != '\t') {
+                fe++;
+            }
+
+            // trim as String.trim
+            int a = fs;
+            int b = fe;
+            while (a < b && (buf[a] & 0xff) <= ' ') {
+                a++;
+            }
+            while (b > a && (buf[b - 1] & 0xff) <= ' ') {
+                b--;
+            }
+
+            if (field < fNumLeading) {
+                fLeading[field] = new String(buf, a, b - a, fCs);
+            } else if (field < expectedLen) {
+                if (a < b && fBadValueError == null) {
+                    try {
+                        fVals[field - fNumLeading] = ParseUtils.parseFloat(buf, a, b, fCs);
+                    } catch (NumberFormatException e) {
+                        fBadValueError = e;
+                        fBadValue = new String(buf, a, b - a, fCs);
+                    }
+                }
+            } else if (a < b) {
+                fNumNonEmptyExtras++;
+            }
+
+            field++;
+            if (fe >= end) {
+                break;
+            }
+            fs = fe + 1;
+        }
+    }
+
+    /**
+     * @return true if the line had no extra fields and no bad value
+     */
+    boolean isClean() {
+        return fNumNonEmptyExtras == 0 && fBadValueError == null;
+    }
+
+    /**
+     * @param i
+     * @return the i'th leading field, trimmed ("" if missing)
+     */
+    String getLeading(final int i) {
+        return fLeading[i];
+    }
+
+    /**
+     * @return the values (NaN where empty). IMP: reused for the next line
+     */
+    float[] getValues() {
+        return fVals;
+    }
+
+    /**
+     * @return number of non-empty fields after the expected ones
+     */
+    int getNumNonEmptyExtras() {
+        return fNumNonEmptyExtras;
+    }
+
+    /**
+     * @return the first value that is not a float (or null)
+     */
+    String getBadValue() {
+        return fBadValue;
+    }
+
+    /**
+     * @return the error of the first value that is not a float (or null)
+     */
+    NumberFormatException getBadValueError() {
+        return fBadValueError;
+    }
+
+} // End class TabRowDecoder
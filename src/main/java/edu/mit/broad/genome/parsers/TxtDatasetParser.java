@@ -9,7 +9,9 @@ import edu.mit.broad.genome.math.Matrix;
 import edu.mit.broad.genome.objects.*;
 
 import java.io.*;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -97,16 +99,7 @@ public class TxtDatasetParser extends AbstractParser {
 
         colnames.remove(0);                                 // first elem is always nonsense
 
-        boolean hasDesc = false;
-        if (colnames.get(0).toString().equalsIgnoreCase(Constants.DESCRIPTION)
-                ||
-                colnames.get(0).toString().equalsIgnoreCase("DESC")
-                ) {
-            colnames.remove(0);
-            hasDesc = true;
-        }
-
-        log.debug("HAS DESC: " + hasDesc);
+        final boolean hasDesc = _removeDesc(colnames);
 
         // At this point, currLine should contain the first data line
         // data line: <row name> <tab> <ex1> <tab> <ex2> <tab>
@@ -130,11 +123,119 @@ public class TxtDatasetParser extends AbstractParser {
         return _parseNoDesc(objName, lines, colnames);
     }
 
+    /**
+     * Same dataset as parse(sourcepath, is) but the data lines of the file are parsed in chunks on several threads
+     * (see ChunkedDataSection) -- for big files.
+     *
+     * @param sourcepath
+     * @param file
+     * @param numThreads
+     * @return null if the file cannot be parsed this way: the charset is not ascii compatible or a data row is bad.
+     * Then parse(sourcepath, is) gives the dataset or the error as usual
+     * @throws Exception on errors in the header (the same as parse(sourcepath, is))
+     */
+    public List parseChunked(final String sourcepath, final File file, final int numThreads) throws Exception {
+        startImport(sourcepath);
+
+        final Charset cs = Charset.defaultCharset(); // @note as InputStreamReader(is)
+        if (!ByteLineReader.isAsciiCompatible(cs)) {
+            return null;
+        }
+
+        final String objName = NamingConventions.removeExtension(sourcepath);
+        final List colNames;
+        final boolean hasDesc;
+        final long dataStart;
+
+        final ByteLineReader lr = new ByteLineReader(new FileInputStream(file));
+        try {
+            String currLine = nextLine(lr, cs);
+            colNames = ParseUtils.string2stringsList(currLine, "\t"); // colnames can have spaces
+            colNames.remove(0);                                 // first elem is always nonsense
+            hasDesc = _removeDesc(colNames);
+            dataStart = lr.getOffset();
+        } finally {
+            lr.close();
+        }
+
+        final ChunkedDataSection data = new ChunkedDataSection(file, dataStart, cs, true, numThreads);
+        try {
+            final int nrows = data.countRows();
+            final int ncols = colNames.size();
+            final Matrix matrix = createMatrix(nrows, ncols);
+            final String[] rowNames = new String[nrows];
+            final String[] rowDescs = new String[nrows];
+
+            final boolean ok = data.parseRows(new ChunkedDataSection.RowParserFactory() {
+                public ChunkedDataSection.RowParser createRowParser() {
+                    final TabRowDecoder decoder = new TabRowDecoder(hasDesc ? 2 : 1, ncols, cs);
+                    return new ChunkedDataSection.RowParser() {
+                        public boolean parse(final byte[] buf, final int start, final int end, final int row) {
+                            decoder.decode(buf, start, end);
+                            final String rowname = decoder.getLeading(0);
+                            if (!decoder.isClean() || rowname.length() == 0) {
+                                return false;
+                            }
+
+                            String desc = hasDesc ? decoder.getLeading(1) : Constants.NA;
+                            if (desc.length() == 0) {
+                                desc = Constants.NA;
+                            }
+
+                            rowNames[row] = rowname;
+                            rowDescs[row] = desc;
+                            matrix.setRow(row, decoder.getValues());
+                            return true;
+                        }
+                    };
+                }
+            });
+
+            if (!ok) {
+                fComment.clear();
+                return null;
+            }
+
+            final List comments = data.getComments();
+            for (int i = 0; i < comments.size(); i++) {
+                fComment.add(comments.get(i).toString());
+            }
+
+            final List rowNamesList = new ArrayList(Arrays.asList(rowNames));
+            final FeatureAnnot ann = new FeatureAnnot(objName, rowNamesList, new ArrayList(Arrays.asList(rowDescs)));
+            ann.addComment(fComment.toString());
+            final SampleAnnot sann = new SampleAnnot(objName, colNames);
+
+            final Dataset ds = new DefaultDataset(objName, matrix, rowNamesList, colNames, true, new Annot(ann, sann));
+            ds.addComment(fComment.toString());
+            doneImport();
+            return unmodlist(new PersistentObject[]{ds});
+        } finally {
+            data.close();
+        }
+    }
+
+    // if the first col is the description drop it
+    private boolean _removeDesc(final List colnames) {
+        boolean hasDesc = false;
+        if (colnames.get(0).toString().equalsIgnoreCase(Constants.DESCRIPTION)
+                ||
+                colnames.get(0).toString().equalsIgnoreCase("DESC")
+                ) {
+            colnames.remove(0);
+            hasDesc = true;
+        }
+
+        log.debug("HAS DESC: " + hasDesc);
+        return hasDesc;
+    }
+
     private List _parseNoDesc(String objName, List lines, List colNames) throws Exception {
         objName = NamingConventions.removeExtension(objName);
-        Matrix matrix = new Matrix(lines.size(), colNames.size());
+        Matrix matrix = createMatrix(lines.size(), colNames.size());
         List rowNames = new ArrayList();
         List rowDescs = new ArrayList();
+        final float[] rowValues = new float[colNames.size()];
 
         for (int i = 0; i < lines.size(); i++) {
             String currLine = (String) lines.get(i);
@@ -172,8 +273,9 @@ public class TxtDatasetParser extends AbstractParser {
                         throw e;
                     }
                 }
-                matrix.setElement(i, coln++, val);
+                rowValues[coln++] = val;
             }
+            matrix.setRow(i, rowValues);
         }
 
         final FeatureAnnot ann = new FeatureAnnot(objName, rowNames, rowDescs);
@@ -188,9 +290,10 @@ public class TxtDatasetParser extends AbstractParser {
 
     private List _parseHasDesc(String objName, List lines, List colNames) throws Exception {
         objName = NamingConventions.removeExtension(objName);
-        Matrix matrix = new Matrix(lines.size(), colNames.size());
+        Matrix matrix = createMatrix(lines.size(), colNames.size());
         List rowNames = new ArrayList();
         List rowDescs = new ArrayList();
+        final float[] rowValues = new float[colNames.size()];
 
         for (int i = 0; i < lines.size(); i++) {
             String currLine = (String) lines.get(i);
@@ -232,8 +335,9 @@ public class TxtDatasetParser extends AbstractParser {
                         throw e;
                     }
                 }
-                matrix.setElement(i, coln++, val);
+                rowValues[coln++] = val;
             }
+            matrix.setRow(i, rowValues);
         }
 
         final FeatureAnnot ann = new FeatureAnnot(objName, rowNames, rowDescs);
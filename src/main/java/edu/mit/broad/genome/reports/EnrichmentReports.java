@@ -164,7 +164,9 @@ public class EnrichmentReports extends ChartHelper {
             final boolean createGcts,
             final GeneSet[] origGeneSets_opt,
             final String metricName,
-            final String normModeName) {
+            final String normModeName,
+            final boolean npTail,
+            final int numThreads) {
 
         FeatureAnnot fann = null;
         if (edb_original.getDataset() != null && edb_original.getDataset().getAnnot() != null) {
@@ -173,7 +175,7 @@ public class EnrichmentReports extends ChartHelper {
 
         return createGseaLikeReport(edb_original, out, cd, reportIndexPage, _createSubDir(edb_original, report, makeSubDir), report,
                 topXSets, minSize, maxSize,
-                makeGeneSetsReport, makeZippedFile, createSvgs, createGcts, origGeneSets_opt, metricName, normModeName, fann, null, null, null);
+                makeGeneSetsReport, makeZippedFile, createSvgs, createGcts, origGeneSets_opt, metricName, normModeName, npTail, numThreads, fann, null, null, null);
     }
 
     public static Ret createGseaLikeReport(
@@ -192,12 +194,14 @@ public class EnrichmentReports extends ChartHelper {
             final GeneSet[] origGeneSets_opt,
             final String metricName,
             final String normModeName,
+            final boolean npTail,
+            final int numThreads,
             final FeatureAnnot fann_opt) {
 
         // Note we never create GCTs for this call; this corresponds to Preranked, which has no heatmaps in the report.
         return createGseaLikeReport(edb_original, out, cd, reportIndexPage, _createSubDir(edb_original, report, makeSubDir), report,
                 topXSets, minSize, maxSize,
-                makeGeneSetsReport, makeZippedFile, createSvgs, false, origGeneSets_opt, metricName, normModeName, fann_opt, null, null, null);
+                makeGeneSetsReport, makeZippedFile, createSvgs, false, origGeneSets_opt, metricName, normModeName, npTail, numThreads, fann_opt, null, null, null);
     }
 
     private static String _createPhenotypeName(EnrichmentDb edb) {
@@ -252,6 +256,8 @@ public class EnrichmentReports extends ChartHelper {
             final GeneSet[] origGeneSets_opt,
             final String metricName,
             final String normModeName,
+            final boolean npTail,
+            final int numThreads,
             final FeatureAnnot fann_opt,
             String phenotypeName_opt,
             String classA_name_opt,
@@ -280,7 +286,7 @@ public class EnrichmentReports extends ChartHelper {
             classB_name_opt = classNames[1];
         }
 
-        final PValueCalculator pvc = new PValueCalculatorImpls.GseaImpl(normModeName);
+        final PValueCalculator pvc = new PValueCalculatorImpls.GseaImpl(normModeName, numThreads, npTail);
         final EnrichmentResult[] results = pvc.calcNPValuesAndFDR(edb_original.getResults());
         final EnrichmentDb edb = edb_original.cloneDeep(results);
 
@@ -558,6 +564,13 @@ public class EnrichmentReports extends ChartHelper {
         if (createSvgs) {
             ul.addElement(new LI(HtmlFormat.Links.hyper("Global ES", global_es_histogram_svg_file, "histogram (in compressed SVG format)", saveInThisDir)));
         }
+
+        final StringDataframe npTailsSdf = createNPTailTable(name, edb.getResults());
+        if (npTailsSdf != null) {
+            final File npTailsFile = report.savePageXls(npTailsSdf, "np_tail_fits_" + report.getTimestamp(), saveInThisDir);
+            ul.addElement(new LI(HtmlFormat.Links.hyper("Nominal p-value", "tail fits", npTailsFile,
+                    "(generalized pareto) with goodness of fit, for gene sets beyond the permutation floor", saveInThisDir)));
+        }
         div.addElement(ul);
         reportIndexPage.addBlock(div, false);
 
@@ -614,7 +627,26 @@ public class EnrichmentReports extends ChartHelper {
 
         final String[] gsetNames = new String[results.length];
         final TIntObjectHashMap cell_id_linkMap = new TIntObjectHashMap();
-        final StringMatrix sm = new StringMatrix(gsetNames.length, BASIC_COL_NAMES.length);
+
+        // @note with adaptive permutations the nominal p of a set may come from more than nperm perms -- show how many
+        // and with multilevel p-values the error of each
+        boolean anyExtraPerms = false;
+        boolean anyNPLog2Errs = false;
+        for (int r = 0; r < results.length; r++) {
+            anyExtraPerms |= results[r].getEffectiveNumPerms() != results[r].getNumPerms();
+            anyNPLog2Errs |= !Float.isNaN(results[r].getNPLog2Err());
+        }
+
+        final List<String> colNamesList = new ArrayList<String>(Arrays.asList(BASIC_COL_NAMES));
+        if (anyExtraPerms) {
+            colNamesList.add("NPERM");
+        }
+        if (anyNPLog2Errs) {
+            colNamesList.add("NOM p-val log2err");
+        }
+        final String[] colNames = colNamesList.toArray(new String[colNamesList.size()]);
+
+        final StringMatrix sm = new StringMatrix(gsetNames.length, colNames.length);
 
         // for the bg shading of the hit plot -- just needs to be made once for all sets on this rl
         final IntervalMarker[] markers = _markers(rl);
@@ -668,7 +700,13 @@ public class EnrichmentReports extends ChartHelper {
             sm.setElement(r, coln++, result.getScore().getFDR());
             sm.setElement(r, coln++, result.getScore().getFWER());
             sm.setElement(r, coln++, result.getSignal().getRankAtMax());
-            sm.setElement(r, coln, getLeadingEdge(result));
+            sm.setElement(r, coln++, getLeadingEdge(result));
+            if (anyExtraPerms) {
+                sm.setElement(r, coln++, result.getEffectiveNumPerms());
+            }
+            if (anyNPLog2Errs) {
+                sm.setElement(r, coln, Float.isNaN(result.getNPLog2Err()) ? "" : Float.toString(result.getNPLog2Err()));
+            }
 
             if (htmlPage != null) {
                 cell_id_linkMap.put(sm.getElementPos(r, 0), LinkedFactory.createLinkedGeneSet(result.getGeneSet()));
@@ -676,7 +714,7 @@ public class EnrichmentReports extends ChartHelper {
             }
         }
 
-        StringDataframe sdf = new StringDataframe(dsName + "_basic", sm, gsetNames, BASIC_COL_NAMES, true);
+        StringDataframe sdf = new StringDataframe(dsName + "_basic", sm, gsetNames, colNames, true);
         TIntIntHashMap colPrecision = new TIntIntHashMap();
         // TODO: evaluate these settings for report precision consistency
         colPrecision.put(COL_ES, 2);
@@ -692,6 +730,102 @@ public class EnrichmentReports extends ChartHelper {
         return struc;
     }
 
+    private static final String[] NP_TAIL_COL_NAMES = new String[]{"NAME", "ES", "NOM p-val", "NULL SIZE", "EXCEEDANCES",
+            "THRESHOLD", "SHAPE", "SCALE", "AD STAT", "AD p-val", "FIT"};
+
+    /**
+     * @param name
+     * @param results
+     * @return one row for every result whose nominal p had a tail fit tried -- null if none did
+     */
+    public static StringDataframe createNPTailTable(final String name, final EnrichmentResult[] results) {
+        final List<EnrichmentResult> tailed = new ArrayList<EnrichmentResult>();
+        for (int r = 0; r < results.length; r++) {
+            if (results[r].getNPTail() != null) {
+                tailed.add(results[r]);
+            }
+        }
+
+        if (tailed.isEmpty()) {
+            return null;
+        }
+
+        final String[] rowNames = new String[tailed.size()];
+        final StringMatrix sm = new StringMatrix(rowNames.length, NP_TAIL_COL_NAMES.length);
+        for (int r = 0; r < rowNames.length; r++) {
+            final EnrichmentResult result = tailed.get(r);
+            final GpdTail tail = result.getNPTail();
+            rowNames[r] = result.getGeneSetName();
+            int coln = 0;
+            sm.setElement(r, coln++, rowNames[r]);
+            sm.setElement(r, coln++, result.getScore().getES());
+            sm.setElement(r, coln++, result.getScore().getNP());
+            sm.setElement(r, coln++, tail.getNumNull());
+            sm.setElement(r, coln++, tail.getNumExceedances());
+            sm.setElement(r, coln++, (float) tail.getThreshold());
+            sm.setElement(r, coln++, (float) tail.getShape());
+            sm.setElement(r, coln++, (float) tail.getScale());
+            sm.setElement(r, coln++, (float) tail.getAdStat());
+            sm.setElement(r, coln++, (float) tail.getAdPValue());
+            if (!tail.isAccepted()) {
+                sm.setElement(r, coln, "REJECTED (permutation p used)");
+            } else if (tail.isPastEnd()) {
+                sm.setElement(r, coln, "ACCEPTED (past the end of the fit: exponential tail used)");
+            } else {
+                sm.setElement(r, coln, "ACCEPTED");
+            }
+        }
+
+        return new StringDataframe(name + "_np_tails", sm, rowNames, NP_TAIL_COL_NAMES, true);
+    }
+
+    private static final String[] PHENOTYPES_COL_NAMES = new String[]{"GENE SETS",
+            "UP", "UP FDR < 25%", "UP NOM p < 1%", "UP NOM p < 5%",
+            "DOWN", "DOWN FDR < 25%", "DOWN NOM p < 1%", "DOWN NOM p < 5%"};
+
+    /**
+     * @param edb the (fdr'ed) results of a phenotype
+     * @return its row of the phenotypes summary table: the counts of its significant gene sets
+     *         -- so that the edb need not be kept until the table is made
+     */
+    public static int[] createPhenotypesSummaryCounts(final EnrichmentDb edb) {
+        final int[] counts = new int[PHENOTYPES_COL_NAMES.length];
+        int coln = 0;
+        counts[coln++] = edb.getNumResults();
+        for (int p = 0; p < 2; p++) {
+            final boolean pos = p == 0;
+            counts[coln++] = edb.getNumScores(pos);
+            counts[coln++] = edb.getNumFDRSig(0.25f, pos);
+            counts[coln++] = edb.getNumNominallySig(0.01f, pos);
+            counts[coln++] = edb.getNumNominallySig(0.05f, pos);
+        }
+
+        return counts;
+    }
+
+    /**
+     * @param name
+     * @param phenotypeNames names of the phenotypes -- as in their report sub dirs
+     * @param counts         the counts of the phenotypes (see createPhenotypesSummaryCounts), in the same order
+     * @return one row per phenotype with the counts of its significant gene sets
+     */
+    public static StringDataframe createPhenotypesSummaryTable(final String name,
+                                                               final String[] phenotypeNames,
+                                                               final int[][] counts) {
+        if (phenotypeNames.length != counts.length) {
+            throw new IllegalArgumentException("Mismatched phenotypes: " + phenotypeNames.length + " and counts: " + counts.length);
+        }
+
+        final StringMatrix sm = new StringMatrix(counts.length, PHENOTYPES_COL_NAMES.length);
+        for (int r = 0; r < counts.length; r++) {
+            for (int c = 0; c < PHENOTYPES_COL_NAMES.length; c++) {
+                sm.setElement(r, c, counts[r][c]);
+            }
+        }
+
+        return new StringDataframe(name, sm, phenotypeNames, PHENOTYPES_COL_NAMES, true);
+    }
+
     public static HtmlPage createSnapshotPage(final boolean pos, final EnrichmentReport[] reports) {
 
         Table table = new Table();
@@ -16,6 +16,7 @@ import org.genepattern.io.ImageUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Inner class to capture a picture and its file
@@ -60,14 +61,15 @@ public class PicFile {
         init(saveInDir, srcName, name, title, caption, 0, 0, currPicCnt, createSvgs);
     }
 
-    private static int kImageCounter = 1;
+    // @note shared by reports made at the same time on several threads
+    private static final AtomicInteger kImageCounter = new AtomicInteger(1);
 
     public static String generateName(final XChart xchart) {
-        return createSafeFileName(xchart.getName()) + "_" + kImageCounter++;
+        return createSafeFileName(xchart.getName()) + "_" + kImageCounter.getAndIncrement();
     }
 
     public static String generateNameForImage(final String title) {
-        return createSafeFileName(title) + "_" + kImageCounter++;
+        return createSafeFileName(title) + "_" + kImageCounter.getAndIncrement();
     }
 
     public static String createSafeFileName(String name) {
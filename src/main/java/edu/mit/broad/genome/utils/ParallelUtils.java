@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.utils;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs blocks of independent work on a fixed number of threads.
+ * <p/>
+ * With 1 thread everything runs inline on the calling thread (in order).
+ *
+ * @author Aravind Subramanian
+ */
+public class ParallelUtils {
+
+    // a few blocks per thread so that uneven blocks still keep all threads busy
+    private static final int NUM_BLOCKS_PER_THREAD = 4;
+
+    /**
+     * Privatized class constructor
+     */
+    private ParallelUtils() {
+    }
+
+    /**
+     * @return the number of threads to use when none is specified
+     */
+    public static int getDefaultNumThreads() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @param numTasks
+     * @param numThreads
+     * @return number of tasks to put in one block
+     */
+    public static int calcBlockSize(final int numTasks, final int numThreads) {
+        if (numThreads <= 1) {
+            return Math.max(numTasks, 1);
+        }
+
+        return Math.max(numTasks / (numThreads * NUM_BLOCKS_PER_THREAD), 1);
+    }
+
+    /**
+     * Runs all the blocks and waits for them to finish.
+     * The first failure is rethrown (unwrapped if it was a RuntimeException or Error)
+     *
+     * @param blocks
+     * @param numThreads
+     */
+    public static void runAll(final List<Callable<Object>> blocks, final int numThreads) {
+        try {
+            if (numThreads <= 1 || blocks.size() <= 1) {
+                for (int i = 0; i < blocks.size(); i++) {
+                    blocks.get(i).call();
+                }
+                return;
+            }
+
+            final ForkJoinPool pool = new ForkJoinPool(numThreads);
+            try {
+                final List<Future<Object>> futures = pool.invokeAll(blocks);
+                for (int i = 0; i < futures.size(); i++) {
+                    futures.get(i).get();
+                }
+            } finally {
+                pool.shutdown();
+            }
+
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+} // End class ParallelUtils
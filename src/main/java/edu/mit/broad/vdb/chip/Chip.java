@@ -34,14 +34,14 @@ public class Chip extends AbstractObject {
      * key -> Probe name (String), Value -> Probe object
      * Lazily inited
      */
-    private Map<String, Probe> fProbeNameProbeMap;
-    private boolean fDeepDataInited = false;
+    private volatile Map<String, Probe> fProbeNameProbeMap;
+    private volatile boolean fDeepDataInited = false;
     
     /**
      * key -> symbol, value -> Set of probe names
      * Lazy inited
      */
-    private Map<String, Set<String>> fSymbolProbeNameSetMap;
+    private volatile Map<String, Set<String>> fSymbolProbeNameSetMap;
     private String fSourcePath;
 
     public Chip(final String chipName, final String sourcePath) {
@@ -156,20 +156,28 @@ public class Chip extends AbstractObject {
         this.fSourcePath = sourcePath;
     }
 
+    // @note the lazy inits are safe from several threads: each is done once (under the lock) and the maps
+    // are only published once filled
     private void readDeepData() throws Exception {
         if (fDeepDataInited) {
             return;
         }
-        
-        // Path based lazy reading
-        try {
-            Chip chip = ParserFactory.readChip(fSourcePath);
-            initHere(chip.getName(), fSourcePath, chip.fProbes); // this is the magix
-        } catch (Throwable t) {
-            t.printStackTrace();
-            throw new Exception(t);
-        } finally {
-            this.fDeepDataInited = true; // Needed otherwise endless loop
+
+        synchronized (this) {
+            if (fDeepDataInited) {
+                return;
+            }
+
+            // Path based lazy reading
+            try {
+                Chip chip = ParserFactory.readChip(fSourcePath);
+                initHere(chip.getName(), fSourcePath, chip.fProbes); // this is the magix
+            } catch (Throwable t) {
+                t.printStackTrace();
+                throw new Exception(t);
+            } finally {
+                this.fDeepDataInited = true; // Needed otherwise endless loop
+            }
         }
     }
 
@@ -198,11 +206,18 @@ public class Chip extends AbstractObject {
 
     private void initProbeProbeMap() throws Exception {
     
-        if (this.fProbeNameProbeMap == null) {
-            readDeepData();
-            this.fProbeNameProbeMap = new HashMap<String, Probe>();
-            for (int i = 0; i < fProbes.length; i++) {
-                fProbeNameProbeMap.put(fProbes[i].getName(), fProbes[i]);
+        if (this.fProbeNameProbeMap != null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (this.fProbeNameProbeMap == null) {
+                readDeepData();
+                final Map<String, Probe> map = new HashMap<String, Probe>();
+                for (int i = 0; i < fProbes.length; i++) {
+                    map.put(fProbes[i].getName(), fProbes[i]);
+                }
+                this.fProbeNameProbeMap = map;
             }
         }
     }
@@ -253,20 +268,27 @@ public class Chip extends AbstractObject {
     }
 
     private void initSymbolMap() throws Exception {
-        if (fSymbolProbeNameSetMap == null) {
-            readDeepData();
-            this.fSymbolProbeNameSetMap = new HashMap<String, Set<String>>();
-            for (int i = 0; i < fProbes.length; i++) {
-                Gene gene = fProbes[i].getGene();
-                if (gene != null) {
-                    String symbol = gene.getSymbol();
-                    Set<String> curr = fSymbolProbeNameSetMap.get(symbol);
-                    if (curr == null) {
-                        curr = new HashSet<String>();
+        if (fSymbolProbeNameSetMap != null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (fSymbolProbeNameSetMap == null) {
+                readDeepData();
+                final Map<String, Set<String>> map = new HashMap<String, Set<String>>();
+                for (int i = 0; i < fProbes.length; i++) {
+                    Gene gene = fProbes[i].getGene();
+                    if (gene != null) {
+                        String symbol = gene.getSymbol();
+                        Set<String> curr = map.get(symbol);
+                        if (curr == null) {
+                            curr = new HashSet<String>();
+                        }
+                        curr.add(fProbes[i].getName());
+                        map.put(symbol, curr);
                     }
-                    curr.add(fProbes[i].getName());
-                    this.fSymbolProbeNameSetMap.put(symbol, curr);
                 }
+                this.fSymbolProbeNameSetMap = map;
             }
         }
     
@@ -55,7 +55,7 @@ public class LeadingEdgeAnalysis {
     public static EnrichmentResult[] getAllResultsFromEdb(EnrichmentDb edb_original) {
         String normModeName = "meandiv"; // hard coded
         final PValueCalculator pvc = new PValueCalculatorImpls.GseaImpl(
-                normModeName);
+                normModeName, 1);
         final EnrichmentResult[] results = pvc
                 .calcNPValuesAndFDR(edb_original.getResults());
         final EnrichmentDb edb = edb_original.cloneDeep(results);
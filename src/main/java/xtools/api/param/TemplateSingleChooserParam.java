@@ -48,7 +48,19 @@ public class TemplateSingleChooserParam extends StringMultiChooserParam implemen
     }
 
     public Template getTemplate() throws Exception {
-        return _getTemplates(null)[0];
+        return _getTemplates(null, false)[0];
+    }
+
+    /**
+     * Several phenotypes can be specified comma separated (e.g a.cls#A_versus_B,C_versus_D) and the phenotypes
+     * of a cls can be split with one of the words: ALL_PAIRS, OVA (one versus all, both ways), FOVA (one versus
+     * all, forward only) or ALL_PHENOTYPES (every phenotype of a continuous cls) e.g a.cls#ALL_PAIRS
+     *
+     * @return all the specified phenotypes
+     * @throws Exception
+     */
+    public Template[] getTemplates() throws Exception {
+        return _getTemplates(null, true);
     }
 
     public boolean isFileBased() {
@@ -101,7 +113,7 @@ public class TemplateSingleChooserParam extends StringMultiChooserParam implemen
         }
     }
 
-    protected Template[] _getTemplates(Dataset dsOptX) throws Exception {
+    protected Template[] _getTemplates(Dataset dsOptX, final boolean allowMultiple) throws Exception {
     
         String[] ss = getStrings();
         Printf.out(ss);
@@ -117,36 +129,79 @@ public class TemplateSingleChooserParam extends StringMultiChooserParam implemen
     
         List templates = new ArrayList();
         Template currMainTemplate = null;
+        File currBaseFile = null; // @note the cls of the last path -- bare phenotype names after it are read from it
     
         for (int i = 0; i < ss.length; i++) {
-            if (!_isPath(ss[i])) { // either aux or an auto-splitter word, with just the auxname or with a fullpath
-                currMainTemplate = _getSourceTemplate(ss[i], currMainTemplate);
-                String auxname = AuxUtils.getAuxNameOnlyNoHash(ss[i]);
-                log.debug("parsing: " + ss[i] + "< and i got auxname>" + auxname + "<" + " currMaintemplate: " + currMainTemplate.getName());
-                //TODO: Simplify? Vestigal case from former MultiChooserParam 
-                if (auxname.equals(Constants.ONE_VERSUS_ALL)) {
+            final String auxname = AuxUtils.isAux(ss[i]) ? AuxUtils.getAuxNameOnlyNoHash(ss[i]) : null;
+            if (auxname != null && _isSplitter(auxname)) {
+                if (!allowMultiple) {
                     throw new IllegalArgumentException("Invalid Template option: " + auxname + " multiple templates not allowed in this usage");
-                } else if (auxname.equals(Constants.ONE_VERSUS_ALL_ONLY_FORWARD)) {
-                    throw new IllegalArgumentException("Invalid Template option: " + auxname + " multiple templates not allowed in this usage");
-                } else if (auxname.equals(Constants.ALL_PAIRS)) {
-                    throw new IllegalArgumentException("Invalid Template option: " + auxname + " multiple templates not allowed in this usage");
-                } else {
-                    File file = ParserFactory.getCache().getSourceFile(currMainTemplate);
-                    file = AuxUtils.getBaseFileFromAuxFile(file);
-                    Template t = ParserFactory.readTemplate(new File(file.getPath() + "#" + auxname));
-                    templates.add(t);
                 }
-    
+
+                final String basePath = AuxUtils.getBasePathFromAuxPath(ss[i]);
+                if (basePath.length() != 0) {
+                    currMainTemplate = _getSourceTemplate(basePath, currMainTemplate);
+                    currBaseFile = new File(basePath);
+                } else if (currMainTemplate == null) {
+                    throw new IllegalArgumentException("No cls file for: " + ss[i]);
+                }
+
+                final Template[] split = _split(auxname, currMainTemplate, currBaseFile);
+                for (int t = 0; t < split.length; t++) {
+                    templates.add(split[t]);
+                }
+
+            } else if (!_isPath(ss[i])) { // either aux or an auto-splitter word, with just the auxname or with a fullpath
+                currMainTemplate = _getSourceTemplate(ss[i], currMainTemplate);
+                log.debug("parsing: " + ss[i] + "< and i got auxname>" + auxname + "<" + " currMaintemplate: " + currMainTemplate.getName());
+                File file = currBaseFile != null ? currBaseFile : ParserFactory.getCache().getSourceFile(currMainTemplate);
+                file = AuxUtils.getBaseFileFromAuxFile(file);
+                Template t = ParserFactory.readTemplate(new File(file.getPath() + "#" + AuxUtils.getAuxNameOnlyNoHash(ss[i])));
+                templates.add(t);
+
             } else {//has to be a path
                 Template t = ParserFactory.readTemplate(new File(ss[i]), true, false, true); // @note imp to use cache for the templates from sample names
                 templates.add(t);
                 currMainTemplate = t;
+                currBaseFile = AuxUtils.getBaseFileFromAuxFile(new File(ss[i]));
             }
         }
     
         return (Template[]) templates.toArray(new Template[templates.size()]);
     }
 
+    private static boolean _isSplitter(final String auxname) {
+        return auxname.equals(Constants.ALL_PAIRS) || auxname.equals(Constants.ONE_VERSUS_ALL)
+                || auxname.equals(Constants.ONE_VERSUS_ALL_ONLY_FORWARD) || auxname.equals(Constants.ALL_PHENOTYPES);
+    }
+
+    private static Template[] _split(final String auxname, final Template mainTemplate, final File baseFile_opt) throws Exception {
+        if (auxname.equals(Constants.ALL_PAIRS)) {
+            return TemplateFactory.extractAllPairsTemplates(mainTemplate);
+        } else if (auxname.equals(Constants.ONE_VERSUS_ALL)) {
+            return TemplateFactory.extractAllOvaTemplates(mainTemplate, false);
+        } else if (auxname.equals(Constants.ONE_VERSUS_ALL_ONLY_FORWARD)) {
+            return TemplateFactory.extractAllOvaTemplates(mainTemplate, true);
+        }
+
+        // ALL_PHENOTYPES
+        if (!mainTemplate.isContinuous()) {
+            throw new IllegalArgumentException(Constants.ALL_PHENOTYPES + " is for continuous phenotypes -- use " + Constants.ALL_PAIRS
+                    + ", " + Constants.ONE_VERSUS_ALL + " or " + Constants.ONE_VERSUS_ALL_ONLY_FORWARD + " for: " + mainTemplate.getName());
+        }
+
+        final File file = AuxUtils.getBaseFileFromAuxFile(baseFile_opt != null ? baseFile_opt : ParserFactory.getCache().getSourceFile(mainTemplate));
+        final Template[] all = ParserFactory.readTemplates(file);
+        final List continuous = new ArrayList();
+        for (int t = 0; t < all.length; t++) {
+            if (all[t].isContinuous()) {
+                continuous.add(all[t]);
+            }
+        }
+
+        return (Template[]) continuous.toArray(new Template[continuous.size()]);
+    }
+
     private boolean _isPath(String pathOrName) {
         if (pathOrName.indexOf(File.separator) == -1) {
             return false;
@@ -11,6 +11,7 @@ import edu.mit.broad.genome.alg.gsea.KSTests;
 import edu.mit.broad.genome.math.*;
 import edu.mit.broad.genome.objects.GeneSet;
 import edu.mit.broad.genome.objects.RankedList;
+import edu.mit.broad.genome.objects.StringDataframe;
 import edu.mit.broad.genome.objects.Template;
 import edu.mit.broad.genome.objects.TemplateMode;
 import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentDb;
@@ -20,7 +21,9 @@ import edu.mit.broad.genome.objects.strucs.TemplateRandomizerType;
 import edu.mit.broad.genome.parsers.EdbFolderParser;
 import edu.mit.broad.genome.parsers.ParserFactory;
 import edu.mit.broad.genome.reports.EnrichmentReports;
+import edu.mit.broad.genome.reports.pages.HtmlFormat;
 import edu.mit.broad.genome.reports.pages.HtmlReportIndexPage;
+import edu.mit.broad.genome.utils.ParallelUtils;
 import edu.mit.broad.xbench.prefs.XPreferencesFactory;
 import xtools.api.param.*;
 
@@ -30,8 +33,13 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.ecs.html.Div;
+import org.apache.ecs.html.H4;
+import org.apache.ecs.html.LI;
+import org.apache.ecs.html.UL;
 
 /**
  * @author Aravind Subramanian
@@ -87,6 +95,25 @@ public abstract class AbstractGsea2Tool extends AbstractGseaTool {
 
     ) throws Exception {
 
+        final RandomSeedGenerator rst = fRndSeedTypeParam.createSeed();
+
+        // If we have a RandomSeedGenerator.Timestamp instance, save the timestamp for later reference
+        if (rst instanceof RandomSeedGenerators.Timestamp) {
+            fReport.addComment("Timestamp used as random seed: " + 
+                    ((RandomSeedGenerators.Timestamp)rst).getTimestamp());
+        }
+
+        return _execute_one(fullCd, template, gsets, store_rnd_ranked_lists_here_opt, rst, fNumCpusParam.getIValue());
+    }
+
+    // @note no reporting in here -- safe to run for several templates at the same time
+    private EnrichmentDb _execute_one(final CollapsedDetails.Data fullCd,
+                                      final Template template,
+                                      final GeneSet[] gsets,
+                                      final List store_rnd_ranked_lists_here_opt,
+                                      final RandomSeedGenerator rst,
+                                      final int numThreads) throws Exception {
+
         final int nperms = fNumPermParam.getIValue();
         final Metric metric = fMetricParam.getMetric();
         final SortMode sort = fSortParam.getMode();
@@ -94,7 +121,6 @@ public abstract class AbstractGsea2Tool extends AbstractGseaTool {
 
         final LabelledVectorProcessor lvp = new LabelledVectorProcessors.None(); // @note
 
-        final RandomSeedGenerator rst = fRndSeedTypeParam.createSeed();
         final Map mps = getMetricParams(fMedianParam);
         final GeneSetCohortGenerator gcohgen = fGcohGenReqdParam.createGeneSetCohortGenerator(false);
 
@@ -102,13 +128,7 @@ public abstract class AbstractGsea2Tool extends AbstractGseaTool {
 
         log.debug(">>>>> Using samples: " + dt.getDataset().getColumnNames());
 
-        final KSTests tests = new KSTests(getOutputStream());
-        
-        // If we have a RandomSeedGenerator.Timestamp instance, save the timestamp for later reference
-        if (rst instanceof RandomSeedGenerators.Timestamp) {
-            fReport.addComment("Timestamp used as random seed: " + 
-                    ((RandomSeedGenerators.Timestamp)rst).getTimestamp());
-        }
+        final KSTests tests = new KSTests(getOutputStream(), numThreads, createAdaptivePermutations());
 
         return tests.executeGsea(
                 dt,
@@ -150,8 +170,98 @@ public abstract class AbstractGsea2Tool extends AbstractGseaTool {
 
         final EnrichmentDb edb = execute_one(fullCd, template, gsets, store_rnd_ranked_lists_here_opt);
 
-        // -------------------------------------------------------------------------------------------- //
-        // rest are for the reporting
+        report_one(fullCd, template, gsets, edb, store_rnd_ranked_lists_here_opt, reportIndexPage, makeSubDir, origGeneSets,
+                showDetailsForTopXSets, makeZippedReport, makeGeneSetReports, createSvgs, createGcts);
+    }
+
+    /**
+     * Runs several templates (contrasts) on the same dataset and gene sets. The cpus are shared: as many templates
+     * as there are cpus run at the same time, each with its share of the cpus for its permutations.
+     * Every template gets the same random seed as it would have had in a run on its own -- so the same results.
+     * <p/>
+     * Each template is reported as soon as it is done, one report at a time: one sub dir per template, plus a summary
+     * table of all of them at the end.
+     */
+    protected void execute_many_with_reporting(final CollapsedDetails.Data fullCd,
+                                               final Template[] templates,
+                                               final GeneSet[] gsets,
+                                               final HtmlReportIndexPage reportIndexPage,
+                                               final GeneSet[] origGeneSets,
+                                               final int showDetailsForTopXSets,
+                                               final boolean makeZippedReport,
+                                               final boolean makeGeneSetReports,
+                                               final boolean createSvgs,
+                                               final boolean createGcts) throws Exception {
+
+        final int numCpus = Math.max(fNumCpusParam.getIValue(), 1);
+        final int numAtOnce = Math.min(templates.length, numCpus);
+        final int numThreadsEach = Math.max(numCpus / numAtOnce, 1);
+
+        log.info("Running: " + templates.length + " phenotypes, " + numAtOnce + " at a time with: " + numThreadsEach + " cpus each");
+
+        final RandomSeedGenerator[] rsts = new RandomSeedGenerator[templates.length];
+        final List[] rndRankedLists = new List[templates.length];
+        for (int t = 0; t < templates.length; t++) {
+            rsts[t] = fRndSeedTypeParam.createSeed();
+            if (rsts[t] instanceof RandomSeedGenerators.Timestamp) {
+                fReport.addComment("Timestamp used as random seed for: " + templates[t].getName() + ": " +
+                        ((RandomSeedGenerators.Timestamp) rsts[t]).getTimestamp());
+            }
+
+            if (fSaveRndRankedListsParam.isTrue()) {
+                rndRankedLists[t] = new ArrayList();
+            }
+        }
+
+        // @note each phenotype is reported as soon as it is done (one report at a time, as the report is shared)
+        // and then let go -- so only the edbs of the phenotypes still running are ever kept
+        final String[] names = new String[templates.length];
+        final int[][] counts = new int[templates.length][];
+        final List<Callable<Object>> blocks = new ArrayList<Callable<Object>>();
+        for (int t = 0; t < templates.length; t++) {
+            final int index = t;
+            blocks.add(new Callable<Object>() {
+                public Object call() throws Exception {
+                    final EnrichmentDb edb = _execute_one(fullCd, templates[index], gsets, rndRankedLists[index], rsts[index], numThreadsEach);
+                    synchronized (fReport) {
+                        final EnrichmentReports.Ret ret = report_one(fullCd, templates[index], gsets, edb, rndRankedLists[index], reportIndexPage, true,
+                                origGeneSets, showDetailsForTopXSets, makeZippedReport, makeGeneSetReports, createSvgs, createGcts);
+                        names[index] = ret.savedInDir.getName();
+                        counts[index] = EnrichmentReports.createPhenotypesSummaryCounts(ret.edb);
+                        rndRankedLists[index] = null;
+                    }
+                    return null;
+                }
+            });
+        }
+
+        ParallelUtils.runAll(blocks, numAtOnce);
+
+        final StringDataframe sdf = EnrichmentReports.createPhenotypesSummaryTable("phenotypes", names, counts);
+        final File file = fReport.savePageXls(sdf, "phenotypes_summary_" + fReport.getTimestamp(), fReport.getReportDir());
+
+        final Div div = new Div();
+        div.addElement(new H4("All phenotypes"));
+        final UL ul = new UL();
+        ul.addElement(new LI(HtmlFormat.Links.hyper("Summary", file, "of the enrichment in all " + templates.length
+                + " phenotypes (one row each, with the name of its sub folder)", fReport.getReportDir())));
+        div.addElement(ul);
+        reportIndexPage.addBlock(div, false);
+    }
+
+    private EnrichmentReports.Ret report_one(final CollapsedDetails.Data fullCd,
+                                             final Template template,
+                                             final GeneSet[] gsets,
+                                             final EnrichmentDb edb,
+                                             final List store_rnd_ranked_lists_here_opt,
+                                             final HtmlReportIndexPage reportIndexPage,
+                                             final boolean makeSubDir,
+                                             final GeneSet[] origGeneSets,
+                                             final int showDetailsForTopXSets,
+                                             final boolean makeZippedReport,
+                                             final boolean makeGeneSetReports,
+                                             final boolean createSvgs,
+                                             final boolean createGcts) throws Exception {
 
         final Metric metric = fMetricParam.getMetric();
         final int minSize = fGeneSetMinSizeParam.getIValue();
@@ -175,7 +285,9 @@ public abstract class AbstractGsea2Tool extends AbstractGseaTool {
                 createGcts,
                 origGeneSets,
                 metric.getName(),
-                fNormModeParam.getNormModeName());
+                fNormModeParam.getNormModeName(),
+                fNPTailParam.isTrue(),
+                Math.max(fNumCpusParam.getIValue(), 1));
 
         // Save the rnd ranked lists
         // Note: carrying this list through until after the algorithm completes has negative memory usage implications.
@@ -183,7 +295,8 @@ public abstract class AbstractGsea2Tool extends AbstractGseaTool {
         // e.g. to generate the lists on demand as we go rather than up-front.  Then we could generate & save the list,
         // run the iteration, then drop it so it doesn't consume memory.
         if (store_rnd_ranked_lists_here_opt != null && store_rnd_ranked_lists_here_opt.isEmpty() == false) {
-            File dir = fReport.createSubDir("random_ranked_lists");
+            File dir = makeSubDir ? new File(ret.savedInDir, "random_ranked_lists") : fReport.createSubDir("random_ranked_lists");
+            dir.mkdirs();
             for (int r = 0; r < store_rnd_ranked_lists_here_opt.size(); r++) {
                 RankedList rl = (RankedList) store_rnd_ranked_lists_here_opt.get(r);
                 // Prepend the list position for uniqueness; append the extension if necessary.
@@ -211,6 +324,8 @@ public abstract class AbstractGsea2Tool extends AbstractGseaTool {
 
         // Make an edb folder thing
         new EdbFolderParser().export(ret.edb, ret.savedInDir);
+
+        return ret;
     }
 
     // result hack to allow setting mean / median
@@ -6,6 +6,7 @@ package xtools.gsea;
 import edu.mit.broad.genome.alg.DatasetGenerators;
 import edu.mit.broad.genome.alg.Metric;
 import edu.mit.broad.genome.alg.Metrics;
+import edu.mit.broad.genome.alg.gsea.AdaptivePermutations;
 import edu.mit.broad.genome.objects.Dataset;
 import edu.mit.broad.genome.objects.GeneSet;
 import edu.mit.broad.genome.objects.RankedList;
@@ -56,6 +57,14 @@ public abstract class AbstractGseaTool extends AbstractTool {
     protected final IntegerParam fNumPermParam = new IntegerParam("nperm", "Number of permutations", "The number of permutations", 1000, new int[]{0, 1, 10, 100, 1000}, true);
     protected final RandomSeedTypeParam fRndSeedTypeParam = new RandomSeedTypeParam(false);
 
+    // @note a nperm_max larger than nperm continues the perms of the sets with undetermined nominal p-values (0 => off)
+    protected final IntegerParam fNumPermMaxParam = new IntegerParam("nperm_max", "Max number of permutations", "Continue the permutations, in rounds, up to this many for gene sets whose nominal p-value is still undetermined (0 or not more than nperm: off)", 0, false);
+    protected final IntegerParam fNumPermExceedancesParam = new IntegerParam("nperm_exceedances", "Exceedances to stop permuting", "A gene set needs no more permutations once this many random ES are more extreme than its real ES", AdaptivePermutations.DEFAULT_NUM_EXCEEDANCES, false);
+
+    protected final BooleanParam fNPTailParam = new BooleanParam("np_tail", "Tail approximate nominal p-values", "For gene sets with too few random ES more extreme than their real ES, fit a generalized pareto distribution to the tail of the null and report its p-value (when the fit is good) -- goes below 1/nperm", false, false);
+
+    protected final IntegerParam fNumCpusParam = new IntegerParam("cpus", "Number of cpus", "Number of worker threads to run the permutations on (1 runs them all on one thread)", 1, false);
+
     protected final ModeReqdParam fCollapseModeParam = new ModeReqdParam("mode", "Collapsing mode for probe sets => 1 gene", "Collapsing mode for probe sets => 1 gene", "Max_probe", new String[]{"Max_probe", "Median_of_probes", "Mean_of_probes", "Sum_of_probes"});
     protected final FeatureSpaceReqdParam fFeatureSpaceParam;
     protected final BooleanParam fIncludeOnlySymbols = new BooleanParam("include_only_symbols", "Omit features with no symbol match", "If there is no known gene symbol match for a probe set omit if from the collapsed dataset", true, false);
@@ -93,6 +102,17 @@ public abstract class AbstractGseaTool extends AbstractTool {
         };
     }
 
+    /**
+     * @return the adaptive permutations asked for, or null if none
+     */
+    protected AdaptivePermutations createAdaptivePermutations() {
+        if (fNumPermMaxParam.getIValue() > fNumPermParam.getIValue()) {
+            return new AdaptivePermutations(fNumPermMaxParam.getIValue(), fNumPermExceedancesParam.getIValue());
+        } else {
+            return null;
+        }
+    }
+
     protected abstract Param[] getAdditionalParams();
 
     protected void doAdditionalParams() {
@@ -117,6 +137,10 @@ public abstract class AbstractGseaTool extends AbstractTool {
         
         // advanced
         fParamSet.addParamAdv(fRndSeedTypeParam);
+        fParamSet.addParamAdv(fNumCpusParam);
+        fParamSet.addParamAdv(fNumPermMaxParam);
+        fParamSet.addParamAdv(fNumPermExceedancesParam);
+        fParamSet.addParamAdv(fNPTailParam);
         fParamSet.addParamAdv(fNormModeParam);
         fParamSet.addParamAdv(fIncludeOnlySymbols);
 
@@ -110,31 +110,34 @@ public class Gsea extends AbstractGsea2Tool {
         final ReportIndexState state = new ReportIndexState(true, false, false, createHeader(fDatasetParam));
         startExec(state);
 
-        final Template template = fTemplateParam.getTemplate();
+        // @note several phenotypes (comma separated, or ALL_PAIRS etc) share the dataset, its collapse and the gene sets
+        final Template[] templates = fTemplateParam.getTemplates();
 
         // some quick checks
         final Metric metric = fMetricParam.getMetric();
-        if (template.isCategorical()) {
-            if (!metric.isCategorical()) {
-                throw new StandardException("As the phenotype choosen was categorical, only categorical metrics are allowed. Got: " + metric.getName(), 1010);
+        for (int t = 0; t < templates.length; t++) {
+            final Template template = templates[t];
+            if (template.isCategorical()) {
+                if (!metric.isCategorical()) {
+                    throw new StandardException("As the phenotype choosen was categorical, only categorical metrics are allowed. Got: " + metric.getName(), 1010);
+                }
+
+                if (!template.isCategorical()) {
+                    throw new IllegalArgumentException("Only categorical templates allowed. Got: " + template.getName());
+                }
             }
 
             if (!template.isCategorical()) {
-                throw new IllegalArgumentException("Only categorical templates allowed. Got: " + template.getName());
-            }
-        }
-
-        if (!template.isCategorical()) {
-            if (!metric.isContinuous()) {
-                throw new StandardException("As the phenotype choosen was continuous, only continuous class metrics are allowed. Got: " + metric.getName(), 1011);
-            }
+                if (!metric.isContinuous()) {
+                    throw new StandardException("As the phenotype choosen was continuous, only continuous class metrics are allowed. Got: " + metric.getName(), 1011);
+                }
 
-            if (!template.isContinuous()) {
-                throw new IllegalArgumentException("Only continuous templates allowed. Got: " + template.getName());
+                if (!template.isContinuous()) {
+                    throw new IllegalArgumentException("Only continuous templates allowed. Got: " + template.getName());
+                }
             }
         }
 
-
         Dataset ds = fDatasetParam.getDataset(fChipParam);
 
         final Dataset fullDs = uniquize(ds);
@@ -155,12 +158,19 @@ public class Gsea extends AbstractGsea2Tool {
         checkAndBarfIfZeroSets(gsets);
 
         final HtmlReportIndexPage htmlReportIndexPage = fReport.getIndexPage();
-        final boolean makeSubDir = false;
-
-        execute_one_with_reporting(cd, template, gsets,
-                htmlReportIndexPage, makeSubDir, origGeneSets, fShowDetailsForTopXSetsParam.getIValue(), fMakeZippedReportParam.isTrue(), fMakeGeneSetReportsParam.isTrue(), 
-                (fCreateSvgsParam.isSpecified() && fCreateSvgsParam.isTrue()),
-                (fCreateGctsParam.isSpecified() && fCreateGctsParam.isTrue()));
+        final boolean createSvgs = fCreateSvgsParam.isSpecified() && fCreateSvgsParam.isTrue();
+        final boolean createGcts = fCreateGctsParam.isSpecified() && fCreateGctsParam.isTrue();
+
+        if (templates.length == 1) {
+            final boolean makeSubDir = false;
+            execute_one_with_reporting(cd, templates[0], gsets,
+                    htmlReportIndexPage, makeSubDir, origGeneSets, fShowDetailsForTopXSetsParam.getIValue(), fMakeZippedReportParam.isTrue(), fMakeGeneSetReportsParam.isTrue(),
+                    createSvgs, createGcts);
+        } else {
+            execute_many_with_reporting(cd, templates, gsets,
+                    htmlReportIndexPage, origGeneSets, fShowDetailsForTopXSetsParam.getIValue(), fMakeZippedReportParam.isTrue(), fMakeGeneSetReportsParam.isTrue(),
+                    createSvgs, createGcts);
+        }
 
         if (fMakeZippedReportParam.isTrue()) {
             // custom close before zipping
@@ -6,6 +6,7 @@ package xtools.gsea;
 import edu.mit.broad.genome.alg.DatasetGenerators;
 import edu.mit.broad.genome.alg.gsea.GeneSetCohortGenerator;
 import edu.mit.broad.genome.alg.gsea.KSTests;
+import edu.mit.broad.genome.alg.gsea.MultilevelPValues;
 import edu.mit.broad.genome.math.RandomSeedGenerator;
 import edu.mit.broad.genome.math.RandomSeedGenerators;
 import edu.mit.broad.genome.objects.*;
@@ -47,8 +48,18 @@ public class GseaPreranked extends AbstractGseaTool {
     private final StringInputParam fAltDelimParam = new StringInputParam("altDelim", "Alternate delimiter", 
             "Optional alternate delimiter character for gene set names instead of comma", null, false, new char[] { ';' }, Param.ADVANCED);
 
+    private static final String NP_ESTIMATOR_PERMUTATION = "permutation";
+    private static final String NP_ESTIMATOR_MULTILEVEL = "multilevel";
+
+    private final ModeReqdParam fNPEstimatorParam = new ModeReqdParam("np_estimator", "Nominal p-value estimator",
+            "How the nominal p-values are estimated: by counting the permutations or by multilevel splitting (goes down to 1e-10 at a small fraction of the cost; needs a classic or weighted scoring scheme)",
+            NP_ESTIMATOR_PERMUTATION, new String[]{NP_ESTIMATOR_PERMUTATION, NP_ESTIMATOR_MULTILEVEL});
+
     private GeneSet[] fOrigGeneSets;
 
+    // @note set when run as one of the ranked lists of a batch -- the gene sets and chip are then parsed once for all
+    private GseaPrerankedBatch.Shared fShared_opt;
+
     /**
      * Class constructor
      *
@@ -91,17 +102,15 @@ public class GseaPreranked extends AbstractGseaTool {
 
         final CollapsedDetails.Ranked cd = getRankedList(fullRl);
 
-        // Note that we MUST set the altDelim on the fGeneSetMatrixParam if it's present.  This MUST happen
-        // before extracting the param value or it will be parsed incorrectly.  Unfortunately, these params
-        // don't give any other good way to specify param dependencies except via code.
-        if (fAltDelimParam.isSpecified() && StringUtils.isNotBlank(fAltDelimParam.getValue().toString())) {
-            fGeneSetMatrixParam.setAlternateDelimiter(fAltDelimParam.getValue().toString());
+        final GeneSet[] gsets;
+        if (fShared_opt != null) {
+            this.fOrigGeneSets = fShared_opt.getOrigGeneSets();
+            gsets = fShared_opt.getGeneSets(cd.getRankedList(), fGeneSetMinSizeParam, fGeneSetMaxSizeParam);
+        } else {
+            this.fOrigGeneSets = readGeneSets();
+            gsets = Helper.getGeneSets(cd.getRankedList(), fOrigGeneSets, fGeneSetMinSizeParam, fGeneSetMaxSizeParam);
         }
 
-        this.fOrigGeneSets = fGeneSetMatrixParam.getGeneSetMatrixCombo(true).getGeneSets();
-
-        final GeneSet[] gsets = Helper.getGeneSets(cd.getRankedList(), fOrigGeneSets, fGeneSetMinSizeParam, fGeneSetMaxSizeParam);
-
         checkAndBarfIfZeroSets(gsets);
 
         final HtmlReportIndexPage htmlReportIndexPage = fReport.getIndexPage();
@@ -117,6 +126,38 @@ public class GseaPreranked extends AbstractGseaTool {
         doneExec();
     }
 
+    void setShared(final GseaPrerankedBatch.Shared shared) {
+        this.fShared_opt = shared;
+    }
+
+    GeneSet[] readGeneSets() throws Exception {
+        // Note that we MUST set the altDelim on the fGeneSetMatrixParam if it's present.  This MUST happen
+        // before extracting the param value or it will be parsed incorrectly.  Unfortunately, these params
+        // don't give any other good way to specify param dependencies except via code.
+        if (fAltDelimParam.isSpecified() && StringUtils.isNotBlank(fAltDelimParam.getValue().toString())) {
+            fGeneSetMatrixParam.setAlternateDelimiter(fAltDelimParam.getValue().toString());
+        }
+
+        return fGeneSetMatrixParam.getGeneSetMatrixCombo(true).getGeneSets();
+    }
+
+    // null if not specified
+    Chip readChip() throws Exception {
+        if (fChipParam.isSpecified()) {
+            return fChipParam.getChip();
+        } else {
+            return null;
+        }
+    }
+
+    private Chip getChip() throws Exception {
+        if (fShared_opt != null) {
+            return fShared_opt.getChip();
+        } else {
+            return readChip();
+        }
+    }
+
     private void execute_one(final edu.mit.broad.genome.objects.strucs.CollapsedDetails fullRL,
                              final GeneSet[] gsets,
                              final HtmlReportIndexPage reportIndexPage) throws Exception {
@@ -124,7 +165,12 @@ public class GseaPreranked extends AbstractGseaTool {
         final int nperms = fNumPermParam.getIValue();
         final int topXSets = fShowDetailsForTopXSetsParam.getIValue();
         final RandomSeedGenerator rst = fRndSeedTypeParam.createSeed();
-        final GeneSetCohortGenerator gcohgen = fGcohGenReqdParam.createGeneSetCohortGenerator(false);
+        final GeneSetCohortGenerator gcohgen;
+        if (fShared_opt != null) {
+            gcohgen = fShared_opt.createGeneSetCohortGenerator(fGcohGenReqdParam.getGeneSetScoringTable(), gsets);
+        } else {
+            gcohgen = fGcohGenReqdParam.createGeneSetCohortGenerator(false);
+        }
         final int minSize = fGeneSetMinSizeParam.getIValue();
         final int maxSize = fGeneSetMaxSizeParam.getIValue();
         final boolean createSvgs = fCreateSvgsParam.isSpecified() && fCreateSvgsParam.isTrue();
@@ -132,13 +178,14 @@ public class GseaPreranked extends AbstractGseaTool {
         Chip chip = null;
         FeatureAnnot fann = null;
         if (fChipParam.isSpecified()) {
-            chip = fChipParam.getChip();
+            chip = getChip();
             fann = new FeatureAnnotChip(chip);
         } else {
             fann = new FeatureAnnot(rl.getName(), rl.getRankedNames(), null);
         }
 
-        final KSTests tests = new KSTests(getOutputStream());
+        final MultilevelPValues multilevel = NP_ESTIMATOR_MULTILEVEL.equals(fNPEstimatorParam.getString()) ? new MultilevelPValues() : null;
+        final KSTests tests = new KSTests(getOutputStream(), fNumCpusParam.getIValue(), createAdaptivePermutations(), multilevel);
         
         // If we have a RandomSeedGenerator.Timestamp instance, save the timestamp for later reference
         if (rst instanceof RandomSeedGenerators.Timestamp) {
@@ -160,13 +207,18 @@ public class GseaPreranked extends AbstractGseaTool {
                 fullRL, reportIndexPage, false,
                 fReport, topXSets, minSize, maxSize,
                 fMakeGeneSetReportsParam.isTrue(), fMakeZippedReportParam.isTrue(),
-                createSvgs, fOrigGeneSets, "PreRanked", fNormModeParam.getNormModeName(), fann);
+                createSvgs, fOrigGeneSets, "PreRanked", fNormModeParam.getNormModeName(), fNPTailParam.isTrue(),
+                Math.max(fNumCpusParam.getIValue(), 1), fann);
 
         // Make an edb folder thing
         new EdbFolderParser().export(ret.edb, ret.savedInDir);
 
     }
 
+    protected void doAdditionalParams() {
+        fParamSet.addParamAdv(fNPEstimatorParam);
+    }
+
     protected Param[] getAdditionalParams() {
         return new Param[]{fRankedListParam, fShowDetailsForTopXSetsParam, fMakeZippedReportParam, fMakeGeneSetReportsParam, fCreateSvgsParam, fAltDelimParam};
     }
@@ -184,7 +236,7 @@ public class GseaPreranked extends AbstractGseaTool {
                 throw new BadParamException("Chip parameter must be specified as you asked to analyze" +
                         " in the space of gene symbols. Chip is used to collapse probe ids into symbols.", 1002);
             }
-            final Chip chip = fChipParam.getChip();
+            final Chip chip = getChip();
             // Remap_only is actually implemented as a Collapse Mode beneath everything else.
             int collapseModeIndex = fFeatureSpaceParam.isRemap() ? 4 : fCollapseModeParam.getStringIndexChoosen();
             RankedList collapsed = new DatasetGenerators().collapse(origRL, chip, fIncludeOnlySymbols.isTrue(), collapseModeIndex);
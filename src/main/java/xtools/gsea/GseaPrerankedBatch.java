@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package xtools.gsea;
+
+import edu.mit.broad.genome.Conf;
+import edu.mit.broad.genome.alg.gsea.DefaultGeneSetCohort;
+import edu.mit.broad.genome.alg.gsea.GeneSetCohortGenerator;
+import edu.mit.broad.genome.alg.gsea.GeneSetScoringTable;
+import edu.mit.broad.genome.alg.gsea.GeneToGeneSetMap;
+import edu.mit.broad.genome.objects.GeneSet;
+import edu.mit.broad.genome.objects.RankedList;
+import edu.mit.broad.genome.parsers.ParseUtils;
+import edu.mit.broad.genome.utils.CmdLineArgs;
+import edu.mit.broad.genome.utils.ParallelUtils;
+import edu.mit.broad.vdb.chip.Chip;
+import org.apache.log4j.Logger;
+import xtools.api.AbstractTool;
+import xtools.api.param.IntegerParam;
+import xtools.api.param.Param;
+import xtools.api.param.ParamSet;
+import xtools.api.param.ReportLabelParam;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileReader;
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+ * Runs GseaPreranked on many ranked lists (e.g one per contrast) in one jvm, against the same gene sets and chip.
+ * <p/>
+ * Takes all the GseaPreranked params except rnk, plus:
+ * <ul>
+ * <li>rnk_batch: a dir (all its .rnk files) or a manifest file (one ranked list path per line, relative to the
+ * manifest's dir; blank lines and lines starting with # skipped)</li>
+ * <li>batch_cpus: number of ranked lists run at the same time (default 1). Every list still runs its permutations
+ * on cpus threads</li>
+ * </ul>
+ * Every ranked list gets its own report, labelled rpt_label.[ranked list file name].
+ * <p/>
+ * The gene sets and chip are parsed once. The gene sets qualified against a ranked list (and their gene to
+ * gene set map) are made once for all the ranked lists with the same features -- as is usual for the contrasts
+ * of one experiment.
+ *
+ * @author Aravind Subramanian
+ * @see GseaPreranked
+ */
+public class GseaPrerankedBatch {
+
+    public static final String RNK_BATCH = "rnk_batch";
+
+    public static final String BATCH_CPUS = "batch_cpus";
+
+    private static final String RNK_EXT = ".rnk";
+
+    private static final Logger klog = Logger.getLogger(GseaPrerankedBatch.class);
+
+    private final Properties fProperties;
+
+    /**
+     * Class constructor
+     *
+     * @param args
+     */
+    public GseaPrerankedBatch(final String[] args) throws Exception {
+        this(CmdLineArgs.parse(args));
+    }
+
+    public GseaPrerankedBatch(final Properties prp) throws Exception {
+        if (prp == null) {
+            throw new IllegalArgumentException("Param prp cannot be null");
+        }
+
+        this.fProperties = new Properties();
+        fProperties.putAll(prp);
+
+        // @note as in AbstractTool: the cmd line wins over the param_file
+        final String param_file_path = fProperties.getProperty(ParamSet.PARAM_FILE);
+        if (param_file_path != null && param_file_path.length() > 0) {
+            final Properties addPrp = ParseUtils.readKeyVal(param_file_path, false, true, false);
+            for (Iterator it = addPrp.keySet().iterator(); it.hasNext(); ) {
+                final String param_name = it.next().toString();
+                if (!fProperties.containsKey(param_name)) {
+                    fProperties.setProperty(param_name, addPrp.getProperty(param_name));
+                }
+            }
+            fProperties.remove(ParamSet.PARAM_FILE);
+        }
+    }
+
+    /**
+     * @return true if all the ranked lists ran without error
+     * @throws Exception if the batch itself could not be set up
+     */
+    public boolean execute() throws Exception {
+
+        final String batch = fProperties.getProperty(RNK_BATCH);
+        if (batch == null || batch.trim().length() == 0) {
+            throw new IllegalArgumentException("Param " + RNK_BATCH + " must be specified (a dir of " + RNK_EXT + " files or a manifest of ranked list paths)");
+        }
+
+        final int batchCpus = fProperties.containsKey(BATCH_CPUS) ? Integer.parseInt(fProperties.getProperty(BATCH_CPUS).trim()) : 1;
+        if (batchCpus < 1) {
+            throw new IllegalArgumentException("Param " + BATCH_CPUS + " must be at least 1, got: " + batchCpus);
+        }
+
+        final File[] rnkFiles = listRankedLists(new File(batch.trim()));
+        if (rnkFiles.length == 0) {
+            throw new IllegalArgumentException("No ranked lists in: " + batch);
+        }
+
+        final Properties base = new Properties();
+        base.putAll(fProperties);
+        base.remove(RNK_BATCH);
+        base.remove(BATCH_CPUS);
+        if (base.containsKey(Param.RNK)) {
+            klog.warn("Ignoring " + Param.RNK + ": " + base.getProperty(Param.RNK) + " -- the ranked lists are from " + RNK_BATCH);
+            base.remove(Param.RNK);
+        }
+
+        final String label = base.getProperty(Param.RPT, ReportLabelParam.DEFAULT_LABEL);
+        final String[] labels = createLabels(label, rnkFiles);
+
+        // @note the tools are made (and their params filled and checked) up front so that a bad param fails the batch at once
+        final GseaPreranked[] tools = new GseaPreranked[rnkFiles.length];
+        for (int i = 0; i < rnkFiles.length; i++) {
+            final Properties prp = new Properties();
+            prp.putAll(base);
+            prp.setProperty(Param.RNK, rnkFiles[i].getPath());
+            prp.setProperty(Param.RPT, labels[i]);
+            tools[i] = new GseaPreranked(prp);
+        }
+
+        final Shared shared = new Shared(tools[0].readGeneSets(), tools[0].readChip());
+        for (int i = 0; i < tools.length; i++) {
+            tools[i].setShared(shared);
+        }
+
+        klog.info("Running GseaPreranked on: " + tools.length + " ranked lists, " + batchCpus + " at a time");
+
+        final boolean[] ok = new boolean[tools.length];
+        final List<Callable<Object>> blocks = new ArrayList<Callable<Object>>();
+        for (int i = 0; i < tools.length; i++) {
+            final int index = i;
+            blocks.add(new Callable<Object>() {
+                public Object call() throws Exception {
+                    ok[index] = AbstractTool.module_main(tools[index]);
+                    tools[index] = null; // @note let the results of a finished list go
+                    return null;
+                }
+            });
+        }
+
+        ParallelUtils.runAll(blocks, batchCpus);
+
+        int numFailed = 0;
+        for (int i = 0; i < ok.length; i++) {
+            if (!ok[i]) {
+                klog.error("GseaPreranked failed for ranked list: " + rnkFiles[i].getPath());
+                numFailed++;
+            }
+        }
+
+        klog.info("Done GseaPreranked on: " + rnkFiles.length + " ranked lists, failed: " + numFailed);
+        return numFailed == 0;
+    }
+
+    /**
+     * @param dirOrManifest
+     * @return the .rnk files of a dir (sorted by name) or the ranked lists of a manifest (in its order)
+     */
+    public static File[] listRankedLists(final File dirOrManifest) throws Exception {
+
+        if (dirOrManifest == null) {
+            throw new IllegalArgumentException("Param dirOrManifest cannot be null");
+        }
+
+        if (!dirOrManifest.exists()) {
+            throw new IllegalArgumentException("No such dir or file: " + dirOrManifest.getPath());
+        }
+
+        if (dirOrManifest.isDirectory()) {
+            final File[] files = dirOrManifest.listFiles(new FileFilter() {
+                public boolean accept(final File file) {
+                    return file.isFile() && file.getName().toLowerCase().endsWith(RNK_EXT);
+                }
+            });
+
+            Arrays.sort(files);
+            return files;
+        }
+
+        final List<File> files = new ArrayList<File>();
+        final BufferedReader reader = new BufferedReader(new FileReader(dirOrManifest));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+
+                File file = new File(line);
+                if (!file.isAbsolute()) {
+                    file = new File(dirOrManifest.getAbsoluteFile().getParentFile(), line);
+                }
+                files.add(file);
+            }
+        } finally {
+            reader.close();
+        }
+
+        return files.toArray(new File[files.size()]);
+    }
+
+    // label.name -- made unique and without spaces (not allowed in a rpt_label)
+    private static String[] createLabels(final String label, final File[] rnkFiles) {
+        final String[] labels = new String[rnkFiles.length];
+        final Set<String> seen = new HashSet<String>();
+        for (int i = 0; i < rnkFiles.length; i++) {
+            String name = rnkFiles[i].getName();
+            if (name.toLowerCase().endsWith(RNK_EXT)) {
+                name = name.substring(0, name.length() - RNK_EXT.length());
+            }
+
+            String curr = (label + "." + name).replace(' ', '_');
+            if (!seen.add(curr)) {
+                curr = curr + "_" + (i + 1);
+                seen.add(curr);
+            }
+            labels[i] = curr;
+        }
+
+        return labels;
+    }
+
+    public static void main(final String[] args) {
+        boolean was_error;
+        try {
+            was_error = !new GseaPrerankedBatch(args).execute();
+        } catch (Throwable t) {
+            t.printStackTrace();
+            was_error = true;
+        }
+
+        Conf.exitSystem(was_error);
+    }
+
+    /**
+     * What the ranked lists of a batch share. Safe to use from several threads.
+     */
+    static class Shared {
+
+        private final GeneSet[] fOrigGeneSets;
+
+        private final Chip fChip_opt;
+
+        // key -> the (sorted) features of a ranked list, value -> gene sets qualified against them
+        private final Map<List<String>, GeneSet[]> fFeaturesGeneSetsMap = new HashMap<List<String>, GeneSet[]>();
+
+        private final Map<GeneSet[], GeneToGeneSetMap> fGeneSetsMapMap = new IdentityHashMap<GeneSet[], GeneToGeneSetMap>();
+
+        /**
+         * Class constructor
+         *
+         * @param origGeneSets
+         * @param chip_opt
+         */
+        Shared(final GeneSet[] origGeneSets, final Chip chip_opt) throws Exception {
+            if (origGeneSets == null) {
+                throw new IllegalArgumentException("Param origGeneSets cannot be null");
+            }
+
+            this.fOrigGeneSets = origGeneSets;
+            this.fChip_opt = chip_opt; // @note read lazily, once, by whichever list needs it first
+        }
+
+        GeneSet[] getOrigGeneSets() {
+            return fOrigGeneSets;
+        }
+
+        Chip getChip() {
+            return fChip_opt;
+        }
+
+        /**
+         * @param rl
+         * @param geneSetMinSizeParam
+         * @param geneSetMaxSizeParam
+         * @return the gene sets qualified against rl -- the same array for all ranked lists with the same features
+         */
+        synchronized GeneSet[] getGeneSets(final RankedList rl,
+                                           final IntegerParam geneSetMinSizeParam,
+                                           final IntegerParam geneSetMaxSizeParam) throws Exception {
+
+            final List<String> key = new ArrayList<String>(rl.getRankedNames());
+            Collections.sort(key);
+
+            GeneSet[] gsets = fFeaturesGeneSetsMap.get(key);
+            if (gsets == null) {
+                gsets = AbstractTool.Helper.getGeneSets(rl, fOrigGeneSets, geneSetMinSizeParam, geneSetMaxSizeParam);
+                fFeaturesGeneSetsMap.put(key, gsets);
+                fGeneSetsMapMap.put(gsets, GeneToGeneSetMap.generateGeneToGenesetMap(gsets));
+            } else {
+                klog.info("Reusing the gene sets qualified for an earlier ranked list with the same features: " + rl.getName());
+            }
+
+            return gsets;
+        }
+
+        synchronized GeneSetCohortGenerator createGeneSetCohortGenerator(final GeneSetScoringTable table, final GeneSet[] gsets) {
+            final GeneToGeneSetMap g2gsetMap = fGeneSetsMapMap.get(gsets);
+            if (g2gsetMap == null) {
+                return new DefaultGeneSetCohort.Generator(table, false);
+            } else {
+                return new DefaultGeneSetCohort.Generator(table, false, gsets, g2gsetMap);
+            }
+        }
+
+    } // End class Shared
+
+} // End class GseaPrerankedBatch
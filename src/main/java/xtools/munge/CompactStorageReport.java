@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package xtools.munge;
+
+import edu.mit.broad.genome.Headers;
+import edu.mit.broad.genome.alg.DatasetGenerators;
+import edu.mit.broad.genome.alg.DatasetMetrics;
+import edu.mit.broad.genome.alg.Metric;
+import edu.mit.broad.genome.math.LabelledVectorProcessors;
+import edu.mit.broad.genome.math.Matrix;
+import edu.mit.broad.genome.math.MatrixStorage;
+import edu.mit.broad.genome.math.Order;
+import edu.mit.broad.genome.math.SortMode;
+import edu.mit.broad.genome.math.StringMatrix;
+import edu.mit.broad.genome.objects.Dataset;
+import edu.mit.broad.genome.objects.DefaultDataset;
+import edu.mit.broad.genome.objects.RankedList;
+import edu.mit.broad.genome.objects.StringDataframe;
+import edu.mit.broad.genome.objects.Template;
+import edu.mit.broad.genome.objects.TemplateMode;
+import edu.mit.broad.genome.objects.strucs.DatasetTemplate;
+import edu.mit.broad.xbench.prefs.XPreferencesFactory;
+import xtools.api.AbstractTool;
+import xtools.api.ToolCategory;
+import xtools.api.param.BooleanParam;
+import xtools.api.param.DatasetReqdParam;
+import xtools.api.param.IntegerParam;
+import xtools.api.param.MetricParam;
+import xtools.api.param.OrderParam;
+import xtools.api.param.Param;
+import xtools.api.param.SortParam;
+import xtools.api.param.TemplateSingleChooserParam;
+import xtools.gsea.AbstractGseaTool;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * How much the compact (16 bit, lossy) storages of a dataset change its values and its ranking of features
+ * against full precision -- to decide if DATASET_STORAGE (see ParserFactory) is good enough for a dataset.
+ * <p/>
+ * One row per compact storage: the worst errors of the values and, for the metric and phenotype asked for,
+ * the spearman correlation of the feature ranks, the rank shifts, the overlap of the top and bottom markers
+ * and the worst score difference.
+ *
+ * @author Aravind Subramanian
+ */
+public class CompactStorageReport extends AbstractTool {
+
+    private final DatasetReqdParam fDatasetParam = new DatasetReqdParam();
+
+    private final TemplateSingleChooserParam fTemplateParam =
+            new TemplateSingleChooserParam(Param.CLS, "Phenotype labels", TemplateMode.CATEGORICAL_2_CLASS_AND_NUMERIC, true);
+
+    private final MetricParam fMetricParam = new MetricParam(AbstractGseaTool.createMetricsForGsea(), false);
+    private final OrderParam fOrderParam = new OrderParam(false);
+    private final SortParam fSortParam = new SortParam(false);
+    private final BooleanParam fMedianParam = new BooleanParam("median", "Median for class  metrics", "Use the median of each class instead of the mean for the class seperation metrics", XPreferencesFactory.kMedian.getBoolean(), false);
+    private final IntegerParam fNumMarkersParam = new IntegerParam("num", "Number of markers", "Number of top (and bottom) ranked features to compare", 100, false);
+
+    private static final String[] COL_NAMES = new String[]{
+            "MAX ABS VALUE ERROR", "MAX REL VALUE ERROR", "# VALUES MADE NON-FINITE",
+            "RANK SPEARMAN", "MAX RANK SHIFT", "MEAN RANK SHIFT", "# FEATURES RANK CHANGED",
+            "TOP OVERLAP", "BOTTOM OVERLAP", "MAX SCORE DIFF"};
+
+    /**
+     * Class constructor
+     *
+     * @param properties
+     */
+    public CompactStorageReport(Properties properties) {
+        super.init(properties);
+    }
+
+    public CompactStorageReport(String[] args) {
+        super.init(args);
+    }
+
+    /**
+     * For ParamSet interrogation use only -- not executable
+     */
+    public CompactStorageReport() {
+        declareParams();
+    }
+
+    public String getName() {
+        return "CompactStorageReport";
+    }
+
+    public void execute() throws Exception {
+        startExec();
+
+        final Dataset ds = fDatasetParam.getDataset();
+        if (ds.getMatrix().getStorage().isCompact()) {
+            throw new IllegalArgumentException("Dataset: " + ds.getName() + " is already in compact storage: "
+                    + ds.getMatrix().getStorage() + " -- load it at full precision (no DATASET_STORAGE)");
+        }
+
+        final Template template = fTemplateParam.getTemplate();
+        final Metric metric = fMetricParam.getMetric();
+        final SortMode sort = fSortParam.getMode();
+        final Order order = fOrderParam.getOrder();
+        final Map mps = getMetricParams();
+        final int numMarkers = fNumMarkersParam.getIValue();
+
+        final DatasetTemplate dt = new DatasetGenerators().extract(ds, template);
+        final RankedList full = new DatasetMetrics().scoreDataset(metric, sort, order, mps,
+                new LabelledVectorProcessors.None(), dt.getDataset(), dt.getTemplate());
+
+        final MatrixStorage[] storages = MatrixStorage.ALL_COMPACT;
+        final String[] rowNames = new String[storages.length];
+        final StringMatrix sm = new StringMatrix(storages.length, COL_NAMES.length);
+        for (int s = 0; s < storages.length; s++) {
+            rowNames[s] = storages[s].toString();
+
+            final Matrix matrix = new Matrix(ds.getMatrix(), storages[s]);
+            final Dataset cds = new DefaultDataset(ds.getName() + "_" + storages[s], matrix, ds.getRowNames(),
+                    ds.getColumnNames(), true, ds.getAnnot());
+            _valueErrors(ds.getMatrix(), matrix, sm, s);
+
+            final DatasetTemplate cdt = new DatasetGenerators().extract(cds, template);
+            final RankedList compact = new DatasetMetrics().scoreDataset(metric, sort, order, mps,
+                    new LabelledVectorProcessors.None(), cdt.getDataset(), cdt.getTemplate());
+            _rankErrors(full, compact, numMarkers, sm, s);
+
+            log.info("Storage: " + storages[s] + " rank spearman: " + sm.getElement(s, 3)
+                    + " max rank shift: " + sm.getElement(s, 4) + " max score diff: " + sm.getElement(s, 9));
+        }
+
+        fReport.savePageXls(new StringDataframe("Compact_storage_accuracy", sm, rowNames, COL_NAMES, true));
+
+        doneExec();
+    }
+
+    // the max abs and rel error of the finite values and the # of finite values that are not so when compact
+    private static void _valueErrors(final Matrix full, final Matrix compact, final StringMatrix sm, final int s) {
+        final int ncols = full.getNumCol();
+        final float[] frow = new float[ncols];
+        final float[] crow = new float[ncols];
+
+        double maxAbs = 0;
+        double maxRel = 0;
+        int numNonFinite = 0;
+        for (int r = 0; r < full.getNumRow(); r++) {
+            full.getRow(r, frow);
+            compact.getRow(r, crow);
+            for (int c = 0; c < ncols; c++) {
+                if (Float.isNaN(frow[c]) || Float.isInfinite(frow[c])) {
+                    continue;
+                }
+
+                if (Float.isNaN(crow[c]) || Float.isInfinite(crow[c])) {
+                    numNonFinite++;
+                    continue;
+                }
+
+                final double err = Math.abs((double) crow[c] - frow[c]);
+                maxAbs = Math.max(maxAbs, err);
+                if (frow[c] != 0) {
+                    maxRel = Math.max(maxRel, err / Math.abs(frow[c]));
+                }
+            }
+        }
+
+        sm.setElement(s, 0, (float) maxAbs);
+        sm.setElement(s, 1, (float) maxRel);
+        sm.setElement(s, 2, numNonFinite);
+    }
+
+    private static void _rankErrors(final RankedList full,
+                                    final RankedList compact,
+                                    final int numMarkers,
+                                    final StringMatrix sm,
+                                    final int s) {
+        final int n = full.getSize();
+
+        double sumSqShift = 0;
+        long sumShift = 0;
+        int maxShift = 0;
+        int numChanged = 0;
+        double maxScoreDiff = 0;
+        for (int rank = 0; rank < n; rank++) {
+            final String name = full.getRankName(rank);
+            final int shift = Math.abs(compact.getRank(name) - rank);
+            sumSqShift += (double) shift * shift;
+            sumShift += shift;
+            maxShift = Math.max(maxShift, shift);
+            if (shift != 0) {
+                numChanged++;
+            }
+
+            final float fscore = full.getScore(rank);
+            final float cscore = compact.getScore(name);
+            if (!Float.isNaN(fscore) && !Float.isNaN(cscore)) {
+                maxScoreDiff = Math.max(maxScoreDiff, Math.abs((double) cscore - fscore));
+            }
+        }
+
+        // @note the ranks are a permutation (no ties) so spearman is 1 - 6 sum(d^2) / (n (n^2 - 1))
+        final double spearman = n < 2 ? 1 : 1 - 6 * sumSqShift / ((double) n * ((double) n * n - 1));
+
+        sm.setElement(s, 3, (float) spearman);
+        sm.setElement(s, 4, maxShift);
+        sm.setElement(s, 5, n == 0 ? 0 : (float) ((double) sumShift / n));
+        sm.setElement(s, 6, numChanged);
+        sm.setElement(s, 7, _overlap(full, compact, numMarkers, true));
+        sm.setElement(s, 8, _overlap(full, compact, numMarkers, false));
+        sm.setElement(s, 9, (float) maxScoreDiff);
+    }
+
+    // the # of the top (or bottom) numMarkers features of full that are also so in compact
+    private static int _overlap(final RankedList full, final RankedList compact, final int numMarkers, final boolean top) {
+        final int n = Math.min(numMarkers, full.getSize());
+        final Set names = new HashSet();
+        for (int i = 0; i < n; i++) {
+            names.add(compact.getRankName(top ? i : compact.getSize() - 1 - i));
+        }
+
+        int overlap = 0;
+        for (int i = 0; i < n; i++) {
+            if (names.contains(full.getRankName(top ? i : full.getSize() - 1 - i))) {
+                overlap++;
+            }
+        }
+
+        return overlap;
+    }
+
+    // as for gsea
+    private Map<String, Boolean> getMetricParams() {
+        Map<String, Boolean> params = new HashMap<String, Boolean>();
+        params.put(Headers.FIX_LOW, XPreferencesFactory.kFixLowVar.getBooleanO());
+        params.put(Headers.USE_BIASED, XPreferencesFactory.kBiasedVar.getBooleanO());
+        params.put(Headers.USE_MEDIAN, (Boolean) fMedianParam.getValue());
+        return Collections.unmodifiableMap(params);
+    }
+
+    public String getDesc() {
+        return "Report how much compact (16 bit) storage of a dataset changes its values and the ranking of its features";
+    }
+
+    public ToolCategory getCategory() {
+        return ToolCategory.DATASET;
+    }
+
+    public void declareParams() {
+        fParamSet.addParam(fDatasetParam);
+        fParamSet.addParam(fTemplateParam);
+        fParamSet.addParamBasic(fMetricParam);
+        fParamSet.addParamBasic(fOrderParam);
+        fParamSet.addParamBasic(fSortParam);
+        fParamSet.addParamBasic(fMedianParam);
+        fParamSet.addParamBasic(fNumMarkersParam);
+    }
+
+    public static void main(String[] args) {
+        CompactStorageReport tool = new CompactStorageReport(args);
+        tool_main(tool);
+    }
+
+} // End class CompactStorageReport
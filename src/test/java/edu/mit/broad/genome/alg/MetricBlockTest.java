@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.alg;
+
+import edu.mit.broad.genome.Headers;
+import edu.mit.broad.genome.math.Matrix;
+import edu.mit.broad.genome.math.RandomSeedGenerators;
+import edu.mit.broad.genome.objects.Dataset;
+import edu.mit.broad.genome.objects.DefaultDataset;
+import edu.mit.broad.genome.objects.Template;
+import edu.mit.broad.genome.objects.TemplateFactory;
+import edu.mit.broad.genome.objects.TemplateFactoryRandomizer;
+import edu.mit.broad.genome.objects.strucs.TemplateRandomizerType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * A metric block scores every template as the primitive metric does, to within rounding -- for each metric and
+ * param combination that has a block form, with rows of very different scales and rows far off their class means.
+ * Rows with NaN or infinite values are left to the caller.
+ *
+ * @author Aravind Subramanian
+ */
+public class MetricBlockTest {
+
+    private static final int NUM_ROWS = 300;
+
+    private static final int NUM_COLS = 25;
+
+    private static final int NUM_TEMPLATES = 16;
+
+    @Test
+    public void testSameScoresAsPrimitiveMetric() {
+        final Metric[] metrics = new Metric[]{new Metrics.Signal2Noise(), new Metrics.tTest(), new Metrics.ClassDiff(),
+                new Metrics.ClassRatio(), new Metrics.ClassLog2Ratio()};
+
+        final float[][] rows = _createRows();
+        final ClassIndices[] clss = _createTemplates();
+
+        for (int m = 0; m < metrics.length; m++) {
+            for (int f = 0; f < 4; f++) {
+                final Map params = new HashMap();
+                params.put(Headers.USE_MEDIAN, Boolean.FALSE);
+                params.put(Headers.FIX_LOW, Boolean.valueOf((f & 1) != 0));
+                params.put(Headers.USE_BIASED, Boolean.valueOf((f & 2) != 0));
+
+                final MetricBlock block = MetricBlock.create(metrics[m], params, clss, NUM_COLS);
+                assertNotNull(metrics[m].getName() + " has no block form", block);
+
+                final PrimitiveMetric pmetric = metrics[m].configure(params);
+                final MetricScratch scratch = new MetricScratch(NUM_COLS);
+                final double[][] scores = new double[NUM_TEMPLATES][NUM_ROWS];
+                for (int r = 0; r < NUM_ROWS; r++) {
+                    final boolean finite = _isFinite(rows[r]);
+                    assertEquals("row: " + r, finite, block.scoreRow(rows[r], scores, r));
+                    if (!finite) {
+                        continue;
+                    }
+
+                    for (int t = 0; t < NUM_TEMPLATES; t++) {
+                        final double expected = pmetric.getScore(rows[r], clss[t], scratch);
+                        final String msg = metrics[m].getName() + " params: " + params + " row: " + r + " template: " + t;
+                        if (Double.isNaN(expected) || Double.isInfinite(expected)) {
+                            assertEquals(msg, expected, scores[t][r], 0);
+                        } else {
+                            assertEquals(msg, expected, scores[t][r], 1e-12 * Math.max(1, Math.abs(expected)));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNoBlockForm() {
+        final ClassIndices[] clss = _createTemplates();
+
+        final Map median = new HashMap();
+        median.put(Headers.USE_MEDIAN, Boolean.TRUE);
+        assertNull(MetricBlock.create(new Metrics.Signal2Noise(), median, clss, NUM_COLS));
+        assertNull(MetricBlock.create(new Metrics.ClassDiff(), median, clss, NUM_COLS));
+
+        final Map mean = new HashMap();
+        mean.put(Headers.USE_MEDIAN, Boolean.FALSE);
+        assertNull(MetricBlock.create(new Metrics.Pearson(), mean, clss, NUM_COLS));
+        assertNull(MetricBlock.create(new Metrics.Signal2Noise2(), mean, clss, NUM_COLS));
+
+        // a template that is not the whole row
+        assertNull(MetricBlock.create(new Metrics.Signal2Noise(), mean, clss, NUM_COLS + 1));
+        assertNotNull(MetricBlock.create(new Metrics.Signal2Noise(), mean, clss, NUM_COLS));
+        assertNull(MetricBlock.create(new Metrics.tTest(), mean, new ClassIndices[]{new ClassIndices(null)}, NUM_COLS));
+    }
+
+    private static boolean _isFinite(final float[] row) {
+        for (int c = 0; c < row.length; c++) {
+            if (Float.isNaN(row[c]) || Float.isInfinite(row[c])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // normal rows of several scales and offsets, constant and all zero rows, rows with NaN or infinity
+    // and rows of 2 tight groups far apart
+    private static float[][] _createRows() {
+        final Random rnd = new Random(11);
+        final float[][] rows = new float[NUM_ROWS][NUM_COLS];
+        for (int r = 0; r < NUM_ROWS; r++) {
+            final double scale = Math.pow(10, (r % 9) - 4);
+            final double offset = (r % 5) * 1000 * scale;
+            for (int c = 0; c < NUM_COLS; c++) {
+                float v = (float) (offset + rnd.nextGaussian() * scale);
+                if (r % 11 == 0) {
+                    v = (c % 3 == 0 ? 1e4f : -1e4f) + (float) (rnd.nextGaussian() * 1e-2);
+                }
+                if (r % 50 == 0) {
+                    v = 1f;
+                }
+                if (r % 67 == 0) {
+                    v = 0f;
+                }
+                if (r % 43 == 0 && c == 7) {
+                    v = Float.NaN;
+                }
+                if (r % 47 == 0 && c == 3) {
+                    v = Float.NEGATIVE_INFINITY;
+                }
+                rows[r][c] = v;
+            }
+        }
+        return rows;
+    }
+
+    // an even and a 1 vs rest split, and random permutations of them
+    private static ClassIndices[] _createTemplates() {
+        final List colNames = new ArrayList();
+        for (int c = 0; c < NUM_COLS; c++) {
+            colNames.add("s" + c);
+        }
+
+        final Dataset ds = _ds(colNames);
+        final List<Template> templates = new ArrayList<Template>();
+        final String[] all = (String[]) colNames.toArray(new String[NUM_COLS]);
+        templates.add(TemplateFactory.createCategoricalTemplate("even", ds,
+                "A", Arrays.copyOfRange(all, 0, 12), "B", Arrays.copyOfRange(all, 12, NUM_COLS)));
+        templates.add(TemplateFactory.createCategoricalTemplate("one", ds,
+                "A", Arrays.copyOfRange(all, 0, 1), "B", Arrays.copyOfRange(all, 1, NUM_COLS)));
+        templates.addAll(Arrays.asList(TemplateFactoryRandomizer.createRandomTemplates(NUM_TEMPLATES - 2, templates.get(0),
+                TemplateRandomizerType.NO_BALANCE, new RandomSeedGenerators.Custom(5))));
+
+        final ClassIndices[] clss = new ClassIndices[NUM_TEMPLATES];
+        for (int t = 0; t < NUM_TEMPLATES; t++) {
+            clss[t] = new ClassIndices(templates.get(t));
+        }
+        return clss;
+    }
+
+    private static Dataset _ds(final List colNames) {
+        final List rowNames = new ArrayList();
+        rowNames.add("g0");
+        return new DefaultDataset("ds", new Matrix(1, NUM_COLS), rowNames, colNames, true, null);
+    }
+
+} // End class MetricBlockTest
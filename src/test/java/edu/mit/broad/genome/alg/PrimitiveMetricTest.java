@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.alg;
+
+import edu.mit.broad.genome.Headers;
+import edu.mit.broad.genome.math.Matrix;
+import edu.mit.broad.genome.math.RandomSeedGenerators;
+import edu.mit.broad.genome.math.Vector;
+import edu.mit.broad.genome.objects.Dataset;
+import edu.mit.broad.genome.objects.DefaultDataset;
+import edu.mit.broad.genome.objects.Template;
+import edu.mit.broad.genome.objects.TemplateFactory;
+import edu.mit.broad.genome.objects.TemplateFactoryRandomizer;
+import edu.mit.broad.genome.objects.strucs.TemplateRandomizerType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * The primitive form of every metric (Metric.configure) scores a row exactly as Metric.getScore (bit for bit, or both
+ * throw -- e.g with no template) for every combination of the metric params
+ *
+ * @author Aravind Subramanian
+ */
+public class PrimitiveMetricTest {
+
+    private static final int NUM_ROWS = 200;
+
+    private static final int NUM_COLS = 12;
+
+    private static final String EXCEPTION = "exception";
+
+    // 0 -> class A, 1 -> class B: even, 1 vs rest, split and uneven the other way
+    private static final int[][] LAYOUTS = new int[][]{
+            {0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 1, 1},
+            {0, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1},
+            {0, 0, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0},
+            {1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0}};
+
+    @Test
+    public void testSameScoresAsGetScore() {
+        final Dataset ds = _createDataset();
+        final List<Template> templates = _createTemplates(ds);
+
+        final List<Metric> metrics = new ArrayList<Metric>(Arrays.asList(Metrics.createAllMetrics()));
+        metrics.add(new Metrics.Signal2Noise2());
+
+        final float[] row = new float[NUM_COLS];
+        for (int m = 0; m < metrics.size(); m++) {
+            final Metric metric = metrics.get(m);
+            for (int f = 0; f < 8; f++) {
+                final Map params = new HashMap();
+                params.put(Headers.USE_MEDIAN, Boolean.valueOf((f & 1) != 0));
+                params.put(Headers.FIX_LOW, Boolean.valueOf((f & 2) != 0));
+                params.put(Headers.USE_BIASED, Boolean.valueOf((f & 4) != 0));
+
+                final PrimitiveMetric pmetric = metric.configure(params);
+                assertNotNull(metric.getName() + " has no primitive form", pmetric);
+
+                final MetricScratch scratch = new MetricScratch(NUM_COLS);
+                for (int t = 0; t < templates.size(); t++) {
+                    final Template template = templates.get(t);
+                    final ClassIndices cls = new ClassIndices(template);
+                    for (int r = 0; r < NUM_ROWS; r++) {
+                        final Vector profile = ds.getRow(r);
+                        for (int c = 0; c < NUM_COLS; c++) {
+                            row[c] = profile.getElement(c);
+                        }
+                        final String msg = metric.getName() + " params: " + params + " template: "
+                                + (template == null ? null : template.getName()) + " row: " + r;
+                        assertEquals(msg, _score(metric, ds, r, template, params), _score(pmetric, row, cls, scratch));
+                    }
+                }
+            }
+        }
+    }
+
+    // the score, or EXCEPTION
+    private static Object _score(final Metric metric, final Dataset ds, final int row, final Template template, final Map params) {
+        try {
+            return Double.valueOf(metric.getScore(ds.getRow(row), template, params));
+        } catch (RuntimeException e) {
+            return EXCEPTION;
+        }
+    }
+
+    private static Object _score(final PrimitiveMetric pmetric, final float[] row, final ClassIndices cls, final MetricScratch scratch) {
+        try {
+            return Double.valueOf(pmetric.getScore(row, cls, scratch));
+        } catch (RuntimeException e) {
+            return EXCEPTION;
+        }
+    }
+
+    // normal rows, rows with NaNs, constant rows, rows all NaN in one class and all zero rows
+    private static Dataset _createDataset() {
+        final Random rnd = new Random(7);
+        final Matrix m = new Matrix(NUM_ROWS, NUM_COLS);
+        for (int r = 0; r < NUM_ROWS; r++) {
+            for (int c = 0; c < NUM_COLS; c++) {
+                float v = (float) (rnd.nextGaussian() * 3 + (r % 7 == 0 ? 0 : 5));
+                if (rnd.nextInt(8) == 0) {
+                    v = Float.NaN;
+                }
+                if (r % 50 == 0) {
+                    v = 1f;
+                }
+                if (r % 61 == 0 && c < 7) {
+                    v = Float.NaN;
+                }
+                if (r % 67 == 0) {
+                    v = 0f;
+                }
+                m.setElement(r, c, v);
+            }
+        }
+
+        final List rowNames = new ArrayList();
+        for (int r = 0; r < NUM_ROWS; r++) {
+            rowNames.add("g" + r);
+        }
+
+        final List colNames = new ArrayList();
+        for (int c = 0; c < NUM_COLS; c++) {
+            colNames.add("s" + c);
+        }
+
+        return new DefaultDataset("ds", m, rowNames, colNames, true, null);
+    }
+
+    // the 2 class layouts (and some random permutations of them), 2 continuous templates and no template
+    private static List<Template> _createTemplates(final Dataset ds) {
+        final List<Template> templates = new ArrayList<Template>();
+        for (int l = 0; l < LAYOUTS.length; l++) {
+            final List<String> a = new ArrayList<String>();
+            final List<String> b = new ArrayList<String>();
+            for (int c = 0; c < NUM_COLS; c++) {
+                (LAYOUTS[l][c] == 0 ? a : b).add("s" + c);
+            }
+
+            final Template template = TemplateFactory.createCategoricalTemplate("t" + l, ds,
+                    "A", a.toArray(new String[a.size()]), "B", b.toArray(new String[b.size()]));
+            templates.add(template);
+            templates.addAll(Arrays.asList(TemplateFactoryRandomizer.createRandomTemplates(3, template,
+                    TemplateRandomizerType.NO_BALANCE, new RandomSeedGenerators.Custom(3))));
+        }
+
+        templates.add(TemplateFactory.createContinuousTemplate("g3", ds));
+        templates.add(TemplateFactory.createContinuousTemplate("g10", ds));
+        templates.add(null);
+        return templates;
+    }
+
+} // End class PrimitiveMetricTest
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.alg.gsea;
+
+import edu.mit.broad.genome.Headers;
+import edu.mit.broad.genome.alg.Metrics;
+import edu.mit.broad.genome.math.LabelledVectorProcessors;
+import edu.mit.broad.genome.math.Matrix;
+import edu.mit.broad.genome.math.Order;
+import edu.mit.broad.genome.math.RandomSeedGenerators;
+import edu.mit.broad.genome.math.SortMode;
+import edu.mit.broad.genome.math.Vector;
+import edu.mit.broad.genome.objects.Dataset;
+import edu.mit.broad.genome.objects.DefaultDataset;
+import edu.mit.broad.genome.objects.GeneSet;
+import edu.mit.broad.genome.objects.Template;
+import edu.mit.broad.genome.objects.TemplateFactory;
+import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentResult;
+import edu.mit.broad.genome.objects.strucs.TemplateRandomizerType;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Adaptive permutations: a set permuted up to the max gets the nominal p of a plain run with that many
+ * permutations, and a set stops being permuted once its nominal p is determined
+ *
+ * @author Aravind Subramanian
+ */
+public class AdaptivePermutationsTest {
+
+    private static final int NUM_ROWS = 300;
+
+    private static final int NUM_COLS = 12;
+
+    private static final int NUM_SETS = 16;
+
+    private static final int NUM_PERMS = 40;
+
+    private static final int MAX_NUM_PERMS = 160;
+
+    @Test
+    public void testNextRound() {
+        final AdaptivePermutations adaptive = new AdaptivePermutations(MAX_NUM_PERMS, 10);
+        assertTrue(adaptive.isAdaptive(NUM_PERMS));
+        assertFalse(adaptive.isAdaptive(MAX_NUM_PERMS));
+        assertFalse(adaptive.isAdaptive(0));
+
+        assertEquals(1, adaptive.nextRoundTo(0));
+        assertEquals(2 * NUM_PERMS, adaptive.nextRoundTo(NUM_PERMS));
+        assertEquals(MAX_NUM_PERMS, adaptive.nextRoundTo(MAX_NUM_PERMS - 1));
+    }
+
+    @Test
+    public void testMaxedSetsHaveThePlainNominalP() throws Exception {
+        final Dataset ds = _createDataset();
+        final GeneSet[] gsets = _createGeneSets();
+
+        // never determined: every set is permuted up to the max
+        final AdaptivePermutations adaptive = new AdaptivePermutations(MAX_NUM_PERMS, Integer.MAX_VALUE);
+        final boolean[] permuteTemplates = new boolean[]{true, false};
+        for (int i = 0; i < permuteTemplates.length; i++) {
+            final EnrichmentResult[] plain = _finals(_run(ds, gsets, MAX_NUM_PERMS, null, permuteTemplates[i], 1));
+            for (int numThreads = 1; numThreads <= 3; numThreads += 2) {
+                final EnrichmentResult[] adapted = _finals(_run(ds, gsets, NUM_PERMS, adaptive, permuteTemplates[i], numThreads));
+                assertEquals(plain.length, adapted.length);
+                for (int r = 0; r < plain.length; r++) {
+                    final String msg = "template perms: " + permuteTemplates[i] + " threads: " + numThreads + " " + plain[r].getGeneSetName();
+                    assertEquals(msg, plain[r].getGeneSetName(), adapted[r].getGeneSetName());
+                    assertEquals(msg, NUM_PERMS, adapted[r].getNumPerms());
+                    assertEquals(msg, MAX_NUM_PERMS, adapted[r].getEffectiveNumPerms());
+                    assertEquals(msg, Float.floatToRawIntBits(plain[r].getScore().getNP()),
+                            Float.floatToRawIntBits(adapted[r].getScore().getNP()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDeterminedSetsStop() throws Exception {
+        final int numExceedances = 3;
+        final AdaptivePermutations adaptive = new AdaptivePermutations(MAX_NUM_PERMS * 4, numExceedances);
+        final EnrichmentResult[] results = _run(_createDataset(), _createGeneSets(), NUM_PERMS, adaptive, true, 3);
+
+        int numStopped = 0;
+        int numExtended = 0;
+        for (int r = 0; r < results.length; r++) {
+            final float realEs = results[r].getScore().getES();
+            final Vector rnd = results[r].getRndESS();
+            int numMoreExtreme = 0;
+            for (int p = 0; p < rnd.getSize(); p++) {
+                if (AdaptivePermutations.isSameSide(realEs, rnd.getElement(p)) && AdaptivePermutations.isMoreExtreme(realEs, rnd.getElement(p))) {
+                    numMoreExtreme++;
+                }
+            }
+
+            final int numPerms = results[r].getEffectiveNumPerms();
+            if (numMoreExtreme >= numExceedances) {
+                assertEquals(results[r].getGeneSetName(), NUM_PERMS, numPerms);
+                numStopped++;
+            } else {
+                // a number of doubling rounds
+                assertTrue(results[r].getGeneSetName() + " " + numPerms, numPerms > NUM_PERMS && numPerms <= MAX_NUM_PERMS * 4);
+                assertEquals(results[r].getGeneSetName() + " " + numPerms, 0, numPerms % NUM_PERMS);
+                numExtended++;
+            }
+        }
+
+        assertTrue("no set stopped at the shared perms", numStopped > 0);
+        assertTrue("no set was permuted past the shared perms", numExtended > 0);
+    }
+
+    @Test
+    public void testNoTailFitForSetsWithExtraPerms() throws Exception {
+        // enough shared perms for a tail to fit
+        final int nperm = 5 * NUM_PERMS;
+        final AdaptivePermutations adaptive = new AdaptivePermutations(4 * nperm, 3);
+        final EnrichmentResult[] results = _run(_createDataset(), _createGeneSets(), nperm, adaptive, true, 1);
+        final EnrichmentResult[] counted = new PValueCalculatorImpls.GseaImpl("meandiv", 1, false).calcNPValuesAndFDR(results);
+        final EnrichmentResult[] tailed = new PValueCalculatorImpls.GseaImpl("meandiv", 1, true).calcNPValuesAndFDR(results);
+
+        // @note only the tallies of the extra perms are kept -- nothing to fit, so the counted p stays
+        int numExtended = 0;
+        for (int r = 0; r < results.length; r++) {
+            if (results[r].getEffectiveNumPerms() > nperm) {
+                assertNull(results[r].getGeneSetName(), tailed[r].getNPTail());
+                assertEquals(results[r].getGeneSetName(), Float.floatToRawIntBits(counted[r].getScore().getNP()),
+                        Float.floatToRawIntBits(tailed[r].getScore().getNP()));
+                numExtended++;
+            }
+        }
+
+        assertTrue("no set was permuted past the shared perms", numExtended > 0);
+    }
+
+    private static EnrichmentResult[] _finals(final EnrichmentResult[] results) {
+        return new PValueCalculatorImpls.GseaImpl("meandiv", 1).calcNPValuesAndFDR(results);
+    }
+
+    private static EnrichmentResult[] _run(final Dataset ds,
+                                           final GeneSet[] gsets,
+                                           final int nperm,
+                                           final AdaptivePermutations adaptive_opt,
+                                           final boolean permuteTemplate,
+                                           final int numThreads) throws Exception {
+
+        final String[] a = new String[NUM_COLS / 2];
+        final String[] b = new String[NUM_COLS - a.length];
+        for (int c = 0; c < NUM_COLS; c++) {
+            if (c < a.length) {
+                a[c] = "S" + c;
+            } else {
+                b[c - a.length] = "S" + c;
+            }
+        }
+        final Template template = TemplateFactory.createCategoricalTemplate("t", ds, "A", a, "B", b);
+
+        final Map mps = new HashMap();
+        mps.put(Headers.USE_MEDIAN, Boolean.FALSE);
+        mps.put(Headers.FIX_LOW, Boolean.TRUE);
+        mps.put(Headers.USE_BIASED, Boolean.FALSE);
+
+        final KSTests tests = new KSTests(new PrintStream(new ByteArrayOutputStream()), numThreads, adaptive_opt);
+        return tests.executeGsea(ds, template, gsets, nperm, Metrics.lookupMetric("Signal2Noise"), SortMode.REAL, Order.DESCENDING,
+                new LabelledVectorProcessors.None(), new RandomSeedGenerators.Custom(149), TemplateRandomizerType.NO_BALANCE,
+                mps, new DefaultGeneSetCohort.Generator(GeneSetScoringTables.lookupGeneSetScoringTable("weighted"), true),
+                permuteTemplate, 10, null).getResults();
+    }
+
+    private static Dataset _createDataset() {
+        final Random rnd = new Random(3);
+        final Matrix m = new Matrix(NUM_ROWS, NUM_COLS);
+        for (int r = 0; r < NUM_ROWS; r++) {
+            for (int c = 0; c < NUM_COLS; c++) {
+                m.setElement(r, c, (float) (rnd.nextGaussian() + (c < NUM_COLS / 2 && r % 5 == 0 ? 1.5 : 0)));
+            }
+        }
+
+        final List rowNames = new ArrayList();
+        for (int r = 0; r < NUM_ROWS; r++) {
+            rowNames.add("G" + r);
+        }
+
+        final List colNames = new ArrayList();
+        for (int c = 0; c < NUM_COLS; c++) {
+            colNames.add("S" + c);
+        }
+
+        return new DefaultDataset("ds", m, rowNames, colNames, true, null);
+    }
+
+    // some enriched in the rows that differ, some random
+    private static GeneSet[] _createGeneSets() {
+        final Random rnd = new Random(5);
+        final GeneSet[] gsets = new GeneSet[NUM_SETS];
+        for (int g = 0; g < NUM_SETS; g++) {
+            final int size = 10 + rnd.nextInt(30);
+            final Set<String> members = new LinkedHashSet<String>();
+            while (members.size() < size) {
+                members.add("G" + (g % 3 == 0 ? 5 * rnd.nextInt(NUM_ROWS / 5) : rnd.nextInt(NUM_ROWS)));
+            }
+            gsets[g] = new GeneSet("SET" + g, members);
+        }
+
+        return gsets;
+    }
+
+} // End class AdaptivePermutationsTest
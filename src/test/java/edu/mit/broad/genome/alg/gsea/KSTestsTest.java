@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.alg.gsea;
+
+import edu.mit.broad.genome.Headers;
+import edu.mit.broad.genome.alg.Metric;
+import edu.mit.broad.genome.alg.Metrics;
+import edu.mit.broad.genome.math.LabelledVectorProcessors;
+import edu.mit.broad.genome.math.Matrix;
+import edu.mit.broad.genome.math.Order;
+import edu.mit.broad.genome.math.RandomSeedGenerators;
+import edu.mit.broad.genome.math.SortMode;
+import edu.mit.broad.genome.math.Vector;
+import edu.mit.broad.genome.objects.Dataset;
+import edu.mit.broad.genome.objects.DefaultDataset;
+import edu.mit.broad.genome.objects.GeneSet;
+import edu.mit.broad.genome.objects.RankedList;
+import edu.mit.broad.genome.objects.Template;
+import edu.mit.broad.genome.objects.TemplateFactory;
+import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentDb;
+import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentResult;
+import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentScore;
+import edu.mit.broad.genome.objects.strucs.TemplateRandomizerType;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A run of KSTests (and the p-values and FDRs of its results) is the same -- bit for bit -- on any number of threads
+ * as the serial reference run in KSTestsTest.txt.
+ * <p/>
+ * @note the reference is what the serial KSTests gave for these runs before the permutations were run in
+ * parallel. It is only written again by a change that means to change the random streams or the arithmetic of a run
+ *
+ * @author Aravind Subramanian
+ */
+public class KSTestsTest {
+
+    private static final int NUM_ROWS = 400;
+
+    private static final int NUM_COLS = 16;
+
+    private static final int NUM_SETS = 24;
+
+    private static final int NUM_PERMS = 60;
+
+    private static final int[] NUM_THREADS = new int[]{1, 3, 4};
+
+    @Test
+    public void testPhenotypePermutations() throws Exception {
+        _assertSameAsReference("phenotype weighted Signal2Noise", "weighted", "Signal2Noise", true);
+        _assertSameAsReference("phenotype classic tTest", "classic", "tTest", true);
+    }
+
+    @Test
+    public void testGeneSetPermutations() throws Exception {
+        _assertSameAsReference("gene_set weighted Signal2Noise", "weighted", "Signal2Noise", false);
+        _assertSameAsReference("gene_set weighted_p2 Diff_of_Classes", "weighted_p2", "Diff_of_Classes", false);
+    }
+
+    @Test
+    public void testGeneSetsOfEqualSizeShareTheirNull() throws Exception {
+        final EnrichmentDb edb = _run(_createDataset(), _createGeneSets(), "weighted", "Signal2Noise", false, 3);
+        final EnrichmentResult[] results = edb.getResults();
+
+        final Map<Integer, Long> nullOfSize = new HashMap<Integer, Long>();
+        int numShared = 0;
+        for (int r = 0; r < results.length; r++) {
+            final Integer size = Integer.valueOf(results[r].getScore().getNumHits());
+            final Long rnd = Long.valueOf(_hash(results[r].getRndESS()));
+            if (nullOfSize.containsKey(size)) {
+                assertEquals(results[r].getGeneSetName(), nullOfSize.get(size), rnd);
+                numShared++;
+            } else {
+                nullOfSize.put(size, rnd);
+            }
+        }
+
+        assertTrue("no gene sets of equal size", numShared >= 7);
+    }
+
+    @Test
+    public void testPreranked() throws Exception {
+        final GeneSet[] gsets = _createGeneSets();
+        final RankedList rl = _run(_createDataset(), gsets, "weighted", "Signal2Noise", true, 1).getRankedList();
+        final List<String> expected = _reference("preranked weighted");
+
+        for (int i = 0; i < NUM_THREADS.length; i++) {
+            _assertLines("preranked on " + NUM_THREADS[i] + " threads", expected, _describe(_runPreranked(rl, gsets, NUM_THREADS[i]), NUM_THREADS[i]));
+        }
+    }
+
+    private static void _assertSameAsReference(final String label,
+                                               final String table,
+                                               final String metricName,
+                                               final boolean permuteTemplate) throws Exception {
+        final Dataset ds = _createDataset();
+        final GeneSet[] gsets = _createGeneSets();
+        final List<String> expected = _reference(label);
+
+        for (int i = 0; i < NUM_THREADS.length; i++) {
+            final List<String> actual = _describe(_run(ds, gsets, table, metricName, permuteTemplate, NUM_THREADS[i]), NUM_THREADS[i]);
+            _assertLines(label + " on " + NUM_THREADS[i] + " threads", expected, actual);
+        }
+    }
+
+    // line by line, so that a failure shows just the first difference
+    private static void _assertLines(final String msg, final List<String> expected, final List<String> actual) {
+        for (int i = 0; i < Math.min(expected.size(), actual.size()); i++) {
+            assertEquals(msg, expected.get(i), actual.get(i));
+        }
+        assertEquals(msg + " # of results", expected.size(), actual.size());
+    }
+
+    private static EnrichmentDb _run(final Dataset ds,
+                                     final GeneSet[] gsets,
+                                     final String table,
+                                     final String metricName,
+                                     final boolean permuteTemplate,
+                                     final int numThreads) throws Exception {
+
+        final String[] a = new String[NUM_COLS / 2];
+        final String[] b = new String[NUM_COLS - a.length];
+        for (int c = 0; c < NUM_COLS; c++) {
+            if (c < a.length) {
+                a[c] = "S" + c;
+            } else {
+                b[c - a.length] = "S" + c;
+            }
+        }
+        final Template template = TemplateFactory.createCategoricalTemplate("t", ds, "A", a, "B", b);
+
+        final Map mps = new HashMap();
+        mps.put(Headers.USE_MEDIAN, Boolean.FALSE);
+        mps.put(Headers.FIX_LOW, Boolean.TRUE);
+        mps.put(Headers.USE_BIASED, Boolean.FALSE);
+
+        final Metric metric = Metrics.lookupMetric(metricName);
+        final KSTests tests = new KSTests(new PrintStream(new ByteArrayOutputStream()), numThreads);
+        return tests.executeGsea(ds, template, gsets, NUM_PERMS, metric, SortMode.REAL, Order.DESCENDING,
+                new LabelledVectorProcessors.None(), new RandomSeedGenerators.Custom(149), TemplateRandomizerType.NO_BALANCE,
+                mps, new DefaultGeneSetCohort.Generator(GeneSetScoringTables.lookupGeneSetScoringTable(table), true),
+                permuteTemplate, 10, null);
+    }
+
+    private static EnrichmentDb _runPreranked(final RankedList rl, final GeneSet[] gsets, final int numThreads) throws Exception {
+        final KSTests tests = new KSTests(new PrintStream(new ByteArrayOutputStream()), numThreads);
+        return tests.executeGsea(rl, gsets, NUM_PERMS, new RandomSeedGenerators.Custom(149), null,
+                new DefaultGeneSetCohort.Generator(GeneSetScoringTables.lookupGeneSetScoringTable("weighted"), true));
+    }
+
+    // every result and its p-values and FDRs (worked out on numThreads) as a line of exact values: the real es, then its null
+    private static List<String> _describe(final EnrichmentDb edb, final int numThreads) {
+        final EnrichmentResult[] results = edb.getResults();
+        final EnrichmentResult[] finals = new PValueCalculatorImpls.GseaImpl("meandiv", numThreads).calcNPValuesAndFDR(results);
+
+        final List<String> descs = new ArrayList<String>();
+        for (int r = 0; r < finals.length; r++) {
+            final EnrichmentScore real = results[r].getScore();
+            final EnrichmentScore score = finals[r].getScore();
+            descs.add(finals[r].getGeneSetName()
+                    + " es=" + Float.floatToRawIntBits(real.getES())
+                    + " rank=" + real.getRankAtES()
+                    + " hits=" + Arrays.toString(real.getHitIndices())
+                    + " profile=" + _hash(real.getESProfile())
+                    + " | rnd=" + _hash(results[r].getRndESS())
+                    + " nes=" + Float.floatToRawIntBits(score.getNES())
+                    + " np=" + Float.floatToRawIntBits(score.getNP())
+                    + " fdr=" + Float.floatToRawIntBits(score.getFDR())
+                    + " fwer=" + Float.floatToRawIntBits(score.getFWER()));
+        }
+
+        return descs;
+    }
+
+    private static long _hash(final Vector v) {
+        long h = v.getSize();
+        for (int i = 0; i < v.getSize(); i++) {
+            h = h * 31 + Float.floatToRawIntBits(v.getElement(i));
+        }
+        return h;
+    }
+
+    // the lines of the run of label in KSTestsTest.txt (the lines after "== label")
+    private static List<String> _reference(final String label) throws Exception {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                KSTestsTest.class.getResourceAsStream("KSTestsTest.txt"), "UTF-8"));
+        try {
+            List<String> lines = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("== ")) {
+                    if (lines != null) {
+                        break;
+                    }
+                    if (line.substring(3).equals(label)) {
+                        lines = new ArrayList<String>();
+                    }
+                } else if (lines != null && line.length() > 0) {
+                    lines.add(line);
+                }
+            }
+
+            assertNotNull("no reference for: " + label, lines);
+            return lines;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static Dataset _createDataset() {
+        final Random rnd = new Random(7);
+        final Matrix m = new Matrix(NUM_ROWS, NUM_COLS);
+        for (int r = 0; r < NUM_ROWS; r++) {
+            for (int c = 0; c < NUM_COLS; c++) {
+                float v = (float) (rnd.nextGaussian() + (c < NUM_COLS / 2 && r % 7 == 0 ? 1.0 : 0));
+                if (rnd.nextInt(500) == 0) {
+                    v = Float.NaN;
+                }
+                m.setElement(r, c, v);
+            }
+        }
+
+        final List rowNames = new ArrayList();
+        for (int r = 0; r < NUM_ROWS; r++) {
+            rowNames.add("G" + r);
+        }
+
+        final List colNames = new ArrayList();
+        for (int c = 0; c < NUM_COLS; c++) {
+            colNames.add("S" + c);
+        }
+
+        return new DefaultDataset("ds", m, rowNames, colNames, true, null);
+    }
+
+    // half of them enriched in the rows that differ, some of the same size
+    private static GeneSet[] _createGeneSets() {
+        final Random rnd = new Random(11);
+        final GeneSet[] gsets = new GeneSet[NUM_SETS];
+        for (int g = 0; g < NUM_SETS; g++) {
+            final int size = g % 3 == 0 ? 25 : 10 + rnd.nextInt(40);
+            final Set<String> members = new LinkedHashSet<String>();
+            while (members.size() < size) {
+                members.add("G" + (g % 2 == 0 ? 7 * rnd.nextInt(NUM_ROWS / 7) : rnd.nextInt(NUM_ROWS)));
+            }
+            gsets[g] = new GeneSet("SET" + g, members);
+        }
+
+        return gsets;
+    }
+
+} // End class KSTestsTest
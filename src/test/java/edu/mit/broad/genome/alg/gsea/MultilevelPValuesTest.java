@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.alg.gsea;
+
+import edu.mit.broad.genome.math.RandomSeedGenerators;
+import edu.mit.broad.genome.math.Vector;
+import edu.mit.broad.genome.math.XMath;
+import edu.mit.broad.genome.objects.DefaultRankedList;
+import edu.mit.broad.genome.objects.RankedList;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The multilevel estimates of the tail chances of the es of a random gene set agree with a brute force count
+ * (to within their error) -- on both sides and for the classic and weighted schemes. The MCMC scores a set moved
+ * one member at a time in place, as HitOnlyKSCore.calculateES scores it
+ *
+ * @author Aravind Subramanian
+ */
+public class MultilevelPValuesTest {
+
+    private static final int NUM_LABELS = 300;
+
+    private static final int SIZE = 15;
+
+    private static final int NUM_BRUTE_FORCE = 50000;
+
+    // the tail chances to check: 10 %, 1 % and 0.1 %
+    private static final double[] TAIL_PROBS = new double[]{0.1, 0.01, 0.001};
+
+    @Test
+    public void testAgainstBruteForce() {
+        final String[] tables = new String[]{"classic", "weighted"};
+        for (int t = 0; t < tables.length; t++) {
+            final HitOnlyKSCore hcore = new HitOnlyKSCore(GeneSetScoringTables.lookupGeneSetScoringTable(tables[t]), _createRankedList());
+
+            // the null by brute force
+            final Random rnd = new Random(149);
+            final float[] nullEss = new float[NUM_BRUTE_FORCE];
+            for (int i = 0; i < NUM_BRUTE_FORCE; i++) {
+                nullEss[i] = hcore.calculateES(XMath.randomlySampleWithoutReplacement(SIZE, NUM_LABELS, rnd), SIZE);
+            }
+            final float[] sorted = nullEss.clone();
+            Arrays.sort(sorted);
+
+            // es at those tail chances, on both sides
+            final float[] ess = new float[2 * TAIL_PROBS.length];
+            for (int i = 0; i < TAIL_PROBS.length; i++) {
+                final int k = (int) (TAIL_PROBS[i] * NUM_BRUTE_FORCE);
+                ess[2 * i] = sorted[NUM_BRUTE_FORCE - k - 1];
+                ess[2 * i + 1] = sorted[k];
+            }
+
+            final MultilevelPValues multilevel = new MultilevelPValues();
+            final double[] probs = multilevel.calcTailProbs(hcore, SIZE, ess, new RandomSeedGenerators.Custom(7));
+            for (int i = 0; i < ess.length; i++) {
+                final double expected = _tailProb(ess[i], nullEss);
+                final double err = MultilevelPValues.calcLog2Err(probs[i], multilevel.getSampleSize());
+                final String msg = tables[t] + " es: " + ess[i] + " expected: " + expected + " multilevel: " + probs[i] + " log2err: " + err;
+                assertTrue(msg, err > 0);
+                assertEquals(msg, _log2(expected), _log2(probs[i]), Math.max(0.5, 4 * err));
+            }
+        }
+    }
+
+    @Test
+    public void testSameEstimatesFromTheSameStream() {
+        final HitOnlyKSCore hcore = new HitOnlyKSCore(GeneSetScoringTables.lookupGeneSetScoringTable("weighted"), _createRankedList());
+        final float[] ess = new float[]{0.6f, Float.NaN, -0.7f, 0.2f, 0.95f};
+        final MultilevelPValues multilevel = new MultilevelPValues();
+
+        final double[] a = multilevel.calcTailProbs(hcore, SIZE, ess, new RandomSeedGenerators.Custom(11));
+        final double[] b = multilevel.calcTailProbs(hcore, SIZE, ess, new RandomSeedGenerators.Custom(11));
+        for (int i = 0; i < ess.length; i++) {
+            assertEquals("es: " + ess[i], Double.doubleToRawLongBits(a[i]), Double.doubleToRawLongBits(b[i]));
+        }
+
+        assertTrue(Double.isNaN(a[1]));
+        for (int i = 0; i < ess.length; i++) {
+            if (i != 1) {
+                assertTrue("es: " + ess[i] + " p: " + a[i], a[i] >= multilevel.getEps() && a[i] <= 1);
+            }
+        }
+    }
+
+    @Test
+    public void testSwapsScoredInPlace() {
+        final String[] tables = new String[]{"classic", "weighted", "weighted_p2", "weighted_p1.5"};
+        for (int t = 0; t < tables.length; t++) {
+            final HitOnlyKSCore hcore = new HitOnlyKSCore(GeneSetScoringTables.lookupGeneSetScoringTable(tables[t]), _createRankedList());
+            final Random rnd = new Random(149);
+            final int[] sample = XMath.randomlySampleWithoutReplacement(SIZE, NUM_LABELS, rnd);
+            Arrays.sort(sample);
+            double totalWeight = hcore.calculateTotalWeight(sample, SIZE);
+
+            // a member at a time, the total kept up to date as the MCMC does
+            for (int m = 0; m < 500; m++) {
+                final int out = rnd.nextInt(SIZE);
+                int in;
+                do {
+                    in = rnd.nextInt(NUM_LABELS);
+                } while (Arrays.binarySearch(sample, in) >= 0);
+
+                totalWeight += hcore.getTotalTerm(in) - hcore.getTotalTerm(sample[out]);
+                sample[out] = in;
+                Arrays.sort(sample);
+
+                final double es = hcore.calculateESSorted(sample, SIZE, totalWeight);
+                assertEquals(tables[t] + " move: " + m, hcore.calculateES(sample.clone(), SIZE), es, 1e-5);
+            }
+        }
+    }
+
+    @Test
+    public void testLog2Err() {
+        assertTrue(Double.isNaN(MultilevelPValues.calcLog2Err(0, 101)));
+        assertTrue(Double.isNaN(MultilevelPValues.calcLog2Err(1.5, 101)));
+
+        // the smaller the chance (the more levels), the bigger the error
+        final double err1 = MultilevelPValues.calcLog2Err(1e-2, 101);
+        final double err2 = MultilevelPValues.calcLog2Err(1e-8, 101);
+        assertTrue(err1 > 0);
+        assertTrue(err1 + " " + err2, err2 > err1);
+    }
+
+    // chance of a rnd es on the same side and more extreme
+    private static double _tailProb(final float es, final float[] nullEss) {
+        int cnt = 0;
+        for (int i = 0; i < nullEss.length; i++) {
+            if (XMath.isPositive(es) ? nullEss[i] > es : (XMath.isNegative(nullEss[i]) && nullEss[i] < es)) {
+                cnt++;
+            }
+        }
+        return (double) cnt / nullEss.length;
+    }
+
+    private static double _log2(final double p) {
+        return Math.log(p) / Math.log(2);
+    }
+
+    private static RankedList _createRankedList() {
+        final Random rnd = new Random(3);
+        final float[] scores = new float[NUM_LABELS];
+        for (int i = 0; i < NUM_LABELS; i++) {
+            scores[i] = (float) (rnd.nextGaussian() * 2);
+        }
+        Arrays.sort(scores);
+
+        final List names = new ArrayList();
+        final Vector v = new Vector(NUM_LABELS);
+        for (int i = 0; i < NUM_LABELS; i++) {
+            names.add("G" + i);
+            v.setElement(i, scores[NUM_LABELS - i - 1]);
+        }
+
+        return new DefaultRankedList("rl", names, v, false, false);
+    }
+
+} // End class MultilevelPValuesTest
@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.math;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trips through the compact storages: float16 rounds every float to the nearest (even) half, and int16 scaled
+ * keeps every value of a row to within half a step of its row -- with NaN, the infinities, subnormals and
+ * values around the float16 max (65504 / 65520)
+ *
+ * @author Aravind Subramanian
+ */
+public class CompactMatrix2DTest {
+
+    private static final float[] SPECIALS = new float[]{
+            Float.NaN, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, 0f, -0f,
+            65504f, 65520f, -65520f, Math.nextDown(65520f), 65536f, Float.MAX_VALUE, -Float.MAX_VALUE,
+            Float.MIN_VALUE, -Float.MIN_VALUE, Float.MIN_NORMAL, 1e-42f, 1e-40f,
+            (float) Math.pow(2, -24), (float) Math.pow(2, -25), (float) (1.5 * Math.pow(2, -25)), (float) Math.pow(2, -14),
+            1f, -1f, 0.1f, 1e10f, -1e-10f};
+
+    // ---------------------------------------------------------------------------------------------------------------- //
+    // float16
+    // ---------------------------------------------------------------------------------------------------------------- //
+
+    @Test
+    public void testHalfCodesRoundTrip() {
+        for (int h = 0; h < (1 << 16); h++) {
+            final float f = CompactMatrix2D.fromHalf((short) h);
+            if (Float.isNaN(f)) {
+                assertTrue("code: " + h, Float.isNaN(CompactMatrix2D.fromHalf(CompactMatrix2D.toHalf(f))));
+            } else {
+                assertEquals("code: " + h, (short) h, CompactMatrix2D.toHalf(f));
+            }
+        }
+    }
+
+    @Test
+    public void testHalfSpecialValues() {
+        assertTrue(Float.isNaN(_half(Float.NaN)));
+        _assertBits(Float.POSITIVE_INFINITY, _half(Float.POSITIVE_INFINITY));
+        _assertBits(Float.NEGATIVE_INFINITY, _half(Float.NEGATIVE_INFINITY));
+
+        _assertBits(65504f, _half(65504f));
+        _assertBits(65504f, _half(Math.nextDown(65520f)));
+        _assertBits(Float.POSITIVE_INFINITY, _half(65520f));
+        _assertBits(Float.NEGATIVE_INFINITY, _half(-65520f));
+        _assertBits(Float.POSITIVE_INFINITY, _half(Float.MAX_VALUE));
+
+        // the subnormal halves
+        _assertBits((float) Math.pow(2, -24), _half((float) Math.pow(2, -24)));
+        _assertBits(0f, _half((float) Math.pow(2, -25)));
+        _assertBits((float) Math.pow(2, -24), _half((float) (1.5 * Math.pow(2, -25))));
+        _assertBits((float) Math.pow(2, -14), _half((float) Math.pow(2, -14)));
+        _assertBits(0f, _half(Float.MIN_VALUE));
+        _assertBits(-0f, _half(-Float.MIN_VALUE));
+
+        _assertBits(0f, _half(0f));
+        _assertBits(-0f, _half(-0f));
+    }
+
+    @Test
+    public void testHalfRandomValues() {
+        final Random rnd = new Random(149);
+        for (int i = 0; i < 200000; i++) {
+            final float f;
+            switch (i % 3) {
+                case 0:
+                    f = Float.intBitsToFloat(rnd.nextInt());
+                    break;
+                case 1: // around the halves, subnormals to infinity
+                    f = (float) ((rnd.nextBoolean() ? 1 : -1) * Math.pow(2, -26 + rnd.nextDouble() * 43));
+                    break;
+                default:
+                    f = (float) (rnd.nextGaussian() * 100);
+            }
+
+            if (Float.isNaN(f)) {
+                assertTrue(Float.isNaN(_half(f)));
+            } else {
+                _assertBits(f + " (" + Float.floatToRawIntBits(f) + ")", _nearestHalf(f), _half(f));
+            }
+        }
+    }
+
+    @Test
+    public void testHalfMatrix() {
+        final Matrix m = new Matrix(3, SPECIALS.length, MatrixStorage.FLOAT16);
+        m.setRow(0, SPECIALS);
+        for (int c = 0; c < SPECIALS.length; c++) {
+            m.setElement(1, c, SPECIALS[c]);
+        }
+        m.setRow(2, m, 0);
+
+        final float[] row = new float[SPECIALS.length];
+        for (int r = 0; r < 3; r++) {
+            m.getRow(r, row);
+            for (int c = 0; c < SPECIALS.length; c++) {
+                _assertBits("row: " + r + " " + SPECIALS[c], _half(SPECIALS[c]), row[c]);
+                _assertBits("row: " + r + " " + SPECIALS[c], _half(SPECIALS[c]), m.getElement(r, c));
+            }
+        }
+    }
+
+    private static float _half(final float f) {
+        return CompactMatrix2D.fromHalf(CompactMatrix2D.toHalf(f));
+    }
+
+    // brute force: the nearest of all the (positive, finite) halves, the even one on a tie
+    private static float _nearestHalf(final float f) {
+        final double abs = Math.abs((double) f);
+        float nearest;
+        if (abs >= 65520) {
+            nearest = Float.POSITIVE_INFINITY;
+        } else {
+            int lo = 0; // the largest code <= abs
+            int hi = 0x7bff;
+            while (lo < hi) {
+                final int mid = (lo + hi + 1) >>> 1;
+                if (CompactMatrix2D.fromHalf((short) mid) <= abs) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+
+            int code = lo;
+            if (lo < 0x7bff) {
+                final double below = abs - CompactMatrix2D.fromHalf((short) lo);
+                final double above = CompactMatrix2D.fromHalf((short) (lo + 1)) - abs;
+                if (above < below || (above == below && (lo & 1) != 0)) {
+                    code = lo + 1;
+                }
+            }
+            nearest = CompactMatrix2D.fromHalf((short) code);
+        }
+
+        return (Float.floatToRawIntBits(f) < 0) ? -nearest : nearest;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------- //
+    // int16 scaled
+    // ---------------------------------------------------------------------------------------------------------------- //
+
+    @Test
+    public void testScaledNonFiniteAndConstantRows() {
+        final float[][] rows = new float[][]{
+                {Float.NaN, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, 1.5f, 2.5f},
+                {Float.NaN, Float.NaN, Float.NaN, Float.NaN, Float.NaN},
+                {Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NaN, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY},
+                {3.25f, 3.25f, 3.25f, 3.25f, 3.25f},
+                {65520f, 65520f, Float.NaN, 65520f, 65520f},
+                {Float.MIN_VALUE, Float.MIN_VALUE, Float.MIN_VALUE, Float.MIN_VALUE, Float.MIN_VALUE},
+                {0f, 0f, 0f, 0f, 0f}};
+
+        final Matrix m = new Matrix(rows.length, 5, MatrixStorage.INT16_SCALED);
+        for (int r = 0; r < rows.length; r++) {
+            m.setRow(r, rows[r]);
+        }
+
+        for (int r = 0; r < rows.length; r++) {
+            for (int c = 0; c < 5; c++) {
+                final float v = rows[r][c];
+                if (Float.isNaN(v) || Float.isInfinite(v) || r >= 3) { // all but the finite values of row 0
+                    assertEquals("row: " + r + " col: " + c, v, m.getElement(r, c), 0f);
+                }
+            }
+        }
+
+        _assertScaled(rows[0], m, 0);
+    }
+
+    @Test
+    public void testScaledRandomRows() {
+        final Random rnd = new Random(7);
+        final int ncols = 40;
+        final int nrows = 600;
+        final float[][] rows = new float[nrows][ncols];
+        final Matrix m = new Matrix(nrows, ncols, MatrixStorage.INT16_SCALED);
+        for (int r = 0; r < nrows; r++) {
+            for (int c = 0; c < ncols; c++) {
+                rows[r][c] = _scaledValue(rnd, r);
+            }
+            m.setRow(r, rows[r]);
+        }
+
+        for (int r = 0; r < nrows; r++) {
+            _assertScaled(rows[r], m, r);
+        }
+    }
+
+    @Test
+    public void testScaledSubnormalRows() {
+        final float[][] rows = new float[][]{
+                {1e-42f, 1e-40f, 5e-41f, 3e-42f},
+                {Float.MIN_VALUE, 2 * Float.MIN_VALUE, 3 * Float.MIN_VALUE, 0f},
+                {-1e-40f, 1e-40f, 0f, 7e-41f},
+                {Float.MIN_NORMAL, Math.nextDown(Float.MIN_NORMAL), 1e-39f, 1e-45f},
+                {1e-42f, 1f, 0.5f, 1e-40f}};
+
+        final Matrix m = new Matrix(rows.length, 4, MatrixStorage.INT16_SCALED);
+        for (int r = 0; r < rows.length; r++) {
+            m.setRow(r, rows[r]);
+        }
+
+        for (int r = 0; r < rows.length; r++) {
+            _assertScaled(rows[r], m, r);
+        }
+    }
+
+    @Test
+    public void testScaledSetElementOutsideTheRow() {
+        final float[] values = new float[]{1f, 2f, 3f, 4f, 5f, 6f};
+        final Matrix m = new Matrix(1, values.length, MatrixStorage.INT16_SCALED);
+        m.setRow(0, values);
+
+        // in the range: the others stay as they are
+        m.setElement(0, 1, 2.5f);
+        values[1] = 2.5f;
+        _assertScaled(values, m, 0);
+
+        // outside: the row is coded again
+        m.setElement(0, 4, 1e6f);
+        values[4] = 1e6f;
+        _assertScaled(values, m, 0);
+
+        m.setElement(0, 0, -65520f);
+        values[0] = -65520f;
+        _assertScaled(values, m, 0);
+    }
+
+    // a mix of magnitudes, depending on the row
+    private static float _scaledValue(final Random rnd, final int row) {
+        if (rnd.nextInt(30) == 0) {
+            return Float.NaN;
+        }
+
+        switch (row % 6) {
+            case 0:
+                return (float) rnd.nextGaussian();
+            case 1:
+                return (float) (rnd.nextGaussian() * 1e6 + 65520);
+            case 2:
+                return (float) (rnd.nextDouble() * 1e-30);
+            case 3:
+                return (float) ((rnd.nextBoolean() ? 1 : -1) * Math.pow(10, rnd.nextDouble() * 60 - 30));
+            case 4:
+                return (float) (1000 + rnd.nextDouble() * 1e-3);
+            default:
+                return rnd.nextInt(10) == 0 ? Float.POSITIVE_INFINITY : (float) (rnd.nextGaussian() * 1e30);
+        }
+    }
+
+    // each value to within half a step (of the finite range of its row over 65532 steps) and float rounding
+    private static void _assertScaled(final float[] expected, final Matrix m, final int row) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < expected.length; c++) {
+            if (!Float.isNaN(expected[c]) && !Float.isInfinite(expected[c])) {
+                min = Math.min(min, expected[c]);
+                max = Math.max(max, expected[c]);
+            }
+        }
+
+        final double step = (max - min) / 65532;
+        final double tolerance = step * 0.51 + 2 * Math.ulp((float) Math.max(Math.abs(min), Math.abs(max)));
+
+        final float[] actual = new float[expected.length];
+        m.getRow(row, actual);
+        for (int c = 0; c < expected.length; c++) {
+            final String msg = "row: " + row + " col: " + c + " " + expected[c];
+            assertEquals(msg, Float.floatToRawIntBits(actual[c]), Float.floatToRawIntBits(m.getElement(row, c)));
+            if (Float.isNaN(expected[c]) || Float.isInfinite(expected[c])) {
+                assertEquals(msg, expected[c], actual[c], 0f);
+            } else {
+                assertEquals(msg, expected[c], actual[c], tolerance);
+            }
+        }
+    }
+
+    private static void _assertBits(final float expected, final float actual) {
+        _assertBits(String.valueOf(expected), expected, actual);
+    }
+
+    private static void _assertBits(final String msg, final float expected, final float actual) {
+        assertEquals(msg, Float.floatToRawIntBits(expected), Float.floatToRawIntBits(actual));
+    }
+
+} // End class CompactMatrix2DTest
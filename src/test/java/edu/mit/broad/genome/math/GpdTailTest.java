@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.math;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The GPD tail of nulls with a known tail: exponential (shape 0) and uniform (bounded, shape 1) -- p-values
+ * below 1 / the size of the null, close to the true ones, and never 0
+ *
+ * @author Aravind Subramanian
+ */
+public class GpdTailTest {
+
+    private static final int NUM_NULL = 10000;
+
+    @Test
+    public void testExponentialNull() {
+        final float[] nullSorted = _exponentialNull(149);
+        final float[] scores = new float[]{10f, 11f, 12f};
+        for (int i = 0; i < scores.length; i++) {
+            final GpdTail tail = GpdTail.fit(scores[i], nullSorted);
+            assertNotNull(tail);
+            assertTrue(tail.toString(), tail.isAccepted());
+            assertEquals(tail.toString(), 0, tail.getShape(), 0.2);
+            assertFalse(tail.isPastEnd());
+
+            // well below 1 / NUM_NULL -- and to within a factor of 3 of the true exp(-score)
+            final double p = tail.getPValue();
+            assertTrue(scores[i] + " p: " + p, p < 1.0 / NUM_NULL);
+            assertEquals(scores[i] + " p: " + p, -scores[i], Math.log(p), Math.log(3));
+        }
+    }
+
+    @Test
+    public void testUniformNullPastTheEnd() {
+        final Random rnd = new Random(7);
+        final float[] nullSorted = new float[NUM_NULL];
+        for (int i = 0; i < NUM_NULL; i++) {
+            nullSorted[i] = rnd.nextFloat();
+        }
+        Arrays.sort(nullSorted);
+
+        // bounded at (about) 1
+        final GpdTail tail = GpdTail.fit(1.5f, nullSorted);
+        assertNotNull(tail);
+        assertTrue(tail.toString(), tail.isAccepted());
+        assertTrue(tail.toString(), tail.getShape() > 0.5);
+
+        // past the end: the (heavier) exponential tail -- not 0
+        assertTrue(tail.isPastEnd());
+        final double p = tail.getPValue();
+        assertTrue("p: " + p, p > 0 && p < 1.0 / NUM_NULL);
+    }
+
+    @Test
+    public void testScoreNotInTheTail() {
+        final float[] nullSorted = _exponentialNull(149);
+        final GpdTail tail = GpdTail.fit(0.5f, nullSorted);
+        assertNotNull(tail);
+        assertTrue(Double.isNaN(tail.getPValue()));
+    }
+
+    @Test
+    public void testTooSmallANull() {
+        final float[] nullSorted = new float[4 * GpdTail.MIN_NUM_EXCEEDANCES - 1];
+        for (int i = 0; i < nullSorted.length; i++) {
+            nullSorted[i] = i;
+        }
+        assertNull(GpdTail.fit(100f, nullSorted));
+    }
+
+    @Test
+    public void testSameFitOnEveryCall() {
+        final float[] nullSorted = _exponentialNull(11);
+        final GpdTail a = GpdTail.fit(12f, nullSorted);
+        final GpdTail b = GpdTail.fit(12f, nullSorted);
+        assertEquals(a.getNumExceedances(), b.getNumExceedances());
+        assertEquals(Double.doubleToRawLongBits(a.getAdPValue()), Double.doubleToRawLongBits(b.getAdPValue()));
+        assertEquals(Double.doubleToRawLongBits(a.getPValue()), Double.doubleToRawLongBits(b.getPValue()));
+    }
+
+    private static float[] _exponentialNull(final long seed) {
+        final Random rnd = new Random(seed);
+        final float[] nullSorted = new float[NUM_NULL];
+        for (int i = 0; i < NUM_NULL; i++) {
+            nullSorted[i] = (float) -Math.log(1 - rnd.nextDouble());
+        }
+        Arrays.sort(nullSorted);
+        return nullSorted;
+    }
+
+} // End class GpdTailTest
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.math;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * IndexSorter gives the same order as a (stable) sort of DoubleElements with the DoubleElementComparator
+ *
+ * @author Aravind Subramanian
+ */
+public class IndexSorterTest {
+
+    private static final double[] SPECIALS = new double[]{Double.NaN, 0d, -0d, 1d, -1d, Double.POSITIVE_INFINITY,
+            Double.NEGATIVE_INFINITY, Double.MIN_VALUE, -Double.MIN_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE};
+
+    @Test
+    public void testEmptyAndOne() {
+        _assertSameOrder(new double[0]);
+        _assertSameOrder(new double[]{Double.NaN});
+        _assertSameOrder(new double[]{-2.5d});
+    }
+
+    @Test
+    public void testSpecialValues() {
+        _assertSameOrder(SPECIALS);
+
+        final double[] twice = new double[SPECIALS.length * 2];
+        for (int i = 0; i < twice.length; i++) {
+            twice[i] = SPECIALS[(i * 7) % SPECIALS.length];
+        }
+        _assertSameOrder(twice);
+    }
+
+    @Test
+    public void testRandomWithTies() {
+        final Random rnd = new Random(149);
+        for (int n = 2; n < 5000; n = n * 3 + 1) {
+            final double[] values = new double[n];
+            for (int i = 0; i < n; i++) {
+                switch (rnd.nextInt(5)) {
+                    case 0:
+                        values[i] = SPECIALS[rnd.nextInt(SPECIALS.length)];
+                        break;
+                    case 1: // ties, and ties of magnitude
+                        values[i] = (rnd.nextInt(7) - 3) * 0.5d;
+                        break;
+                    case 2:
+                        values[i] = (float) rnd.nextGaussian(); // as scores are
+                        break;
+                    case 3:
+                        values[i] = Double.longBitsToDouble(rnd.nextLong());
+                        break;
+                    default:
+                        values[i] = rnd.nextGaussian() * 1e6;
+                }
+            }
+            _assertSameOrder(values);
+        }
+    }
+
+    private static void _assertSameOrder(final double[] values) {
+        for (int s = 0; s < SortMode.ALL.length; s++) {
+            for (int o = 0; o < Order.ALL.length; o++) {
+                final List<DoubleElement> dels = new ArrayList<DoubleElement>();
+                for (int i = 0; i < values.length; i++) {
+                    dels.add(new DoubleElement(i, values[i]));
+                }
+                DoubleElement.sort(SortMode.ALL[s], Order.ALL[o], dels);
+
+                assertArrayEquals(SortMode.ALL[s] + " " + Order.ALL[o], DoubleElement.indexArray(dels),
+                        IndexSorter.sort(values, SortMode.ALL[s], Order.ALL[o]));
+            }
+        }
+    }
+
+} // End class IndexSorterTest
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.math;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The binary searches of XMath.getMoreThanCount and getLessThanCount count as walking the sorted vector does
+ *
+ * @author Aravind Subramanian
+ */
+public class XMathTest {
+
+    private static final float[] SPECIALS = new float[]{Float.NaN, 0f, -0f, 1f, -1f, Float.POSITIVE_INFINITY,
+            Float.NEGATIVE_INFINITY, Float.MIN_VALUE, -Float.MIN_VALUE};
+
+    @Test
+    public void testEmpty() {
+        for (int i = 0; i < SPECIALS.length; i++) {
+            _assertCounts(new float[0], SPECIALS[i]);
+        }
+    }
+
+    @Test
+    public void testRandomWithTiesAndNaNs() {
+        final Random rnd = new Random(149);
+        for (int n = 1; n < 3000; n = n * 2 + 1) {
+            for (int trial = 0; trial < 5; trial++) {
+                final float[] values = new float[n];
+                for (int i = 0; i < n; i++) {
+                    values[i] = _value(rnd, trial);
+                }
+
+                for (int q = 0; q < 200; q++) {
+                    _assertCounts(values, rnd.nextBoolean() ? values[rnd.nextInt(n)] : _value(rnd, trial));
+                }
+                for (int i = 0; i < SPECIALS.length; i++) {
+                    _assertCounts(values, SPECIALS[i]);
+                }
+            }
+        }
+    }
+
+    // trial 0 has no NaNs, trial 4 mostly NaNs
+    private static float _value(final Random rnd, final int trial) {
+        final int k = rnd.nextInt(10);
+        if (trial > 0 && k < trial * 2) {
+            return Float.NaN;
+        }
+
+        if (k == 9) {
+            return SPECIALS[rnd.nextInt(SPECIALS.length)];
+        }
+
+        return k < 5 ? (rnd.nextInt(9) - 4) * 0.25f : (float) rnd.nextGaussian();
+    }
+
+    private static void _assertCounts(final float[] values, final float value) {
+        final Vector posToNeg = new Vector(values.clone(), false);
+        posToNeg.revsort();
+        assertEquals("more than: " + value, _linearMoreThanCount(value, posToNeg), XMath.getMoreThanCount(value, posToNeg));
+
+        final Vector lowToHigh = new Vector(values.clone(), false);
+        lowToHigh.sort();
+        assertEquals("less than: " + value, _linearLessThanCount(value, lowToHigh), XMath.getLessThanCount(value, lowToHigh));
+    }
+
+    private static int _linearMoreThanCount(final float value, final Vector sorted_pos_to_neg) {
+        int cnt = 0;
+        for (int i = 0; i < sorted_pos_to_neg.getSize(); i++) {
+            if (value > sorted_pos_to_neg.getElement(i)) {
+                break;
+            }
+            cnt++;
+        }
+
+        return cnt;
+    }
+
+    private static int _linearLessThanCount(final float value, final Vector sorted_low_to_high) {
+        int cnt = 0;
+        for (int i = 0; i < sorted_low_to_high.getSize(); i++) {
+            if (value < sorted_low_to_high.getElement(i)) {
+                break;
+            }
+            cnt++;
+        }
+
+        return cnt;
+    }
+
+} // End class XMathTest
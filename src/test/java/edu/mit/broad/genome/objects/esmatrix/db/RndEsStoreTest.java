@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.objects.esmatrix.db;
+
+import edu.mit.broad.genome.math.Vector;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Every kind of RndEsStore (heap, off heap and mapped) keeps the same values as a float[][] -- however they are written
+ * and read (by element, by column or by row)
+ *
+ * @author Aravind Subramanian
+ */
+public class RndEsStoreTest {
+
+    private static final String[] KINDS = new String[]{RndEsStore.HEAP, RndEsStore.OFF_HEAP, RndEsStore.MAPPED};
+
+    private static final int NUM_SETS = 37;
+
+    private static final int NUM_PERMS = 53;
+
+    @Test
+    public void testNewStoreIsAllZero() {
+        for (int k = 0; k < KINDS.length; k++) {
+            final RndEsStore store = RndEsStore.create(KINDS[k], NUM_SETS, NUM_PERMS);
+            assertEquals(NUM_SETS, store.getNumSets());
+            assertEquals(NUM_PERMS, store.getNumPerms());
+            _assertSame(KINDS[k], new float[NUM_SETS][NUM_PERMS], store);
+        }
+    }
+
+    @Test
+    public void testWriteAndRead() {
+        for (int k = 0; k < KINDS.length; k++) {
+            final Random rnd = new Random(149);
+            final float[][] expected = new float[NUM_SETS][NUM_PERMS];
+            final RndEsStore store = RndEsStore.create(KINDS[k], NUM_SETS, NUM_PERMS);
+
+            // every perm as a column
+            final float[] column = new float[NUM_SETS];
+            for (int p = 0; p < NUM_PERMS; p++) {
+                for (int s = 0; s < NUM_SETS; s++) {
+                    column[s] = _value(rnd);
+                    expected[s][p] = column[s];
+                }
+                store.setColumn(p, column);
+            }
+            _assertSame(KINDS[k], expected, store);
+
+            // some sets as rows
+            final float[] row = new float[NUM_PERMS];
+            for (int s = 0; s < NUM_SETS; s += 3) {
+                for (int p = 0; p < NUM_PERMS; p++) {
+                    row[p] = _value(rnd);
+                    expected[s][p] = row[p];
+                }
+                store.setRow(s, row);
+            }
+            _assertSame(KINDS[k], expected, store);
+
+            // and elements
+            for (int i = 0; i < 500; i++) {
+                final int s = rnd.nextInt(NUM_SETS);
+                final int p = rnd.nextInt(NUM_PERMS);
+                expected[s][p] = _value(rnd);
+                store.setElement(s, p, expected[s][p]);
+            }
+            _assertSame(KINDS[k], expected, store);
+        }
+    }
+
+    @Test
+    public void testSortColumn() {
+        for (int k = 0; k < KINDS.length; k++) {
+            final Random rnd = new Random(7);
+            final float[][] expected = new float[NUM_SETS][NUM_PERMS];
+            final RndEsStore store = RndEsStore.create(KINDS[k], NUM_SETS, NUM_PERMS);
+            for (int s = 0; s < NUM_SETS; s++) {
+                for (int p = 0; p < NUM_PERMS; p++) {
+                    expected[s][p] = _value(rnd);
+                    store.setElement(s, p, expected[s][p]);
+                }
+            }
+
+            final float[] scratch = new float[NUM_SETS];
+            final float[] column = new float[NUM_SETS];
+            for (int p = 0; p < NUM_PERMS; p += 2) {
+                store.sortColumn(p, scratch);
+                for (int s = 0; s < NUM_SETS; s++) {
+                    column[s] = expected[s][p];
+                }
+                Arrays.sort(column);
+                for (int s = 0; s < NUM_SETS; s++) {
+                    expected[s][p] = column[s];
+                }
+            }
+            _assertSame(KINDS[k], expected, store);
+        }
+    }
+
+    @Test
+    public void testExtraPerms() {
+        for (int k = 0; k < KINDS.length; k++) {
+            final RndEsStore store = RndEsStore.create(KINDS[k], NUM_SETS, NUM_PERMS);
+            assertFalse(store.hasExtraPerms());
+            assertEquals(0, store.getNumExtraPerms(3));
+
+            store.setExtraPerms(3, 1000, 600, 2);
+
+            assertTrue(store.hasExtraPerms());
+            assertEquals(1000, store.getNumExtraPerms(3));
+            assertEquals(600, store.getNumExtraSameSide(3));
+            assertEquals(2, store.getNumExtraMoreExtreme(3));
+            assertEquals(0, store.getNumExtraPerms(4));
+        }
+    }
+
+    @Test
+    public void testNPEstimates() {
+        for (int k = 0; k < KINDS.length; k++) {
+            final RndEsStore store = RndEsStore.create(KINDS[k], NUM_SETS, NUM_PERMS);
+            assertFalse(store.hasNPEstimates());
+            assertTrue(Float.isNaN(store.getNPEstimate(3)));
+
+            store.setNPEstimate(5, 1e-6f, 0.5f);
+
+            assertTrue(store.hasNPEstimates());
+            assertEquals(1e-6f, store.getNPEstimate(5), 0f);
+            assertEquals(0.5f, store.getNPLog2Err(5), 0f);
+            assertTrue(Float.isNaN(store.getNPEstimate(4)));
+        }
+    }
+
+    private static float _value(final Random rnd) {
+        switch (rnd.nextInt(10)) {
+            case 0:
+                return Float.NaN;
+            case 1:
+                return -0f;
+            default:
+                return (float) rnd.nextGaussian();
+        }
+    }
+
+    private static void _assertSame(final String kind, final float[][] expected, final RndEsStore store) {
+        final float[] column = new float[NUM_SETS];
+        final float[] row = new float[NUM_PERMS];
+        for (int p = 0; p < NUM_PERMS; p++) {
+            store.getColumn(p, column);
+            for (int s = 0; s < NUM_SETS; s++) {
+                assertEquals(kind + " set: " + s + " perm: " + p, Float.floatToRawIntBits(expected[s][p]), Float.floatToRawIntBits(column[s]));
+                assertEquals(kind + " set: " + s + " perm: " + p, Float.floatToRawIntBits(expected[s][p]), Float.floatToRawIntBits(store.getElement(s, p)));
+            }
+        }
+
+        for (int s = 0; s < NUM_SETS; s++) {
+            store.getRow(s, row);
+            assertArrayEquals(kind + " set: " + s, expected[s], row, 0f);
+
+            final Vector v = store.getRowV(s);
+            assertEquals(NUM_PERMS, v.getSize());
+            for (int p = 0; p < NUM_PERMS; p++) {
+                assertEquals(kind + " set: " + s + " perm: " + p, Float.floatToRawIntBits(expected[s][p]), Float.floatToRawIntBits(v.getElement(p)));
+            }
+        }
+    }
+
+} // End class RndEsStoreTest
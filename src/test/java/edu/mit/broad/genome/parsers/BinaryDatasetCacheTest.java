@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.parsers;
+
+import edu.mit.broad.genome.math.MatrixStorage;
+import edu.mit.broad.genome.objects.Dataset;
+import edu.mit.broad.genome.objects.FeatureAnnot;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A dataset read back from its cache file is the dataset parsed from the source -- as long as the source is as it
+ * was when the cache was written
+ *
+ * @author Aravind Subramanian
+ */
+public class BinaryDatasetCacheTest {
+
+    private static final int NUM_ROWS = 500;
+
+    private static final int NUM_COLS = 12;
+
+    @Rule
+    public TemporaryFolder fTmp = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final File source = _writeGct("d.gct", 149);
+        final Dataset parsed = _parse(source);
+        final File cacheFile = BinaryDatasetCache.getCacheFile(fTmp.newFolder("cache"), source);
+
+        assertNull(BinaryDatasetCache.read(source, cacheFile));
+        assertTrue(BinaryDatasetCache.write(source, parsed, cacheFile));
+
+        final Dataset cached = BinaryDatasetCache.read(source, cacheFile);
+        assertNotNull(cached);
+        assertEquals(MatrixStorage.MAPPED, cached.getMatrix().getStorage());
+        _assertSame(parsed, cached);
+    }
+
+    @Test
+    public void testChangedSource() throws Exception {
+        final File source = _writeGct("d.gct", 149);
+        final File cacheFile = BinaryDatasetCache.getCacheFile(fTmp.newFolder("cache"), source);
+        assertTrue(BinaryDatasetCache.write(source, _parse(source), cacheFile));
+
+        // only touched: the same content, so still a hit (and the new time is kept)
+        assertTrue(source.setLastModified(source.lastModified() - 60000));
+        assertNotNull(BinaryDatasetCache.read(source, cacheFile));
+        assertNotNull(BinaryDatasetCache.read(source, cacheFile));
+
+        // other values of the same size
+        _writeGct("d.gct", 7);
+        assertTrue(source.setLastModified(source.lastModified() + 60000));
+        assertNull(BinaryDatasetCache.read(source, cacheFile));
+    }
+
+    @Test
+    public void testCompactStorageIsCachedApart() throws Exception {
+        final File source = _writeGct("d.gct", 149);
+        final File cacheDir = fTmp.newFolder("cache");
+
+        assertFalse(BinaryDatasetCache.getCacheFile(cacheDir, source).equals(
+                BinaryDatasetCache.getCacheFile(cacheDir, source, MatrixStorage.FLOAT16)));
+        assertEquals(BinaryDatasetCache.getCacheFile(cacheDir, source),
+                BinaryDatasetCache.getCacheFile(cacheDir, source, MatrixStorage.MAPPED));
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        final File cacheDir = fTmp.newFolder("cache");
+        final File[] cacheFiles = new File[3];
+        final File[] sources = new File[3];
+        for (int i = 0; i < 3; i++) {
+            sources[i] = _writeGct("d" + i + ".gct", i);
+            cacheFiles[i] = BinaryDatasetCache.getCacheFile(cacheDir, sources[i]);
+            assertTrue(BinaryDatasetCache.write(sources[i], _parse(sources[i]), cacheFiles[i]));
+            assertTrue(cacheFiles[i].setLastModified(System.currentTimeMillis() - (10 - i) * 60000L));
+        }
+
+        // a read makes the oldest the most recently used
+        assertNotNull(BinaryDatasetCache.read(sources[0], cacheFiles[0]));
+
+        final long len = cacheFiles[1].length();
+        BinaryDatasetCache.evict(cacheDir, 2 * len + len / 2);
+        assertTrue(cacheFiles[0].exists());
+        assertFalse(cacheFiles[1].exists());
+        assertTrue(cacheFiles[2].exists());
+
+        BinaryDatasetCache.evict(cacheDir, 0);
+        assertFalse(cacheFiles[0].exists());
+        assertFalse(cacheFiles[2].exists());
+    }
+
+    private File _writeGct(final String name, final long seed) throws Exception {
+        final Random rnd = new Random(seed);
+        final StringBuilder sb = new StringBuilder("#1.2\n" + NUM_ROWS + "\t" + NUM_COLS + "\nName\tDescription");
+        for (int c = 0; c < NUM_COLS; c++) {
+            sb.append("\tS").append(c);
+        }
+        sb.append('\n');
+
+        for (int r = 0; r < NUM_ROWS; r++) {
+            sb.append('G').append(r).append("\tdesc é ").append(r);
+            for (int c = 0; c < NUM_COLS; c++) {
+                sb.append('\t').append(r % 50 == 0 && c == 3 ? "NaN" : String.format("%.4f", rnd.nextGaussian()));
+            }
+            sb.append('\n');
+        }
+
+        final File file = new File(fTmp.getRoot(), name);
+        final OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(sb.toString().getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+        return file;
+    }
+
+    private static Dataset _parse(final File file) throws Exception {
+        return (Dataset) new GctParser().parse(file.getName(), file).get(0);
+    }
+
+    private static void _assertSame(final Dataset expected, final Dataset actual) {
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getComment(), actual.getComment());
+        assertEquals(expected.getColumnNames(), actual.getColumnNames());
+        assertEquals(expected.getRowNames(), actual.getRowNames());
+
+        final FeatureAnnot efann = expected.getAnnot().getFeatureAnnot();
+        final FeatureAnnot afann = actual.getAnnot().getFeatureAnnot();
+        for (int r = 0; r < NUM_ROWS; r++) {
+            assertEquals(efann.getNativeDesc(expected.getRowName(r)), afann.getNativeDesc(actual.getRowName(r)));
+            for (int c = 0; c < NUM_COLS; c++) {
+                assertEquals("row: " + r + " col: " + c, Float.floatToRawIntBits(expected.getElement(r, c)),
+                        Float.floatToRawIntBits(actual.getElement(r, c)));
+            }
+        }
+    }
+
+} // End class BinaryDatasetCacheTest
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.parsers;
+
+import edu.mit.broad.genome.math.Matrix;
+import edu.mit.broad.genome.math.MatrixStorage;
+import edu.mit.broad.genome.objects.Dataset;
+import edu.mit.broad.genome.objects.DefaultDataset;
+import edu.mit.broad.genome.objects.FeatureAnnot;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Parsing a (big) dataset file in chunks on several threads gives the same dataset as parsing it serially
+ * -- for every format that can be parsed in chunks, with the line endings, comments and odd values they allow
+ *
+ * @author Aravind Subramanian
+ */
+public class ChunkedParseTest {
+
+    // enough for several chunks of at least 1 MB
+    private static final int NUM_ROWS = 12000;
+
+    private static final int NUM_COLS = 50;
+
+    private static final int NUM_THREADS = 4;
+
+    @Rule
+    public TemporaryFolder fTmp = new TemporaryFolder();
+
+    @Test
+    public void testGct() throws Exception {
+        final StringBuilder sb = new StringBuilder("#1.2\n" + NUM_ROWS + "\t" + NUM_COLS + "\nName\tDescription" + _colNames("\t", "") + "\n");
+        _appendRows(sb, "\n", true, false, true, false);
+        _assertSame(GctParser.class, _write("d.gct", sb));
+    }
+
+    @Test
+    public void testGctCrlfWithCommentsAndEmptyLines() throws Exception {
+        final StringBuilder sb = new StringBuilder("#1.2\r\n" + NUM_ROWS + "\t" + NUM_COLS + "\r\nName\tDescription" + _colNames("\t", "") + "\r\n");
+        _appendRows(sb, "\r\n", true, true, true, false);
+        _assertSame(GctParser.class, _write("d_crlf.gct", sb));
+    }
+
+    @Test
+    public void testGctBadNumber() throws Exception {
+        final StringBuilder sb = new StringBuilder("#1.2\n" + (NUM_ROWS + 1) + "\t" + NUM_COLS + "\nName\tDescription" + _colNames("\t", "") + "\n");
+        _appendRows(sb, "\n", true, false, true, false);
+        sb.append("G_BAD\tbad\t1.2.3");
+        for (int c = 1; c < NUM_COLS; c++) {
+            sb.append("\t1");
+        }
+        sb.append('\n');
+
+        final File file = _write("d_bad.gct", sb);
+        assertNull(new GctParser().parseChunked(file.getName(), file, NUM_THREADS));
+
+        // and the serial parse gives the error
+        final InputStream is = new BufferedInputStream(new FileInputStream(file));
+        try {
+            new GctParser().parse(file.getName(), is);
+            fail("no error for a bad number");
+        } catch (NumberFormatException expected) {
+            // as expected
+        } finally {
+            is.close();
+        }
+    }
+
+    @Test
+    public void testGctIntoCompactStorage() throws Exception {
+        final StringBuilder sb = new StringBuilder("#1.2\n" + NUM_ROWS + "\t" + NUM_COLS + "\nName\tDescription" + _colNames("\t", "") + "\n");
+        _appendRows(sb, "\n", true, false, true, false);
+        final File file = _write("d_compact.gct", sb);
+
+        final Dataset floats = (Dataset) new GctParser().parse(file.getName(), file).get(0);
+        final Matrix expected = new Matrix(floats.getMatrix(), MatrixStorage.INT16_SCALED);
+
+        final GctParser serial = new GctParser();
+        serial.setMatrixStorage(MatrixStorage.INT16_SCALED);
+        final GctParser chunked = new GctParser();
+        chunked.setMatrixStorage(MatrixStorage.INT16_SCALED);
+
+        final Matrix[] actuals = new Matrix[]{
+                ((Dataset) serial.parse(file.getName(), file).get(0)).getMatrix(),
+                ((Dataset) chunked.parseChunked(file.getName(), file, NUM_THREADS).get(0)).getMatrix()};
+
+        for (int i = 0; i < actuals.length; i++) {
+            assertEquals(MatrixStorage.INT16_SCALED, actuals[i].getStorage());
+            for (int r = 0; r < NUM_ROWS; r++) {
+                for (int c = 0; c < NUM_COLS; c++) {
+                    assertEquals("row: " + r + " col: " + c, Float.floatToRawIntBits(expected.getElement(r, c)),
+                            Float.floatToRawIntBits(actuals[i].getElement(r, c)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTxt() throws Exception {
+        final StringBuilder sb = new StringBuilder("Name\tDescription" + _colNames("\t", "") + "\n");
+        _appendRows(sb, "\n", true, false, true, false);
+        _assertSame(TxtDatasetParser.class, _write("d.txt", sb));
+    }
+
+    @Test
+    public void testTxtNoDescCrlf() throws Exception {
+        final StringBuilder sb = new StringBuilder("Name" + _colNames("\t", "") + "\r\n");
+        _appendRows(sb, "\r\n", false, false, true, false);
+        _assertSame(TxtDatasetParser.class, _write("d_nodesc.txt", sb));
+    }
+
+    @Test
+    public void testPcl() throws Exception {
+        final StringBuilder sb = new StringBuilder("UNIQID\tNAME\tGWEIGHT" + _colNames("\t", "") + "\nEWEIGHT\t\t");
+        for (int c = 0; c < NUM_COLS; c++) {
+            sb.append("\t1");
+        }
+        sb.append('\n');
+        _appendRows(sb, "\n", true, false, true, true);
+        _assertSame(PclParser.class, _write("d.pcl", sb));
+    }
+
+    @Test
+    public void testRes() throws Exception {
+        final StringBuilder sb = new StringBuilder("Description\tAccession" + _colNames("\t", "\t") + "\n");
+        for (int c = 0; c < NUM_COLS; c++) {
+            sb.append("\tx/scale factor=1\t");
+        }
+        sb.append('\n').append(NUM_ROWS).append('\n');
+
+        final Random rnd = new Random(7);
+        final String calls = "PAM";
+        for (int r = 0; r < NUM_ROWS; r++) {
+            sb.append("desc ").append(r).append("\tG").append(r);
+            for (int c = 0; c < NUM_COLS; c++) {
+                sb.append('\t').append(_value(rnd, false)).append('\t').append(calls.charAt(rnd.nextInt(3)));
+            }
+            sb.append('\n');
+        }
+
+        _assertSame(ResParser.class, _write("d.res", sb));
+    }
+
+    private static String _colNames(final String delim, final String after) {
+        final StringBuilder sb = new StringBuilder();
+        for (int c = 0; c < NUM_COLS; c++) {
+            sb.append(delim).append('S').append(c).append(after);
+        }
+        return sb.toString();
+    }
+
+    private static void _appendRows(final StringBuilder sb,
+                                    final String nl,
+                                    final boolean desc,
+                                    final boolean commentsAndEmpties,
+                                    final boolean missing,
+                                    final boolean pcl) {
+        final Random rnd = new Random(149);
+        for (int r = 0; r < NUM_ROWS; r++) {
+            sb.append('G').append(r);
+            if (desc) {
+                sb.append('\t').append(r % 7 == 0 && !pcl ? "" : "desc é " + r);
+            }
+            if (pcl) {
+                sb.append("\t1");
+            }
+            for (int c = 0; c < NUM_COLS; c++) {
+                sb.append('\t').append(_value(rnd, missing));
+            }
+            sb.append(nl);
+
+            if (commentsAndEmpties && r % 3000 == 17) {
+                sb.append("#note ").append(r).append(nl);
+            }
+            if (commentsAndEmpties && r % 2000 == 5) {
+                sb.append(nl);
+            }
+        }
+    }
+
+    private static String _value(final Random rnd, final boolean missing) {
+        final double r = rnd.nextDouble();
+        if (missing && r < 0.02) {
+            return "";
+        } else if (missing && r < 0.04) {
+            return "NaN";
+        } else if (r < 0.1) {
+            return String.valueOf(rnd.nextInt(5500) - 500);
+        } else if (r < 0.15) {
+            return String.valueOf((float) (rnd.nextGaussian() * 1e6));
+        } else {
+            return String.format("%.4f", rnd.nextGaussian() * 3);
+        }
+    }
+
+    private File _write(final String name, final StringBuilder sb) throws Exception {
+        final File file = fTmp.newFile(name);
+        final OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(sb.toString().getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+        return file;
+    }
+
+    // @note a new parser for each parse, as ParserFactory does -- a parser keeps the comments of what it parsed
+    private static void _assertSame(final Class parserClass, final File file) throws Exception {
+        // @note the pcl parser is given the full path
+        final String name = parserClass == PclParser.class ? file.getPath() : file.getName();
+
+        final InputStream is = new BufferedInputStream(new FileInputStream(file));
+        final Dataset serial;
+        try {
+            serial = (Dataset) ((AbstractParser) parserClass.newInstance()).parse(name, is).get(0);
+        } finally {
+            is.close();
+        }
+
+        final Object parser = parserClass.newInstance();
+        final List chunked;
+        if (parser instanceof GctParser) {
+            chunked = ((GctParser) parser).parseChunked(name, file, NUM_THREADS);
+        } else if (parser instanceof TxtDatasetParser) {
+            chunked = ((TxtDatasetParser) parser).parseChunked(name, file, NUM_THREADS);
+        } else if (parser instanceof PclParser) {
+            chunked = ((PclParser) parser).parseChunked(name, file, NUM_THREADS);
+        } else {
+            chunked = ((ResParser) parser).parseChunked(name, file, NUM_THREADS);
+        }
+
+        assertNotNull(file.getName() + " was not parsed in chunks", chunked);
+        assertEquals(NUM_ROWS, serial.getNumRow());
+
+        // line by line, so that a failure shows just the first difference
+        final List<String> expected = _describe(serial);
+        final List<String> actual = _describe((Dataset) chunked.get(0));
+        for (int i = 0; i < Math.min(expected.size(), actual.size()); i++) {
+            assertEquals(file.getName() + " line: " + i, expected.get(i), actual.get(i));
+        }
+        assertEquals(file.getName() + " # of lines", expected.size(), actual.size());
+    }
+
+    // the names, descriptions, values (as bits) and comment of a dataset, and its calls if any
+    private static List<String> _describe(final Dataset ds) {
+        final List<String> lines = new ArrayList<String>();
+        lines.add(ds.getName() + " " + ds.getNumRow() + " x " + ds.getNumCol() + " " + ds.getColumnNames() + " " + ds.getComment());
+
+        final FeatureAnnot fann = ds.getAnnot().getFeatureAnnot();
+        for (int r = 0; r < ds.getNumRow(); r++) {
+            final StringBuilder sb = new StringBuilder(ds.getRowName(r)).append(' ').append(fann.getNativeDesc(ds.getRowName(r)));
+            for (int c = 0; c < ds.getNumCol(); c++) {
+                sb.append(' ').append(Float.floatToRawIntBits(ds.getElement(r, c)));
+            }
+            lines.add(sb.toString());
+        }
+
+        if (ds instanceof DefaultDataset && ((DefaultDataset) ds).getAPMMatrix() != null) {
+            final Matrix apm = ((DefaultDataset) ds).getAPMMatrix();
+            for (int r = 0; r < apm.getNumRow(); r++) {
+                final StringBuilder sb = new StringBuilder("calls");
+                for (int c = 0; c < apm.getNumCol(); c++) {
+                    sb.append(' ').append(apm.getElement(r, c));
+                }
+                lines.add(sb.toString());
+            }
+        }
+
+        return lines;
+    }
+
+} // End class ChunkedParseTest
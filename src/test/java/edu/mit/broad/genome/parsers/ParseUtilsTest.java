@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.parsers;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * ParseUtils.parseFloat of bytes gives the same float as Float.parseFloat of the String (or the same NumberFormatException)
+ *
+ * @author Aravind Subramanian
+ */
+public class ParseUtilsTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final String[] FIXED = new String[]{
+            "0", "-0", "+0", "0.", ".0", "-.0", "00012", "1e10", "1e-10", "1E+10", "1e11", "1e-11",
+            "16777215", "16777216", "16777217", "1677721.5", "-16777215e10", "16777215e-10", "9999999", "99999999",
+            "0.1", "0.2", "0.3", "0.0000000001", "0.00000000001", "123.456e-3", "-1.5e+3",
+            "3.4028235e38", "3.4028236e38", "1.4e-45", "7e-46", "1e39", "1e-46", "65504", "65520",
+            "NaN", "-NaN", "Infinity", "-Infinity", "+Infinity", "0x10", "0x1p3", "1f", "1d", "1F", " 1.5", "1.5 ", "\t2",
+            "-", "+", ".", "e5", ".e5", "1e", "1e+", "1e-", "--1", "+-1", "1..2", "1.2.3", "1e5.5", "1_0", "abc", "1,5"};
+
+    @Test
+    public void testFixed() {
+        for (int i = 0; i < FIXED.length; i++) {
+            _assertSame(FIXED[i]);
+        }
+    }
+
+    @Test
+    public void testRandomDecimals() {
+        final Random rnd = new Random(11);
+        for (int i = 0; i < 300000; i++) {
+            final StringBuilder sb = new StringBuilder();
+            if (rnd.nextInt(4) == 0) {
+                sb.append(rnd.nextBoolean() ? '-' : '+');
+            }
+
+            final int numDigits = rnd.nextInt(10);
+            for (int d = 0; d < numDigits; d++) {
+                sb.append((char) ('0' + rnd.nextInt(10)));
+            }
+
+            if (rnd.nextInt(3) > 0) {
+                sb.append('.');
+                final int numFracDigits = rnd.nextInt(10);
+                for (int d = 0; d < numFracDigits; d++) {
+                    sb.append((char) ('0' + rnd.nextInt(10)));
+                }
+            }
+
+            if (rnd.nextInt(4) == 0) {
+                sb.append(rnd.nextBoolean() ? 'e' : 'E');
+                if (rnd.nextBoolean()) {
+                    sb.append(rnd.nextBoolean() ? '-' : '+');
+                }
+                final int numExpDigits = rnd.nextInt(3);
+                for (int d = 0; d < numExpDigits; d++) {
+                    sb.append((char) ('0' + rnd.nextInt(10)));
+                }
+            }
+
+            if (sb.length() != 0) {
+                _assertSame(sb.toString());
+            }
+        }
+    }
+
+    @Test
+    public void testRandomFloats() {
+        final Random rnd = new Random(149);
+        for (int i = 0; i < 100000; i++) {
+            final float f = i % 2 == 0 ? Float.intBitsToFloat(rnd.nextInt()) : (float) (rnd.nextGaussian() * 100);
+            _assertSame(Float.toString(f));
+            _assertSame(String.valueOf((double) f));
+        }
+    }
+
+    // parses the string from the middle of a bigger buffer, as the parsers do
+    private static void _assertSame(final String s) {
+        final byte[] bytes = ("12\t" + s + "\t34").getBytes(ASCII);
+        final int from = 3;
+        final int to = bytes.length - 3;
+
+        String expected;
+        try {
+            expected = String.valueOf(Float.floatToRawIntBits(Float.parseFloat(s)));
+        } catch (NumberFormatException e) {
+            expected = e.getMessage();
+        }
+
+        String actual;
+        try {
+            actual = String.valueOf(Float.floatToRawIntBits(ParseUtils.parseFloat(bytes, from, to, ASCII)));
+        } catch (NumberFormatException e) {
+            actual = e.getMessage();
+        }
+
+        assertEquals(">" + s + "<", expected, actual);
+    }
+
+} // End class ParseUtilsTest